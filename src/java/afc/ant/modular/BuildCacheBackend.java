@@ -0,0 +1,83 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+
+/**
+ * <p>An interface of an Ant type that stores the entries of a {@link ModuleBuildCache}
+ * remotely so that the output files of the modules could be shared between machines
+ * (e.g. between continuous integration agents and developer machines). An instance of
+ * this type is passed to a {@code ModuleBuildCache} as a nested element whose name is
+ * defined by the name of the Ant type.</p>
+ * 
+ * <p>Each entry is identified by a key which is a string of hexadecimal digits. The content
+ * of an entry is a file that is opaque to the backend. The entries are not expected to be
+ * ever modified once they are stored. The backend is free to evict any entry at any time.</p>
+ * 
+ * <p>The functions of a {@code BuildCacheBackend} are invoked by multiple threads
+ * simultaneously.</p>
+ * 
+ * @see HttpBuildCacheBackend
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public interface BuildCacheBackend
+{
+    /**
+     * <p>Checks that this backend is configured correctly. It is invoked once before the build
+     * that uses this backend is started, so that a misconfigured backend fails the build
+     * instead of each transfer.</p>
+     * 
+     * @throws BuildException if this backend is configured incorrectly.
+     */
+    void validate() throws BuildException;
+    
+    /**
+     * <p>Downloads the entry with a given key into a given file. The file is overwritten.
+     * If there is no entry with this key then the content of the file is undefined.</p>
+     * 
+     * @param key the key of the entry. It is never {@code null}.
+     * @param file the file the entry is to be written to. It is never {@code null}.
+     * 
+     * @return {@code true} if the entry is downloaded; {@code false} if there is no entry
+     *      with the given key.
+     * 
+     * @throws IOException if the entry cannot be downloaded.
+     */
+    boolean get(String key, File file) throws IOException;
+    
+    /**
+     * <p>Uploads a given file as the entry with a given key. If the entry with this key is
+     * already stored then it could be either replaced or preserved.</p>
+     * 
+     * @param key the key of the entry. It is never {@code null}.
+     * @param file the file that holds the content of the entry. It is never {@code null}.
+     * 
+     * @throws IOException if the entry cannot be uploaded.
+     */
+    void put(String key, File file) throws IOException;
+}
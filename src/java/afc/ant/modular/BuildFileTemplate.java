@@ -0,0 +1,248 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.Vector;
+
+import org.apache.tools.ant.ExtensionPoint;
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.UnknownElement;
+import org.apache.tools.ant.helper.AntXMLContext;
+import org.apache.tools.ant.helper.ProjectHelper2;
+
+/**
+ * <p>Holds the parsed form of an Ant build file so that multiple Ant {@link Project projects}
+ * can be populated with its content without the build file being read and parsed for each
+ * of them. It is used by {@link CallTargetForModules} to avoid parsing the master build file
+ * for each module processed.</p>
+ * 
+ * <p>The build file is parsed into a template project whose top-level tasks are <em>not</em>
+ * executed. Each time a project is {@link #populate(Project) populated} the targets of the
+ * template are copied to this project and the top-level tasks are executed within it, which
+ * is what Ant does while parsing a build file. That is, the project populated is equivalent
+ * to the project that is created by {@code <ant>} except that the build file is not re-read.</p>
+ * 
+ * <p>Build files that contain top-level {@code <import>} or {@code <include>} tasks cannot be
+ * cached because these tasks need the parser state. {@link #load(Project, File)} returns
+ * {@code null} for such build files.</p>
+ * 
+ * <p>{@code BuildFileTemplate} requires Ant 1.8.0 or later. It is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class BuildFileTemplate
+{
+    private final Project template;
+    private final ProjectHelper helper;
+    private final Target implicitTarget;
+    private final ArrayList<Target> targets;
+    // The user properties that are set by the parser (e.g. 'ant.file.<projectName>').
+    private final HashMap<String, Object> parserUserProperties;
+    // The IDs of the references to the project itself (the project attributes 'name' and 'id').
+    private final ArrayList<String> selfReferences;
+    
+    private BuildFileTemplate(final Project template, final ProjectHelper helper, final Target implicitTarget)
+    {
+        this.template = template;
+        this.helper = helper;
+        this.implicitTarget = implicitTarget;
+        
+        targets = new ArrayList<Target>();
+        for (final Object target : template.getTargets().values()) {
+            if (target != implicitTarget) {
+                targets.add((Target) target);
+            }
+        }
+        
+        parserUserProperties = new HashMap<String, Object>();
+        for (final Map.Entry<?, ?> prop : ((Hashtable<?, ?>) template.getUserProperties()).entrySet()) {
+            parserUserProperties.put((String) prop.getKey(), prop.getValue());
+        }
+        
+        selfReferences = new ArrayList<String>();
+        for (final Map.Entry<?, ?> ref : ((Hashtable<?, ?>) template.getReferences()).entrySet()) {
+            if (ref.getValue() == template) {
+                selfReferences.add((String) ref.getKey());
+            }
+        }
+    }
+    
+    /**
+     * <p>Parses a given build file into a {@code BuildFileTemplate}. The top-level tasks of
+     * the build file are not executed.</p>
+     * 
+     * @param project the project the template project is a sub-project of. It must be
+     *      non-{@code null}.
+     * @param buildFile the build file to be parsed. It must be non-{@code null}.
+     * 
+     * @return the {@code BuildFileTemplate} that holds the build file parsed or {@code null}
+     *      if this build file cannot be cached.
+     * 
+     * @throws org.apache.tools.ant.BuildException if the build file cannot be parsed.
+     */
+    static BuildFileTemplate load(final Project project, final File buildFile)
+    {
+        assert project != null;
+        assert buildFile != null;
+        
+        final Project template = project.createSubProject();
+        final TemplateProjectHelper helper = new TemplateProjectHelper();
+        final Target implicitTarget = helper.parseTopLevelFile(template, buildFile);
+        
+        for (final Task task : implicitTarget.getTasks()) {
+            if (needsParser(task)) {
+                return null;
+            }
+        }
+        return new BuildFileTemplate(template, helper, implicitTarget);
+    }
+    
+    /**
+     * <p>Populates a given project with the content of the build file this
+     * {@code BuildFileTemplate} holds, as if this project were configured by
+     * {@link ProjectHelper#configureProject(Project, File)}. In particular, the top-level
+     * tasks are executed within this project.</p>
+     * 
+     * <p>The project is expected to be initialised as {@code <ant>} initialises the projects
+     * it creates before the build file is parsed.</p>
+     * 
+     * @param project the project to be populated. It must be non-{@code null}.
+     */
+    void populate(final Project project)
+    {
+        assert project != null;
+        
+        project.addReference(MagicNames.REFID_PROJECT_HELPER, helper);
+        
+        // The same rule as ProjectHelper2 uses: the property 'basedir', if set, wins.
+        if (project.getProperty(MagicNames.PROJECT_BASEDIR) != null) {
+            project.setBasedir(project.getProperty(MagicNames.PROJECT_BASEDIR));
+        } else {
+            project.setBaseDir(template.getBaseDir());
+        }
+        if (template.getName() != null) {
+            project.setName(template.getName());
+        }
+        if (template.getDefaultTarget() != null) {
+            project.setDefault(template.getDefaultTarget());
+        }
+        for (int i = 0, n = selfReferences.size(); i < n; ++i) {
+            project.addReference(selfReferences.get(i), project);
+        }
+        for (final Map.Entry<String, Object> prop : parserUserProperties.entrySet()) {
+            project.setUserProperty(prop.getKey(), String.valueOf(prop.getValue()));
+        }
+        
+        final Vector<Target> targetsCopied = new Vector<Target>(targets.size() + 1);
+        final Target implicitTargetCopy;
+        /* The template is never modified after it is loaded so concurrent copying is safe
+         * in theory. However, Ant does not document UnknownElement#copy(Project) as
+         * thread-safe so copying is serialised.
+         */
+        synchronized (this) {
+            implicitTargetCopy = copyTarget(implicitTarget, project);
+            for (int i = 0, n = targets.size(); i < n; ++i) {
+                targetsCopied.add(copyTarget(targets.get(i), project));
+            }
+        }
+        
+        project.addTarget("", implicitTargetCopy);
+        for (int i = 0, n = targetsCopied.size(); i < n; ++i) {
+            project.addOrReplaceTarget(targetsCopied.get(i));
+        }
+        // This reference is used by Ant to evaluate the project description.
+        targetsCopied.add(0, implicitTargetCopy);
+        project.addReference(ProjectHelper2.REFID_TARGETS, targetsCopied);
+        
+        implicitTargetCopy.execute();
+    }
+    
+    private static Target copyTarget(final Target target, final Project project)
+    {
+        final Target copy = target instanceof ExtensionPoint ? new ExtensionPoint() : new Target();
+        copy.setProject(project);
+        copy.setName(target.getName());
+        copy.setLocation(target.getLocation());
+        copy.setDescription(target.getDescription());
+        if (target.getIf() != null) {
+            copy.setIf(target.getIf());
+        }
+        if (target.getUnless() != null) {
+            copy.setUnless(target.getUnless());
+        }
+        for (final Enumeration<?> deps = target.getDependencies(); deps.hasMoreElements();) {
+            copy.addDependency((String) deps.nextElement());
+        }
+        for (final Task task : target.getTasks()) {
+            final UnknownElement taskCopy = ((UnknownElement) task).copy(project);
+            taskCopy.setOwningTarget(copy);
+            copy.addTask(taskCopy);
+        }
+        return copy;
+    }
+    
+    // Returns true if the given top-level task must be executed while the build file is being parsed.
+    private static boolean needsParser(final Task task)
+    {
+        if (!(task instanceof UnknownElement)) {
+            return true;
+        }
+        final UnknownElement element = (UnknownElement) task;
+        final String uri = ProjectHelper.extractUriFromComponentName(element.getTaskType());
+        if (uri.length() != 0 && !uri.equals(ProjectHelper.ANT_CORE_URI)) {
+            return false;
+        }
+        final String name = ProjectHelper.extractNameFromComponentName(element.getTaskType());
+        return name.equals("import") || name.equals("include");
+    }
+    
+    /* Parses the top-level build file as ProjectHelper2#parse(Project, Object) does
+     * except that the top-level tasks are not executed.
+     */
+    private static class TemplateProjectHelper extends ProjectHelper2
+    {
+        Target parseTopLevelFile(final Project project, final File buildFile)
+        {
+            final AntXMLContext context = new AntXMLContext(project);
+            project.addReference(MagicNames.REFID_PROJECT_HELPER, this);
+            project.addReference(REFID_TARGETS, context.getTargets());
+            context.setCurrentTargets(new HashMap<String, Target>());
+            getImportStack().addElement(buildFile);
+            
+            parse(project, buildFile, new RootHandler(context, getMainHandler()));
+            resolveExtensionOfAttributes(project);
+            
+            return context.getImplicitTarget();
+        }
+    }
+}
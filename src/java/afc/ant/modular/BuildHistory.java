@@ -0,0 +1,146 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * <p>Holds the durations of the latest builds of {@link Module modules}. The durations
+ * are identified by the module {@link Module#getPath() paths} and are persisted in a file
+ * so that they are available for the next build. {@link CallTargetForModules} uses them
+ * to estimate the cost of building each module if the modules are built in parallel.</p>
+ * 
+ * <p>The history file is a properties file which maps module paths to durations in
+ * milliseconds. The modules that are not built are kept in the history file as is, and
+ * the modules that are not in the history file are considered to be new modules. That is,
+ * it is safe to add modules to or remove modules from the build. The durations that are
+ * not valid (e.g. if the history file is edited manually) are ignored.</p>
+ * 
+ * <p>{@code BuildHistory} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class BuildHistory
+{
+    private final HashMap<String, Long> durations;
+    
+    private BuildHistory(final HashMap<String, Long> durations)
+    {
+        this.durations = durations;
+    }
+    
+    /**
+     * <p>Loads the build history from a given file. If this file does not exist then
+     * an empty build history is returned.</p>
+     * 
+     * @param file the history file. It must be non-{@code null}.
+     * 
+     * @return the build history loaded. It is never {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the history file is read.
+     */
+    static BuildHistory load(final File file) throws IOException
+    {
+        assert file != null;
+        
+        final Properties props = PropertiesFiles.load(file);
+        final HashMap<String, Long> durations = new HashMap<String, Long>();
+        for (final Map.Entry<Object, Object> entry : props.entrySet()) {
+            try {
+                final long duration = Long.parseLong((String) entry.getValue());
+                if (duration >= 0) {
+                    durations.put((String) entry.getKey(), duration);
+                }
+            }
+            catch (NumberFormatException ex) {
+                // An invalid entry is ignored. The module is considered as a new one.
+            }
+        }
+        return new BuildHistory(durations);
+    }
+    
+    /**
+     * <p>Creates an empty build history.</p>
+     * 
+     * @return the build history created. It is never {@code null}.
+     */
+    static BuildHistory empty()
+    {
+        return new BuildHistory(new HashMap<String, Long>());
+    }
+    
+    /**
+     * <p>Returns the durations of the latest builds of modules in milliseconds mapped
+     * to the module paths. The map returned is an unmodifiable snapshot of this
+     * {@code BuildHistory}. It is never {@code null}.</p>
+     * 
+     * @return the module build durations.
+     */
+    synchronized Map<String, Long> getDurations()
+    {
+        return Collections.unmodifiableMap(new HashMap<String, Long>(durations));
+    }
+    
+    /**
+     * <p>Records the duration of the build of the module with a given path. If the history
+     * already contains a duration of this module then the average of the old and the new
+     * durations is recorded so that occasional outliers are smoothed.</p>
+     * 
+     * @param path the module path. It must be non-{@code null}.
+     * @param duration the build duration in milliseconds. It must be non-negative.
+     */
+    synchronized void moduleBuilt(final String path, final long duration)
+    {
+        assert path != null;
+        assert duration >= 0;
+        
+        final Long oldDuration = durations.get(path);
+        durations.put(path, oldDuration == null ? duration : (oldDuration.longValue() + duration) / 2);
+    }
+    
+    /**
+     * <p>Saves this build history to a given file. If the file already exists then it
+     * is overwritten.</p>
+     * 
+     * @param file the history file. It must be non-{@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the history file is written.
+     */
+    void save(final File file) throws IOException
+    {
+        assert file != null;
+        
+        final Properties props = new Properties();
+        synchronized (this) {
+            for (final Map.Entry<String, Long> entry : durations.entrySet()) {
+                props.setProperty(entry.getKey(), entry.getValue().toString());
+            }
+        }
+        PropertiesFiles.save(props, file, "Module build durations in milliseconds");
+    }
+}
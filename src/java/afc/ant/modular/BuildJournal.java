@@ -0,0 +1,262 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Records the {@link Module modules} that are built successfully so that a build that has
+ * failed could be resumed from the point it has failed at. {@link CallTargetForModules} uses
+ * it to skip the modules that are built by the previous build if this build is resumed.</p>
+ * 
+ * <p>Each module is recorded together with a fingerprint of the configuration it is built
+ * with, that is, the name of the target invoked and the parameters passed to the module-specific
+ * project. A module is considered built only if it is built with the same configuration.</p>
+ * 
+ * <p>The journal file is a text file in the UTF-8 encoding that is appended to as soon as
+ * a module is built so that the modules built are recorded even if the build is terminated
+ * abnormally. Each line holds either the fingerprint and the path of a module built, separated
+ * by a space, or the character {@code '-'} and the path of a module whose record is
+ * invalidated. The lines that are not valid (e.g. the last line that is written partially)
+ * are ignored.</p>
+ * 
+ * <p>{@code BuildJournal} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class BuildJournal
+{
+    private static final String ENCODING = "UTF-8";
+    private static final int FINGERPRINT_LENGTH = Digests.FINGERPRINT_LENGTH;
+    
+    private final File file;
+    private final String configuration;
+    // The fingerprints of the modules built by the previous builds mapped to the module paths.
+    private final HashMap<String, String> builtModules;
+    // The fingerprints of the configurations mapped to the target names.
+    private final HashMap<String, String> fingerprints = new HashMap<String, String>();
+    // The modules that are skipped by this build because they are built by the previous builds.
+    private final ConcurrentHashMap<Module, Boolean> resumedModules = new ConcurrentHashMap<Module, Boolean>();
+    // It is null if this journal is closed or it cannot be written.
+    private Writer out;
+    private boolean closed;
+    
+    private BuildJournal(final File file, final String configuration, final HashMap<String, String> builtModules,
+            final Writer out)
+    {
+        this.file = file;
+        this.configuration = configuration;
+        this.builtModules = builtModules;
+        this.out = out;
+    }
+    
+    /**
+     * <p>Opens the journal stored in a given file. If the journal is resumed then the modules
+     * recorded in this file are loaded and the modules built are appended to this file.
+     * Otherwise the file is truncated.</p>
+     * 
+     * @param file the journal file. It must be non-{@code null}.
+     * @param configuration the configuration the modules are built with that is shared by all
+     *      the modules. It must be non-{@code null}.
+     * @param resume {@code true} if the modules built by the previous builds are to be skipped.
+     * 
+     * @return the journal opened. It is never {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the journal file is read or opened
+     *      for writing.
+     */
+    static BuildJournal open(final File file, final String configuration, final boolean resume)
+            throws IOException
+    {
+        assert file != null;
+        assert configuration != null;
+        
+        final HashMap<String, String> builtModules = new HashMap<String, String>();
+        if (resume && file.isFile()) {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+            try {
+                String line;
+                while ((line = in.readLine()) != null) {
+                    if (line.length() > 2 && line.charAt(0) == '-' && line.charAt(1) == ' ') {
+                        builtModules.remove(line.substring(2));
+                    } else if (line.length() > FINGERPRINT_LENGTH + 1 && line.charAt(FINGERPRINT_LENGTH) == ' ') {
+                        builtModules.put(line.substring(FINGERPRINT_LENGTH + 1), line.substring(0, FINGERPRINT_LENGTH));
+                    }
+                    // An invalid line is ignored.
+                }
+            }
+            finally {
+                in.close();
+            }
+        }
+        
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", dir));
+        }
+        final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, resume), ENCODING));
+        if (resume) {
+            // The last line could be written partially by a build terminated abnormally.
+            out.write('\n');
+            out.flush();
+        }
+        return new BuildJournal(file, configuration, builtModules, out);
+    }
+    
+    /**
+     * <p>Determines whether or not a given module is built by the previous builds with a given
+     * target so that it could be skipped by this build. A module is skipped only if all modules
+     * it depends upon are skipped, too. Otherwise its record is invalidated because the module
+     * is to be re-built. The modules this module depends upon are expected to be passed to this
+     * function before this module is passed.</p>
+     * 
+     * @param module the module to be checked. It must be non-{@code null}.
+     * @param target the name of the target the module is to be built with. It must be
+     *      non-{@code null}.
+     * 
+     * @return {@code true} if the module is to be skipped; {@code false} otherwise.
+     * 
+     * @throws IOException if an I/O error occurs while the record of the module is invalidated.
+     */
+    boolean resumeModule(final Module module, final String target) throws IOException
+    {
+        assert module != null;
+        assert target != null;
+        
+        final String path = module.getPath();
+        final String fingerprint = fingerprint(target);
+        final String builtFingerprint;
+        synchronized (this) {
+            builtFingerprint = builtModules.remove(path);
+        }
+        if (builtFingerprint == null) {
+            return false;
+        }
+        if (builtFingerprint.equals(fingerprint) && dependenciesResumed(module)) {
+            resumedModules.put(module, Boolean.TRUE);
+            return true;
+        }
+        // The module is re-built. Its record must not be used if its build fails.
+        write("- " + path);
+        return false;
+    }
+    
+    private boolean dependenciesResumed(final Module module)
+    {
+        final Module[] deps = module.dependencies;
+        for (int i = 0; i < deps.length; ++i) {
+            if (!resumedModules.containsKey(deps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * <p>Records a given module as built with a given target. The record is written to
+     * the journal file immediately. If a record cannot be written then no record is written
+     * to this journal after that.</p>
+     * 
+     * @param module the module built. It must be non-{@code null}.
+     * @param target the name of the target the module is built with. It must be
+     *      non-{@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the record is written.
+     */
+    void moduleBuilt(final Module module, final String target) throws IOException
+    {
+        assert module != null;
+        assert target != null;
+        
+        write(fingerprint(target) + ' ' + module.getPath());
+    }
+    
+    private synchronized void write(final String line) throws IOException
+    {
+        if (out == null) {
+            return;
+        }
+        try {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+        catch (IOException ex) {
+            final Writer journalOut = out;
+            out = null;
+            try {
+                journalOut.close();
+            }
+            catch (IOException ex2) {
+                // The original exception is reported.
+            }
+            throw ex;
+        }
+    }
+    
+    /**
+     * <p>Closes this journal. If the build has succeeded then the journal file is deleted
+     * because there is nothing to resume. It is safe to close a journal that is already
+     * closed.</p>
+     * 
+     * @param buildSucceeded {@code true} if all the modules are built successfully.
+     * 
+     * @throws IOException if an I/O error occurs while the journal file is closed or deleted.
+     */
+    synchronized void close(final boolean buildSucceeded) throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (out != null) {
+            final Writer journalOut = out;
+            out = null;
+            journalOut.close();
+        }
+        if (buildSucceeded && !file.delete() && file.exists()) {
+            throw new IOException(MessageFormat.format("Unable to delete the file ''{0}''.", file));
+        }
+    }
+    
+    private synchronized String fingerprint(final String target)
+    {
+        String fingerprint = fingerprints.get(target);
+        if (fingerprint == null) {
+            fingerprint = Digests.sha1(configuration + '\n' + target);
+            fingerprints.put(target, fingerprint);
+        }
+        return fingerprint;
+    }
+}
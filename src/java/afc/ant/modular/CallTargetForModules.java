@@ -23,24 +23,48 @@
 package afc.ant.modular;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.tools.ant.BuildEvent;
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
 import org.apache.tools.ant.Location;
 import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.PathTokenizer;
 import org.apache.tools.ant.Project;
 import org.apache.tools.ant.ProjectComponent;
+import org.apache.tools.ant.ProjectHelper;
 import org.apache.tools.ant.Task;
 import org.apache.tools.ant.taskdefs.Ant;
 import org.apache.tools.ant.taskdefs.Property;
 import org.apache.tools.ant.types.Path;
+import org.apache.tools.ant.types.PatternSet;
 import org.apache.tools.ant.types.PropertySet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.resources.FileResource;
+import org.apache.tools.ant.types.resources.Union;
+import org.apache.tools.ant.util.FileUtils;
 
 /**
  * <p>An Ant task that executes a target for each module specified and all their dependee modules.
@@ -68,7 +92,9 @@ import org.apache.tools.ant.types.PropertySet;
  * modules could be processed simultaneously, each within its own thread. There is no way to
  * perform parallel processing of modules that are dependent, directly or indirectly, one upon
  * another. The number of threads to be used is defined by the attribute
- * {@link #setThreadCount(int) threadCount}.</p>
+ * {@link #setThreadCount(int) threadCount}. Module metadata could be loaded in parallel, too,
+ * if the module loader allows for this. The number of threads that load module metadata is
+ * defined by the attribute {@link #setLoaderThreadCount(int) loaderThreadCount}.</p>
  * 
  * <h3>Task input</h3>
  * <h4>Attributes</h4>
@@ -99,6 +125,98 @@ import org.apache.tools.ant.types.PropertySet;
  *          independent modules in parallel. If <em>1</em> is passed then modules are built
  *          sequentally. It must be a positive value.</td>
  *      <td>{@code 1}</td></tr>
+ *  <tr><td>{@link #setLoaderThreadCount(int) loaderThreadCount}</td>
+ *      <td>no</td>
+ *      <td>The number of threads to be used to load module metadata in parallel. If <em>1</em>
+ *          is passed then module metadata is loaded by a single thread. If a greater value is
+ *          passed then the module loader must allow for loading modules by multiple threads
+ *          simultaneously. It must be a positive value.</td>
+ *      <td>{@code 1}</td></tr>
+ *  <tr><td>{@link #setSchedulingPolicy(String) schedulingPolicy}</td>
+ *      <td>no</td>
+ *      <td>The policy of choosing the next module to build if multiple modules are ready to be
+ *          built in parallel. The value {@code default} means that the order is undefined.
+ *          The value {@code criticalPath} means that the module with the longest chain of
+ *          modules that depend upon it is built first. The value {@code buildTime} means that
+ *          the module with the most time-consuming chain of modules that depend upon it is built
+ *          first. The build durations are taken from the <em>historyFile</em>. It has no effect
+ *          if modules are built sequentally.</td>
+ *      <td>{@code default}</td></tr>
+ *  <tr><td>{@link #setOrder(String) order}</td>
+ *      <td>no</td>
+ *      <td>The order in which modules are built. The value {@code normal} means that each module
+ *          is built after all modules it depends upon are built. The value {@code reverse} means
+ *          that each module is built after all modules that depend upon it are built, which is
+ *          the order needed to clean up or undeploy modules. Modules are built in parallel in
+ *          either order. The value {@code reverse} cannot be used in the incremental, resume
+ *          or streaming mode, or together with the element <em>moduleBuildCache</em>.</td>
+ *      <td>{@code normal}</td></tr>
+ *  <tr><td>{@link #setHistoryFile(File) historyFile}</td>
+ *      <td>no</td>
+ *      <td>The file where the durations of module builds are recorded. They are used by the
+ *          scheduling policy {@code buildTime}. If it is undefined then the build durations
+ *          are not recorded.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setJournalFile(File) journalFile}</td>
+ *      <td>no</td>
+ *      <td>The file where the modules built successfully are recorded as soon as they are built,
+ *          together with a fingerprint of the target and the parameters they are built with.
+ *          It is used to resume a failed build. The file is deleted once all modules are built
+ *          successfully. If it is undefined then the modules built are not recorded.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setResume(boolean) resume}</td>
+ *      <td>no</td>
+ *      <td>Indicates whether or not the modules recorded in the <em>journalFile</em> are to be
+ *          skipped. If {@code true} is set then the modules that are built by the previous
+ *          build with the same target and parameters are not built again unless some module
+ *          they depend upon is built. The attribute <em>journalFile</em> must be defined in
+ *          this case. If {@code false} is set then all modules are built.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setIncremental(boolean) incremental}</td>
+ *      <td>no</td>
+ *      <td>Indicates whether or not the modules that are not changed since their latest successful
+ *          build are to be skipped. A module is considered changed if its input files, the target
+ *          and the parameters it is built with, or some module it depends upon are changed.
+ *          The attribute <em>fingerprintFile</em> must be defined if {@code true} is set.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setFingerprintFile(File) fingerprintFile}</td>
+ *      <td>no</td>
+ *      <td>The file where the fingerprints of the latest successful module builds are recorded.
+ *          It is used by the incremental mode.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setOutputsAttribute(String) outputsAttribute}</td>
+ *      <td>no</td>
+ *      <td>The name of the module attribute that holds the locations of the module output files.
+ *          In the incremental mode, the modules that depend upon a module that is rebuilt
+ *          are skipped if the output files of this module are not changed by the build.
+ *          It must be defined if the element <em>moduleBuildCache</em> is defined.</td>
+ *      <td>N/A</td></tr>
+ *  <tr><td>{@link #setStreaming(boolean) streaming}</td>
+ *      <td>no</td>
+ *      <td>Indicates whether or not modules are to be built while the remaining modules are still
+ *          being loaded. If {@code true} is set then each module is built as soon as it and all
+ *          modules it depends upon are loaded. If {@code false} is set then the metadata of all
+ *          modules is loaded before the first module is built. It has no effect if modules are
+ *          built sequentally. Only the scheduling policy {@code default} is supported in the
+ *          streaming mode.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setKeepGoing(boolean) keepGoing}</td>
+ *      <td>no</td>
+ *      <td>Indicates whether or not the build continues after the build of some module fails.
+ *          If {@code true} is set then only the modules that depend (directly or indirectly)
+ *          upon the failed modules are skipped, all other modules are built, and all build
+ *          failures are reported together when the build finishes. If {@code false} is set
+ *          then the build stops at the first failure.</td>
+ *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setFailFast(boolean) failFast}</td>
+ *      <td>no</td>
+ *      <td>Indicates whether or not the builds of other modules that are in progress are
+ *          cancelled if the build of some module fails. If {@code true} is set then the threads
+ *          that build these modules are interrupted and the module-specific Ant projects fail
+ *          before the next target or task is started. If {@code false} is set then these modules
+ *          are built completely before the build fails. It has no effect if modules are built
+ *          sequentally. It cannot be used together with <em>keepGoing</em>.</td>
+ *      <td>{@code false}</td></tr>
  *  <tr><td>{@link #setInheritAll(boolean) inheritAll}</td>
  *      <td>no</td>
  *      <td>Indicates whether or not the properties of the current Ant project are to be passed
@@ -115,6 +233,14 @@ import org.apache.tools.ant.types.PropertySet;
  *          the references are passed to each module-specific Ant project. If {@code false} is set
  *          then the references are not passed.</td>
  *      <td>{@code false}</td></tr>
+ *  <tr><td>{@link #setCacheBuildFile(boolean) cacheBuildFile}</td>
+ *      <td>no</td>
+ *      <td>Indicates whether or not the current build file is to be parsed only once per
+ *          execution of this {@code <callTargetForModules>} task. If {@code true} is set then
+ *          the module-specific Ant projects are populated with the targets of the build file
+ *          parsed. If {@code false} is set then the build file is parsed for each module.
+ *          It requires Ant 1.8.0 or later.</td>
+ *      <td>{@code false}</td></tr>
  * </tbody>
  * </table>
  * <h4>Elements</h4>
@@ -124,11 +250,37 @@ import org.apache.tools.ant.types.PropertySet;
  * must be specified. Multiple nested elements are allowed.</p>
  * <p>Refer to {@link ModuleElement} for the attribute/element description.</p>
  * 
+ * <h5>{@link #createInputs() inputs}</h5>
+ * <p>Defines the input files of each module that are hashed in the incremental mode. The patterns
+ * are applied to the module directory. All files of the module directory except for the files
+ * in its subdirectory {@code build} are the input files if this element is not specified.
+ * The output files of the module (see <em>outputsAttribute</em>) that are located in the module
+ * directory are never input files. It is an optional element. At most one nested element is
+ * allowed.</p>
+ * <p>Refer to the Ant type {@link PatternSet &lt;patternset&gt;} for the attribute/element
+ * description.</p>
+ * 
+ * <h5>{@link #createChangedFiles() changedFiles}</h5>
+ * <p>Defines the files changed since the latest build, e.g. the files listed by the version control
+ * system. Only the modules that own these files and the modules that depend (directly or indirectly)
+ * upon them are built, along with all modules they depend upon. A file is owned by the module with
+ * the longest path that contains this file. The files that are not owned by any module are ignored.
+ * It cannot be used in the streaming mode. It is an optional element. At most one nested element
+ * is allowed.</p>
+ * <p>Any Ant resource collection (e.g. {@code <filelist>}, {@code <fileset>}, or
+ * {@code <resourcelist>}) could be nested into this element.</p>
+ * 
  * <h5>{@link #addConfigured(ModuleLoader) moduleLoaderElement}</h5>
  * <p>Defines a {@link ModuleLoader} that is to be used by this task. One and only one module
  * loader must be defined. The name of the nested element is defined by the name of the Ant type
  * used to pass this instance of {@code ModuleLoader}.</p>
  * 
+ * <h5>{@link #addConfiguredModuleBuildCache(ModuleBuildCache) moduleBuildCache}</h5>
+ * <p>Defines a local cache of module output files. The output files of a module whose
+ * fingerprint is found in the cache are restored instead of the module being built.
+ * It is an optional element. At most one nested element is allowed.</p>
+ * <p>Refer to {@link ModuleBuildCache} for the attribute/element description.</p>
+ * 
  * <h5>{@link #createParam() param}</h5>
  * <p>Represents a property set that is passed to the Ant project created for each module or any
  * project created in that project regardless of what is set to {@link #setInheritAll(boolean)
@@ -200,6 +352,41 @@ public class CallTargetForModules extends Task
     
     // The number of threads used to build modules.
     private int threadCount = 1;
+    private int loaderThreadCount = 1;
+    
+    private SchedulingPolicy schedulingPolicy = SchedulingPolicy.DEFAULT;
+    private Order order = Order.NORMAL;
+    private File historyFile;
+    
+    private File journalFile;
+    // If true then the modules recorded in the journal file are not built.
+    private boolean resume = false;
+    
+    // If true then the modules that are not changed since their latest successful build are not built.
+    private boolean incremental = false;
+    private File fingerprintFile;
+    /* The input files of the modules. All files of a module except for DEFAULT_INPUT_EXCLUDES
+       are its input files if it is null. */
+    private PatternSet inputs;
+    // The patterns of the files of a module that are not its input files if <inputs> is not defined.
+    private static final String[] DEFAULT_INPUT_EXCLUDES = {"build/**"};
+    // The name of the module attribute that defines the module output files. It is used for early cutoff.
+    private String outputsAttribute;
+    // The cache of module output files. It is null if the build cache is disabled.
+    private ModuleBuildCache moduleBuildCache;
+    
+    // If true then modules are built while the module graph is being loaded.
+    private boolean streaming = false;
+    private Union changedFiles;
+    
+    // If true then the modules that do not depend upon failed modules are built after a failure.
+    private boolean keepGoing = false;
+    
+    // If true then the module builds in progress are cancelled after a failure.
+    private boolean failFast = false;
+    
+    // If true then the build file is parsed once and the parsed form is re-used for all modules.
+    private boolean cacheBuildFile = false;
     
     /**
      * <p>Executes this {@code <callTargetForModules>} task. See the
@@ -230,18 +417,115 @@ public class CallTargetForModules extends Task
             }
         }
         
-        final ModuleRegistry registry = new ModuleRegistry(moduleLoader);
+        if (schedulingPolicy == SchedulingPolicy.BUILD_TIME && historyFile == null) {
+            throw new BuildException(
+                    "The attribute 'historyFile' must be defined for the scheduling policy 'buildTime'.");
+        }
+        if (resume && journalFile == null) {
+            throw new BuildException("The attribute 'journalFile' must be defined if the attribute 'resume' is set to true.");
+        }
+        if (incremental && fingerprintFile == null) {
+            throw new BuildException(
+                    "The attribute 'fingerprintFile' must be defined if the attribute 'incremental' is set to true.");
+        }
+        if (moduleBuildCache != null) {
+            if (moduleBuildCache.getDir() == null) {
+                throw new BuildException("The attribute 'dir' of the element <moduleBuildCache> must be defined.");
+            }
+            if (outputsAttribute == null) {
+                throw new BuildException(
+                        "The attribute 'outputsAttribute' must be defined if the element <moduleBuildCache> is defined.");
+            }
+        }
+        if (keepGoing && failFast) {
+            throw new BuildException("The attributes 'keepGoing' and 'failFast' cannot be both set to true.");
+        }
+        final boolean streamingBuild = streaming && threadCount > 1;
+        if (streamingBuild && schedulingPolicy != SchedulingPolicy.DEFAULT) {
+            throw new BuildException(MessageFormat.format(
+                    "The scheduling policy ''{0}'' is not supported in the streaming mode.", schedulingPolicy.name));
+        }
+        if (streamingBuild && changedFiles != null) {
+            throw new BuildException("The element <changedFiles> is not supported in the streaming mode.");
+        }
+        if (order == Order.REVERSE) {
+            /* These modes rely upon the modules being built after the modules they depend upon
+             * (e.g. a module fingerprint includes the fingerprints of its dependee modules).
+             */
+            if (streamingBuild) {
+                throw new BuildException("The order 'reverse' is not supported in the streaming mode.");
+            }
+            if (incremental) {
+                throw new BuildException("The order 'reverse' is not supported in the incremental mode.");
+            }
+            if (resume) {
+                throw new BuildException("The order 'reverse' is not supported if the attribute 'resume' is set to true.");
+            }
+            if (moduleBuildCache != null) {
+                throw new BuildException("The order 'reverse' is not supported if the element <moduleBuildCache> is defined.");
+            }
+        }
         
+        final Execution execution = new Execution();
+        // Is set to true if all modules are built successfully.
+        boolean buildSucceeded = false;
         try {
+            /* The per-execution state is initialised inside the try block so that the state
+             * initialised before a failure is released by the finally block.
+             */
+            if (historyFile != null) {
+                execution.buildHistory = loadBuildHistory();
+            }
+            if (cacheBuildFile) {
+                execution.buildFileTemplate = loadBuildFileTemplate();
+            }
+            if (keepGoing) {
+                execution.failedBuilds = new FailedBuilds();
+            }
+            if (journalFile != null || incremental || moduleBuildCache != null) {
+                execution.buildConfiguration = buildConfiguration();
+            }
+            if (journalFile != null) {
+                execution.buildJournal = openBuildJournal(execution.buildConfiguration);
+            }
+            if (moduleBuildCache != null) {
+                moduleBuildCache.open();
+            }
+            if (incremental || moduleBuildCache != null) {
+                // The build cache needs the module fingerprints even if the incremental mode is off.
+                execution.moduleFingerprints = incremental ? loadModuleFingerprints() : ModuleFingerprints.empty();
+                if (inputs != null) {
+                    execution.inputIncludes = inputs.getIncludePatterns(getProject());
+                    execution.inputExcludes = inputs.getExcludePatterns(getProject());
+                } else {
+                    execution.inputExcludes = DEFAULT_INPUT_EXCLUDES;
+                }
+            }
+            
+            if (streamingBuild) {
+                processModulesStreaming(execution);
+                buildSucceeded = true;
+                return;
+            }
+            
             final ArrayList<Module> modules = new ArrayList<Module>(moduleCount);
             // These targets will be invoked for these modules despite of the default target name.
             final IdentityHashMap<Module, String> overriddenTargets =
                     new IdentityHashMap<Module, String>(modules.size());
             
+            // All root modules are resolved at once so that their metadata is loaded in parallel.
+            final ModuleRegistry registry = new ModuleRegistry(moduleLoader, loaderThreadCount);
+            final List<Module> rootModules;
+            try {
+                rootModules = registry.resolveModules(modulePaths());
+            }
+            finally {
+                finishLoading(registry);
+            }
             for (int i = 0, n = moduleCount; i < n; ++i) {
                 final ModuleElement moduleParam = moduleElements.get(i);
                 
-                final Module module = registry.resolveModule(moduleParam.path);
+                final Module module = rootModules.get(i);
                 modules.add(module);
                 
                 /* Resolving the name of the target to be invoked for this module. If the choice
@@ -259,11 +543,23 @@ public class CallTargetForModules extends Task
                 }
             }
             
+            // The modules are ordered and checked for cyclic dependencies once.
+            DependencyGraph graph = new DependencyGraph(modules);
+            if (changedFiles != null) {
+                graph = affectedModules(graph);
+                if (graph.size() == 0) {
+                    log("No module is affected by the changed files.");
+                    buildSucceeded = true;
+                    return;
+                }
+            }
+            
             if (threadCount == 1) {
-                processModulesSerial(modules, overriddenTargets);
+                processModulesSerial(execution, graph, overriddenTargets);
             } else {
-                processModulesParallel(modules, overriddenTargets);
+                processModulesParallel(execution, graph, overriddenTargets);
             }
+            buildSucceeded = true;
         }
         catch (ModuleNotLoadedException ex) {
             throw new BuildException(ex.getMessage(), ex);
@@ -271,10 +567,435 @@ public class CallTargetForModules extends Task
         catch (CyclicDependenciesDetectedException ex) {
             throw new BuildException(ex.getMessage(), ex);
         }
+        finally {
+            if (execution.buildHistory != null) {
+                saveBuildHistory(execution.buildHistory);
+            }
+            if (execution.buildJournal != null) {
+                closeBuildJournal(execution.buildJournal, buildSucceeded);
+            }
+            if (execution.prefetchExecutor != null) {
+                // The modules that are not built yet are not to be prefetched.
+                execution.prefetchExecutor.shutdownNow();
+            }
+            if (moduleBuildCache != null) {
+                // Waits for the pending uploads.
+                moduleBuildCache.close();
+            }
+            if (execution.moduleFingerprints != null && incremental) {
+                saveModuleFingerprints(execution.moduleFingerprints);
+            }
+        }
+    }
+    
+    private BuildHistory loadBuildHistory()
+    {
+        try {
+            return BuildHistory.load(historyFile);
+        }
+        catch (IOException ex) {
+            // The build history is an optimisation. The build does not fail if it cannot be read.
+            log(MessageFormat.format("Unable to read the build history file ''{0}'': {1}",
+                    historyFile, ex.getMessage()), Project.MSG_WARN);
+            return BuildHistory.empty();
+        }
+    }
+    
+    private void saveBuildHistory(final BuildHistory buildHistory)
+    {
+        try {
+            buildHistory.save(historyFile);
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to write the build history file ''{0}'': {1}",
+                    historyFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    private BuildJournal openBuildJournal(final String buildConfiguration)
+    {
+        try {
+            return BuildJournal.open(journalFile, buildConfiguration, resume);
+        }
+        catch (IOException ex) {
+            // The journal is an optimisation. The build does not fail if it cannot be used.
+            log(MessageFormat.format("Unable to open the journal file ''{0}'': {1}",
+                    journalFile, ex.getMessage()), Project.MSG_WARN);
+            return null;
+        }
+    }
+    
+    private void closeBuildJournal(final BuildJournal buildJournal, final boolean buildSucceeded)
+    {
+        try {
+            buildJournal.close(buildSucceeded);
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to close the journal file ''{0}'': {1}",
+                    journalFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    /* The configuration the modules are built with except for the target name. A module recorded
+     * in the journal or the module fingerprints is not skipped if this configuration is changed.
+     */
+    private String buildConfiguration()
+    {
+        final StringBuilder buf = new StringBuilder();
+        buf.append("inheritAll=").append(inheritAll).append('\n');
+        buf.append("inheritRefs=").append(inheritRefs).append('\n');
+        buf.append("moduleRefId=").append(moduleRefId).append('\n');
+        for (int i = 0, n = params.size(); i < n; ++i) {
+            buf.append("param:");
+            params.get(i).appendConfiguration(buf);
+            buf.append('\n');
+        }
+        return buf.toString();
+    }
+    
+    private ModuleFingerprints loadModuleFingerprints()
+    {
+        try {
+            return ModuleFingerprints.load(fingerprintFile);
+        }
+        catch (IOException ex) {
+            // All modules are built if the fingerprints cannot be read.
+            log(MessageFormat.format("Unable to read the fingerprint file ''{0}'': {1}",
+                    fingerprintFile, ex.getMessage()), Project.MSG_WARN);
+            return ModuleFingerprints.empty();
+        }
+    }
+    
+    private void saveModuleFingerprints(final ModuleFingerprints moduleFingerprints)
+    {
+        try {
+            moduleFingerprints.save(fingerprintFile);
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to write the fingerprint file ''{0}'': {1}",
+                    fingerprintFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    private BuildFileTemplate loadBuildFileTemplate()
+    {
+        final File buildFile = getBuildFile();
+        final BuildFileTemplate template;
+        try {
+            template = BuildFileTemplate.load(getProject(), buildFile);
+        }
+        catch (BuildException ex) {
+            throw ProjectHelper.addLocationToBuildException(ex, getLocation());
+        }
+        if (template == null) {
+            log(MessageFormat.format("The build file ''{0}'' cannot be cached because it imports " +
+                    "other build files. It is parsed for each module.", buildFile), Project.MSG_VERBOSE);
+        }
+        return template;
+    }
+    
+    private File getBuildFile()
+    {
+        final Project project = getProject();
+        return project.resolveFile(project.getProperty(MagicNames.ANT_FILE));
+    }
+    
+    private void invokeTarget(final Execution execution, final Module module, final String target)
+    {
+        if (execution.buildFileTemplate != null) {
+            callTargetWithBuildFileTemplate(execution, module, target);
+        } else {
+            callTargetWithAnt(execution, module, target);
+        }
+    }
+    
+    private void callTarget(final Execution execution, final Module module, final String target)
+    {
+        final ModuleFingerprints moduleFingerprints = execution.moduleFingerprints;
+        final BuildCanceller buildCanceller = execution.buildCanceller;
+        if (moduleFingerprints != null) {
+            // The module is rebuilt by the next build if this build fails.
+            moduleFingerprints.moduleStarted(module);
+        }
+        final long startTime = System.nanoTime();
+        if (buildCanceller == null) {
+            invokeTarget(execution, module, target);
+        } else {
+            // Only the target invocation is interrupted if the build is cancelled.
+            buildCanceller.invocationStarted();
+            try {
+                invokeTarget(execution, module, target);
+            }
+            finally {
+                buildCanceller.invocationFinished();
+            }
+        }
+        // Only successful builds are recorded.
+        if (execution.buildHistory != null) {
+            execution.buildHistory.moduleBuilt(module.getPath(), (System.nanoTime() - startTime) / 1000000);
+        }
+        if (moduleFingerprints != null) {
+            final File[] outputs = outputLocations(module);
+            final String outputsHash = outputs == null ? null : hashOutputs(module, outputs);
+            moduleFingerprints.moduleBuilt(module, outputsHash);
+            if (moduleBuildCache != null && outputsHash != null) {
+                storeInBuildCache(moduleFingerprints, module, outputs, outputsHash);
+            }
+        }
+        if (execution.buildJournal != null) {
+            journalModuleBuilt(execution.buildJournal, module, target);
+        }
+    }
+    
+    private void journalModuleBuilt(final BuildJournal buildJournal, final Module module, final String target)
+    {
+        try {
+            buildJournal.moduleBuilt(module, target);
+        }
+        catch (IOException ex) {
+            // The module is built. It is built again if the build is resumed.
+            log(MessageFormat.format("Unable to write the journal file ''{0}'': {1}",
+                    journalFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    /* Computes the fingerprint of the module in the incremental mode. The modules it depends upon
+     * are already passed to this function. If the input files of the module cannot be read then
+     * the fingerprint is unknown and this module and the modules that depend upon it are built.
+     */
+    private void computeFingerprint(final Execution execution, final Module module, final String target)
+    {
+        final File moduleDir = getProject().resolveFile(module.getPath());
+        String inputsHash;
+        try {
+            inputsHash = ModuleFingerprints.hashInputs(moduleDir, execution.inputIncludes,
+                    inputExcludes(execution.inputExcludes, module, moduleDir));
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to read the input files of the module ''{0}'': {1}",
+                    module.getPath(), ex.getMessage()), Project.MSG_WARN);
+            inputsHash = null;
+        }
+        execution.moduleFingerprints.computeFingerprint(module, inputsHash, execution.buildConfiguration + target);
+    }
+    
+    /* Returns the patterns of the files of the module that are not its input files, that is,
+     * the given patterns and the output locations of the module that are inside the module
+     * directory. The latter are excluded so that the files produced by the build of the module
+     * do not make it changed for the next build.
+     */
+    private String[] inputExcludes(final String[] inputExcludes, final Module module, final File moduleDir)
+    {
+        final File[] outputs = outputLocations(module);
+        if (outputs == null) {
+            return inputExcludes;
+        }
+        final ArrayList<String> excludes = new ArrayList<String>();
+        if (inputExcludes != null) {
+            excludes.addAll(Arrays.asList(inputExcludes));
+        }
+        final FileUtils fileUtils = FileUtils.getFileUtils();
+        final String moduleDirPrefix = fileUtils.normalize(moduleDir.getAbsolutePath()).getPath() + File.separatorChar;
+        for (int i = 0; i < outputs.length; ++i) {
+            final String path = fileUtils.normalize(outputs[i].getAbsolutePath()).getPath();
+            if (path.startsWith(moduleDirPrefix)) {
+                final String relativePath = path.substring(moduleDirPrefix.length()).replace(File.separatorChar, '/');
+                // The location is either a file or a directory.
+                excludes.add(relativePath);
+                excludes.add(relativePath + "/**");
+            }
+        }
+        return excludes.toArray(new String[excludes.size()]);
+    }
+    
+    // Returns the output locations of the module or null if they are not defined.
+    private File[] outputLocations(final Module module)
+    {
+        if (outputsAttribute == null) {
+            return null;
+        }
+        final Object outputs = module.getAttributes().get(outputsAttribute);
+        final File[] locations;
+        if (outputs == null) {
+            return null;
+        } else if (outputs instanceof Path) {
+            final String[] paths = ((Path) outputs).list();
+            locations = new File[paths.length];
+            for (int i = 0; i < paths.length; ++i) {
+                locations[i] = new File(paths[i]);
+            }
+        } else if (outputs instanceof File) {
+            locations = new File[]{(File) outputs};
+        } else if (outputs instanceof String) {
+            // The locations are relative to the module directory.
+            final File moduleDir = getProject().resolveFile(module.getPath());
+            final ArrayList<File> files = new ArrayList<File>();
+            for (final PathTokenizer paths = new PathTokenizer((String) outputs); paths.hasMoreTokens();) {
+                files.add(FileUtils.getFileUtils().resolveFile(moduleDir, paths.nextToken()));
+            }
+            locations = files.toArray(new File[files.size()]);
+        } else {
+            log(MessageFormat.format("The attribute ''{0}'' of the module ''{1}'' is neither " +
+                    "a path nor a string. The output files of this module are not hashed.",
+                    outputsAttribute, module.getPath()), Project.MSG_WARN);
+            return null;
+        }
+        return locations;
+    }
+    
+    /* Returns the hash of the output files of the module built in the incremental mode or null
+     * if the output files cannot be read. In the latter case the modules that depend upon this
+     * module are built if this module is built.
+     */
+    private String hashOutputs(final Module module, final File[] locations)
+    {
+        try {
+            return ModuleFingerprints.hashOutputs(locations);
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to read the output files of the module ''{0}'': {1}",
+                    module.getPath(), ex.getMessage()), Project.MSG_WARN);
+            return null;
+        }
+    }
+    
+    private void storeInBuildCache(final ModuleFingerprints moduleFingerprints, final Module module,
+            final File[] outputs, final String outputsHash)
+    {
+        final String fingerprint = moduleFingerprints.getFingerprint(module);
+        if (fingerprint == null) {
+            return;
+        }
+        try {
+            moduleBuildCache.store(module, fingerprint, outputs, outputsHash);
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to store the output files of the module ''{0}'' " +
+                    "in the build cache: {1}", module.getPath(), ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
+    /* Returns true if the output files of the module are restored from the build cache so that
+     * the module is not to be built. If they cannot be restored then the module is built.
+     */
+    private boolean restoreFromBuildCache(final ModuleFingerprints moduleFingerprints, final Module module)
+    {
+        final String fingerprint = moduleFingerprints.getFingerprint(module);
+        if (fingerprint == null) {
+            return false;
+        }
+        final File[] outputs = outputLocations(module);
+        if (outputs == null) {
+            return false;
+        }
+        final String outputsHash;
+        try {
+            outputsHash = moduleBuildCache.restore(module, fingerprint, outputs);
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to restore the output files of the module ''{0}'' " +
+                    "from the build cache: {1}", module.getPath(), ex.getMessage()), Project.MSG_WARN);
+            return false;
+        }
+        if (outputsHash == null) {
+            return false;
+        }
+        log(MessageFormat.format("Module ''{0}'' is restored from the build cache.", module.getPath()));
+        moduleFingerprints.moduleBuilt(module, outputsHash);
+        return true;
+    }
+    
+    /* Returns true if the module is built by the previous build and is not to be built again.
+     * The modules it depends upon are already passed to this function.
+     */
+    private boolean resumeModule(final BuildJournal buildJournal, final Module module, final String target)
+    {
+        try {
+            if (buildJournal.resumeModule(module, target)) {
+                log(MessageFormat.format("Module ''{0}'' is already built by the previous build.",
+                        module.getPath()), Project.MSG_VERBOSE);
+                return true;
+            }
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to write the journal file ''{0}'': {1}",
+                    journalFile, ex.getMessage()), Project.MSG_WARN);
+        }
+        return false;
+    }
+    
+    /* Builds the module unless it is not to be built. The caller is expected to report the module
+     * as processed in either case (unless a failure is thrown) so that the modules that depend upon
+     * it proceed.
+     * 
+     * In the keep-going mode a failed build is recorded instead of being thrown and the module
+     * is skipped if some module it depends upon is either failed or skipped so that the modules
+     * that depend upon it are skipped in turn. If the build is resumed then the modules built by
+     * the previous build are not built. In the incremental mode the modules that are not changed
+     * since their latest successful build are not built. The modules whose output files are found
+     * in the build cache are restored instead of being built.
+     */
+    private void buildModule(final Execution execution, final Module module, final String target)
+    {
+        final FailedBuilds failedBuilds = execution.failedBuilds;
+        final ModuleFingerprints moduleFingerprints = execution.moduleFingerprints;
+        final BuildJournal buildJournal = execution.buildJournal;
+        if (failedBuilds != null) {
+            final Module failedDependency = failedBuilds.findNotBuiltDependency(module);
+            if (failedDependency != null) {
+                log(MessageFormat.format("Module ''{0}'' is skipped because the module ''{1}'' is not built.",
+                        module.getPath(), failedDependency.getPath()), Project.MSG_VERBOSE);
+                failedBuilds.moduleSkipped(module);
+                return;
+            }
+        }
+        if (moduleFingerprints != null && !awaitPrefetch(execution, module)) {
+            computeFingerprint(execution, module, target);
+        }
+        if (resume && buildJournal != null && resumeModule(buildJournal, module, target)) {
+            if (moduleFingerprints != null) {
+                moduleFingerprints.moduleSkipped(module);
+            }
+            return;
+        }
+        if (moduleFingerprints != null && moduleFingerprints.isUpToDate(module)) {
+            log(MessageFormat.format("Module ''{0}'' is up to date.", module.getPath()), Project.MSG_VERBOSE);
+            moduleFingerprints.moduleSkipped(module);
+            if (buildJournal != null) {
+                journalModuleBuilt(buildJournal, module, target);
+            }
+            return;
+        }
+        if (moduleBuildCache != null && restoreFromBuildCache(moduleFingerprints, module)) {
+            if (buildJournal != null) {
+                journalModuleBuilt(buildJournal, module, target);
+            }
+            return;
+        }
+        if (failedBuilds == null) {
+            callTarget(execution, module, target);
+            return;
+        }
+        try {
+            callTarget(execution, module, target);
+        }
+        catch (BuildException ex) {
+            log(ex.getMessage(), Project.MSG_ERR);
+            failedBuilds.moduleFailed(module, ex);
+        }
+    }
+    
+    // Throws the build failures recorded in the keep-going mode, if any.
+    private void checkFailedBuilds(final FailedBuilds failedBuilds)
+    {
+        if (failedBuilds != null && failedBuilds.hasFailures()) {
+            throw failedBuilds.buildException(getLocation());
+        }
     }
     
-    private void callTarget(final Module module, final String target)
+    private void callTargetWithAnt(final Execution execution, final Module module, final String target)
     {
+        final BuildCanceller buildCanceller = execution.buildCanceller;
         try {
             final Project project = getProject();
             final Ant antcall = (Ant) project.createTask("ant");
@@ -286,12 +1007,18 @@ public class CallTargetForModules extends Task
                 param.populate(antcall.createProperty());
             }
             
-            if (moduleRefId != null) {
+            if (moduleRefId != null || buildCanceller != null) {
                 final Method m = Ant.class.getDeclaredMethod("getNewProject");
                 m.setAccessible(true);
                 
                 final Project newProject = (Project) m.invoke(antcall);
-                newProject.addReference(moduleRefId, module);
+                if (moduleRefId != null) {
+                    newProject.addReference(moduleRefId, module);
+                }
+                if (buildCanceller != null) {
+                    // <ant> passes the listeners of this project to the nested projects it creates.
+                    newProject.addBuildListener(buildCanceller);
+                }
             }
             for (int i = 0, n = references.size(); i < n; ++i) {
                 antcall.addReference(references.get(i));
@@ -308,50 +1035,529 @@ public class CallTargetForModules extends Task
         }
     }
     
-    private BuildException buildExceptionForModule(final Throwable cause, final Module module)
-    {
-        final BuildException ex = new BuildException(MessageFormat.format(
-                "Module ''{0}'': {1}", module.getPath(), cause.getMessage()), cause);
-        
-        // Gathering all information available from the original build exception.
-        if (cause instanceof BuildException) {
-            /* The thread that generated this exception is either the current thread or
-               a dead thread so synchronisation is not needed to read location. */
-            final Location location = ((BuildException) cause).getLocation();
-            ex.setLocation(location == null ? Location.UNKNOWN_LOCATION : location);
-            ex.setStackTrace(cause.getStackTrace());
-        }
-        
-        return ex;
-    }
-    
-    private void processModulesSerial(final ArrayList<Module> modules,
-            final IdentityHashMap<Module, String> overriddenTargets) throws CyclicDependenciesDetectedException
+    /* Does what <ant> does to invoke the target for the module except that the new project
+     * is populated from the build file template instead of parsing the build file. The steps and
+     * their order are the same as in <ant> so that the properties and references visible
+     * to the target are the same.
+     */
+    private void callTargetWithBuildFileTemplate(final Execution execution, final Module module,
+            final String target)
     {
-        final SerialDependencyResolver dependencyResolver = new SerialDependencyResolver();
-        dependencyResolver.init(modules);
-        
-        Module module;
-        while ((module = dependencyResolver.getFreeModule()) != null) {
-            String target = overriddenTargets.get(module);
-            if (target == null) {
-                target = this.target;
-            }
-            
-            callTarget(module, target);
-            
+        try {
+            final Project project = getProject();
+            final Project newProject = project.createSubProject();
+            newProject.setJavaVersionProperty();
+            if (moduleRefId != null) {
+                newProject.addReference(moduleRefId, module);
+            }
+            
+            newProject.setInputHandler(project.getInputHandler());
+            for (final Object listener : project.getBuildListeners()) {
+                newProject.addBuildListener((BuildListener) listener);
+            }
+            if (execution.buildCanceller != null) {
+                newProject.addBuildListener(execution.buildCanceller);
+            }
+            project.copyUserProperties(newProject);
+            if (inheritAll) {
+                addAlmostAllProperties(project.getProperties(), newProject);
+            } else {
+                newProject.initProperties();
+            }
+            addAlmostAllProperties(propertySet.getProperties(), newProject);
+            if (inheritAll) {
+                newProject.setBaseDir(project.getBaseDir());
+            }
+            
+            overrideProperties(newProject);
+            project.copyInheritedProperties(newProject);
+            
+            final File buildFile = getBuildFile();
+            newProject.setUserProperty(MagicNames.ANT_FILE, buildFile.getAbsolutePath());
+            try {
+                execution.buildFileTemplate.populate(newProject);
+            }
+            catch (BuildException ex) {
+                throw ProjectHelper.addLocationToBuildException(ex, getLocation());
+            }
+            
+            addReferences(newProject);
+            
+            final Vector<String> targets = new Vector<String>(1);
+            targets.add(target);
+            BuildException failure = null;
+            try {
+                log(MessageFormat.format("Entering {0}...", buildFile), Project.MSG_VERBOSE);
+                newProject.fireSubBuildStarted();
+                newProject.executeTargets(targets);
+            }
+            catch (BuildException ex) {
+                failure = ProjectHelper.addLocationToBuildException(ex, getLocation());
+                throw failure;
+            }
+            finally {
+                log(MessageFormat.format("Exiting {0}.", buildFile), Project.MSG_VERBOSE);
+                newProject.fireSubBuildFinished(failure);
+            }
+        }
+        catch (Exception ex) {
+            throw buildExceptionForModule(ex, module);
+        }
+    }
+    
+    // The properties 'basedir' and 'ant.file' are handled separately, as <ant> does.
+    private static void addAlmostAllProperties(final Map<?, ?> properties, final Project newProject)
+    {
+        for (final Map.Entry<?, ?> prop : properties.entrySet()) {
+            final String name = prop.getKey().toString();
+            if (name.equals(MagicNames.PROJECT_BASEDIR) || name.equals(MagicNames.ANT_FILE)) {
+                continue;
+            }
+            // User properties are not overridden.
+            if (newProject.getProperty(name) == null) {
+                newProject.setNewProperty(name, prop.getValue().toString());
+            }
+        }
+    }
+    
+    // Sets the params to the new project. If there are multiple params with the same name then the last one wins.
+    private void overrideProperties(final Project newProject)
+    {
+        final ArrayList<Property> properties = new ArrayList<Property>(params.size());
+        final HashSet<String> names = new HashSet<String>();
+        for (int i = params.size() - 1; i >= 0; --i) {
+            // The properties are set as inherited properties so that they are passed further to sub-projects.
+            final Property property = new Property(true, getProject()) {};
+            property.setProject(newProject);
+            property.setTaskName("property");
+            params.get(i).populate(property);
+            
+            final String name = property.getName();
+            if (name != null && name.length() != 0 && !names.add(name)) {
+                continue;
+            }
+            properties.add(property);
+        }
+        for (int i = properties.size() - 1; i >= 0; --i) {
+            properties.get(i).execute();
+        }
+    }
+    
+    private void addReferences(final Project newProject)
+    {
+        final Project project = getProject();
+        final HashMap<String, Object> thisReferences = new HashMap<String, Object>();
+        for (final Map.Entry<?, ?> ref : ((Map<?, ?>) project.getReferences()).entrySet()) {
+            thisReferences.put((String) ref.getKey(), ref.getValue());
+        }
+        for (int i = 0, n = references.size(); i < n; ++i) {
+            final Ant.Reference ref = references.get(i);
+            final String refId = ref.getRefId();
+            if (refId == null) {
+                throw new BuildException("the refid attribute is required for reference elements");
+            }
+            if (!thisReferences.containsKey(refId)) {
+                log(MessageFormat.format("Parent project doesn''t contain any reference ''{0}''", refId),
+                        Project.MSG_WARN);
+                continue;
+            }
+            thisReferences.remove(refId);
+            final String toRefId = ref.getToRefid();
+            copyReference(refId, toRefId == null ? refId : toRefId, newProject);
+        }
+        if (inheritRefs) {
+            final Map<?, ?> newReferences = newProject.getReferences();
+            for (final String refId : thisReferences.keySet()) {
+                if (!newReferences.containsKey(refId)) {
+                    copyReference(refId, refId, newProject);
+                }
+            }
+        }
+    }
+    
+    // Clones the referenced object, if possible, and assigns the new project to it, as <ant> does.
+    private void copyReference(final String oldRefId, final String newRefId, final Project newProject)
+    {
+        final Object original = getProject().getReference(oldRefId);
+        if (original == null) {
+            log(MessageFormat.format("No object referenced by {0}. Can''t copy to {1}", oldRefId, newRefId),
+                    Project.MSG_WARN);
+            return;
+        }
+        
+        final Class<?> c = original.getClass();
+        Object copy = original;
+        try {
+            copy = c.getMethod("clone").invoke(original);
+        }
+        catch (Exception ex) {
+            // Not cloneable. The original object is passed.
+        }
+        
+        if (copy instanceof ProjectComponent) {
+            ((ProjectComponent) copy).setProject(newProject);
+        } else {
+            try {
+                c.getMethod("setProject", Project.class).invoke(copy, newProject);
+            }
+            catch (NoSuchMethodException ex) {
+                // The object does not need a project.
+            }
+            catch (Exception ex) {
+                throw new BuildException(MessageFormat.format(
+                        "Error setting new project instance for reference with id {0}", oldRefId),
+                        ex, getLocation());
+            }
+        }
+        newProject.addReference(newRefId, copy);
+    }
+    
+    private BuildException buildExceptionForModule(final Throwable cause, final Module module)
+    {
+        final BuildException ex = new BuildException(MessageFormat.format(
+                "Module ''{0}'': {1}", module.getPath(), cause.getMessage()), cause);
+        
+        // Gathering all information available from the original build exception.
+        if (cause instanceof BuildException) {
+            /* The thread that generated this exception is either the current thread or
+               a dead thread so synchronisation is not needed to read location. */
+            final Location location = ((BuildException) cause).getLocation();
+            ex.setLocation(location == null ? Location.UNKNOWN_LOCATION : location);
+            ex.setStackTrace(cause.getStackTrace());
+        }
+        
+        return ex;
+    }
+    
+    /* Returns the subgraph of the given graph that consists of the modules that own the changed
+     * files, the modules that depend upon them (directly or indirectly), and all modules they
+     * depend upon. The subgraph is derived from the given graph with no graph traversal.
+     */
+    private DependencyGraph affectedModules(final DependencyGraph graph)
+    {
+        final Module[] graphModules = graph.modules;
+        final int moduleCount = graphModules.length;
+        
+        final ModulePathTrie trie = new ModulePathTrie();
+        for (int i = 0; i < moduleCount; ++i) {
+            trie.add(graphModules[i]);
+        }
+        
+        final boolean[] affected = new boolean[moduleCount];
+        for (final Iterator<?> i = changedFiles.iterator(); i.hasNext();) {
+            final Resource file = (Resource) i.next();
+            final String path = file instanceof FileResource ?
+                    ((FileResource) file).getFile().getPath() : file.getName();
+            final Module owner = trie.findOwner(moduleLoader.normalisePath(path));
+            if (owner != null) {
+                affected[graph.indexOf(owner)] = true;
+            } else {
+                log(MessageFormat.format("The changed file ''{0}'' does not belong to any module.", path),
+                        Project.MSG_VERBOSE);
+            }
+        }
+        
+        /* The dependers of a module follow it in the topological order so that all modules
+         * affected are marked in a single pass.
+         */
+        for (int id = 0; id < moduleCount; ++id) {
+            if (affected[id]) {
+                for (int i = graph.dependerOffsets[id], end = graph.dependerOffsets[id + 1]; i < end; ++i) {
+                    affected[graph.dependers[i]] = true;
+                }
+            }
+        }
+        return graph.subgraph(affected);
+    }
+    
+    private void processModulesSerial(final Execution execution, final DependencyGraph graph,
+            final IdentityHashMap<Module, String> overriddenTargets)
+    {
+        final SerialDependencyResolver dependencyResolver = new SerialDependencyResolver();
+        dependencyResolver.initFromGraph(orderedGraph(execution, graph));
+        
+        Module module;
+        while ((module = dependencyResolver.getFreeModule()) != null) {
+            String target = overriddenTargets.get(module);
+            if (target == null) {
+                target = this.target;
+            }
+            
+            buildModule(execution, module, target);
+            
             dependencyResolver.moduleProcessed(module);
         }
+        
+        checkFailedBuilds(execution.failedBuilds);
     }
     
-    private void processModulesParallel(final ArrayList<Module> modules,
+    private void processModulesParallel(final Execution execution, final DependencyGraph graph,
             final IdentityHashMap<Module, String> overriddenTargets) throws CyclicDependenciesDetectedException
     {
         final ParallelDependencyResolver dependencyResolver = new ParallelDependencyResolver();
-        dependencyResolver.init(modules);
+        dependencyResolver.setModuleReadyListener(createPrefetcher(execution, overriddenTargets));
+        final DependencyGraph orderedGraph = orderedGraph(execution, graph);
+        if (schedulingPolicy == SchedulingPolicy.BUILD_TIME) {
+            dependencyResolver.initFromGraph(orderedGraph, execution.buildHistory.getDurations());
+        } else {
+            dependencyResolver.initFromGraph(orderedGraph, schedulingPolicy == SchedulingPolicy.CRITICAL_PATH);
+        }
+        
+        try {
+            buildModulesParallel(execution, dependencyResolver, overriddenTargets, null);
+        }
+        catch (ModuleNotLoadedException ex) {
+            // Never happens. Modules are loaded before they are built.
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /* Returns the graph the dependency resolvers are initialised with. In the order 'reverse'
+     * the dependencies of the given graph are inverted so that the dependency resolvers release
+     * each module after all modules that depend upon it are built.
+     */
+    private DependencyGraph orderedGraph(final Execution execution, final DependencyGraph graph)
+    {
+        if (order != Order.REVERSE) {
+            return graph;
+        }
+        final DependencyGraph reverseGraph = graph.reverse();
+        if (execution.failedBuilds != null) {
+            // The modules are skipped if some module that depends upon them is not built.
+            execution.failedBuilds.graph = reverseGraph;
+        }
+        return reverseGraph;
+    }
+    
+    /* Builds modules while they are being resolved. The current thread resolves modules and
+     * passes each module to the dependency resolver as soon as the module and all its dependee
+     * modules are resolved. Modules are built by the helper threads meanwhile. Once all modules
+     * are resolved the current thread joins the helper threads to build the remaining modules.
+     */
+    private void processModulesStreaming(final Execution execution)
+            throws ModuleNotLoadedException, CyclicDependenciesDetectedException
+    {
+        final int moduleCount = moduleElements.size();
         
+        /* Module targets are resolved by normalised module paths so that each module is passed
+         * to the dependency resolver with its target known.
+         */
+        final HashMap<String, String> targetsByPath = new HashMap<String, String>();
+        for (int i = 0; i < moduleCount; ++i) {
+            final ModuleElement moduleParam = moduleElements.get(i);
+            final String modulePath = moduleLoader.normalisePath(moduleParam.path);
+            final String moduleTarget = moduleParam.target == null ? target : moduleParam.target;
+            final String oldTarget = targetsByPath.put(modulePath, moduleTarget);
+            if (oldTarget != null && !oldTarget.equals(moduleTarget)) {
+                throw new BuildException(MessageFormat.format(
+                        "Ambiguous choice of the target to be invoked for the module ''{0}''. " +
+                        "At least the targets ''{1}'' and ''{2}'' are configured.",
+                        modulePath, oldTarget, moduleTarget));
+            }
+        }
+        
+        final ParallelDependencyResolver dependencyResolver = new ParallelDependencyResolver();
+        final ConcurrentHashMap<Module, String> overriddenTargets = new ConcurrentHashMap<Module, String>();
+        dependencyResolver.setModuleReadyListener(createPrefetcher(execution, overriddenTargets));
+        dependencyResolver.initIncremental();
+        
+        final ModuleRegistry registry = new ModuleRegistry(moduleLoader, loaderThreadCount,
+                new ModuleRegistry.ModuleListener()
+        {
+            public void moduleResolved(final Module module)
+            {
+                final String moduleTarget = targetsByPath.get(module.getPath());
+                if (moduleTarget != null) {
+                    overriddenTargets.put(module, moduleTarget);
+                }
+                dependencyResolver.addModule(module);
+            }
+        });
+        
+        buildModulesParallel(execution, dependencyResolver, overriddenTargets, new ModuleFeeder()
+        {
+            public void feed() throws ModuleNotLoadedException, CyclicDependenciesDetectedException
+            {
+                final List<Module> modules;
+                try {
+                    modules = registry.resolveModules(modulePaths());
+                }
+                finally {
+                    finishLoading(registry);
+                }
+                // Fails if there are cyclic dependencies between the modules that are not built yet.
+                dependencyResolver.completeInit(modules);
+            }
+        });
+    }
+    
+    // Returns the paths of the root modules in the order the elements <module> are defined.
+    private ArrayList<String> modulePaths()
+    {
+        final int moduleCount = moduleElements.size();
+        final ArrayList<String> paths = new ArrayList<String>(moduleCount);
+        for (int i = 0; i < moduleCount; ++i) {
+            paths.add(moduleElements.get(i).path);
+        }
+        return paths;
+    }
+    
+    /* Releases the loader threads of the registry and lets the module loader persist or release
+     * its state (e.g. the metadata cache) once the modules this task processes are loaded.
+     */
+    private void finishLoading(final ModuleRegistry registry)
+    {
+        registry.close();
+        if (moduleLoader instanceof StatefulModuleLoader) {
+            ((StatefulModuleLoader) moduleLoader).loadingFinished();
+        }
+    }
+    
+    /* Returns the listener that starts prefetching the remote build cache entry of each module
+     * that becomes ready to be built, or null if the entries are not to be prefetched. The module
+     * fingerprint is the key of the entry. It is computed by the prefetch executor because it
+     * needs the modules the module depends upon to be built and its input files to be hashed.
+     */
+    private ParallelDependencyResolver.ModuleReadyListener createPrefetcher(final Execution execution,
+            final Map<Module, String> overriddenTargets)
+    {
+        if (moduleBuildCache == null || !moduleBuildCache.isRemote()) {
+            return null;
+        }
+        final ConcurrentHashMap<Module, Prefetch> prefetches = new ConcurrentHashMap<Module, Prefetch>();
+        final ExecutorService prefetchExecutor = Executors.newFixedThreadPool(threadCount, new ThreadFactory()
+        {
+            public Thread newThread(final Runnable task)
+            {
+                final Thread thread = new Thread(task, "callTargetForModules-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        execution.prefetches = prefetches;
+        execution.prefetchExecutor = prefetchExecutor;
+        return new ParallelDependencyResolver.ModuleReadyListener()
+        {
+            public void moduleReady(final Module module)
+            {
+                String moduleTarget = overriddenTargets.get(module);
+                if (moduleTarget == null) {
+                    moduleTarget = target;
+                }
+                final String prefetchTarget = moduleTarget;
+                final Prefetch prefetch = new Prefetch(new Runnable()
+                {
+                    public void run()
+                    {
+                        prefetch(execution, module, prefetchTarget);
+                    }
+                });
+                // The prefetch is registered before the module can be acquired by a thread.
+                prefetches.put(module, prefetch);
+                prefetchExecutor.execute(prefetch);
+            }
+        };
+    }
+    
+    private void prefetch(final Execution execution, final Module module, final String target)
+    {
+        if (execution.failedBuilds != null && execution.failedBuilds.findNotBuiltDependency(module) != null) {
+            // The module is skipped.
+            return;
+        }
+        computeFingerprint(execution, module, target);
+        final ModuleFingerprints moduleFingerprints = execution.moduleFingerprints;
+        if (moduleFingerprints.isUpToDate(module)) {
+            return;
+        }
+        final String fingerprint = moduleFingerprints.getFingerprint(module);
+        if (fingerprint != null) {
+            moduleBuildCache.prefetch(module, fingerprint);
+        }
+    }
+    
+    /* Waits for the prefetch of the module, if any, to finish. Returns true if the module
+     * fingerprint is computed by the prefetch. A prefetch that is not started yet is cancelled
+     * so that the build thread does not wait for the prefetches queued before it.
+     */
+    private boolean awaitPrefetch(final Execution execution, final Module module)
+    {
+        if (execution.prefetches == null) {
+            return false;
+        }
+        final Prefetch prefetch = execution.prefetches.remove(module);
+        if (prefetch == null) {
+            return false;
+        }
+        if (prefetch.claim()) {
+            // The fingerprint is computed by the build thread.
+            prefetch.cancel(false);
+            return false;
+        }
+        try {
+            prefetch.get();
+            return true;
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new BuildException("The build thread was interrupted.");
+        }
+        catch (ExecutionException ex) {
+            // The fingerprint is computed again so that the failure is reported by the build thread.
+            return false;
+        }
+    }
+    
+    /* A prefetch task that is run at most once, either by the prefetch executor or not at all
+     * if the build thread claims it first.
+     */
+    private static final class Prefetch extends FutureTask<Object>
+    {
+        private final AtomicBoolean started = new AtomicBoolean(false);
+        
+        public Prefetch(final Runnable task)
+        {
+            super(task, null);
+        }
+        
+        @Override
+        public void run()
+        {
+            if (claim()) {
+                super.run();
+            }
+        }
+        
+        // Returns true if the prefetch is not started before this call and will never be started.
+        public boolean claim()
+        {
+            return started.compareAndSet(false, true);
+        }
+    }
+    
+    /* Passes modules to a dependency resolver that is initialised incrementally.
+     * It is invoked by the thread that executes this task.
+     */
+    private static interface ModuleFeeder
+    {
+        void feed() throws ModuleNotLoadedException, CyclicDependenciesDetectedException;
+    }
+    
+    /* Builds the modules acquired from the given dependency resolver by threadCount threads.
+     * If moduleFeeder is not null then the current thread invokes it before it starts building
+     * modules. The modules that are built are passed to the dependency resolver by the feeder.
+     */
+    private void buildModulesParallel(final Execution execution, final ParallelDependencyResolver dependencyResolver,
+            final Map<Module, String> overriddenTargets, final ModuleFeeder moduleFeeder)
+            throws ModuleNotLoadedException, CyclicDependenciesDetectedException
+    {
         final AtomicBoolean buildFailed = new AtomicBoolean(false);
         final AtomicReference<Throwable> buildFailureException = new AtomicReference<Throwable>();
+        if (failFast) {
+            // The canceller is created before the helper threads are started so that they see it.
+            execution.buildCanceller = new BuildCanceller();
+        }
+        final BuildCanceller buildCanceller = execution.buildCanceller;
         
         /* A stateless worker to process modules using ParallelDependencyResolver.
          * This instance can be used by multiple threads simultaneously.
@@ -383,9 +1589,15 @@ public class CallTargetForModules extends Task
                          * (whose processing has failed!) free for acquisition, despite of
                          * their dependee module did not succeed.
                          * 
-                         * Instead, dependencyResolver#abort() is called.
+                         * Instead, dependencyResolver#abort() is called. In the keep-going mode
+                         * build failures are not thrown. The modules that depend upon a failed
+                         * module become free but they are skipped by buildModule.
                          */
-                        callTarget(module, target);
+                        if (buildCanceller != null && buildCanceller.isCancelled()) {
+                            // Another module has failed. This module is not to be built.
+                            return;
+                        }
+                        buildModule(execution, module, target);
                         
                         // Reporting this module as processed if no error is encountered.
                         dependencyResolver.moduleProcessed(module);
@@ -393,10 +1605,16 @@ public class CallTargetForModules extends Task
                 }
                 catch (Throwable ex) {
                     buildFailed.set(true);
-                    buildFailureException.set(ex);
+                    /* The first failure is reported. The modules that fail after it could fail
+                       because their builds are cancelled. */
+                    buildFailureException.compareAndSet(null, ex);
                     /* Ensure that other threads will stop module processing right after
                        their current module is processed. */
                     dependencyResolver.abort();
+                    if (buildCanceller != null) {
+                        // The modules that are being processed are not waited for in the fail-fast mode.
+                        buildCanceller.cancel();
+                    }
                 }
             }
         };
@@ -409,6 +1627,8 @@ public class CallTargetForModules extends Task
          * is not created or started then this build is considered failed.
          */
         int startedThreadCount = 0;
+        // Is set to true if the current thread has finished processing modules normally.
+        boolean completed = false;
         
         try {
             for (; startedThreadCount < threadsToCreate; ++startedThreadCount) {
@@ -417,58 +1637,301 @@ public class CallTargetForModules extends Task
                 t.start();
             }
             
+            if (moduleFeeder != null) {
+                /* If the feeder fails then the dependency resolver is aborted below so that
+                   the helper threads finish once their current modules are processed. */
+                moduleFeeder.feed();
+            }
+            
             // The current thread is one of the threads that process the modules.
             parallelBuildWorker.run();
+            completed = true;
+        }
+        finally {
+            if (startedThreadCount != threadCount) {
+                /* At least one thread was not started. Ensuring here that other threads will
+                 * stop module processing right after their current module is processed.
+                 */
+                dependencyResolver.abort();
+            }
+            if (!completed && buildCanceller != null) {
+                // Either a helper thread is not started or the module feeder has failed.
+                buildCanceller.cancel();
+            }
+            
+            /* Waiting for all worker threads to finish even if the build fails on
+             * a module that was being processed by this thread. This will allow the
+             * 'build failed' message to be the last one.
+             */
+            joinThreads(threads, startedThreadCount);
+        }
+        
+        if (buildFailed.get()) {
+            /* buildFailureException could contain either RuntimeException or Error
+               because this is what could be thrown in thread#run(). */
+            final Throwable ex = buildFailureException.get();
+            if (ex instanceof RuntimeException) {
+                throw (RuntimeException) ex; // includes properly initialised BuildException
+            } else {
+                throw (Error) ex;
+            }
+        }
+        
+        checkFailedBuilds(execution.failedBuilds);
+    }
+    
+    private static void joinThreads(final Thread[] threads, final int n)
+    {
+        /* parallelBuildWorker preserves the interrupted status of the current thread
+         * so an InterruptedException is thrown if this thread starts waiting
+         * for a helper thread to join. This leads to all helper threads interrupted
+         * so that the build finished rapidly and gracefully.
+         */
+        try {
+            for (int i = 0; i < n; ++i) {
+                threads[i].join();
+            }
+        }
+        catch (InterruptedException ex) {
+            /* Interrupting all the activities so that the build finishes as quick as possible.
+             * This is fine if an already finished thread is interrupted.
+             */
+            for (int i = 0; i < n; ++i) {
+                threads[i].interrupt();
+            }
+            
+            Thread.currentThread().interrupt();
+            throw new BuildException("The build thread was interrupted.");
+        }
+    }
+    
+    /* The state of a single execution of this task. It is created by execute() and is passed
+     * to the functions that build modules so that nothing is left in this task after the
+     * execution finishes. The fields are assigned before the modules are built (the canceller
+     * and the prefetches before the threads that use them are started) and are not re-assigned
+     * after that.
+     */
+    private static final class Execution
+    {
+        // The durations of module builds. It is null if historyFile is undefined.
+        BuildHistory buildHistory;
+        /* The modules built successfully. It is null if journalFile is undefined or the journal
+           cannot be opened. */
+        BuildJournal buildJournal;
+        /* The configuration of the module-specific projects that is recorded in the journal and
+           the module fingerprints. */
+        String buildConfiguration;
+        // The fingerprints of module builds. It is null unless the incremental mode or the build cache is on.
+        ModuleFingerprints moduleFingerprints;
+        String[] inputIncludes;
+        String[] inputExcludes;
+        /* The fingerprint computations that are started as soon as modules become ready to be built
+         * so that the remote build cache entries are prefetched. They are executed by the prefetch
+         * executor. Both are null unless the modules are built in parallel with a remote build cache.
+         */
+        ConcurrentHashMap<Module, Prefetch> prefetches;
+        ExecutorService prefetchExecutor;
+        // The modules that are failed or skipped. It is null if keepGoing is false.
+        FailedBuilds failedBuilds;
+        // Cancels the module builds in progress. It is null if failFast is false or modules are built sequentally.
+        BuildCanceller buildCanceller;
+        /* The parsed form of the build file which is used to populate module-specific projects.
+           It is null if the build file is parsed for each module. */
+        BuildFileTemplate buildFileTemplate;
+    }
+    
+    /* Cancels the module builds in progress in the fail-fast mode. The threads that invoke the
+     * target for modules are interrupted so that the tasks that wait for something (e.g. an external
+     * process) finish rapidly. In addition, it is registered as a build listener of the module-specific
+     * projects so that they fail cooperatively as soon as the next target or task is started.
+     * 
+     * A thread is interrupted only while it is inside the target invocation so that the work
+     * this task does around it (e.g. hashing or copying the module files with interruptible
+     * channels) is not interrupted. The interrupted status of the thread is restored to what it
+     * was before the cancellation once the invocation finishes so that the status set by this
+     * canceller does not leak to the thread that executes this task. Therefore, joinThreads detects
+     * only the interruptions that come from outside of this task. Instances of this class are
+     * thread-safe.
+     */
+    private static final class BuildCanceller implements BuildListener
+    {
+        private volatile boolean cancelled;
+        // The threads that are invoking the target for modules.
+        private final HashSet<Thread> invokingThreads = new HashSet<Thread>();
+        /* The threads that are interrupted by this canceller and are still invoking the target,
+           mapped to whether or not they were interrupted before the cancellation. */
+        private final HashMap<Thread, Boolean> interruptedThreads = new HashMap<Thread, Boolean>();
+        
+        // Returns true if the build is cancelled so that no module is to be built.
+        boolean isCancelled()
+        {
+            return cancelled;
+        }
+        
+        synchronized void invocationStarted()
+        {
+            invokingThreads.add(Thread.currentThread());
+        }
+        
+        /* The current thread cannot be interrupted by this canceller after this function returns
+           because cancel() is synchronised, too. */
+        synchronized void invocationFinished()
+        {
+            final Thread currentThread = Thread.currentThread();
+            invokingThreads.remove(currentThread);
+            final Boolean wasInterrupted = interruptedThreads.remove(currentThread);
+            if (wasInterrupted != null && !wasInterrupted.booleanValue()) {
+                Thread.interrupted();
+            }
+        }
+        
+        synchronized void cancel()
+        {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            for (final Thread thread : invokingThreads) {
+                interruptedThreads.put(thread, Boolean.valueOf(thread.isInterrupted()));
+                thread.interrupt();
+            }
+        }
+        
+        private void checkCancelled()
+        {
+            if (cancelled) {
+                throw new BuildException("The build is cancelled because the build of another module has failed.");
+            }
+        }
+        
+        public void targetStarted(final BuildEvent event)
+        {
+            checkCancelled();
+        }
+        
+        public void taskStarted(final BuildEvent event)
+        {
+            checkCancelled();
+        }
+        
+        public void buildStarted(final BuildEvent event)
+        {
+        }
+        
+        public void buildFinished(final BuildEvent event)
+        {
+        }
+        
+        public void targetFinished(final BuildEvent event)
+        {
+        }
+        
+        public void taskFinished(final BuildEvent event)
+        {
+        }
+        
+        public void messageLogged(final BuildEvent event)
+        {
+        }
+    }
+    
+    /* Records the modules that are not built in the keep-going mode. A module is recorded before
+     * it is reported as processed to the dependency resolver so that the modules that depend upon
+     * it see it as not built. Instances of this class are thread-safe.
+     */
+    private static final class FailedBuilds
+    {
+        private final ConcurrentHashMap<Module, Boolean> modulesNotBuilt =
+                new ConcurrentHashMap<Module, Boolean>();
+        private final ArrayList<FailedBuild> failures = new ArrayList<FailedBuild>();
+        private final AtomicInteger skippedCount = new AtomicInteger();
+        /* The graph the dependencies are taken from instead of the modules themselves. It is set
+           in the order 'reverse' before the modules are built and is not modified after that. */
+        DependencyGraph graph;
+        
+        Module findNotBuiltDependency(final Module module)
+        {
+            if (modulesNotBuilt.isEmpty()) {
+                return null;
+            }
+            if (graph != null) {
+                final int id = graph.indexOf(module);
+                for (int i = graph.dependencyOffsets[id], end = graph.dependencyOffsets[id + 1]; i < end; ++i) {
+                    final Module dep = graph.modules[graph.dependencies[i]];
+                    if (modulesNotBuilt.containsKey(dep)) {
+                        return dep;
+                    }
+                }
+                return null;
+            }
+            final Module[] deps = module.dependencies;
+            for (int i = 0; i < deps.length; ++i) {
+                final Module dep = deps[i];
+                if (modulesNotBuilt.containsKey(dep)) {
+                    return dep;
+                }
+            }
+            return null;
+        }
+        
+        void moduleSkipped(final Module module)
+        {
+            modulesNotBuilt.put(module, Boolean.TRUE);
+            skippedCount.incrementAndGet();
         }
-        finally {
-            if (startedThreadCount != threadCount) {
-                /* At least one thread was not started. Ensuring here that other threads will
-                 * stop module processing right after their current module is processed.
-                 */
-                dependencyResolver.abort();
+        
+        void moduleFailed(final Module module, final BuildException failure)
+        {
+            modulesNotBuilt.put(module, Boolean.TRUE);
+            synchronized (failures) {
+                failures.add(new FailedBuild(module.getPath(), failure));
             }
-            
-            /* Waiting for all worker threads to finish even if the build fails on
-             * a module that was being processed by this thread. This will allow the
-             * 'build failed' message to be the last one.
-             */
-            joinThreads(threads, startedThreadCount);
         }
         
-        if (buildFailed.get()) {
-            /* buildFailureException could contain either RuntimeException or Error
-               because this is what could be thrown in thread#run(). */
-            final Throwable ex = buildFailureException.get();
-            if (ex instanceof RuntimeException) {
-                throw (RuntimeException) ex; // includes properly initialised BuildException
-            } else {
-                throw (Error) ex;
+        boolean hasFailures()
+        {
+            synchronized (failures) {
+                return !failures.isEmpty();
             }
         }
-    }
-    
-    private static void joinThreads(final Thread[] threads, final int n)
-    {
-        /* parallelBuildWorker preserves the interrupted status of the current thread
-         * so an InterruptedException is thrown if this thread starts waiting
-         * for a helper thread to join. This leads to all helper threads interrupted
-         * so that the build finished rapidly and gracefully.
+        
+        /* Composes a build exception that lists the failures ordered by module path so that
+         * the message does not depend upon the order in which modules are built. The first
+         * failure listed is the cause of the exception.
          */
-        try {
-            for (int i = 0; i < n; ++i) {
-                threads[i].join();
+        BuildException buildException(final Location location)
+        {
+            final FailedBuild[] sortedFailures;
+            synchronized (failures) {
+                sortedFailures = failures.toArray(new FailedBuild[failures.size()]);
+            }
+            Arrays.sort(sortedFailures);
+            
+            final String lineSeparator = System.getProperty("line.separator");
+            final StringBuilder buf = new StringBuilder(MessageFormat.format(
+                    "The build failed for {0} module(s). {1} module(s) were skipped.",
+                    String.valueOf(sortedFailures.length), String.valueOf(skippedCount.get())));
+            for (int i = 0; i < sortedFailures.length; ++i) {
+                buf.append(lineSeparator).append(sortedFailures[i].failure.getMessage());
             }
+            return new BuildException(buf.toString(), sortedFailures[0].failure, location);
         }
-        catch (InterruptedException ex) {
-            /* Interrupting all the activities so that the build finishes as quick as possible.
-             * This is fine if an already finished thread is interrupted.
-             */
-            for (int i = 0; i < n; ++i) {
-                threads[i].interrupt();
+        
+        private static final class FailedBuild implements Comparable<FailedBuild>
+        {
+            final String modulePath;
+            final BuildException failure;
+            
+            FailedBuild(final String modulePath, final BuildException failure)
+            {
+                this.modulePath = modulePath;
+                this.failure = failure;
             }
             
-            Thread.currentThread().interrupt();
-            throw new BuildException("The build thread was interrupted.");
+            public int compareTo(final FailedBuild other)
+            {
+                return modulePath.compareTo(other.modulePath);
+            }
         }
     }
     
@@ -516,12 +1979,46 @@ public class CallTargetForModules extends Task
         this.moduleLoader = moduleLoader;
     }
     
+    /**
+     * <p>Sets a {@link ModuleBuildCache} that is to be used by this {@code <callTargetForModules>}
+     * task to restore the output files of the modules instead of building them. At most one
+     * build cache can be defined for a {@code <callTargetForModules>} task. The attribute
+     * <em>outputsAttribute</em> must be defined if the build cache is used.</p>
+     * 
+     * <p>This function backs the nested element {@code <moduleBuildCache>} of this
+     * {@code <callTargetForModules>} task. The module fingerprints are computed as they are
+     * in the {@link #setIncremental(boolean) incremental mode}, though the fingerprint file
+     * is not needed unless the incremental mode is on.</p>
+     * 
+     * @param moduleBuildCache the {@code ModuleBuildCache} instance to be used by this
+     *      {@code <callTargetForModules>} task. {@code null} value is not allowed.
+     * 
+     * @throws BuildException if more than one {@code ModuleBuildCache} is defined for this
+     *      {@code <callTargetForModules>} task.
+     * @throws NullPointerException if <em>moduleBuildCache</em> is {@code null}.
+     * 
+     * @see #setOutputsAttribute(String)
+     */
+    public void addConfiguredModuleBuildCache(final ModuleBuildCache moduleBuildCache)
+    {
+        if (moduleBuildCache == null) {
+            throw new NullPointerException("moduleBuildCache");
+        }
+        if (this.moduleBuildCache != null) {
+            throw new BuildException("Only a single <moduleBuildCache> element is allowed.");
+        }
+        this.moduleBuildCache = moduleBuildCache;
+    }
+    
     /**
      * <p>Sets the number of threads to be used by this {@code <callTargetForModules>}
      * task to build independent modules in parallel. If <em>1</em> is passed then
      * modules are built sequentally. By default, the number of threads used is
      * <em>1</em>.</p>
      * 
+     * <p>Module metadata is loaded by a single thread regardless of this setting unless
+     * {@link #setLoaderThreadCount(int) loaderThreadCount} is greater than <em>1</em>.</p>
+     * 
      * <p>This setter is accessible via the attribute {@code threadCount} of this
      * {@code <callTargetForModules>} task.</p>
      * 
@@ -542,6 +2039,418 @@ public class CallTargetForModules extends Task
         this.threadCount = threadCount;
     }
     
+    /**
+     * <p>Sets the number of threads to be used by this {@code <callTargetForModules>} task
+     * to load module metadata in parallel. If <em>1</em> is passed then the metadata is loaded
+     * by the thread that executes this task, and the {@link #addConfigured(ModuleLoader) module
+     * loader} is never invoked by multiple threads simultaneously. By default, the number of
+     * threads used is <em>1</em>.</p>
+     * 
+     * <p>If a greater value is passed then the module loader must allow for loading modules by
+     * multiple threads simultaneously. The metadata of the modules needed by all elements
+     * {@code <module>} is loaded at once. This setting is independent of
+     * {@link #setThreadCount(int) threadCount}.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code loaderThreadCount} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param loaderThreadCount the number of threads to be set. It must be a positive value.
+     * 
+     * @throws BuildException if <em>loaderThreadCount</em> is non-positive.
+     * 
+     * @see ModuleRegistry#ModuleRegistry(ModuleLoader, int)
+     */
+    public void setLoaderThreadCount(final int loaderThreadCount)
+    {
+        if (loaderThreadCount <= 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid loader thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(loaderThreadCount)));
+        }
+        this.loaderThreadCount = loaderThreadCount;
+    }
+    
+    /**
+     * <p>Sets the policy of choosing the next module to build if there are multiple modules
+     * that are ready to be built in parallel. The following values are allowed:</p>
+     * <ul>
+     *  <li>{@code default} &ndash; the order in which independent modules are built is
+     *      undefined. It is the default value</li>
+     *  <li>{@code criticalPath} &ndash; the module with the longest chain of modules that
+     *      (directly or indirectly) depend upon it is built first. Starting long dependency
+     *      chains early allows all threads to be kept busy till the end of the build</li>
+     *  <li>{@code buildTime} &ndash; the same as {@code criticalPath} except that chains
+     *      of modules are compared by the total duration of the previous builds of their
+     *      modules, which are read from the {@link #setHistoryFile(File) history file}.
+     *      The modules that have not been built before are assumed to take the average
+     *      build time. The history file must be defined for this policy</li>
+     * </ul>
+     * <p>The scheduling policy is used only if modules are built by multiple
+     * {@link #setThreadCount(int) threads}.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code schedulingPolicy} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param schedulingPolicy the name of the scheduling policy. It must be non-{@code null}.
+     * 
+     * @throws NullPointerException if <em>schedulingPolicy</em> is {@code null}.
+     * @throws BuildException if <em>schedulingPolicy</em> is not a valid scheduling policy.
+     * 
+     * @see ParallelDependencyResolver#init(java.util.Collection, boolean)
+     * @see ParallelDependencyResolver#init(java.util.Collection, java.util.Map)
+     */
+    public void setSchedulingPolicy(final String schedulingPolicy)
+    {
+        if (schedulingPolicy == null) {
+            throw new NullPointerException("schedulingPolicy");
+        }
+        for (final SchedulingPolicy policy : SchedulingPolicy.values()) {
+            if (policy.name.equals(schedulingPolicy)) {
+                this.schedulingPolicy = policy;
+                return;
+            }
+        }
+        throw new BuildException(MessageFormat.format(
+                "Invalid scheduling policy: ''{0}''.", schedulingPolicy));
+    }
+    
+    /**
+     * <p>Sets the order in which modules are built by this {@code <callTargetForModules>} task.
+     * The following values are allowed:</p>
+     * <ul>
+     *  <li>{@code normal} &mdash; each module is built after all modules it depends upon
+     *      (directly or indirectly) are built. This is the default value</li>
+     *  <li>{@code reverse} &mdash; each module is built after all modules that depend upon it
+     *      (directly or indirectly) are built. It is the order needed by the targets that clean
+     *      up, undeploy or invalidate modules. Independent modules are built in parallel as they
+     *      are in the order {@code normal}, and the scheduling policies are applied to the
+     *      inverted dependencies</li>
+     * </ul>
+     * <p>The set of modules built is the same in either order. It consists of the modules
+     * defined by the elements {@code <module>} and all modules they depend upon. In the order
+     * {@code reverse} and the {@link #setKeepGoing(boolean) keep-going mode}, the modules
+     * that some failed module depends upon are skipped.</p>
+     * 
+     * <p>The order {@code reverse} cannot be used in the {@link #setIncremental(boolean)
+     * incremental mode}, the {@link #setResume(boolean) resume mode} or the
+     * {@link #setStreaming(boolean) streaming mode}, or together with the
+     * {@link #addConfiguredModuleBuildCache(ModuleBuildCache) module build cache}, because all
+     * of them need the modules a module depends upon to be built before this module is built.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code order} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param order the order to be set. It must be non-{@code null}.
+     * 
+     * @throws NullPointerException if <em>order</em> is {@code null}.
+     * @throws BuildException if <em>order</em> is not a valid order.
+     * 
+     * @see DependencyGraph#reverse()
+     */
+    public void setOrder(final String order)
+    {
+        if (order == null) {
+            throw new NullPointerException("order");
+        }
+        for (final Order o : Order.values()) {
+            if (o.name.equals(order)) {
+                this.order = o;
+                return;
+            }
+        }
+        throw new BuildException(MessageFormat.format("Invalid order: ''{0}''.", order));
+    }
+    
+    /**
+     * <p>Sets the file where the durations of module builds are recorded. If this file exists
+     * then the durations recorded by the previous builds are loaded from it before modules are
+     * built. The durations of the modules built successfully are saved to this file after all
+     * modules are built or the build fails. The modules that are not built are kept in the
+     * history file as is. The durations recorded are used by the scheduling policy
+     * {@code buildTime} (see {@link #setSchedulingPolicy(String)}).</p>
+     * 
+     * <p>The build does not fail if the history file cannot be read or written. A warning
+     * is logged instead. The history file is typically placed into the build directory.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code historyFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param historyFile the history file to be set. {@code null} means that the durations
+     *      of module builds are not recorded.
+     */
+    public void setHistoryFile(final File historyFile)
+    {
+        this.historyFile = historyFile;
+    }
+    
+    /**
+     * <p>Sets the journal file where the modules built successfully are to be recorded. Each module
+     * is recorded as soon as it is built, together with a fingerprint of the name of the target
+     * invoked for this module and the configuration of the module-specific project (the parameters
+     * defined by {@link #createParam() &lt;param&gt;} and the attributes <em>inheritAll</em>,
+     * <em>inheritRefs</em> and <em>moduleRefId</em>). If the build fails then it could be resumed
+     * by means of {@link #setResume(boolean) resume} so that only the modules that are not built
+     * yet are built. The journal file is deleted once all modules are built successfully.
+     * If the journal file is undefined then the modules built are not recorded.</p>
+     * 
+     * <p>The journal file is not required to exist. If the journal file cannot be read or written
+     * then a warning is logged and the build continues as if the journal file were undefined.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code journalFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param journalFile the journal file to be set.
+     */
+    public void setJournalFile(final File journalFile)
+    {
+        this.journalFile = journalFile;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not the build is to be resumed from the point the previous
+     * build has failed at. If {@code true} is set then the modules recorded in the
+     * {@link #setJournalFile(File) journal file} are reported as processed without being built
+     * if they are built with the same target and configuration and all modules they depend upon
+     * are skipped, too. If {@code false} is set then the journal file is cleared and all modules
+     * are built. {@code false} is the default value.</p>
+     * 
+     * <p>Note that the changes made to the modules after they are built are not detected.
+     * The journal file must be defined if the build is resumed.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code resume} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param resume the flag value to be set.
+     */
+    public void setResume(final boolean resume)
+    {
+        this.resume = resume;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not the modules that are not changed since their latest
+     * successful build are to be skipped. If {@code true} is set then the fingerprint of each
+     * module is computed before the module is built. It is a hash of the module's input files
+     * (defined by {@link #createInputs() &lt;inputs&gt;}), the name of the target invoked,
+     * the configuration of the module-specific project (as for {@link #setJournalFile(File)
+     * journalFile}), and the fingerprints of the modules it depends upon. If the fingerprint is
+     * equal to the fingerprint of the latest successful build of this module, which is recorded
+     * in the {@link #setFingerprintFile(File) fingerprint file}, then the module is reported as
+     * processed without being built. Therefore, a module is rebuilt if some module it depends
+     * upon (directly or indirectly) is changed. If {@code false} is set then all modules are
+     * built. {@code false} is the default value.</p>
+     * 
+     * <p>The input files of different modules are hashed in parallel if modules are built
+     * by multiple threads. Note that the files generated by a module build are expected to be
+     * excluded from the input files. Otherwise the module is considered changed after each
+     * build.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code incremental} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param incremental the flag value to be set.
+     */
+    public void setIncremental(final boolean incremental)
+    {
+        this.incremental = incremental;
+    }
+    
+    /**
+     * <p>Sets the file where the fingerprints of the latest successful module builds are to be
+     * recorded. It must be defined if the {@link #setIncremental(boolean) incremental mode} is on.
+     * The file is not required to exist. If it cannot be read then all modules are built.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code fingerprintFile} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param fingerprintFile the fingerprint file to be set.
+     */
+    public void setFingerprintFile(final File fingerprintFile)
+    {
+        this.fingerprintFile = fingerprintFile;
+    }
+    
+    /**
+     * <p>Sets the name of the module attribute that holds the locations of the module output
+     * files. In the {@link #setIncremental(boolean) incremental mode} the output files of
+     * each module built are hashed after the target is executed. If the output files of
+     * a module are not changed by its build then the modules that depend upon it are not
+     * considered changed and are skipped unless they are changed themselves (early cutoff).
+     * It is the build of the module that must ensure that unchanged sources produce
+     * byte-identical output files (e.g. that no timestamps are recorded in JAR files).</p>
+     * 
+     * <p>The attribute value can be either an Ant {@link Path} (e.g. a classpath attribute
+     * loaded by {@link ManifestModuleLoader}), a {@link File}, or a string that is a list of
+     * locations relative to the module directory. Each location is either a file or
+     * a directory. The modules that do not have this attribute are handled as if no output
+     * files were defined, that is, the modules that depend upon them are rebuilt each time
+     * these modules are rebuilt. The output files are not hashed if this attribute is not
+     * set.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code outputsAttribute} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param outputsAttribute the name of the module attribute to be set.
+     */
+    public void setOutputsAttribute(final String outputsAttribute)
+    {
+        this.outputsAttribute = outputsAttribute;
+    }
+    
+    /**
+     * <p>Creates a new {@link PatternSet} that backs the nested element {@code <inputs>} of this
+     * {@code <callTargetForModules>} task. It defines the input files of each module which are
+     * hashed in the {@link #setIncremental(boolean) incremental mode}. The patterns are applied
+     * to the module directory, that is, the directory with the path of the module relative to
+     * the project base directory. Ant's default excludes are applied, too. If {@code <inputs>}
+     * is not defined then all files in the module directory except for the files in its
+     * subdirectory {@code build} (i.e. the pattern {@code build/**}) are the input files.
+     * In either case the {@link #setOutputsAttribute(String) output files} of the module that
+     * are located in the module directory are excluded from the input files so that the files
+     * produced by a build do not make the module changed for the next build.</p>
+     * 
+     * @return the {@code PatternSet} created. It is never {@code null}.
+     * 
+     * @throws BuildException if the element {@code <inputs>} is already defined.
+     */
+    public PatternSet createInputs()
+    {
+        if (inputs != null) {
+            throw new BuildException("Only one <inputs> element is allowed.");
+        }
+        inputs = new PatternSet();
+        inputs.setProject(getProject());
+        return inputs;
+    }
+    
+    /**
+     * <p>Creates a resource collection that backs the nested element {@code <changedFiles>} of
+     * this {@code <callTargetForModules>} task. It defines the files that are changed since
+     * the latest build. If it is defined then only the modules that own these files and
+     * the modules that depend (directly or indirectly) upon them are built, along with all
+     * modules they depend upon. Among the modules defined by the elements {@code <module>}
+     * and the modules they depend upon, a file is owned by the module with the longest path
+     * that contains this file. The files that are not owned by any module are ignored.
+     * If no module owns a changed file then no module is built.</p>
+     * 
+     * <p>The paths of the changed files are {@link ModuleLoader#normalisePath(String) normalised}
+     * by the module loader in the same way as the module paths are. The path of a file resource
+     * is its absolute path. The path of a resource of any other type is its name which is
+     * expected to be relative to the project base directory. This allows for the file
+     * names listed by {@code <resourcelist>} to be used.</p>
+     * 
+     * <p>The element {@code <changedFiles>} is not supported in the
+     * {@link #setStreaming(boolean) streaming mode} because it needs the complete graph
+     * of modules.</p>
+     * 
+     * @return the resource collection created. It is never {@code null}.
+     * 
+     * @throws BuildException if the element {@code <changedFiles>} is already defined.
+     */
+    public Union createChangedFiles()
+    {
+        if (changedFiles != null) {
+            throw new BuildException("Only one <changedFiles> element is allowed.");
+        }
+        changedFiles = new Union();
+        changedFiles.setProject(getProject());
+        return changedFiles;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not modules are to be built while the remaining modules are
+     * still being loaded. If {@code true} is set then a module becomes available to be built
+     * as soon as the metadata of this module and all modules it depends upon (directly or
+     * indirectly) is loaded. The helper threads build modules while the thread that executes
+     * this task loads module metadata, so that metadata I/O is overlapped with module builds.
+     * If {@code false} is set then the metadata of all modules is loaded before the first
+     * module is built. {@code false} is the default value.</p>
+     * 
+     * <p>The streaming mode has no effect if modules are built sequentally (i.e. if
+     * <em>threadCount</em> is <em>1</em>). Only the scheduling policy {@code default}
+     * is supported in this mode because the other policies need the complete graph of
+     * modules. If a module cannot be loaded or there are cyclic dependencies between
+     * modules then the build fails, though some modules could have been built already.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code streaming} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param streaming the flag value to be set.
+     */
+    public void setStreaming(final boolean streaming)
+    {
+        this.streaming = streaming;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not the build is to continue after the build of some module
+     * fails. If {@code true} is set then the modules that depend (directly or indirectly) upon
+     * a failed module are skipped but all other modules are built, as if the build had not
+     * failed. Once there is no module left to build, a {@link BuildException} that lists all
+     * the build failures is thrown. If {@code false} is set then no module is built after
+     * the first failure and this failure is thrown. {@code false} is the default value.</p>
+     * 
+     * <p>The keep-going mode is useful for continuous integration builds because all broken
+     * modules are reported by a single build. Module metadata loading failures and cyclic
+     * dependencies between modules stop the build in either mode.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code keepGoing} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param keepGoing the flag value to be set.
+     */
+    public void setKeepGoing(final boolean keepGoing)
+    {
+        this.keepGoing = keepGoing;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not the builds of modules that are in progress are to be
+     * cancelled if the build of some module fails. If {@code true} is set then the threads that
+     * build these modules are interrupted, so that the tasks that wait for something (e.g. for
+     * an external process to finish) stop waiting, and the module-specific Ant projects fail as
+     * soon as they start the next target or task. If {@code false} is set then the modules that
+     * are being built are built completely before the build fails, though no module is started
+     * after the failure. {@code false} is the default value.</p>
+     * 
+     * <p>The fail-fast mode has no effect if modules are built sequentally (i.e. if
+     * <em>threadCount</em> is <em>1</em>). It cannot be used together with <em>keepGoing</em>.
+     * In either mode the failure of the first module that has failed is reported.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code failFast} of this
+     * {@code <callTargetForModules>} task.</p>
+     * 
+     * @param failFast the flag value to be set.
+     */
+    public void setFailFast(final boolean failFast)
+    {
+        this.failFast = failFast;
+    }
+    
+    /**
+     * <p>Sets the flag whether or not the current build file is to be parsed only once per
+     * execution of this {@code <callTargetForModules>} task. If {@code true} is set then
+     * the build file is parsed before the first module is processed and the module-specific
+     * Ant projects are populated with the targets of the parsed build file. If {@code false}
+     * is set then the build file is parsed for each module, as {@code <ant>} does.
+     * {@code false} is the default value.</p>
+     * 
+     * <p>In either case the module-specific projects are initialised in the same way, with the
+     * same properties and references, and the top-level tasks of the build file are executed
+     * within each module-specific project. Parsing the build file once could save significant
+     * time if there are many modules to be processed. If the build file contains top-level
+     * {@code <import>} or {@code <include>} tasks then it is parsed for each module regardless
+     * of this flag.</p>
+     * 
+     * <p>Caching the build file requires Ant 1.8.0 or later.</p>
+     * 
+     * @param cacheBuildFile the flag value to be set.
+     */
+    public void setCacheBuildFile(final boolean cacheBuildFile)
+    {
+        this.cacheBuildFile = cacheBuildFile;
+    }
+    
     /**
      * <p>Sets the ID of the Ant reference in a module-specific project that is assigned
      * with the {@link Module} instance that is associated with this module. If it is not
@@ -749,6 +2658,35 @@ public class CallTargetForModules extends Task
         }
     }
     
+    private static enum SchedulingPolicy
+    {
+        DEFAULT("default"),
+        CRITICAL_PATH("criticalPath"),
+        BUILD_TIME("buildTime");
+        
+        // The name that is used in build files.
+        final String name;
+        
+        private SchedulingPolicy(final String name)
+        {
+            this.name = name;
+        }
+    }
+    
+    private static enum Order
+    {
+        NORMAL("normal"),
+        REVERSE("reverse");
+        
+        // The name that is used in build files.
+        final String name;
+        
+        private Order(final String name)
+        {
+            this.name = name;
+        }
+    }
+    
     /**
      * <p>Serves as the nested element {@code <param>} of the task
      * {@link CallTargetForModules &lt;callTargetForModules&gt;} and defines the parameters to be
@@ -940,6 +2878,47 @@ public class CallTargetForModules extends Task
             prefixSet = true;
         }
         
+        // Appends the attributes defined to the configuration recorded in the build journal.
+        private void appendConfiguration(final StringBuilder buf)
+        {
+            if (nameSet) {
+                buf.append("name=").append(name).append(';');
+            }
+            if (valueSet) {
+                buf.append("value=").append(value).append(';');
+            }
+            if (locationSet) {
+                buf.append("location=").append(location).append(';');
+            }
+            if (fileSet) {
+                buf.append("file=").append(file).append(';');
+            }
+            if (urlSet) {
+                buf.append("url=").append(url).append(';');
+            }
+            if (resourceSet) {
+                buf.append("resource=").append(resource).append(';');
+            }
+            if (classpathAttributeSet) {
+                buf.append("classpath=").append(classpathAttribute).append(';');
+            }
+            if (classpath != null) {
+                buf.append("classpathElement=").append(classpath).append(';');
+            }
+            if (classpathRefSet) {
+                buf.append("classpathRef=").append(classpathRef == null ? null : classpathRef.getRefId()).append(';');
+            }
+            if (environmentSet) {
+                buf.append("environment=").append(environment).append(';');
+            }
+            if (referenceSet) {
+                buf.append("refid=").append(reference == null ? null : reference.getRefId()).append(';');
+            }
+            if (prefixSet) {
+                buf.append("prefix=").append(prefix).append(';');
+            }
+        }
+        
         private void populate(final Property property)
         {
             if (nameSet) {
@@ -22,6 +22,9 @@
    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
 package afc.ant.modular;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -31,6 +34,10 @@ import java.util.List;
  * an order in which modules could be processes so that each module is processed
  * after all its dependee modules are processed.</p>
  * 
+ * <p>A single exception could report multiple dependency loops. The dependency resolvers
+ * report a loop for each group of mutually dependent modules found so that all of them
+ * could be fixed at once.</p>
+ * 
  * @author D&#378;mitry La&#365;&#269;uk
  * 
  * @see SerialDependencyResolver
@@ -38,7 +45,7 @@ import java.util.List;
  */
 public class CyclicDependenciesDetectedException extends Exception
 {
-    private final List<Module> loop;
+    private final List<List<Module>> loops;
     
     /**
      * <p>Creates an instance of {@code CyclicDependenciesDetectedException} and
@@ -61,31 +68,86 @@ public class CyclicDependenciesDetectedException extends Exception
      */
     public CyclicDependenciesDetectedException(final List<Module> loop)
     {
-        super(errorMessage(loop));
-        this.loop = loop;
+        this(Collections.singletonList(loop));
+    }
+    
+    /**
+     * <p>Creates an instance of {@code CyclicDependenciesDetectedException} and
+     * initialises it with the given dependency loops. Each loop is a list of modules
+     * in the order they are placed in this loop, as it is passed to
+     * {@link #CyclicDependenciesDetectedException(List)}.</p>
+     * 
+     * <p>The exception message is composed basing on the given loops. They are listed
+     * in the order they are returned by the collection's iterator.</p>
+     * 
+     * <p>Ownership over the given loop lists is taken by the instance created. They should
+     * not be modified after the exception is created. The collection itself is not modified
+     * by this constructor and ownership over it is not passed to this exception.</p>
+     * 
+     * @param loops the dependency loops. This collection must be non-empty and neither
+     *      it nor any of its elements could be {@code null}.
+     * 
+     * @throws NullPointerException if <em>loops</em> or any of its elements is {@code null}.
+     * @throws IllegalArgumentException if <em>loops</em> is empty.
+     */
+    public CyclicDependenciesDetectedException(final Collection<List<Module>> loops)
+    {
+        super(errorMessage(loops));
+        this.loops = Collections.unmodifiableList(new ArrayList<List<Module>>(loops));
     }
     
     /**
      * <p>Returns the list of the modules that form the dependency loop this exception
-     * is associated with. The list returned is mutable. It is never {@code null}.</p>
+     * is associated with. If this exception reports multiple loops then the first of them
+     * is returned. The list returned is mutable. It is never {@code null}.</p>
      * 
      * @return the list of the modules that form the dependency loop.
+     * 
+     * @see #getLoops()
      */
     public List<Module> getLoop()
     {
-        return loop;
+        return loops.get(0);
+    }
+    
+    /**
+     * <p>Returns all dependency loops this exception is associated with, in the order they
+     * are listed in the exception message. Each loop is a list of the modules that form it.
+     * The list returned is unmodifiable and non-empty. It is never {@code null}.</p>
+     * 
+     * @return the list of the dependency loops.
+     */
+    public List<List<Module>> getLoops()
+    {
+        return loops;
     }
     
-    private static String errorMessage(final List<Module> loop)
+    private static String errorMessage(final Collection<List<Module>> loops)
     {
-        final StringBuilder buf = new StringBuilder("Cyclic dependencies detected: [");
-        if (!loop.isEmpty()) {
-            buf.append("->");
-            for (final Module module : loop) {
-                buf.append(module.getPath()).append("->");
+        if (loops == null) {
+            throw new NullPointerException("loops");
+        }
+        if (loops.isEmpty()) {
+            throw new IllegalArgumentException("No loops are passed.");
+        }
+        final StringBuilder buf = new StringBuilder("Cyclic dependencies detected: ");
+        boolean first = true;
+        for (final List<Module> loop : loops) {
+            if (first) {
+                first = false;
+            } else {
+                buf.append(", ");
+            }
+            buf.append('[');
+            if (!loop.isEmpty()) {
+                buf.append("->");
+                for (final Module module : loop) {
+                    buf.append(module.getPath()).append("->");
+                }
             }
+            buf.append(']');
         }
-        buf.append("].");
+        buf.append('.');
         return buf.toString();
     }
 }
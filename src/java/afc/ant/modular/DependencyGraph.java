@@ -0,0 +1,325 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>A precompiled graph of dependencies between {@link Module modules}. It consists of
+ * given root modules and all their direct and indirect dependee modules. The modules are
+ * ordered and checked for cyclic dependencies once, when the {@code DependencyGraph} is
+ * created. {@link SerialDependencyResolver#initFromGraph(DependencyGraph)} and
+ * {@link ParallelDependencyResolver#initFromGraph(DependencyGraph)} initialise the resolvers with
+ * a {@code DependencyGraph} in linear time with no graph traversal. That is, a caller that
+ * holds the same modules for multiple resolvers orders them only once.
+ * {@link CallTargetForModules} creates a graph for each execution because it loads the modules
+ * anew each time.</p>
+ * 
+ * <p>The dependencies of the modules are captured when the {@code DependencyGraph} is
+ * created. Modules are not expected to change their dependencies after that.</p>
+ * 
+ * <p>Internally, the graph is stored in an array-based form. Each module is assigned with
+ * a dense integer identifier which is the position of this module in the topological order
+ * of the graph. That is, each module has a greater identifier than all modules it depends
+ * upon.</p>
+ * 
+ * <p>Both the dependencies and the inverted dependencies are stored in the compressed sparse
+ * row form. The identifiers of the dependee modules of the module {@code i} are stored in
+ * {@link #dependencies} at the positions from {@code dependencyOffsets[i]} (inclusive) to
+ * {@code dependencyOffsets[i+1]} (exclusive). The identifiers of the modules that depend upon
+ * the module {@code i} are stored in {@link #dependers} in the same way. Walking the graph
+ * does not involve hash lookups and the graph takes a few bytes per module and per
+ * dependency.</p>
+ * 
+ * <p>{@code DependencyGraph} is immutable and thread-safe. It could be shared by multiple
+ * dependency resolvers, including the resolvers that are used by different threads.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ * 
+ * @see SerialDependencyResolver
+ * @see ParallelDependencyResolver
+ */
+public final class DependencyGraph
+{
+    /* The modules in the topological order. The position of a module is its identifier.
+       These arrays are never modified after the graph is created. */
+    final Module[] modules;
+    final int[] dependencyOffsets;
+    final int[] dependencies;
+    final int[] dependerOffsets;
+    final int[] dependers;
+    
+    /* An open-addressing hash table that maps modules to their identifiers.
+       The modules are compared by reference, as IdentityHashMap does. */
+    private final Module[] indexModules;
+    private final int[] indexIds;
+    private final List<Module> modulesView;
+    
+    /**
+     * <p>Creates a {@code DependencyGraph} that consists of given root modules and all their
+     * direct and indirect {@link Module#getDependencies() dependee modules}.</p>
+     * 
+     * @param rootModules the root modules of the graph. This collection and all of its
+     *      elements must be non-{@code null}. This collection is not modified by this
+     *      constructor and ownership over it is not passed to this {@code DependencyGraph}.
+     * 
+     * @throws CyclicDependenciesDetectedException if there are cyclic dependencies between
+     *      the modules. A loop is reported for each group of mutually dependent modules.
+     * @throws NullPointerException if either <em>rootModules</em> or any of its elements
+     *      is {@code null}.
+     */
+    public DependencyGraph(final Collection<Module> rootModules) throws CyclicDependenciesDetectedException
+    {
+        this(orderModules(rootModules));
+    }
+    
+    private DependencyGraph(final Module[] modules)
+    {
+        this.modules = modules;
+        modulesView = Collections.unmodifiableList(Arrays.asList(modules));
+        final int moduleCount = modules.length;
+        
+        int capacity = 2;
+        while (capacity < moduleCount * 2) {
+            capacity <<= 1;
+        }
+        indexModules = new Module[capacity];
+        indexIds = new int[capacity];
+        for (int id = 0; id < moduleCount; ++id) {
+            int i = slot(modules[id]);
+            while (indexModules[i] != null) {
+                i = (i + 1) & (capacity - 1);
+            }
+            indexModules[i] = modules[id];
+            indexIds[i] = id;
+        }
+        
+        dependencyOffsets = new int[moduleCount + 1];
+        dependerOffsets = new int[moduleCount + 1];
+        for (int id = 0; id < moduleCount; ++id) {
+            dependencyOffsets[id + 1] = dependencyOffsets[id] + modules[id].dependencies.length;
+        }
+        dependencies = new int[dependencyOffsets[moduleCount]];
+        /* The number of the dependers of each module is counted at the position that follows
+           the position of its offset so that the offsets are obtained as prefix sums. */
+        for (int id = 0, pos = 0; id < moduleCount; ++id) {
+            final Module[] deps = modules[id].dependencies;
+            for (int i = 0, n = deps.length; i < n; ++i) {
+                final int depId = indexOf(deps[i]);
+                dependencies[pos++] = depId;
+                ++dependerOffsets[depId + 1];
+            }
+        }
+        for (int id = 0; id < moduleCount; ++id) {
+            dependerOffsets[id + 1] += dependerOffsets[id];
+        }
+        dependers = new int[dependerOffsets[moduleCount]];
+        final int[] dependerCounts = new int[moduleCount];
+        for (int id = 0; id < moduleCount; ++id) {
+            for (int i = dependencyOffsets[id], end = dependencyOffsets[id + 1]; i < end; ++i) {
+                final int depId = dependencies[i];
+                dependers[dependerOffsets[depId] + dependerCounts[depId]++] = id;
+            }
+        }
+    }
+    
+    // Creates the graph with the edges of a given graph inverted.
+    private DependencyGraph(final DependencyGraph graph)
+    {
+        final Module[] graphModules = graph.modules;
+        final int moduleCount = graphModules.length;
+        modules = new Module[moduleCount];
+        for (int id = 0; id < moduleCount; ++id) {
+            modules[moduleCount - 1 - id] = graphModules[id];
+        }
+        modulesView = Collections.unmodifiableList(Arrays.asList(modules));
+        
+        // The dependers of a module become its dependencies and vice versa.
+        dependencyOffsets = reverseOffsets(graph.dependerOffsets);
+        dependencies = reverseRows(graph.dependerOffsets, graph.dependers);
+        dependerOffsets = reverseOffsets(graph.dependencyOffsets);
+        dependers = reverseRows(graph.dependencyOffsets, graph.dependencies);
+        
+        // The hash table is shared with the graph. Only the identifiers are different.
+        indexModules = graph.indexModules;
+        final int[] graphIndexIds = graph.indexIds;
+        indexIds = new int[graphIndexIds.length];
+        for (int i = 0, n = indexModules.length; i < n; ++i) {
+            if (indexModules[i] != null) {
+                indexIds[i] = moduleCount - 1 - graphIndexIds[i];
+            }
+        }
+    }
+    
+    /* The module identifiers are reversed by the inverted graph so that the module i becomes
+     * the module n-1-i. These functions reorder the rows of a compressed sparse row array
+     * accordingly and translate the identifiers stored.
+     */
+    private static int[] reverseOffsets(final int[] offsets)
+    {
+        final int moduleCount = offsets.length - 1;
+        final int[] result = new int[offsets.length];
+        for (int id = 0; id < moduleCount; ++id) {
+            final int oldId = moduleCount - 1 - id;
+            result[id + 1] = result[id] + offsets[oldId + 1] - offsets[oldId];
+        }
+        return result;
+    }
+    
+    private static int[] reverseRows(final int[] offsets, final int[] values)
+    {
+        final int moduleCount = offsets.length - 1;
+        final int[] result = new int[values.length];
+        for (int id = 0, pos = 0; id < moduleCount; ++id) {
+            final int oldId = moduleCount - 1 - id;
+            for (int i = offsets[oldId], end = offsets[oldId + 1]; i < end; ++i) {
+                result[pos++] = moduleCount - 1 - values[i];
+            }
+        }
+        return result;
+    }
+    
+    private static Module[] orderModules(final Collection<Module> rootModules)
+            throws CyclicDependenciesDetectedException
+    {
+        if (rootModules == null) {
+            throw new NullPointerException("rootModules");
+        }
+        for (final Module module : rootModules) {
+            if (module == null) {
+                throw new NullPointerException("rootModules contains null element.");
+            }
+        }
+        final ArrayList<Module> moduleOrder = DependencySorter.sort(rootModules,
+                Collections.<Module, Object>emptyMap());
+        return moduleOrder.toArray(new Module[moduleOrder.size()]);
+    }
+    
+    /**
+     * <p>Returns the modules of this {@code DependencyGraph} in the order so that each module
+     * is located after all modules it depends upon. The list returned is unmodifiable.
+     * It is never {@code null}.</p>
+     * 
+     * @return the modules of this {@code DependencyGraph} in the topological order.
+     */
+    public List<Module> getModules()
+    {
+        return modulesView;
+    }
+    
+    /**
+     * <p>Returns the {@code DependencyGraph} that consists of the same modules as this
+     * {@code DependencyGraph} does but with the dependencies inverted. That is, the modules
+     * that depend upon a module in this graph are treated as the dependee modules of this
+     * module in the graph returned, and vice versa. The modules of the graph returned are
+     * in the reverse order as against this graph.</p>
+     * 
+     * <p>The graph returned allows for the dependency resolvers initialised with it to
+     * process each module before all modules it depends upon are processed, which is
+     * the order needed to clean up or undeploy modules. The graph is built in linear time
+     * with no graph traversal. Note that {@link Module#getDependencies()} is not affected
+     * by this function so that the modules themselves still report the original
+     * dependencies.</p>
+     * 
+     * @return the inverted {@code DependencyGraph}. It is never {@code null}.
+     */
+    public DependencyGraph reverse()
+    {
+        return new DependencyGraph(this);
+    }
+    
+    /**
+     * <p>Returns the subgraph of this {@code DependencyGraph} that consists of given root
+     * modules and all their direct and indirect dependee modules. The root modules are
+     * defined by their identifiers. The subgraph is built in linear time. The modules are
+     * neither sorted nor checked for cyclic dependencies again.</p>
+     * 
+     * @param roots the flags that are {@code true} at the identifiers of the root modules.
+     *      It must be non-{@code null} and have the length equal to the size of this graph.
+     *      This array is modified: the flags of the dependee modules of the root modules
+     *      are set to {@code true}, too.
+     * 
+     * @return the subgraph. It is never {@code null}.
+     */
+    DependencyGraph subgraph(final boolean[] roots)
+    {
+        assert roots != null;
+        assert roots.length == modules.length;
+        
+        // The dependee modules of a module precede it in the topological order.
+        int moduleCount = 0;
+        for (int id = roots.length - 1; id >= 0; --id) {
+            if (roots[id]) {
+                for (int i = dependencyOffsets[id], end = dependencyOffsets[id + 1]; i < end; ++i) {
+                    roots[dependencies[i]] = true;
+                }
+                ++moduleCount;
+            }
+        }
+        final Module[] subgraphModules = new Module[moduleCount];
+        for (int id = 0, pos = 0; pos < moduleCount; ++id) {
+            if (roots[id]) {
+                subgraphModules[pos++] = modules[id];
+            }
+        }
+        return new DependencyGraph(subgraphModules);
+    }
+    
+    int size()
+    {
+        return modules.length;
+    }
+    
+    /**
+     * <p>Returns the identifier of a given module or <em>-1</em> if this module does not belong
+     * to this {@code DependencyGraph}.</p>
+     * 
+     * @param module the module whose identifier is to be returned. It must be non-{@code null}.
+     * 
+     * @return the identifier of the module or <em>-1</em>.
+     */
+    int indexOf(final Module module)
+    {
+        final Module[] indexModules = this.indexModules;
+        final int mask = indexModules.length - 1;
+        for (int i = slot(module);; i = (i + 1) & mask) {
+            final Module m = indexModules[i];
+            if (m == module) {
+                return indexIds[i];
+            }
+            if (m == null) {
+                return -1;
+            }
+        }
+    }
+    
+    private int slot(final Module module)
+    {
+        final int h = System.identityHashCode(module);
+        return (h ^ (h >>> 16)) & (indexModules.length - 1);
+    }
+}
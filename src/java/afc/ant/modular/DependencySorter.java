@@ -0,0 +1,208 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>Orders {@link Module modules} so that each module is placed after all modules it depends
+ * upon. It is used by {@link SerialDependencyResolver} and {@link ParallelDependencyResolver}.</p>
+ * 
+ * <p>The modules are ordered by Tarjan's algorithm of finding strongly connected components
+ * of a graph, which takes linear time. Tarjan's algorithm completes a component after all
+ * components it depends upon are completed, so the modules that do not belong to any loop
+ * are ordered in the same pass. Each component of two or more modules is a group of mutually
+ * dependent modules. If such components are found then the traversal goes on till the end and
+ * a {@link CyclicDependenciesDetectedException} is thrown that reports a loop for each of them.
+ * The depth-first search is driven by an explicit stack so that deep chains of dependencies
+ * do not cause stack overflow.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class DependencySorter
+{
+    private DependencySorter()
+    {
+    }
+    
+    /**
+     * <p>Returns the given root modules and all their direct and indirect dependee modules
+     * in the order so that each module's dependee modules are located before this module.
+     * The modules that are in <em>sortedModules</em> are neither returned nor traversed.</p>
+     * 
+     * @param rootModules the modules to be ordered with their dependee modules.
+     *      All its elements must be non-{@code null}.
+     * @param sortedModules the modules that are already ordered. They are the keys of this map.
+     * 
+     * @return the modules in the order of their dependencies.
+     * 
+     * @throws CyclicDependenciesDetectedException if there are cyclic dependencies between
+     *      the modules. A loop is reported for each group of mutually dependent modules.
+     */
+    static ArrayList<Module> sort(final Collection<Module> rootModules, final Map<Module, ?> sortedModules)
+            throws CyclicDependenciesDetectedException
+    {
+        assert rootModules != null;
+        assert sortedModules != null;
+        
+        final IdentityHashMap<Module, Visit> visits = new IdentityHashMap<Module, Visit>();
+        // The depth-first search path.
+        final ArrayList<Visit> path = new ArrayList<Visit>();
+        // The modules visited whose strongly connected components are not completed yet.
+        final ArrayList<Visit> openVisits = new ArrayList<Visit>();
+        final ArrayList<Module> moduleOrder = new ArrayList<Module>();
+        ArrayList<List<Module>> loops = null;
+        int visitCount = 0;
+        // The registry lookup is skipped for each module visited if there are no modules sorted.
+        final boolean hasSortedModules = !sortedModules.isEmpty();
+        
+        for (final Module rootModule : rootModules) {
+            if (visits.containsKey(rootModule) || (hasSortedModules && sortedModules.containsKey(rootModule))) {
+                continue;
+            }
+            final Visit rootVisit = new Visit(rootModule, visitCount++);
+            visits.put(rootModule, rootVisit);
+            path.add(rootVisit);
+            openVisits.add(rootVisit);
+            
+            while (!path.isEmpty()) {
+                final Visit visit = path.get(path.size() - 1);
+                final Module[] deps = visit.module.dependencies;
+                if (visit.nextDependency < deps.length) {
+                    final Module dep = deps[visit.nextDependency++];
+                    final Visit depVisit = visits.get(dep);
+                    if (depVisit == null) {
+                        if (!hasSortedModules || !sortedModules.containsKey(dep)) {
+                            final Visit newVisit = new Visit(dep, visitCount++);
+                            visits.put(dep, newVisit);
+                            path.add(newVisit);
+                            openVisits.add(newVisit);
+                        }
+                    } else if (depVisit.open && depVisit.index < visit.lowLink) {
+                        visit.lowLink = depVisit.index;
+                    }
+                    continue;
+                }
+                
+                // All dependee modules are visited.
+                path.remove(path.size() - 1);
+                if (!path.isEmpty()) {
+                    final Visit parent = path.get(path.size() - 1);
+                    if (visit.lowLink < parent.lowLink) {
+                        parent.lowLink = visit.lowLink;
+                    }
+                }
+                if (visit.lowLink != visit.index) {
+                    continue; // the module belongs to the component of some module on the path
+                }
+                
+                // The module is the first module visited in its strongly connected component.
+                final Visit last = openVisits.remove(openVisits.size() - 1);
+                last.open = false;
+                if (last == visit) {
+                    moduleOrder.add(visit.module);
+                    continue;
+                }
+                last.component = visit;
+                for (;;) {
+                    final Visit member = openVisits.remove(openVisits.size() - 1);
+                    member.open = false;
+                    member.component = visit;
+                    if (member == visit) {
+                        break;
+                    }
+                }
+                if (loops == null) {
+                    loops = new ArrayList<List<Module>>();
+                }
+                loops.add(loop(visit, visits));
+            }
+        }
+        
+        if (loops != null) {
+            throw new CyclicDependenciesDetectedException(loops);
+        }
+        return moduleOrder;
+    }
+    
+    /* Returns the shortest loop that starts with the given module and goes through the modules
+     * of its strongly connected component. The modules are searched breadth-first.
+     */
+    private static ArrayList<Module> loop(final Visit start, final IdentityHashMap<Module, Visit> visits)
+    {
+        final ArrayList<Visit> queue = new ArrayList<Visit>();
+        queue.add(start);
+        for (int head = 0;; ++head) {
+            final Visit visit = queue.get(head);
+            final Module[] deps = visit.module.dependencies;
+            for (int i = 0, n = deps.length; i < n; ++i) {
+                final Visit depVisit = visits.get(deps[i]);
+                if (depVisit == null || depVisit.component != start) {
+                    continue; // the module is outside the component
+                }
+                if (depVisit == start) {
+                    final ArrayList<Module> loop = new ArrayList<Module>();
+                    for (Visit v = visit; v != null; v = v.previous) {
+                        loop.add(v.module);
+                    }
+                    Collections.reverse(loop);
+                    return loop;
+                }
+                if (depVisit.previous == null) {
+                    depVisit.previous = visit;
+                    queue.add(depVisit);
+                }
+            }
+        }
+    }
+    
+    private static class Visit
+    {
+        Visit(final Module module, final int index)
+        {
+            this.module = module;
+            this.index = index;
+            lowLink = index;
+            open = true;
+        }
+        
+        final Module module;
+        // The order in which the module is visited.
+        final int index;
+        // The smallest index of an open module reachable from this module.
+        int lowLink;
+        // The index of the next dependee module to be visited.
+        int nextDependency;
+        // True until the strongly connected component of the module is completed.
+        boolean open;
+        // The first module visited in the component this module belongs to. Set for loops only.
+        Visit component;
+        // The module that precedes this module in the loop being searched for.
+        Visit previous;
+    }
+}
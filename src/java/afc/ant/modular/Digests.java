@@ -0,0 +1,111 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * <p>Utility functions to compute SHA-1 digests that are used as fingerprints of
+ * module builds. The fingerprints are represented as strings of lower-case
+ * hexadecimal digits.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class Digests
+{
+    /**
+     * <p>The length of a fingerprint in hexadecimal digits.</p>
+     */
+    static final int FINGERPRINT_LENGTH = 40;
+    
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    
+    private Digests()
+    {
+    }
+    
+    /**
+     * <p>Creates a new SHA-1 {@link MessageDigest}.</p>
+     * 
+     * @return the message digest created. It is never {@code null}.
+     */
+    static MessageDigest sha1()
+    {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            // Every implementation of the Java platform is required to support SHA-1.
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * <p>Computes the SHA-1 fingerprint of a given string encoded in UTF-8.</p>
+     * 
+     * @param str the string. It must be non-{@code null}.
+     * 
+     * @return the fingerprint. It is never {@code null}.
+     */
+    static String sha1(final String str)
+    {
+        return toHex(sha1().digest(utf8(str)));
+    }
+    
+    /**
+     * <p>Encodes a given string in UTF-8.</p>
+     * 
+     * @param str the string. It must be non-{@code null}.
+     * 
+     * @return the bytes of the string. It is never {@code null}.
+     */
+    static byte[] utf8(final String str)
+    {
+        try {
+            return str.getBytes("UTF-8");
+        }
+        catch (UnsupportedEncodingException ex) {
+            // Every implementation of the Java platform is required to support UTF-8.
+            throw new IllegalStateException(ex);
+        }
+    }
+    
+    /**
+     * <p>Converts a given digest to a string of lower-case hexadecimal digits.</p>
+     * 
+     * @param digest the digest. It must be non-{@code null}.
+     * 
+     * @return the string. It is never {@code null}.
+     */
+    static String toHex(final byte[] digest)
+    {
+        final char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; ++i) {
+            hex[2*i] = HEX_DIGITS[(digest[i] >> 4) & 0xf];
+            hex[2*i+1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
+    }
+}
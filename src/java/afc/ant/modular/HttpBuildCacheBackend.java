@@ -0,0 +1,260 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.text.MessageFormat;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.ProjectComponent;
+
+/**
+ * <p>Serves as a {@link BuildCacheBackend} of the element
+ * {@link ModuleBuildCache &lt;moduleBuildCache&gt;}. The entries are stored on an HTTP server.
+ * An entry is downloaded by the request {@code GET <url><key>} and is uploaded by the request
+ * {@code PUT <url><key>}. Any HTTP server that supports these requests (e.g. a WebDAV server
+ * or nginx with the module {@code ngx_http_dav_module}) could be used.</p>
+ * 
+ * <p>The response status {@code 404 (Not Found)} to a {@code GET} request means that there is
+ * no entry with the key requested. Any successful response status is accepted for a {@code PUT}
+ * request. Any other response status is considered an I/O error.</p>
+ * 
+ * <h3>Attributes</h3>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link #setUrl(String) url}</td>
+ *      <td>yes</td>
+ *      <td>The URL of the directory on the HTTP server where the entries are stored.</td></tr>
+ *  <tr><td>{@link #setTimeout(int) timeout}</td>
+ *      <td>no</td>
+ *      <td>The connect and read timeout of the HTTP requests, in milliseconds. The default
+ *          value is <em>30000</em>.</td></tr>
+ * </tbody>
+ * </table>
+ * 
+ * <p>Once an {@code HttpBuildCacheBackend} is configured, it can be used by multiple threads
+ * simultaneously.</p>
+ * 
+ * @see ModuleBuildCache
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class HttpBuildCacheBackend extends ProjectComponent implements BuildCacheBackend
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private volatile String url;
+    private volatile int timeout = 30000;
+    
+    /**
+     * <p>Sets the URL of the directory on the HTTP server where the entries are to be stored.
+     * The URL of an entry is this URL followed by the entry key. A slash is inserted between
+     * them if this URL does not end with a slash. This attribute must be defined.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code url} of this
+     * {@code <httpBuildCacheBackend>} element.</p>
+     * 
+     * @param url the URL to be set.
+     */
+    public void setUrl(final String url)
+    {
+        this.url = url;
+    }
+    
+    /**
+     * <p>Sets the connect and read timeout of the HTTP requests, in milliseconds. Zero means
+     * that the requests never time out. The default value is <em>30000</em>.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code timeout} of this
+     * {@code <httpBuildCacheBackend>} element.</p>
+     * 
+     * @param timeout the timeout to be set. It must be non-negative.
+     * 
+     * @throws BuildException if <em>timeout</em> is negative.
+     */
+    public void setTimeout(final int timeout)
+    {
+        if (timeout < 0) {
+            throw new BuildException(MessageFormat.format(
+                    "Invalid timeout: ''{0}''. It must be a non-negative value.", String.valueOf(timeout)));
+        }
+        this.timeout = timeout;
+    }
+    
+    /**
+     * <p>Checks that the URL of this backend is defined.</p>
+     * 
+     * @throws BuildException if the URL is undefined.
+     */
+    public void validate() throws BuildException
+    {
+        if (url == null) {
+            throw new BuildException("The attribute 'url' of the element <httpBuildCacheBackend> must be defined.");
+        }
+    }
+    
+    /**
+     * <p>Downloads the entry with a given key into a given file by the request
+     * {@code GET <url><key>}.</p>
+     * 
+     * @param key the key of the entry. It must be non-{@code null}.
+     * @param file the file the entry is to be written to. It must be non-{@code null}.
+     * 
+     * @return {@code true} if the entry is downloaded; {@code false} if the HTTP server responds
+     *      with the status {@code 404 (Not Found)}.
+     * 
+     * @throws IOException if the URL is undefined, the request fails or the HTTP server responds
+     *      with an unexpected status.
+     * @throws NullPointerException if either <em>key</em> or <em>file</em> is {@code null}.
+     */
+    public boolean get(final String key, final File file) throws IOException
+    {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        final HttpURLConnection connection = openConnection(key);
+        try {
+            connection.setRequestMethod("GET");
+            final int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK) {
+                throw unexpectedStatus(connection, status);
+            }
+            final InputStream in = connection.getInputStream();
+            try {
+                final OutputStream out = new FileOutputStream(file);
+                try {
+                    copy(in, out);
+                }
+                finally {
+                    out.close();
+                }
+            }
+            finally {
+                in.close();
+            }
+            return true;
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+    
+    /**
+     * <p>Uploads a given file as the entry with a given key by the request
+     * {@code PUT <url><key>}.</p>
+     * 
+     * @param key the key of the entry. It must be non-{@code null}.
+     * @param file the file that holds the content of the entry. It must be non-{@code null}.
+     * 
+     * @throws IOException if the URL is undefined, the file cannot be read, the request fails
+     *      or the HTTP server responds with a status that is not successful.
+     * @throws NullPointerException if either <em>key</em> or <em>file</em> is {@code null}.
+     */
+    public void put(final String key, final File file) throws IOException
+    {
+        if (file == null) {
+            throw new NullPointerException("file");
+        }
+        final HttpURLConnection connection = openConnection(key);
+        try {
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            final long length = file.length();
+            if (length <= Integer.MAX_VALUE) {
+                connection.setFixedLengthStreamingMode((int) length);
+            } else {
+                connection.setChunkedStreamingMode(BUFFER_SIZE);
+            }
+            final InputStream in = new FileInputStream(file);
+            try {
+                final OutputStream out = connection.getOutputStream();
+                try {
+                    copy(in, out);
+                }
+                finally {
+                    out.close();
+                }
+            }
+            finally {
+                in.close();
+            }
+            final int status = connection.getResponseCode();
+            if (status < 200 || status >= 300) {
+                throw unexpectedStatus(connection, status);
+            }
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+    
+    private HttpURLConnection openConnection(final String key) throws IOException
+    {
+        if (key == null) {
+            throw new NullPointerException("key");
+        }
+        final String baseUrl = url;
+        if (baseUrl == null) {
+            throw new IOException("The attribute 'url' of the element <httpBuildCacheBackend> is undefined.");
+        }
+        final URL entryUrl = new URL(baseUrl.endsWith("/") ? baseUrl + key : baseUrl + '/' + key);
+        final HttpURLConnection connection = (HttpURLConnection) entryUrl.openConnection();
+        connection.setConnectTimeout(timeout);
+        connection.setReadTimeout(timeout);
+        connection.setUseCaches(false);
+        return connection;
+    }
+    
+    private static IOException unexpectedStatus(final HttpURLConnection connection, final int status)
+            throws IOException
+    {
+        return new IOException(MessageFormat.format("The HTTP server responded to {0} ''{1}'' with {2} {3}.",
+                connection.getRequestMethod(), connection.getURL(), String.valueOf(status),
+                connection.getResponseMessage()));
+    }
+    
+    private static void copy(final InputStream in, final OutputStream out) throws IOException
+    {
+        final byte[] buf = new byte[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buf)) != -1) {
+            out.write(buf, 0, n);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>Holds module metadata loaded by {@link ManifestModuleLoader} so that it can be
+ * re-used by subsequent builds without reading and parsing the module manifests again.
+ * The cache is persisted in a binary file. Each cache entry is bound to the size and the
+ * modification time of the manifest file it is loaded from. If either of them is changed
+ * then the entry is not used.</p>
+ * 
+ * <p>The entries of the modules whose manifest files no longer exist (e.g. the modules that are
+ * deleted or moved) are removed from the cache when it is saved so that the cache file does not
+ * grow with the modules that are not used any longer.</p>
+ * 
+ * <p>The cache is also bound to the configuration of the {@code ManifestModuleLoader}
+ * (e.g. the name of the manifest entry to read module metadata from). The cache file
+ * that is created for a different configuration is ignored.</p>
+ * 
+ * <p>{@code ManifestModuleCache} is thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class ManifestModuleCache
+{
+    // Is changed each time the format of the cache file is changed.
+    private static final int FORMAT_VERSION = 1;
+    
+    private final String configuration;
+    private final ConcurrentHashMap<String, Entry> entries;
+    private volatile boolean modified;
+    
+    private ManifestModuleCache(final String configuration, final ConcurrentHashMap<String, Entry> entries)
+    {
+        this.configuration = configuration;
+        this.entries = entries;
+    }
+    
+    /**
+     * <p>Creates an empty cache for a given configuration.</p>
+     * 
+     * @param configuration the configuration of the module loader. It must be non-{@code null}.
+     * 
+     * @return the cache created. It is never {@code null}.
+     */
+    static ManifestModuleCache empty(final String configuration)
+    {
+        assert configuration != null;
+        return new ManifestModuleCache(configuration, new ConcurrentHashMap<String, Entry>());
+    }
+    
+    /**
+     * <p>Loads the cache from a given file. If the file does not exist or is created for
+     * a different configuration then an empty cache is returned.</p>
+     * 
+     * @param file the cache file. It must be non-{@code null}.
+     * @param configuration the configuration of the module loader. It must be non-{@code null}.
+     * 
+     * @return the cache loaded. It is never {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the file is read or if the file
+     *      is corrupted.
+     */
+    static ManifestModuleCache load(final File file, final String configuration) throws IOException
+    {
+        assert file != null;
+        assert configuration != null;
+        
+        if (!file.isFile()) {
+            return empty(configuration);
+        }
+        /* The file is read into memory so that the lengths read from it are checked against
+         * the number of bytes left. A corrupted length is not allowed to allocate a huge array.
+         */
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(readFile(file)));
+        try {
+            if (in.readInt() != FORMAT_VERSION || !configuration.equals(readString(in))) {
+                return empty(configuration);
+            }
+            final int entryCount = in.readInt();
+            // Each entry takes more than four bytes.
+            if (entryCount < 0 || entryCount > in.available() / 4) {
+                throw new IOException("Invalid entry count.");
+            }
+            final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>(entryCount * 2);
+            for (int i = 0; i < entryCount; ++i) {
+                final String path = readString(in);
+                final Entry entry = new Entry();
+                entry.manifestSize = in.readLong();
+                entry.manifestModified = in.readLong();
+                entry.dependencies = readStrings(in);
+                entry.attributeNames = readStrings(in);
+                entry.attributeValues = readStrings(in);
+                entry.classpathAttributeNames = readStrings(in);
+                entry.classpathElements = new String[entry.classpathAttributeNames.length][];
+                for (int j = 0; j < entry.classpathElements.length; ++j) {
+                    entry.classpathElements[j] = readStrings(in);
+                }
+                if (entry.attributeNames.length != entry.attributeValues.length) {
+                    throw new IOException(MessageFormat.format("The cache file ''{0}'' is corrupted.", file));
+                }
+                entries.put(path, entry);
+            }
+            return new ManifestModuleCache(configuration, entries);
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    /**
+     * <p>Returns the cache entry for the module with a given path if this entry is loaded
+     * from the manifest file with a given size and modification time.</p>
+     * 
+     * @param path the normalised module path. It must be non-{@code null}.
+     * @param manifestSize the current size of the module manifest file.
+     * @param manifestModified the current modification time of the module manifest file.
+     * 
+     * @return the cache entry or {@code null} if there is no valid entry for this module.
+     */
+    Entry get(final String path, final long manifestSize, final long manifestModified)
+    {
+        final Entry entry = entries.get(path);
+        if (entry == null || entry.manifestSize != manifestSize || entry.manifestModified != manifestModified) {
+            return null;
+        }
+        return entry;
+    }
+    
+    /**
+     * <p>Puts a given entry for the module with a given path into this cache.
+     * The existing entry, if any, is replaced.</p>
+     * 
+     * @param path the normalised module path. It must be non-{@code null}.
+     * @param entry the cache entry. It must be non-{@code null}.
+     */
+    void put(final String path, final Entry entry)
+    {
+        assert path != null;
+        assert entry != null;
+        entries.put(path, entry);
+        modified = true;
+    }
+    
+    /**
+     * <p>Saves this cache to a given file if it is modified since it is loaded or saved.
+     * The entries of the modules whose manifest files do not exist are removed before
+     * the cache is saved. The cache is considered modified if any entry is removed.</p>
+     * 
+     * @param file the cache file. It must be non-{@code null}.
+     * @param baseDir the directory the module paths are relative to. It must be
+     *      non-{@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the file is written.
+     */
+    synchronized void save(final File file, final File baseDir) throws IOException
+    {
+        assert file != null;
+        assert baseDir != null;
+        
+        for (final Iterator<String> i = entries.keySet().iterator(); i.hasNext();) {
+            final File manifestFile = new File(new File(baseDir, i.next()), ManifestModuleLoader.MANIFEST_PATH);
+            if (!manifestFile.isFile()) {
+                i.remove();
+                modified = true;
+            }
+        }
+        if (!modified) {
+            return;
+        }
+        modified = false;
+        
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", dir));
+        }
+        /* The cache is written to a temporary file which then replaces the cache file so that
+         * the cache file is never left partially written (e.g. if the build is terminated).
+         */
+        final File tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+        try {
+            writeEntries(tempFile);
+            if (!tempFile.renameTo(file)) {
+                // The file is not replaced by File#renameTo(File) on some platforms.
+                if (!file.delete() || !tempFile.renameTo(file)) {
+                    throw new IOException(MessageFormat.format("Unable to rename the file ''{0}'' to ''{1}''.",
+                            tempFile, file));
+                }
+            }
+        }
+        finally {
+            tempFile.delete();
+        }
+    }
+    
+    private void writeEntries(final File file) throws IOException
+    {
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(FORMAT_VERSION);
+            writeString(out, configuration);
+            // The snapshot is taken to ensure that the number of entries written is correct.
+            final Map.Entry<?, ?>[] snapshot = entries.entrySet().toArray(new Map.Entry<?, ?>[0]);
+            out.writeInt(snapshot.length);
+            for (final Map.Entry<?, ?> e : snapshot) {
+                final Entry entry = (Entry) e.getValue();
+                writeString(out, (String) e.getKey());
+                out.writeLong(entry.manifestSize);
+                out.writeLong(entry.manifestModified);
+                writeStrings(out, entry.dependencies);
+                writeStrings(out, entry.attributeNames);
+                writeStrings(out, entry.attributeValues);
+                writeStrings(out, entry.classpathAttributeNames);
+                for (final String[] elements : entry.classpathElements) {
+                    writeStrings(out, elements);
+                }
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    // DataOutputStream#writeUTF(String) is not used because it is limited to 64K bytes.
+    private static void writeString(final DataOutputStream out, final String str) throws IOException
+    {
+        final byte[] bytes = str.getBytes("utf-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+    
+    private static String readString(final DataInputStream in) throws IOException
+    {
+        final int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid string length.");
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "utf-8");
+    }
+    
+    private static byte[] readFile(final File file) throws IOException
+    {
+        final long length = file.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException(MessageFormat.format("The cache file ''{0}'' is too large.", file));
+        }
+        final byte[] bytes = new byte[(int) length];
+        final DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        }
+        finally {
+            in.close();
+        }
+        return bytes;
+    }
+    
+    private static void writeStrings(final DataOutputStream out, final String[] strings) throws IOException
+    {
+        out.writeInt(strings.length);
+        for (final String str : strings) {
+            writeString(out, str);
+        }
+    }
+    
+    private static String[] readStrings(final DataInputStream in) throws IOException
+    {
+        final int length = in.readInt();
+        // Each string takes at least four bytes.
+        if (length < 0 || length > in.available() / 4) {
+            throw new IOException("Invalid array length.");
+        }
+        final String[] strings = new String[length];
+        for (int i = 0; i < length; ++i) {
+            strings[i] = readString(in);
+        }
+        return strings;
+    }
+    
+    /* The metadata of a single module and the state of its manifest file.
+     * An entry is never modified after it is put into the cache.
+     */
+    static final class Entry
+    {
+        long manifestSize;
+        long manifestModified;
+        // The normalised paths of the dependee modules.
+        String[] dependencies;
+        // The names and the values of the attributes that are copied as is.
+        String[] attributeNames;
+        String[] attributeValues;
+        // The names of the classpath attributes and their elements (absolute paths).
+        String[] classpathAttributeNames;
+        String[][] classpathElements;
+    }
+}
@@ -37,6 +37,7 @@ import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.ProjectComponent;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.Path.PathElement;
@@ -76,6 +77,11 @@ import org.apache.tools.ant.types.Path.PathElement;
  *      <td>no</td>
  *      <td>Defines the name of the entry in the module manifest file that contains module
  *          metadata. If unspecified then the main entry is used.</td></tr>
+ *  <tr><td>{@link  #setCacheFile(File) cacheFile}</td>
+ *      <td>no</td>
+ *      <td>Defines the file in which loaded module metadata is cached between builds.
+ *          The manifest file of a module is read only if it is modified since the module
+ *          metadata is cached. If unspecified then module metadata is not cached.</td></tr>
  *  <tr><td>{@link  #createClasspathAttribute() classpathAttribute} (nested element, can be
  *          used multiple times)</td>
  *      <td>no</td>
@@ -86,16 +92,30 @@ import org.apache.tools.ant.types.Path.PathElement;
  * </tbody>
  * </table>
  * 
+ * <p>Once a {@code ManifestModuleLoader} is configured, its functions {@link #loadModule(String)}
+ * and {@link #normalisePath(String)} can be invoked by multiple threads simultaneously.</p>
+ * 
  * @see CallTargetForModules
  * 
  * @author D&#378;mitry La&#365;&#269;uk
  */
-public class ManifestModuleLoader extends ProjectComponent implements ModuleLoader
+public class ManifestModuleLoader extends ProjectComponent implements StatefulModuleLoader
 {
     private static final Name ATTRIB_DEPENDENCIES = new Name("Depends");
     
     private static final Pattern listElementPattern = Pattern.compile("\\S+");
     
+    // The path of the manifest file relative to the module directory.
+    static final String MANIFEST_PATH = "META-INF/MANIFEST.MF";
+    
+    /* The maximal resolution of file modification time (in milliseconds) that is
+     * expected from a file system. It is two seconds for FAT.
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION = 2000;
+    
+    // The maximal number of the module paths that are not trivially normalised and are cached.
+    private static final int MAX_CACHED_PATHS = 4096;
+    
     /* The name of the manifest entry to read module metadata from.
      * If it is null then the main entry is used.
      */
@@ -109,6 +129,13 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
      */
     private final ArrayList<ClasspathAttribute> classpathAttributes = new ArrayList<ClasspathAttribute>();
     
+    // The file the module metadata cache is persisted in. If it is null then the cache is disabled.
+    private File cacheFile;
+    // The module metadata cache. It is loaded lazily from the cacheFile. Guarded by 'this'.
+    private ManifestModuleCache cache;
+    // The normalised module paths. It lives as long as this loader does.
+    private final ModuleUtil.PathCache pathCache = new ModuleUtil.PathCache(MAX_CACHED_PATHS);
+    
     /**
      * <p>Returns the normalised path that corresponds to a given module path. Each module
      * path has exactly one normalised path, even if the module with this path does not
@@ -117,7 +144,9 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
      * {@code null}.</p>
      * 
      * <p>{@link ModuleUtil#normalisePath(String, File)} is used to normalise module
-     * paths. They are normalised against the Ant project base directory.</p>
+     * paths. They are normalised against the Ant project base directory. The results are
+     * cached by this {@code ManifestModuleLoader} (the cache is bounded) so that normalising
+     * the same path again is cheap.</p>
      * 
      * @param path the module path to be normalised. It must be not {@code null}.
      * 
@@ -130,7 +159,7 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
      */
     public String normalisePath(final String path)
     {
-        return ModuleUtil.normalisePath(path, getProject().getBaseDir());
+        return ModuleUtil.normalisePath(path, getProject().getBaseDir(), false, pathCache);
     }
     
     /**
@@ -153,34 +182,96 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
      */
     public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
     {
-        final Attributes attributes = readManifestBuildSection(path);
+        final ManifestModuleCache cache = getCache();
+        if (cache == null) {
+            return createModuleInfo(path, readModuleMetadata(path));
+        }
+        
+        final String normalisedPath = normalisePath(path);
+        final File manifestFile = new File(new File(getProject().getBaseDir(), path), MANIFEST_PATH);
+        /* The state of the manifest file is taken before the file is read so that
+         * the cache entry is invalidated if the file is modified while it is read.
+         */
+        final long manifestSize = manifestFile.length();
+        final long manifestModified = manifestFile.lastModified();
+        
+        final ManifestModuleCache.Entry cachedEntry = cache.get(normalisedPath, manifestSize, manifestModified);
+        if (cachedEntry != null) {
+            return createModuleInfo(path, cachedEntry);
+        }
+        
+        final ManifestModuleCache.Entry entry = readModuleMetadata(path);
+        final ModuleInfo moduleInfo = createModuleInfo(path, entry);
+        /* Zero modification time means that it is unknown. In addition, the file that is
+         * modified recently could be modified once again within the resolution of its
+         * modification time so that this change would not be detected.
+         */
+        if (manifestModified != 0 && System.currentTimeMillis() - manifestModified > MODIFICATION_TIME_RESOLUTION) {
+            entry.manifestSize = manifestSize;
+            entry.manifestModified = manifestModified;
+            cache.put(normalisedPath, entry);
+        }
+        return moduleInfo;
+    }
+    
+    private ModuleInfo createModuleInfo(final String path, final ManifestModuleCache.Entry entry)
+    {
         final ModuleInfo moduleInfo = new ModuleInfo(path, this);
+        for (final String dependency : entry.dependencies) {
+            moduleInfo.addDependency(dependency);
+        }
+        for (int i = 0; i < entry.classpathAttributeNames.length; ++i) {
+            final Path classpath = new Path(getProject());
+            for (final String classpathElement : entry.classpathElements[i]) {
+                final PathElement element = classpath.createPathElement();
+                element.setPath(classpathElement);
+            }
+            moduleInfo.addAttribute(entry.classpathAttributeNames[i], classpath);
+        }
+        for (int i = 0; i < entry.attributeNames.length; ++i) {
+            moduleInfo.addAttribute(entry.attributeNames[i], entry.attributeValues[i]);
+        }
+        return moduleInfo;
+    }
+    
+    private ManifestModuleCache.Entry readModuleMetadata(final String path) throws ModuleNotLoadedException
+    {
+        final Attributes attributes = readManifestBuildSection(path);
+        final String normalisedPath = normalisePath(path);
+        final ManifestModuleCache.Entry entry = new ManifestModuleCache.Entry();
         
-        /* Both addDependencies and addClasspathAttributes remove the dependencies
+        /* Both readDependencies and readClasspathAttributes remove the dependencies
          * they process from the list of the attributes.
          * 
          * Dependencies must be processed first to ensure that the attribute "Depends"
          * is removed before the classpath attributes are processed. The latter can
          * contain the name "Depends" in some form which must be ignored.
          */
-        addDependencies(attributes, moduleInfo);
-        addClasspathAttributes(attributes, moduleInfo);
+        entry.dependencies = readDependencies(attributes, normalisedPath);
+        readClasspathAttributes(attributes, normalisedPath, entry);
         
         // Merging the remaining attributes without modification.
-        for (final Map.Entry<Object, Object> entry : attributes.entrySet()) {
-            final Name key = (Name) entry.getKey();
-            moduleInfo.addAttribute(key.toString(), entry.getValue());
+        final int attributeCount = attributes.size();
+        entry.attributeNames = new String[attributeCount];
+        entry.attributeValues = new String[attributeCount];
+        int i = 0;
+        for (final Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+            final Name key = (Name) attribute.getKey();
+            entry.attributeNames[i] = key.toString();
+            entry.attributeValues[i] = (String) attribute.getValue();
+            ++i;
         }
-        return moduleInfo;
+        return entry;
     }
     
-    private static void addDependencies(final Attributes attributes, final ModuleInfo moduleInfo)
+    private static String[] readDependencies(final Attributes attributes, final String modulePath)
             throws ModuleNotLoadedException
     {
         final String deps = (String) attributes.remove(ATTRIB_DEPENDENCIES);
         if (deps == null) {
-            return;
+            return new String[0];
         }
+        final ArrayList<String> dependencies = new ArrayList<String>();
         final Matcher m = listElementPattern.matcher(deps);
         while (m.find()) {
             final String url = m.group();
@@ -192,16 +283,19 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
             catch (RuntimeException ex) {
                 throw new ModuleNotLoadedException(MessageFormat.format(
                     "Unable to load the module ''{1}''. This dependee module path is an invalid URL: ''{0}''.",
-                        m.group(), moduleInfo.getPath()), ex);
+                        m.group(), modulePath), ex);
             }
             
-            moduleInfo.addDependency(dependeeModulePath);
+            dependencies.add(dependeeModulePath);
         }
+        return dependencies.toArray(new String[dependencies.size()]);
     }
     
-    private void addClasspathAttributes(final Attributes attributes, final ModuleInfo moduleInfo)
-            throws ModuleNotLoadedException
+    private void readClasspathAttributes(final Attributes attributes, final String modulePath,
+            final ManifestModuleCache.Entry entry) throws ModuleNotLoadedException
     {
+        final ArrayList<String> attributeNames = new ArrayList<String>();
+        final ArrayList<String[]> attributeElements = new ArrayList<String[]>();
         for (final ClasspathAttribute attrib : classpathAttributes) {
             final String attributeName = attrib.name;
             if (attributeName == null) {
@@ -211,7 +305,7 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
             if (value == null) {
                 continue;
             }
-            final Path classpath = new Path(getProject());
+            final ArrayList<String> elements = new ArrayList<String>();
             final Matcher m = listElementPattern.matcher(value);
             while (m.find()) {
                 final String url = m.group();
@@ -224,14 +318,16 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
                     throw new ModuleNotLoadedException(MessageFormat.format(
                             "Unable to load the module ''{2}''. The classpath attribute ''{1}'' " +
                             "contains an invalid URL element: ''{0}''.",
-                            m.group(), attributeName, moduleInfo.getPath()), ex);
+                            m.group(), attributeName, modulePath), ex);
                 }
                 
-                final PathElement element = classpath.createPathElement();
-                element.setPath(new File(moduleInfo.getPath(), classpathElement).getPath());
+                elements.add(new File(modulePath, classpathElement).getPath());
             }
-            moduleInfo.addAttribute(attributeName, classpath);
+            attributeNames.add(attributeName);
+            attributeElements.add(elements.toArray(new String[elements.size()]));
         }
+        entry.classpathAttributeNames = attributeNames.toArray(new String[attributeNames.size()]);
+        entry.classpathElements = attributeElements.toArray(new String[attributeElements.size()][]);
     }
     
     private Attributes readManifestBuildSection(final String path) throws ModuleNotLoadedException
@@ -246,7 +342,7 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
                     "The module path ''{0}'' (''{1}'') is not a directory.", path, moduleDir.getAbsolutePath()));
         }
         
-        final File manifestFile = new File(moduleDir, "META-INF/MANIFEST.MF");
+        final File manifestFile = new File(moduleDir, MANIFEST_PATH);
         if (!manifestFile.exists()) {
             throw new ModuleNotLoadedException(MessageFormat.format(
                     "The module ''{0}'' does not have the manifest (''{1}'').",
@@ -301,6 +397,80 @@ public class ManifestModuleLoader extends ProjectComponent implements ModuleLoad
         manifestEntry = entryName;
     }
     
+    /**
+     * <p>Sets the file in which module metadata loaded by this {@code ManifestModuleLoader}
+     * is cached between builds. If the manifest file of a module is not modified since its
+     * metadata is cached (i.e. neither its size nor its modification time are changed) then
+     * the cached metadata is used and the manifest file is not read. Otherwise the manifest
+     * file is read and the cache is updated.</p>
+     * 
+     * <p>The cache file is bound to the Ant project base directory and the configuration of
+     * this {@code ManifestModuleLoader}. It is discarded if any of them is changed. The cache
+     * file that cannot be read is ignored. The cache file is written by
+     * {@link #loadingFinished()}, that is, once the modules that {@link CallTargetForModules}
+     * processes are loaded. The entries of the modules whose manifest files no longer exist
+     * are removed from the cache file at this moment.</p>
+     * 
+     * @param cacheFile the cache file to be set. {@code null} means that module metadata
+     *      is not cached.
+     */
+    public synchronized void setCacheFile(final File cacheFile)
+    {
+        this.cacheFile = cacheFile;
+        cache = null;
+    }
+    
+    private synchronized ManifestModuleCache getCache()
+    {
+        if (cacheFile == null) {
+            return null;
+        }
+        if (cache == null) {
+            final String configuration = cacheConfiguration();
+            try {
+                cache = ManifestModuleCache.load(cacheFile, configuration);
+            }
+            catch (IOException ex) {
+                // The cache is an optimisation. Module metadata is loaded if the cache cannot be read.
+                log(MessageFormat.format("Unable to read the module metadata cache file ''{0}'': {1}",
+                        cacheFile, ex.getMessage()), Project.MSG_WARN);
+                cache = ManifestModuleCache.empty(configuration);
+            }
+        }
+        return cache;
+    }
+    
+    // Module metadata depends upon the project base directory and the loader configuration.
+    private String cacheConfiguration()
+    {
+        final StringBuilder buf = new StringBuilder();
+        buf.append(getProject().getBaseDir().getAbsolutePath()).append('\n');
+        buf.append(manifestEntry == null ? "" : "entry:" + manifestEntry).append('\n');
+        for (final ClasspathAttribute attrib : classpathAttributes) {
+            buf.append(attrib.name).append('\n');
+        }
+        return buf.toString();
+    }
+    
+    /**
+     * <p>Writes the module metadata cache to the {@link #setCacheFile(File) cache file}
+     * if it is enabled and modified. An I/O error is logged as a warning. It is a no-op
+     * if no module is loaded since the cache file is set.</p>
+     */
+    public synchronized void loadingFinished()
+    {
+        if (cache == null) {
+            return;
+        }
+        try {
+            cache.save(cacheFile, getProject().getBaseDir());
+        }
+        catch (IOException ex) {
+            log(MessageFormat.format("Unable to write the module metadata cache file ''{0}'': {1}",
+                    cacheFile, ex.getMessage()), Project.MSG_WARN);
+        }
+    }
+    
     /**
      * <p>Serves as the nested element {@code <classpathAttribute>} of the task
      * {@link ManifestModuleLoader &lt;manifestModuleLoader&gt;}. This element defines an
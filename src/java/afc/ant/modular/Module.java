@@ -129,10 +129,15 @@ public final class Module
            for passing valid dependencies. */
         assert dependencies != null;
         
-        /* No synchronisation is needed because dependencies are assigned before any thread
-         * is started by CallTargetForModules in which the client sees this Module instance
-         * (there is 'happens-before' relation) and because the client cannot modify
-         * these dependencies.
+        /* No synchronisation is needed because dependencies are assigned by the thread that
+         * resolves this Module before this Module is published to other threads, and because
+         * the client cannot modify these dependencies. In the non-streaming mode of
+         * CallTargetForModules the helper threads are started after all modules are resolved
+         * (Thread.start() is the 'happens-before' edge). In the streaming mode the helper threads
+         * run while modules are being resolved. They obtain this Module from the concurrent queue
+         * of ready nodes and the concurrent node registry of ParallelDependencyResolver, into which
+         * it is put after its dependencies are assigned (a write to a concurrent collection
+         * happens-before a read of the element written).
          */
         this.dependencies = dependencies;
         
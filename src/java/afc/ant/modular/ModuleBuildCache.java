@@ -0,0 +1,672 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectComponent;
+import org.apache.tools.ant.util.FileUtils;
+
+/**
+ * <p>Serves as the nested element {@code <moduleBuildCache>} of the task
+ * {@link CallTargetForModules &lt;callTargetForModules&gt;}. This element defines a local
+ * cache of module output files. Before a module is built, its output files are looked up
+ * in the cache and, if they are found, they are restored instead of the target being
+ * executed. The output files of each module built are put into the cache.</p>
+ * 
+ * <p>The cache is content-addressed. The output files of a module are stored under a key
+ * that is computed from the module path and the module fingerprint. The fingerprint is
+ * computed from the target invoked, the parameters passed, the input files of the module
+ * and the output files of the modules it depends upon (see
+ * {@link CallTargetForModules#setIncremental(boolean) the incremental mode}). Therefore,
+ * if the sources of a module are reverted to the state they were built in (e.g. if another
+ * branch is checked out and then the original branch is checked out again) then the module
+ * is not rebuilt. The output files of a module are defined by the module attribute the name
+ * of which is set by {@link CallTargetForModules#setOutputsAttribute(String)}.</p>
+ * 
+ * <p>Each cache entry is a directory that holds a copy of each output location and
+ * the hash of the output files. An entry is written to a temporary directory that is then
+ * renamed so that a partially written entry is never used. The output files are restored
+ * by copying. The cache is never cleaned up by this element. It is safe to delete the cache
+ * directory or any its entries while no build is running.</p>
+ * 
+ * <p>The cache could be backed by a remote {@link BuildCacheBackend} (e.g.
+ * {@link HttpBuildCacheBackend &lt;httpBuildCacheBackend&gt;}) so that the entries are
+ * shared between machines. The entries that are not found in the local directory are
+ * downloaded from the backend and are then restored as the local ones. The output files restored
+ * from a downloaded entry are verified against the hash stored in it. If modules are built
+ * by multiple threads then an entry is prefetched as soon as the module is ready to be built,
+ * before a thread is available to build it. The entries stored locally are uploaded to the
+ * backend asynchronously so that uploads do not delay module builds. The build waits for
+ * the pending uploads to finish once all modules are built. The entries are transferred
+ * as ZIP archives. A failure to transfer an entry is logged as a warning.</p>
+ * 
+ * <h3>Attributes</h3>
+ * <table border="1">
+ * <thead>
+ *  <tr><th>Attribute</th>
+ *      <th>Required?</th>
+ *      <th>Description</th></tr>
+ * </thead>
+ * <tbody>
+ *  <tr><td>{@link #setDir(File) dir}</td>
+ *      <td>yes</td>
+ *      <td>The directory the cache entries are stored in. It is created if it does not
+ *          exist.</td></tr>
+ * </tbody>
+ * </table>
+ * 
+ * <h3>Nested elements</h3>
+ * <h5>{@link #addConfigured(BuildCacheBackend) buildCacheBackendElement}</h5>
+ * <p>Defines a {@link BuildCacheBackend} that stores the cache entries remotely. At most one
+ * backend can be defined. The name of the nested element is defined by the name of the Ant
+ * type used to pass this instance of {@code BuildCacheBackend}.</p>
+ * 
+ * <p>Once a {@code ModuleBuildCache} is configured, it can be used by multiple threads
+ * simultaneously. Multiple builds can share the same cache directory and the same backend.</p>
+ * 
+ * @see CallTargetForModules
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ModuleBuildCache extends ProjectComponent
+{
+    private static final String METADATA_FILE = "entry.properties";
+    private static final String PROPERTY_OUTPUTS_HASH = "outputsHash";
+    private static final String PROPERTY_OUTPUT_COUNT = "outputCount";
+    
+    private static final FileUtils FILE_UTILS = FileUtils.getFileUtils();
+    
+    // The number of threads that download and upload entries.
+    private static final int TRANSFER_THREAD_COUNT = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private File dir;
+    // It is null if the entries are stored locally only.
+    private BuildCacheBackend backend;
+    /* The executor of downloads and uploads. It is created by open() if the backend is defined
+     * and is shut down by close().
+     */
+    private ExecutorService transferExecutor;
+    // The downloads that are either in progress or finished, mapped to the entry keys.
+    private final ConcurrentHashMap<String, Future<Boolean>> downloads =
+            new ConcurrentHashMap<String, Future<Boolean>>();
+    private final ConcurrentLinkedQueue<Future<?>> uploads = new ConcurrentLinkedQueue<Future<?>>();
+    
+    /**
+     * <p>Sets the directory the cache entries are to be stored in. It is created if it
+     * does not exist. This attribute must be defined.</p>
+     * 
+     * <p>This setter is accessible via the attribute {@code dir} of this
+     * {@code <moduleBuildCache>} element.</p>
+     * 
+     * @param dir the cache directory to be set.
+     */
+    public void setDir(final File dir)
+    {
+        this.dir = dir;
+    }
+    
+    /**
+     * <p>Returns the directory the cache entries are stored in.</p>
+     * 
+     * @return the cache directory or {@code null} if it is undefined.
+     */
+    public File getDir()
+    {
+        return dir;
+    }
+    
+    /**
+     * <p>Sets a {@link BuildCacheBackend} that is to store the entries of this cache remotely.
+     * At most one backend can be defined. The name of the nested element is defined by the name
+     * of the Ant type used to pass this instance of {@code BuildCacheBackend}.</p>
+     * 
+     * @param backend the {@code BuildCacheBackend} instance to be used by this
+     *      {@code <moduleBuildCache>}. {@code null} value is not allowed.
+     * 
+     * @throws BuildException if more than one {@code BuildCacheBackend} is defined for this
+     *      {@code <moduleBuildCache>}.
+     * @throws NullPointerException if <em>backend</em> is {@code null}.
+     */
+    public void addConfigured(final BuildCacheBackend backend)
+    {
+        if (backend == null) {
+            throw new NullPointerException("backend");
+        }
+        if (this.backend != null) {
+            throw new BuildException("Only a single build cache backend element is allowed.");
+        }
+        this.backend = backend;
+    }
+    
+    /**
+     * <p>Returns {@code true} if the entries of this cache are stored remotely, that is,
+     * if a {@link BuildCacheBackend} is defined.</p>
+     * 
+     * @return {@code true} if this cache is backed by a remote backend.
+     */
+    boolean isRemote()
+    {
+        return backend != null;
+    }
+    
+    /**
+     * <p>Prepares this cache to be used by a build. It must be invoked before the entries
+     * are restored or stored. {@link #close()} must be invoked after the build.</p>
+     * 
+     * @throws BuildException if the backend is configured incorrectly.
+     */
+    void open()
+    {
+        if (backend != null) {
+            backend.validate();
+            transferExecutor = Executors.newFixedThreadPool(TRANSFER_THREAD_COUNT, new ThreadFactory()
+            {
+                public Thread newThread(final Runnable task)
+                {
+                    final Thread thread = new Thread(task, "moduleBuildCache-transfer");
+                    // The transfers that are not waited for do not prevent the JVM from exiting.
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+    }
+    
+    /**
+     * <p>Waits for the pending uploads to finish and releases the resources allocated by
+     * {@link #open()}. If the current thread is interrupted then the pending transfers are
+     * cancelled.</p>
+     */
+    void close()
+    {
+        if (transferExecutor == null) {
+            return;
+        }
+        try {
+            for (Future<?> upload; (upload = uploads.poll()) != null;) {
+                try {
+                    upload.get();
+                }
+                catch (ExecutionException ex) {
+                    /* Upload failures are logged by the uploads themselves. An error is logged
+                     * here so that it does not hide the result of the build.
+                     */
+                    log(MessageFormat.format("Unable to upload a build cache entry: {0}",
+                            ex.getCause()), Project.MSG_WARN);
+                }
+            }
+            transferExecutor.shutdown();
+        }
+        catch (InterruptedException ex) {
+            transferExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            transferExecutor = null;
+            uploads.clear();
+            downloads.clear();
+        }
+    }
+    
+    /**
+     * <p>Starts downloading the entry of a given module from the backend in background unless
+     * it is already stored locally or is being downloaded. Nothing is done if the backend is
+     * undefined.</p>
+     * 
+     * @param module the module whose entry is to be downloaded. It must be non-{@code null}.
+     * @param fingerprint the fingerprint of the module. It must be non-{@code null}.
+     */
+    void prefetch(final Module module, final String fingerprint)
+    {
+        assert module != null;
+        assert fingerprint != null;
+        
+        if (transferExecutor == null) {
+            return;
+        }
+        final String key = key(module, fingerprint);
+        if (downloads.containsKey(key) || new File(entryDir(key), METADATA_FILE).exists()) {
+            return;
+        }
+        final FutureTask<Boolean> download = new FutureTask<Boolean>(new Download(key));
+        if (downloads.putIfAbsent(key, download) == null) {
+            transferExecutor.execute(download);
+        }
+    }
+    
+    /**
+     * <p>Restores the output files of a given module from this cache. Each output location
+     * is replaced with the copy stored in the cache entry. The locations that do not exist
+     * when the entry is stored are deleted.</p>
+     * 
+     * <p>The output files restored from an entry that is downloaded from the backend are hashed
+     * and checked against the hash stored in the entry. If they do not match (e.g. the entry
+     * is corrupted or is uploaded by a build that does not produce byte-identical output files)
+     * then the entry is deleted from the local directory and the module is to be built.</p>
+     * 
+     * @param module the module whose output files are to be restored. It must be
+     *      non-{@code null}.
+     * @param fingerprint the fingerprint of the module. It must be non-{@code null}.
+     * @param locations the output locations of the module. It must be non-{@code null}.
+     * 
+     * @return the hash of the output files restored or {@code null} if either the entry is not
+     *      found in this cache or the output files restored from a downloaded entry do not match
+     *      it. The output files are not modified in the former case and are to be rebuilt in
+     *      the latter case.
+     * 
+     * @throws IOException if an I/O error occurs. The output files could be restored partially
+     *      in this case.
+     */
+    String restore(final Module module, final String fingerprint, final File[] locations) throws IOException
+    {
+        assert module != null;
+        assert fingerprint != null;
+        assert locations != null;
+        
+        final String key = key(module, fingerprint);
+        final File entry = entryDir(key);
+        Properties metadata = loadMetadata(entry);
+        if (metadata == null) {
+            if (transferExecutor == null || !download(key)) {
+                return null;
+            }
+            metadata = loadMetadata(entry);
+            if (metadata == null) {
+                return null;
+            }
+        }
+        final String outputsHash = metadata.getProperty(PROPERTY_OUTPUTS_HASH);
+        if (outputsHash == null || outputsHash.length() != Digests.FINGERPRINT_LENGTH ||
+                !String.valueOf(locations.length).equals(metadata.getProperty(PROPERTY_OUTPUT_COUNT))) {
+            // The entry is not valid or is stored for a different set of output locations.
+            return null;
+        }
+        
+        for (int i = 0; i < locations.length; ++i) {
+            final File location = locations[i];
+            delete(location);
+            copy(new File(entry, String.valueOf(i)), location);
+        }
+        // The entries stored locally are trusted. The downloaded entries are verified.
+        if (downloads.containsKey(key) && !outputsHash.equals(ModuleFingerprints.hashOutputs(locations))) {
+            log(MessageFormat.format("The output files of the module ''{0}'' restored from the downloaded " +
+                    "build cache entry ''{1}'' do not match this entry. The entry is deleted.",
+                    module.getPath(), key), Project.MSG_WARN);
+            delete(entry);
+            return null;
+        }
+        return outputsHash;
+    }
+    
+    /**
+     * <p>Stores the output files of a given module in this cache. Nothing is done if the entry
+     * with the same key is already stored.</p>
+     * 
+     * @param module the module whose output files are to be stored. It must be
+     *      non-{@code null}.
+     * @param fingerprint the fingerprint of the module. It must be non-{@code null}.
+     * @param locations the output locations of the module. It must be non-{@code null}.
+     * @param outputsHash the hash of the output files. It must be non-{@code null}.
+     * 
+     * @throws IOException if an I/O error occurs. The cache entry is not stored in this case.
+     */
+    void store(final Module module, final String fingerprint, final File[] locations, final String outputsHash)
+            throws IOException
+    {
+        assert module != null;
+        assert fingerprint != null;
+        assert locations != null;
+        assert outputsHash != null;
+        
+        final String key = key(module, fingerprint);
+        final File entry = entryDir(key);
+        if (entry.exists()) {
+            return;
+        }
+        final File parent = entry.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", parent));
+        }
+        final File tempEntry = File.createTempFile(key, ".tmp", parent);
+        try {
+            if (!tempEntry.delete() || !tempEntry.mkdir()) {
+                throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", tempEntry));
+            }
+            for (int i = 0; i < locations.length; ++i) {
+                copy(locations[i], new File(tempEntry, String.valueOf(i)));
+            }
+            final Properties metadata = new Properties();
+            metadata.setProperty(PROPERTY_OUTPUTS_HASH, outputsHash);
+            metadata.setProperty(PROPERTY_OUTPUT_COUNT, String.valueOf(locations.length));
+            final OutputStream out = new FileOutputStream(new File(tempEntry, METADATA_FILE));
+            try {
+                metadata.store(out, null);
+            }
+            finally {
+                out.close();
+            }
+            
+            /* The entry becomes visible at once. If the entry is stored by another build
+             * in the meantime then renaming fails and the copy stored by this build is deleted.
+             */
+            if (tempEntry.renameTo(entry) && transferExecutor != null) {
+                uploads.add(transferExecutor.submit(new Upload(key, entry)));
+            }
+        }
+        finally {
+            delete(tempEntry);
+        }
+    }
+    
+    // Returns null if the entry is not stored locally.
+    private static Properties loadMetadata(final File entry) throws IOException
+    {
+        final InputStream in;
+        try {
+            in = new FileInputStream(new File(entry, METADATA_FILE));
+        }
+        catch (FileNotFoundException ex) {
+            return null;
+        }
+        try {
+            final Properties metadata = new Properties();
+            metadata.load(in);
+            return metadata;
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    /* Downloads the entry unless it is being downloaded by another thread, in which case
+     * this download is waited for. Returns true if the entry is downloaded.
+     */
+    private boolean download(final String key)
+    {
+        final FutureTask<Boolean> download = new FutureTask<Boolean>(new Download(key));
+        Future<Boolean> result = downloads.putIfAbsent(key, download);
+        if (result == null) {
+            download.run();
+            result = download;
+        }
+        try {
+            return result.get().booleanValue();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        catch (ExecutionException ex) {
+            // Download failures are logged by the downloads themselves. An error is logged here.
+            log(MessageFormat.format("Unable to download the build cache entry ''{0}'': {1}",
+                    key, ex.getCause()), Project.MSG_WARN);
+            return false;
+        }
+    }
+    
+    // Downloads an entry and unpacks it into the local directory. Returns false if it is not found.
+    private class Download implements Callable<Boolean>
+    {
+        private final String key;
+        
+        Download(final String key)
+        {
+            this.key = key;
+        }
+        
+        public Boolean call()
+        {
+            try {
+                final File entry = entryDir(key);
+                final File parent = entry.getParentFile();
+                if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", parent));
+                }
+                final File archive = File.createTempFile(key, ".zip", parent);
+                try {
+                    if (!backend.get(key, archive)) {
+                        return Boolean.FALSE;
+                    }
+                    final File tempEntry = File.createTempFile(key, ".tmp", parent);
+                    try {
+                        if (!tempEntry.delete() || !tempEntry.mkdir()) {
+                            throw new IOException(MessageFormat.format(
+                                    "Unable to create the directory ''{0}''.", tempEntry));
+                        }
+                        unpack(archive, tempEntry);
+                        // The entry could be stored locally in the meantime.
+                        return Boolean.valueOf(tempEntry.renameTo(entry) || entry.exists());
+                    }
+                    finally {
+                        delete(tempEntry);
+                    }
+                }
+                finally {
+                    archive.delete();
+                }
+            }
+            catch (IOException ex) {
+                log(MessageFormat.format("Unable to download the build cache entry ''{0}'': {1}",
+                        key, ex.getMessage()), Project.MSG_WARN);
+                return Boolean.FALSE;
+            }
+            catch (RuntimeException ex) {
+                // E.g. a backend failure that is not reported as an IOException.
+                log(MessageFormat.format("Unable to download the build cache entry ''{0}'': {1}",
+                        key, ex), Project.MSG_WARN);
+                return Boolean.FALSE;
+            }
+        }
+    }
+    
+    // Packs an entry and uploads it to the backend.
+    private class Upload implements Runnable
+    {
+        private final String key;
+        private final File entry;
+        
+        Upload(final String key, final File entry)
+        {
+            this.key = key;
+            this.entry = entry;
+        }
+        
+        public void run()
+        {
+            try {
+                final File archive = File.createTempFile(key, ".zip", entry.getParentFile());
+                try {
+                    pack(entry, archive);
+                    backend.put(key, archive);
+                }
+                finally {
+                    archive.delete();
+                }
+            }
+            catch (IOException ex) {
+                log(MessageFormat.format("Unable to upload the build cache entry ''{0}'': {1}",
+                        key, ex.getMessage()), Project.MSG_WARN);
+            }
+            catch (RuntimeException ex) {
+                log(MessageFormat.format("Unable to upload the build cache entry ''{0}'': {1}",
+                        key, ex), Project.MSG_WARN);
+            }
+        }
+    }
+    
+    private static void pack(final File entry, final File archive) throws IOException
+    {
+        final ZipOutputStream out = new ZipOutputStream(new FileOutputStream(archive));
+        try {
+            final byte[] buf = new byte[BUFFER_SIZE];
+            final String[] children = entry.list();
+            if (children == null) {
+                throw new IOException(MessageFormat.format("Unable to list the directory ''{0}''.", entry));
+            }
+            for (int i = 0; i < children.length; ++i) {
+                pack(new File(entry, children[i]), children[i], out, buf);
+            }
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    private static void pack(final File file, final String name, final ZipOutputStream out, final byte[] buf)
+            throws IOException
+    {
+        if (file.isDirectory()) {
+            // Directory entries are written so that empty directories are preserved.
+            out.putNextEntry(new ZipEntry(name + '/'));
+            out.closeEntry();
+            final String[] children = file.list();
+            if (children == null) {
+                throw new IOException(MessageFormat.format("Unable to list the directory ''{0}''.", file));
+            }
+            for (int i = 0; i < children.length; ++i) {
+                pack(new File(file, children[i]), name + '/' + children[i], out, buf);
+            }
+            return;
+        }
+        out.putNextEntry(new ZipEntry(name));
+        final InputStream in = new FileInputStream(file);
+        try {
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                out.write(buf, 0, n);
+            }
+        }
+        finally {
+            in.close();
+        }
+        out.closeEntry();
+    }
+    
+    private static void unpack(final File archive, final File dest) throws IOException
+    {
+        final ZipInputStream in = new ZipInputStream(new FileInputStream(archive));
+        try {
+            final byte[] buf = new byte[BUFFER_SIZE];
+            for (ZipEntry zipEntry; (zipEntry = in.getNextEntry()) != null;) {
+                final String name = zipEntry.getName();
+                // The archive is downloaded from the backend. It must not write outside the entry.
+                if (name.startsWith("/") || name.equals("..") || name.startsWith("../") ||
+                        name.indexOf("/../") >= 0 || name.endsWith("/..") || name.indexOf('\\') >= 0) {
+                    throw new IOException(MessageFormat.format("Invalid archive entry: ''{0}''.", name));
+                }
+                final File file = new File(dest, name);
+                if (zipEntry.isDirectory()) {
+                    if (!file.mkdirs() && !file.isDirectory()) {
+                        throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", file));
+                    }
+                    continue;
+                }
+                final File parent = file.getParentFile();
+                if (!parent.mkdirs() && !parent.isDirectory()) {
+                    throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", parent));
+                }
+                final OutputStream out = new FileOutputStream(file);
+                try {
+                    int n;
+                    while ((n = in.read(buf)) != -1) {
+                        out.write(buf, 0, n);
+                    }
+                }
+                finally {
+                    out.close();
+                }
+            }
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    // The modules with the same fingerprint but different paths do not share the cache entries.
+    private static String key(final Module module, final String fingerprint)
+    {
+        return Digests.sha1(module.getPath() + '\n' + fingerprint);
+    }
+    
+    private File entryDir(final String key)
+    {
+        // Entries are spread across subdirectories to keep the directories small.
+        return new File(new File(dir, key.substring(0, 2)), key);
+    }
+    
+    // Copies the file or the directory tree. Nothing is done if the source does not exist.
+    private static void copy(final File source, final File dest) throws IOException
+    {
+        if (source.isDirectory()) {
+            if (!dest.mkdirs() && !dest.isDirectory()) {
+                throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", dest));
+            }
+            final String[] children = source.list();
+            if (children == null) {
+                throw new IOException(MessageFormat.format("Unable to list the directory ''{0}''.", source));
+            }
+            for (int i = 0; i < children.length; ++i) {
+                copy(new File(source, children[i]), new File(dest, children[i]));
+            }
+        } else if (source.isFile()) {
+            FILE_UTILS.copyFile(source, dest);
+        }
+    }
+    
+    private static void delete(final File file) throws IOException
+    {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; ++i) {
+                delete(children[i]);
+            }
+        }
+        if (!file.delete() && file.exists()) {
+            throw new IOException(MessageFormat.format("Unable to delete the file ''{0}''.", file));
+        }
+    }
+}
@@ -0,0 +1,413 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.tools.ant.DirectoryScanner;
+
+/**
+ * <p>Holds the fingerprints of the latest successful builds of {@link Module modules} so that
+ * {@link CallTargetForModules} could skip the modules that are not changed since then.
+ * The fingerprint of a module is computed from the content of its input files, the configuration
+ * the module is built with and the fingerprints the modules it depends upon publish. Therefore,
+ * a module is rebuilt if some module it depends upon (directly or indirectly) is changed.</p>
+ * 
+ * <p>A module publishes its own fingerprint unless the hash of its output files is known.
+ * In the latter case it publishes the hash of its output files. This allows for early cutoff:
+ * if a module is rebuilt but its output files are the same then the modules that depend upon
+ * it are not changed.</p>
+ * 
+ * <p>The fingerprints are identified by the module {@link Module#getPath() paths} and are
+ * persisted in a properties file which maps module paths to fingerprints, each optionally
+ * followed by a space and the hash of the module output files. The modules that are not built
+ * are kept in this file as is. The fingerprints that are not valid (e.g. if the file is edited
+ * manually) are ignored so that these modules are rebuilt.</p>
+ * 
+ * <p>{@code ModuleFingerprints} is thread-safe. The input files of different modules could be
+ * hashed in parallel.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class ModuleFingerprints
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+    
+    private static final Comparator<Module> MODULE_PATH_COMPARATOR = new Comparator<Module>()
+    {
+        public int compare(final Module o1, final Module o2)
+        {
+            return o1.getPath().compareTo(o2.getPath());
+        }
+    };
+    
+    // The fingerprints of the latest successful builds mapped to the module paths.
+    private final HashMap<String, String> builtFingerprints;
+    // The hashes of the output files of the latest successful builds mapped to the module paths.
+    private final HashMap<String, String> builtOutputs;
+    // The fingerprints of the modules computed by the current build.
+    private final ConcurrentHashMap<Module, String> currentFingerprints = new ConcurrentHashMap<Module, String>();
+    // The fingerprints published by the modules that are built or skipped by the current build.
+    private final ConcurrentHashMap<Module, String> publishedFingerprints = new ConcurrentHashMap<Module, String>();
+    
+    private ModuleFingerprints(final HashMap<String, String> builtFingerprints,
+            final HashMap<String, String> builtOutputs)
+    {
+        this.builtFingerprints = builtFingerprints;
+        this.builtOutputs = builtOutputs;
+    }
+    
+    /**
+     * <p>Loads the module fingerprints from a given file. If this file does not exist then
+     * empty module fingerprints are returned.</p>
+     * 
+     * @param file the fingerprint file. It must be non-{@code null}.
+     * 
+     * @return the module fingerprints loaded. It is never {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the fingerprint file is read.
+     */
+    static ModuleFingerprints load(final File file) throws IOException
+    {
+        assert file != null;
+        
+        final Properties props = PropertiesFiles.load(file);
+        final HashMap<String, String> fingerprints = new HashMap<String, String>();
+        final HashMap<String, String> outputs = new HashMap<String, String>();
+        for (final Map.Entry<Object, Object> entry : props.entrySet()) {
+            final String path = (String) entry.getKey();
+            final String value = (String) entry.getValue();
+            // An invalid entry is ignored. The module is considered as a changed one.
+            if (value.length() == Digests.FINGERPRINT_LENGTH) {
+                fingerprints.put(path, value);
+            } else if (value.length() == 2 * Digests.FINGERPRINT_LENGTH + 1 &&
+                    value.charAt(Digests.FINGERPRINT_LENGTH) == ' ') {
+                fingerprints.put(path, value.substring(0, Digests.FINGERPRINT_LENGTH));
+                outputs.put(path, value.substring(Digests.FINGERPRINT_LENGTH + 1));
+            }
+        }
+        return new ModuleFingerprints(fingerprints, outputs);
+    }
+    
+    /**
+     * <p>Creates empty module fingerprints.</p>
+     * 
+     * @return the module fingerprints created. It is never {@code null}.
+     */
+    static ModuleFingerprints empty()
+    {
+        return new ModuleFingerprints(new HashMap<String, String>(), new HashMap<String, String>());
+    }
+    
+    /**
+     * <p>Computes the fingerprint of a given module and records it as the current fingerprint of
+     * this module. The modules this module depends upon are expected to be built or skipped
+     * before this function is invoked. If some of them have not published their fingerprints
+     * then the fingerprint of this module is unknown.</p>
+     * 
+     * @param module the module. It must be non-{@code null}.
+     * @param inputsHash the hash of the input files of the module, as it is returned by
+     *      {@link #hashInputs(File, String[], String[])}, or {@code null} if it is unknown.
+     * @param configuration the configuration the module is built with, including the name of
+     *      the target invoked. It must be non-{@code null}.
+     * 
+     * @return the fingerprint of the module or {@code null} if it is unknown.
+     */
+    String computeFingerprint(final Module module, final String inputsHash, final String configuration)
+    {
+        assert module != null;
+        assert configuration != null;
+        
+        if (inputsHash == null) {
+            return null;
+        }
+        final Module[] deps = module.dependencies.clone();
+        Arrays.sort(deps, MODULE_PATH_COMPARATOR);
+        
+        final StringBuilder buf = new StringBuilder(configuration);
+        buf.append('\n').append(inputsHash).append('\n');
+        for (int i = 0; i < deps.length; ++i) {
+            final Module dep = deps[i];
+            final String depFingerprint = publishedFingerprints.get(dep);
+            if (depFingerprint == null) {
+                return null;
+            }
+            buf.append(dep.getPath()).append('=').append(depFingerprint).append('\n');
+        }
+        final String fingerprint = Digests.sha1(buf.toString());
+        currentFingerprints.put(module, fingerprint);
+        return fingerprint;
+    }
+    
+    /**
+     * <p>Returns the current fingerprint of a given module, as it is computed by
+     * {@link #computeFingerprint(Module, String, String)}.</p>
+     * 
+     * @param module the module. It must be non-{@code null}.
+     * 
+     * @return the current fingerprint of the module or {@code null} if it is unknown.
+     */
+    String getFingerprint(final Module module)
+    {
+        assert module != null;
+        
+        return currentFingerprints.get(module);
+    }
+    
+    /**
+     * <p>Determines whether or not the current fingerprint of a given module is equal to
+     * the fingerprint of the latest successful build of this module.</p>
+     * 
+     * @param module the module. It must be non-{@code null}.
+     * 
+     * @return {@code true} if the module is not changed since its latest successful build;
+     *      {@code false} otherwise.
+     */
+    boolean isUpToDate(final Module module)
+    {
+        assert module != null;
+        
+        final String fingerprint = currentFingerprints.get(module);
+        if (fingerprint == null) {
+            return false;
+        }
+        synchronized (this) {
+            return fingerprint.equals(builtFingerprints.get(module.getPath()));
+        }
+    }
+    
+    /**
+     * <p>Reports a given module as skipped by the current build because it is not changed since
+     * its latest successful build. The module publishes the hash of its output files if it is
+     * known for its latest successful build, or its own fingerprint otherwise.</p>
+     * 
+     * @param module the module skipped. It must be non-{@code null}.
+     */
+    void moduleSkipped(final Module module)
+    {
+        assert module != null;
+        
+        final String fingerprint = currentFingerprints.get(module);
+        if (fingerprint == null) {
+            return;
+        }
+        String outputsHash = null;
+        synchronized (this) {
+            if (fingerprint.equals(builtFingerprints.get(module.getPath()))) {
+                outputsHash = builtOutputs.get(module.getPath());
+            }
+        }
+        publishedFingerprints.put(module, outputsHash == null ? fingerprint : outputsHash);
+    }
+    
+    /**
+     * <p>Forgets the fingerprint of the latest successful build of a given module. It is
+     * invoked before the module is built so that the module is rebuilt by the next build
+     * if this build fails.</p>
+     * 
+     * @param module the module. It must be non-{@code null}.
+     */
+    synchronized void moduleStarted(final Module module)
+    {
+        assert module != null;
+        
+        builtFingerprints.remove(module.getPath());
+        builtOutputs.remove(module.getPath());
+    }
+    
+    /**
+     * <p>Records the current fingerprint of a given module as the fingerprint of its latest
+     * successful build. The module publishes the hash of its output files, if it is known,
+     * or its own fingerprint otherwise. Nothing is recorded if the current fingerprint is
+     * unknown.</p>
+     * 
+     * @param module the module built. It must be non-{@code null}.
+     * @param outputsHash the hash of the output files of the module, as it is returned by
+     *      {@link #hashOutputs(File[])}, or {@code null} if it is unknown.
+     */
+    void moduleBuilt(final Module module, final String outputsHash)
+    {
+        assert module != null;
+        
+        final String fingerprint = currentFingerprints.get(module);
+        if (fingerprint == null) {
+            return;
+        }
+        synchronized (this) {
+            builtFingerprints.put(module.getPath(), fingerprint);
+            if (outputsHash != null) {
+                builtOutputs.put(module.getPath(), outputsHash);
+            }
+        }
+        publishedFingerprints.put(module, outputsHash == null ? fingerprint : outputsHash);
+    }
+    
+    /**
+     * <p>Returns the fingerprints of the latest successful builds of modules mapped to
+     * the module paths. The map returned is an unmodifiable snapshot of this
+     * {@code ModuleFingerprints}. It is never {@code null}.</p>
+     * 
+     * @return the module fingerprints.
+     */
+    synchronized Map<String, String> getFingerprints()
+    {
+        return Collections.unmodifiableMap(new HashMap<String, String>(builtFingerprints));
+    }
+    
+    /**
+     * <p>Saves the fingerprints of the latest successful builds of modules to a given file.
+     * If the file already exists then it is overwritten.</p>
+     * 
+     * @param file the fingerprint file. It must be non-{@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the fingerprint file is written.
+     */
+    void save(final File file) throws IOException
+    {
+        assert file != null;
+        
+        final Properties props = new Properties();
+        synchronized (this) {
+            for (final Map.Entry<String, String> entry : builtFingerprints.entrySet()) {
+                final String outputsHash = builtOutputs.get(entry.getKey());
+                props.setProperty(entry.getKey(),
+                        outputsHash == null ? entry.getValue() : entry.getValue() + ' ' + outputsHash);
+            }
+        }
+        PropertiesFiles.save(props, file, "Module fingerprints");
+    }
+    
+    /**
+     * <p>Computes the hash of the files in a given directory that match given patterns.
+     * The paths of the files relative to this directory and their content are hashed.
+     * Ant's default excludes are applied. If the directory does not exist then the hash
+     * of no files is returned.</p>
+     * 
+     * @param dir the directory. It must be non-{@code null}.
+     * @param includes the Ant patterns of the files to be hashed or {@code null} if all
+     *      files are to be hashed.
+     * @param excludes the Ant patterns of the files not to be hashed or {@code null} if
+     *      no files are to be excluded.
+     * 
+     * @return the hash of the files. It is never {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the files are read.
+     */
+    static String hashInputs(final File dir, final String[] includes, final String[] excludes)
+            throws IOException
+    {
+        assert dir != null;
+        
+        final MessageDigest digest = Digests.sha1();
+        if (!dir.isDirectory()) {
+            return Digests.toHex(digest.digest());
+        }
+        
+        final DirectoryScanner scanner = new DirectoryScanner();
+        scanner.setBasedir(dir);
+        scanner.setIncludes(includes);
+        scanner.setExcludes(excludes);
+        scanner.addDefaultExcludes();
+        scanner.scan();
+        final String[] files = scanner.getIncludedFiles();
+        // The order of the files scanned depends upon the file system.
+        Arrays.sort(files);
+        
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        for (int i = 0; i < files.length; ++i) {
+            final String path = files[i];
+            digest.update(Digests.utf8(path.replace(File.separatorChar, '/')));
+            digest.update((byte) 0);
+            hashFile(new File(dir, path), digest, buffer);
+        }
+        return Digests.toHex(digest.digest());
+    }
+    
+    /**
+     * <p>Computes the hash of given output files of a module. Each location is either a file
+     * or a directory. The content of the files and the relative paths of the files in the
+     * directories are hashed, but the locations themselves are not so that the hash does not
+     * depend upon the directory the modules are located in. Ant's default excludes are applied
+     * to the directories. The locations that do not exist are hashed as such.</p>
+     * 
+     * @param locations the locations of the output files. It must be non-{@code null}.
+     * 
+     * @return the hash of the output files. It is never {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the files are read.
+     */
+    static String hashOutputs(final File[] locations) throws IOException
+    {
+        assert locations != null;
+        
+        final MessageDigest digest = Digests.sha1();
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        for (int i = 0; i < locations.length; ++i) {
+            final File location = locations[i];
+            if (location.isDirectory()) {
+                digest.update((byte) 'd');
+                digest.update(Digests.utf8(hashInputs(location, null, null)));
+            } else if (location.isFile()) {
+                digest.update((byte) 'f');
+                hashFile(location, digest, buffer);
+            } else {
+                digest.update((byte) '-');
+            }
+        }
+        return Digests.toHex(digest.digest());
+    }
+    
+    private static void hashFile(final File file, final MessageDigest digest, final ByteBuffer buffer)
+            throws IOException
+    {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            long size = 0;
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                size += buffer.remaining();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            // The file size separates the content of this file from the data hashed next.
+            digest.update(Digests.utf8(Long.toString(size)));
+            digest.update((byte) 0);
+        }
+        finally {
+            in.close();
+        }
+    }
+}
@@ -40,7 +40,11 @@ package afc.ant.modular;
  * 
  * <p>Additional notes:<p>
  * <ul>
- *  <li>{@code ModuleLoader} instances are used in the single-threaded execution model</li>
+ *  <li>{@code ModuleLoader} instances are used in the single-threaded execution model
+ *      unless the attribute {@code loaderThreadCount} of {@link CallTargetForModules} is
+ *      set to a value greater than <em>1</em> explicitly. In the latter case module metadata
+ *      is loaded in parallel so that {@link #loadModule(String)} is invoked by multiple
+ *      threads simultaneously</li>
  *  <li>no caching of metadata is generally needed. Each module is loaded only once</li>
  *  <li>implementations of this interface are used by the task {@link CallTargetForModules}
  *      as pluggable components to define a way in which module metadata is to be loaded</li>
@@ -0,0 +1,131 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.HashMap;
+
+/**
+ * <p>Maps paths to the {@link Module modules} they belong to. A path belongs to the module
+ * whose path is the longest prefix of this path, the path elements being compared as a whole.
+ * That is, the path {@code foo/bar/Baz.java} belongs to the module {@code foo/bar} rather
+ * than to the module {@code foo}, and the path {@code foo2/Baz.java} does not belong to
+ * the module {@code foo}. Modules could be nested.</p>
+ * 
+ * <p>The paths are expected to be normalised by the {@link ModuleLoader} the modules are
+ * loaded by so that they are relative to the same directory as the module paths are.
+ * Both {@code '/'} and {@code '\'} are accepted as path separators. The path element
+ * {@code '.'} is ignored so that the module with the path {@code '.'} owns all paths that
+ * do not belong to other modules.</p>
+ * 
+ * <p>The modules are stored in a trie of path elements so that the owner of a path is found
+ * in the time proportional to the number of elements of this path, regardless of the number
+ * of modules.</p>
+ * 
+ * <p>{@code ModulePathTrie} is not thread-safe.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class ModulePathTrie
+{
+    private final Node root = new Node();
+    
+    /**
+     * <p>Adds a given module to this trie. If a module with the same path is already added
+     * then it is replaced.</p>
+     * 
+     * @param module the module to be added. It must be non-{@code null}.
+     */
+    void add(final Module module)
+    {
+        assert module != null;
+        
+        final String path = module.getPath();
+        Node node = root;
+        for (int start = 0, end; start < path.length(); start = end + 1) {
+            end = nextSeparator(path, start);
+            if (isSignificant(path, start, end)) {
+                final String element = path.substring(start, end);
+                Node child = node.children.get(element);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(element, child);
+                }
+                node = child;
+            }
+        }
+        node.module = module;
+    }
+    
+    /**
+     * <p>Returns the module a given path belongs to.</p>
+     * 
+     * @param path the path. It must be non-{@code null}.
+     * 
+     * @return the module with the longest path that is a prefix of the given path or
+     *      {@code null} if the path does not belong to any module.
+     */
+    Module findOwner(final String path)
+    {
+        assert path != null;
+        
+        Node node = root;
+        Module owner = root.module;
+        for (int start = 0, end; start < path.length(); start = end + 1) {
+            end = nextSeparator(path, start);
+            if (isSignificant(path, start, end)) {
+                node = node.children.get(path.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                if (node.module != null) {
+                    owner = node.module;
+                }
+            }
+        }
+        return owner;
+    }
+    
+    private static int nextSeparator(final String path, final int start)
+    {
+        for (int i = start, n = path.length(); i < n; ++i) {
+            final char c = path.charAt(i);
+            if (c == '/' || c == '\\') {
+                return i;
+            }
+        }
+        return path.length();
+    }
+    
+    // Empty path elements and the path element '.' are ignored.
+    private static boolean isSignificant(final String path, final int start, final int end)
+    {
+        return end > start && !(end - start == 1 && path.charAt(start) == '.');
+    }
+    
+    private static class Node
+    {
+        final HashMap<String, Node> children = new HashMap<String, Node>();
+        // The module with the path that ends with this node. It is null if there is no such module.
+        Module module;
+    }
+}
@@ -22,9 +22,22 @@
    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
 package afc.ant.modular;
 
+import java.lang.reflect.UndeclaredThrowableException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * <p>Manages {@link Module} instances in scope of a single {@link CallTargetForModules}
@@ -44,6 +57,25 @@ import java.util.Set;
  *      it is returned outside {@code ModuleRegistry}</li>
  * </ul>
  * 
+ * <p>If the {@code ModuleRegistry} is {@link #ModuleRegistry(ModuleLoader, int) created} with
+ * multiple loader threads then module metadata is loaded in parallel. All modules that are known
+ * to be needed (i.e. the modules whose paths are obtained as dependencies of the modules already
+ * loaded) are loaded by a bounded pool of threads, and then the {@code Module} instances are linked
+ * to each other by the thread that invoked {@link #resolveModule(String)}. The guarantees above
+ * hold in this case, too. The {@code ModuleLoader} must allow for its function
+ * {@link ModuleLoader#loadModule(String)} to be invoked concurrently. The pool is created once
+ * per {@code ModuleRegistry}, when it is needed for the first time, and is shut down by
+ * {@link #close()}. {@link #resolveModules(Collection)} loads the modules needed by multiple
+ * root modules by this pool at once.</p>
+ * 
+ * <p>A {@link ModuleListener} that is passed to the {@code ModuleRegistry} is notified of each
+ * module as soon as this module and all modules it depends upon (directly or indirectly) are
+ * resolved. If module metadata is loaded in parallel then a module is linked to its dependee
+ * modules as soon as they are linked, so that the listener is notified while the metadata of
+ * the remaining modules is still being loaded. This allows modules to be processed while
+ * the module graph is being resolved. The modules that are involved in cyclic dependencies
+ * (and the modules that depend upon them) are not passed to the listener.</p>
+ * 
  * @author D&#378;mitry La&#365;&#269;uk
  */
 public class ModuleRegistry
@@ -57,6 +89,20 @@ public class ModuleRegistry
     private final HashMap<String, Object> modules;
     // The module loader that is used to resolve modules.
     private final ModuleLoader moduleLoader;
+    // The maximum number of threads that load module metadata in parallel.
+    private final int loaderThreadCount;
+    /* The results of module loading which are not converted into modules yet. They are obtained
+     * by parallel loading and are consumed by resolveModuleFast().
+     */
+    private final HashMap<String, LoadResult> loadedModules;
+    // The listener to be notified of the modules resolved. It is null if there is no listener.
+    private final ModuleListener listener;
+    /* The modules that are passed to the listener. Each of them has all its dependee modules
+     * resolved directly and indirectly.
+     */
+    private final HashSet<Module> completeModules;
+    // The threads that load module metadata in parallel. It is null if they are not started yet.
+    private ExecutorService executor;
     
     /**
      * <p>Creates an instance of {@code ModuleRegistry} that uses given {@link ModuleLoader}
@@ -68,12 +114,67 @@ public class ModuleRegistry
      * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
      */
     public ModuleRegistry(final ModuleLoader moduleLoader)
+    {
+        this(moduleLoader, 1);
+    }
+    
+    /**
+     * <p>Creates an instance of {@code ModuleRegistry} that uses given {@link ModuleLoader}
+     * to obtain module metadata. Up to <em>loaderThreadCount</em> threads are used to load
+     * module metadata in parallel. If <em>1</em> is passed then module metadata is loaded
+     * by the thread that invokes {@link #resolveModule(String)}.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} to be used by the {@code ModuleRegistry}
+     *      created. It must not be {@code null}. If <em>loaderThreadCount</em> is greater
+     *      than <em>1</em> then it must be safe for {@link ModuleLoader#loadModule(String)}
+     *      to be invoked by multiple threads simultaneously.
+     * @param loaderThreadCount the maximum number of threads to be used to load module
+     *      metadata. It must be positive.
+     * 
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     * @throws IllegalArgumentException if <em>loaderThreadCount</em> is non-positive.
+     */
+    public ModuleRegistry(final ModuleLoader moduleLoader, final int loaderThreadCount)
+    {
+        this(moduleLoader, loaderThreadCount, null);
+    }
+    
+    /**
+     * <p>Creates an instance of {@code ModuleRegistry} that uses given {@link ModuleLoader}
+     * to obtain module metadata, as {@link #ModuleRegistry(ModuleLoader, int)} does, and that
+     * notifies a given {@link ModuleListener} of each module that is resolved with all modules
+     * it depends upon.</p>
+     * 
+     * @param moduleLoader the {@code ModuleLoader} to be used by the {@code ModuleRegistry}
+     *      created. It must not be {@code null}. If <em>loaderThreadCount</em> is greater
+     *      than <em>1</em> then it must be safe for {@link ModuleLoader#loadModule(String)}
+     *      to be invoked by multiple threads simultaneously.
+     * @param loaderThreadCount the maximum number of threads to be used to load module
+     *      metadata. It must be positive.
+     * @param listener the listener to be notified of the modules resolved. It is invoked by
+     *      the thread that invokes {@link #resolveModule(String)}. If it is {@code null}
+     *      then no listener is notified.
+     * 
+     * @throws NullPointerException if <em>moduleLoader</em> is {@code null}.
+     * @throws IllegalArgumentException if <em>loaderThreadCount</em> is non-positive.
+     */
+    public ModuleRegistry(final ModuleLoader moduleLoader, final int loaderThreadCount,
+            final ModuleListener listener)
     {
         if (moduleLoader == null) {
             throw new NullPointerException("moduleLoader");
         }
+        if (loaderThreadCount <= 0) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    "Invalid loader thread count: ''{0}''. It must be a positive value.",
+                    String.valueOf(loaderThreadCount)));
+        }
         this.moduleLoader = moduleLoader;
+        this.loaderThreadCount = loaderThreadCount;
         this.modules = new HashMap<String, Object>();
+        this.loadedModules = new HashMap<String, LoadResult>();
+        this.listener = listener;
+        this.completeModules = listener == null ? null : new HashSet<Module>();
     }
     
     /**
@@ -117,13 +218,87 @@ public class ModuleRegistry
                     "The normalised path that corresponds to the path ''{0}'' is null.", path));
         }
         
+        if (loaderThreadCount > 1 && !modules.containsKey(normalisedPath)) {
+            loadModulesParallel(Collections.singletonList(normalisedPath));
+        }
         return resolveModuleFast(normalisedPath);
     }
     
+    /**
+     * <p>Returns the {@link Module modules} that are associated with given module paths, as
+     * {@link #resolveModule(String)} invoked for each of these paths in the order they are
+     * returned by the collection's iterator does. The modules are returned in the same order.
+     * If some module cannot be resolved then {@link ModuleNotLoadedException} is thrown for
+     * the first such module.</p>
+     * 
+     * <p>If module metadata is loaded in parallel then the modules needed by all the given paths
+     * are loaded at once, so that the modules that are needed by different root modules are
+     * loaded simultaneously.</p>
+     * 
+     * @param paths the paths of the modules to be resolved. This collection and all its
+     *      elements, as well as their normalised forms, must be non-{@code null}. This collection
+     *      is not modified by this function and ownership over it is not passed to this
+     *      {@code ModuleRegistry}.
+     * 
+     * @return the modules that correspond to the given paths. It is never {@code null}.
+     * 
+     * @throws NullPointerException if <em>paths</em> or any of its elements or any normalised
+     *      path is {@code null}.
+     * @throws ModuleNotLoadedException if there is no module associated with some given path
+     *      or if the metadata of this module cannot be loaded.
+     */
+    public List<Module> resolveModules(final Collection<String> paths) throws ModuleNotLoadedException
+    {
+        if (paths == null) {
+            throw new NullPointerException("paths");
+        }
+        final ArrayList<String> normalisedPaths = new ArrayList<String>(paths.size());
+        for (final String path : paths) {
+            if (path == null) {
+                throw new NullPointerException("paths contains null element.");
+            }
+            final String normalisedPath = moduleLoader.normalisePath(path);
+            if (normalisedPath == null) {
+                throw new NullPointerException(MessageFormat.format(
+                        "The normalised path that corresponds to the path ''{0}'' is null.", path));
+            }
+            normalisedPaths.add(normalisedPath);
+        }
+        
+        if (loaderThreadCount > 1) {
+            loadModulesParallel(normalisedPaths);
+        }
+        final ArrayList<Module> result = new ArrayList<Module>(normalisedPaths.size());
+        for (int i = 0, n = normalisedPaths.size(); i < n; ++i) {
+            result.add(resolveModuleFast(normalisedPaths.get(i)));
+        }
+        return result;
+    }
+    
+    /**
+     * <p>Shuts down the threads that load module metadata in parallel, if any. The threads
+     * are not waited for to finish. This {@code ModuleRegistry} could be used after that,
+     * in which case new threads are started if needed. The modules resolved are not affected.
+     * It is a no-op if module metadata is loaded by a single thread.</p>
+     */
+    public void close()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+    
     /* 
      * Resolves modules as described in #resolveModule(String) but assuming that the module path
      * passed in is a non-null normalised module path so that no additional path normalisation
      * is needed.
+     * 
+     * The module graph is traversed depth-first on an explicit stack so that deep chains of
+     * dependencies do not cause stack overflow. Each module is put into the registry before its
+     * dependee modules are resolved so that modules in cyclic dependencies are resolved once.
+     * If a module cannot be loaded then it and all modules on the stack (i.e. the modules that
+     * depend upon it) are marked as not loaded.
      */
     private Module resolveModuleFast(final String normalisedPath) throws ModuleNotLoadedException
     {
@@ -134,32 +309,327 @@ public class ModuleRegistry
         if (cachedModule != null) {
             return (Module) cachedModule;
         }
+        
+        final ArrayList<ResolutionFrame> stack = new ArrayList<ResolutionFrame>();
         try {
-            final ModuleInfo moduleInfo = moduleLoader.loadModule(normalisedPath);
-            if (moduleInfo == null) {
-                throw new NullPointerException(MessageFormat.format(
-                        "Module loader returned null for the path ''{0}''.", normalisedPath));
+            ResolutionFrame frame = startResolution(normalisedPath);
+            stack.add(frame);
+            for (;;) {
+                if (frame.nextDependency < frame.dependencyPaths.length) {
+                    /* ModuleInfo#getDependencies() returns normalised module paths so they
+                     * are resolved with no normalisation.
+                     */
+                    final String depPath = frame.dependencyPaths[frame.nextDependency];
+                    final Object dep = modules.get(depPath);
+                    if (dep == moduleNotLoaded) {
+                        throw new ModuleNotLoadedException(depPath);
+                    }
+                    if (dep != null) {
+                        frame.dependencies[frame.nextDependency++] = (Module) dep;
+                        continue;
+                    }
+                    frame = startResolution(depPath);
+                    stack.add(frame);
+                    continue;
+                }
+                
+                // All dependee modules of this module are resolved.
+                final Module module = frame.module;
+                module.setDependencies(frame.dependencies);
+                if (listener != null) {
+                    notifyIfComplete(module, frame.dependencies);
+                }
+                stack.remove(stack.size() - 1);
+                if (stack.isEmpty()) {
+                    return module;
+                }
+                frame = stack.get(stack.size() - 1);
+                frame.dependencies[frame.nextDependency++] = module;
             }
-            final Module module = new Module(normalisedPath);
-            module.setAttributes(moduleInfo.getAttributes());
-            /* The module under construction is put into the registry to prevent infinite
-               module loading in case of cyclic dependencies, which causes stack overflow. */
-            modules.put(normalisedPath, module);
-            final Set<String> depPaths = moduleInfo.getDependencies();
+        }
+        catch (ModuleNotLoadedException ex) {
+            for (int i = 0, n = stack.size(); i < n; ++i) {
+                modules.put(stack.get(i).module.getPath(), moduleNotLoaded);
+            }
+            throw ex;
+        }
+    }
+    
+    /* Loads the metadata of the module with the given normalised path and puts the module created
+     * into the registry. The module is not linked to its dependee modules yet.
+     */
+    private ResolutionFrame startResolution(final String normalisedPath) throws ModuleNotLoadedException
+    {
+        final ModuleInfo moduleInfo;
+        try {
+            moduleInfo = loadModule(normalisedPath);
+        }
+        catch (ModuleNotLoadedException ex) {
+            modules.put(normalisedPath, moduleNotLoaded);
+            throw ex;
+        }
+        if (moduleInfo == null) {
+            throw new NullPointerException(MessageFormat.format(
+                    "Module loader returned null for the path ''{0}''.", normalisedPath));
+        }
+        final Module module = createModule(normalisedPath, moduleInfo);
+        /* The module under construction is put into the registry to prevent infinite
+           module loading in case of cyclic dependencies. */
+        modules.put(normalisedPath, module);
+        final Set<String> depPaths = moduleInfo.getDependencies();
+        return new ResolutionFrame(module, depPaths.toArray(new String[depPaths.size()]));
+    }
+    
+    private static Module createModule(final String normalisedPath, final ModuleInfo moduleInfo)
+    {
+        final Module module = new Module(normalisedPath);
+        module.setAttributes(moduleInfo.getAttributes());
+        return module;
+    }
+    
+    /* Notifies the listener of the given module if all its dependee modules are complete.
+     * A dependee module is incomplete if it is involved in cyclic dependencies.
+     */
+    private void notifyIfComplete(final Module module, final Module[] deps)
+    {
+        for (int i = 0, n = deps.length; i < n; ++i) {
+            if (!completeModules.contains(deps[i])) {
+                return;
+            }
+        }
+        completeModules.add(module);
+        listener.moduleResolved(module);
+    }
+    
+    // Returns the module metadata that is loaded in parallel, if any, or loads it by this thread.
+    private ModuleInfo loadModule(final String normalisedPath) throws ModuleNotLoadedException
+    {
+        final LoadResult result = loadedModules.remove(normalisedPath);
+        if (result == null) {
+            return moduleLoader.loadModule(normalisedPath);
+        }
+        final Throwable failure = result.failure;
+        if (failure == null) {
+            return result.moduleInfo;
+        }
+        // The exception thrown by the loader is re-thrown as if the loader were invoked by this thread.
+        if (failure instanceof ModuleNotLoadedException) {
+            throw (ModuleNotLoadedException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        // An undeclared checked exception is thrown by the module loader.
+        throw new UndeclaredThrowableException(failure);
+    }
+    
+    /* Loads the metadata of the given modules and all modules they depend upon directly or indirectly,
+     * except for those that are already loaded. Each module is loaded once the path of the module
+     * becomes known so that the modules at the frontier of the dependency graph are loaded in
+     * parallel. The results are put into loadedModules.
+     * 
+     * Only the thread that invokes this function accesses the registry state so that no
+     * synchronisation is needed.
+     */
+    private void loadModulesParallel(final List<String> normalisedPaths) throws ModuleNotLoadedException
+    {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(loaderThreadCount, loaderThreadFactory);
+        }
+        // Paths of the modules that are being loaded.
+        final HashSet<String> scheduled = new HashSet<String>();
+        final CompletionService<LoadResult> completionService = new ExecutorCompletionService<LoadResult>(executor);
+        int remainingCount = 0;
+        try {
+            // The modules loaded that wait for the given module to be linked. Used if there is a listener.
+            final HashMap<String, ArrayList<LoadResult>> waitingModules = new HashMap<String, ArrayList<LoadResult>>();
+            
+            for (int i = 0, n = normalisedPaths.size(); i < n; ++i) {
+                if (scheduleLoading(normalisedPaths.get(i), scheduled, completionService)) {
+                    ++remainingCount;
+                }
+            }
+            while (remainingCount > 0) {
+                final LoadResult result = completionService.take().get();
+                --remainingCount;
+                loadedModules.put(result.path, result);
+                
+                if (result.moduleInfo != null) {
+                    for (final String depPath : result.moduleInfo.getDependencies()) {
+                        if (scheduleLoading(depPath, scheduled, completionService)) {
+                            ++remainingCount;
+                        }
+                    }
+                    if (listener != null) {
+                        linkIfReady(result, waitingModules);
+                    }
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ModuleNotLoadedException("Module loading is interrupted.", ex);
+        }
+        catch (ExecutionException ex) {
+            // Never happens. LoadResult holds any exception thrown by the module loader.
+            throw new IllegalStateException(ex);
+        }
+        finally {
+            if (remainingCount > 0) {
+                // Loading is interrupted. The modules that are still being loaded are abandoned.
+                close();
+            }
+        }
+    }
+    
+    // The loader threads do not prevent the JVM from exiting if the registry is not closed.
+    private static final ThreadFactory loaderThreadFactory = new ThreadFactory()
+    {
+        public Thread newThread(final Runnable task)
+        {
+            final Thread thread = new Thread(task, "ModuleRegistry loader");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+    
+    /* Links the given module loaded to its dependee modules if they all are complete, and then
+     * links the modules that wait for this module in the same way. The modules linked are put into
+     * the registry as complete modules and the listener is notified of them. If a dependee module
+     * is not complete then the given module is put into the list of the modules that wait for it.
+     * 
+     * This way modules are passed to the listener while their depender modules are being loaded.
+     * The modules that are not linked here are linked by resolveModuleFast().
+     */
+    private void linkIfReady(final LoadResult result, final HashMap<String, ArrayList<LoadResult>> waitingModules)
+    {
+        int incompleteDependencyCount = 0;
+        for (final String depPath : result.moduleInfo.getDependencies()) {
+            final Object dep = modules.get(depPath);
+            if (dep == null || !completeModules.contains(dep)) {
+                ArrayList<LoadResult> waiting = waitingModules.get(depPath);
+                if (waiting == null) {
+                    waiting = new ArrayList<LoadResult>();
+                    waitingModules.put(depPath, waiting);
+                }
+                waiting.add(result);
+                ++incompleteDependencyCount;
+            }
+        }
+        result.incompleteDependencyCount = incompleteDependencyCount;
+        if (incompleteDependencyCount != 0) {
+            return;
+        }
+        
+        final ArrayList<LoadResult> modulesToLink = new ArrayList<LoadResult>();
+        modulesToLink.add(result);
+        while (!modulesToLink.isEmpty()) {
+            final LoadResult moduleToLink = modulesToLink.remove(modulesToLink.size()-1);
+            loadedModules.remove(moduleToLink.path);
+            
+            final Module module = createModule(moduleToLink.path, moduleToLink.moduleInfo);
+            final Set<String> depPaths = moduleToLink.moduleInfo.getDependencies();
             final Module[] deps = new Module[depPaths.size()];
             int i = 0;
             for (final String depPath : depPaths) {
-                /* ModuleInfo#getDependencies() returns normalised module paths so it is
-                 * safe to invoke #resolveModuleFast() directly.
-                 */
-                deps[i++] = resolveModuleFast(depPath);
+                deps[i++] = (Module) modules.get(depPath);
             }
             module.setDependencies(deps);
-            return module;
+            modules.put(moduleToLink.path, module);
+            completeModules.add(module);
+            listener.moduleResolved(module);
+            
+            final ArrayList<LoadResult> waiting = waitingModules.remove(moduleToLink.path);
+            if (waiting != null) {
+                for (int j = 0, n = waiting.size(); j < n; ++j) {
+                    final LoadResult waitingModule = waiting.get(j);
+                    if (--waitingModule.incompleteDependencyCount == 0) {
+                        modulesToLink.add(waitingModule);
+                    }
+                }
+            }
         }
-        catch (ModuleNotLoadedException ex) {
-            modules.put(normalisedPath, moduleNotLoaded);
-            throw ex;
+    }
+    
+    // Returns true if loading of the given module is scheduled.
+    private boolean scheduleLoading(final String normalisedPath, final HashSet<String> scheduled,
+            final CompletionService<LoadResult> completionService)
+    {
+        if (modules.containsKey(normalisedPath) || loadedModules.containsKey(normalisedPath) ||
+                !scheduled.add(normalisedPath)) {
+            return false;
+        }
+        completionService.submit(new Callable<LoadResult>()
+        {
+            public LoadResult call()
+            {
+                final LoadResult result = new LoadResult(normalisedPath);
+                try {
+                    result.moduleInfo = moduleLoader.loadModule(normalisedPath);
+                }
+                catch (Throwable ex) {
+                    result.failure = ex;
+                }
+                return result;
+            }
+        });
+        return true;
+    }
+    
+    // A module that is being resolved by resolveModuleFast() with its dependee modules resolved so far.
+    private static class ResolutionFrame
+    {
+        ResolutionFrame(final Module module, final String[] dependencyPaths)
+        {
+            this.module = module;
+            this.dependencyPaths = dependencyPaths;
+            dependencies = new Module[dependencyPaths.length];
         }
+        
+        final Module module;
+        final String[] dependencyPaths;
+        final Module[] dependencies;
+        // The index of the dependee module to be resolved next.
+        int nextDependency;
+    }
+    
+    /* The result of loading of a single module. Either the module info (which could be null
+     * if the module loader returns null) or the exception thrown by the module loader is set.
+     */
+    private static class LoadResult
+    {
+        LoadResult(final String path)
+        {
+            this.path = path;
+        }
+        
+        final String path;
+        ModuleInfo moduleInfo;
+        Throwable failure;
+        // The number of dependee modules that are not linked yet. Used by linkIfReady().
+        int incompleteDependencyCount;
+    }
+    
+    /**
+     * <p>A listener that is notified by a {@link ModuleRegistry} of the {@link Module modules}
+     * that are resolved. A module is passed to the listener once the module and all modules it
+     * depends upon (directly and indirectly) are resolved, so that all dependee modules of this
+     * module are passed to the listener before this module. Each module is passed to the
+     * listener at most once.</p>
+     * 
+     * @see ModuleRegistry#ModuleRegistry(ModuleLoader, int, ModuleListener)
+     */
+    public static interface ModuleListener
+    {
+        /**
+         * <p>Is invoked by a {@link ModuleRegistry} for each module that is resolved with
+         * all its direct and indirect dependee modules.</p>
+         * 
+         * @param module the module resolved. It is never {@code null}.
+         */
+        void moduleResolved(Module module);
     }
 }
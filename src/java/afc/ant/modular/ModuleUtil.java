@@ -23,12 +23,16 @@
 package afc.ant.modular;
 
 import java.io.File;
+import java.lang.ref.SoftReference;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import org.apache.tools.ant.BuildException;
 
@@ -40,7 +44,8 @@ import org.apache.tools.ant.BuildException;
  *      {@link #getAttributes(Object)} &mdash; used to access module path, dependee modules,
  *      and attributes, respectively, even if the module passed is loaded by a different
  *      class loader. These functions are used primarily to read module metadata by Ant tasks
- *      that are used in targets invoked for a specific module.</li>
+ *      that are used in targets invoked for a specific module. The functions of a {@code Module}
+ *      class loaded by a different class loader are looked up by reflection once per class.</li>
  *  <li>{@link #normalisePath(String, File)}, {@link #normalisePath(String, File, boolean)}
  *      &mdash; used as a possible implementation of the path normalisation algorithm that
  *      could is used by a specific implementation of
@@ -52,6 +57,19 @@ import org.apache.tools.ant.BuildException;
  */
 public class ModuleUtil
 {
+    private static final int FUNCTION_GET_PATH = 0;
+    private static final int FUNCTION_GET_DEPENDENCIES = 1;
+    private static final int FUNCTION_GET_ATTRIBUTES = 2;
+    private static final String[] functionNames = {"getPath", "getDependencies", "getAttributes"};
+    
+    /* The functions of the Module classes that are loaded by foreign class loaders. Each Module
+     * class is looked up by reflection once. The class is the weak key so that the cache does not
+     * prevent its class loader from being unloaded. The functions are softly referenced because
+     * they refer to the class. Guarded by 'moduleFunctions'.
+     */
+    private static final WeakHashMap<Class<?>, SoftReference<Method[]>> moduleFunctions =
+            new WeakHashMap<Class<?>, SoftReference<Method[]>>();
+    
     // prohibits having instances of ModuleUtil
     private ModuleUtil()
     {
@@ -85,7 +103,8 @@ public class ModuleUtil
         if (object == null) {
             return false;
         }
-        return object.getClass().getName().equals(Module.class.getName());
+        final Class<?> c = object.getClass();
+        return c == Module.class || c.getName().equals(Module.class.getName());
     }
     
     /**
@@ -118,8 +137,10 @@ public class ModuleUtil
      */
     public static String getPath(final Object module)
     {
-        validateModule(module);
-        return (String) callFunction(module, "getPath");
+        if (module instanceof Module) {
+            return ((Module) module).getPath();
+        }
+        return (String) callFunction(module, FUNCTION_GET_PATH);
     }
     
     /**
@@ -152,8 +173,10 @@ public class ModuleUtil
      */
     public static Set<?> getDependencies(final Object module)
     {
-        validateModule(module);
-        return (Set<?>) callFunction(module, "getDependencies");
+        if (module instanceof Module) {
+            return ((Module) module).getDependencies();
+        }
+        return (Set<?>) callFunction(module, FUNCTION_GET_DEPENDENCIES);
     }
     
     /**
@@ -190,44 +213,77 @@ public class ModuleUtil
      */
     public static Map<String, Object> getAttributes(final Object module)
     {
-        validateModule(module);
+        if (module instanceof Module) {
+            return ((Module) module).getAttributes();
+        }
         @SuppressWarnings("unchecked")
-        final Map<String, Object> attribs = (Map<String, Object>) callFunction(module, "getAttributes");
+        final Map<String, Object> attribs = (Map<String, Object>) callFunction(module, FUNCTION_GET_ATTRIBUTES);
         return attribs;
     }
     
-    private static void validateModule(final Object module)
+    // Invokes the given function of the module whose class is loaded by a foreign class loader.
+    private static Object callFunction(final Object module, final int function)
     {
-        if (module == null) {
-            throw new NullPointerException("module");
-        }
-        final String className = module.getClass().getName();
-        if (!className.equals(Module.class.getName())) {
-            throw new IllegalArgumentException(MessageFormat.format(
-                    "Unsupported module type. Expected: ''{0}'', was: ''{1}''.",
-                    Module.class.getName(), className));
+        final Method method = moduleFunctions(module)[function];
+        final String functionName = functionNames[function];
+        if (method == null) {
+            throw new BuildException(MessageFormat.format(
+                    "The module instance does not have the function ''{0}()''.", functionName));
         }
-    }
-    
-    private static Object callFunction(final Object module, final String functionName)
-    {
         try {
-            return module.getClass().getDeclaredMethod(functionName).invoke(module);
+            return method.invoke(module);
         }
         catch (IllegalAccessException ex) {
             throw new BuildException(MessageFormat.format(
                     "Unable to invoke module#{0}().", functionName));
         }
-        catch (NoSuchMethodException ex) {
-            throw new BuildException(MessageFormat.format(
-                    "The module instance does not have the function ''{0}()''.", functionName));
-        }
         catch (InvocationTargetException ex) {
             throw new BuildException(MessageFormat.format(
                     "module#{0}() has thrown an exception.", functionName), ex.getCause());
         }
     }
     
+    /* Returns the functions of the given module indexed by FUNCTION_* constants. A function
+     * is null if the module class does not have it.
+     */
+    private static Method[] moduleFunctions(final Object module)
+    {
+        if (module == null) {
+            throw new NullPointerException("module");
+        }
+        final Class<?> moduleClass = module.getClass();
+        synchronized (moduleFunctions) {
+            final SoftReference<Method[]> ref = moduleFunctions.get(moduleClass);
+            if (ref != null) {
+                final Method[] functions = ref.get();
+                if (functions != null) {
+                    return functions;
+                }
+            }
+        }
+        
+        final String className = moduleClass.getName();
+        if (!className.equals(Module.class.getName())) {
+            throw new IllegalArgumentException(MessageFormat.format(
+                    "Unsupported module type. Expected: ''{0}'', was: ''{1}''.",
+                    Module.class.getName(), className));
+        }
+        // Concurrent lookups of the same class are harmless. Any of the results could be cached.
+        final Method[] functions = new Method[functionNames.length];
+        for (int i = 0; i < functions.length; ++i) {
+            try {
+                functions[i] = moduleClass.getDeclaredMethod(functionNames[i]);
+            }
+            catch (NoSuchMethodException ex) {
+                // The function is reported as missing once it is invoked.
+            }
+        }
+        synchronized (moduleFunctions) {
+            moduleFunctions.put(moduleClass, new SoftReference<Method[]>(functions));
+        }
+        return functions;
+    }
+    
     /**
      * <p>Normalises a given path relative to a given base directory as
      * {@link #normalisePath(String, File, boolean)} does but necessarily with <em>no</em> path
@@ -264,6 +320,9 @@ public class ModuleUtil
      *      casted to lower case (the default locale is used)</li>
      * </ul>
      * 
+     * <p>A relative path that is already in the normalised form is returned as is, with
+     * no objects allocated unless the letter case is normalised.</p>
+     * 
      * @param path the path to normalise. It must be non-{@code null}. It does not need
      *      to point to an existing file.
      * @param baseDir the base directory to normalise the path against. It must be
@@ -277,9 +336,28 @@ public class ModuleUtil
      * 
      * @throws NullPointerException if either <em>path</em> or <em>baseDir</em> is {@code null}.
      */
-    // TODO make this code readable.
-    // TODO improve performance.
     public static String normalisePath(final String path, final File baseDir, final boolean normaliseCase)
+    {
+        return normalisePath(path, baseDir, normaliseCase, null);
+    }
+    
+    /**
+     * <p>Normalises a given path relative to a given base directory as
+     * {@link #normalisePath(String, File, boolean)} does. The paths that are not trivially
+     * normalised are looked up in a given cache first and are put into it once they are
+     * normalised.</p>
+     * 
+     * @param path the path to normalise. It must be non-{@code null}.
+     * @param baseDir the base directory to normalise the path against. It must be non-{@code null}.
+     * @param normaliseCase if {@code true} then path letter case is normalised.
+     * @param cache the cache of normalised paths or {@code null} if the path is not to be cached.
+     * 
+     * @return the normalised path. It is necessarily non-{@code null}.
+     * 
+     * @throws NullPointerException if either <em>path</em> or <em>baseDir</em> is {@code null}.
+     */
+    static String normalisePath(final String path, final File baseDir, final boolean normaliseCase,
+            final PathCache cache)
     {
         if (baseDir == null) {
             throw new NullPointerException("baseDir");
@@ -291,13 +369,38 @@ public class ModuleUtil
             // path refers to baseDir.
             return ".";
         }
+        if (isNormalisedRelativePath(path)) {
+            // There is nothing to resolve. No objects are created if the case is not normalised.
+            // The system default locale is used for casting to the lower case.
+            return normaliseCase ? path.toLowerCase() : path;
+        }
         
-        // Adding path elements in the reverse order.
-        final ArrayList<String> parts = new ArrayList<String>();
-        final File pathFile = new File(path);
-        for (File f = pathFile; f != null; f = f.getParentFile()) {
-            parts.add(f.getName());
+        String normalisedPath;
+        if (cache == null) {
+            normalisedPath = resolvePath(path, new BaseDirectory(baseDir));
+        } else {
+            final BaseDirectory base = cache.baseDirectory(baseDir);
+            normalisedPath = cache.get(base, path);
+            if (normalisedPath == null) {
+                normalisedPath = resolvePath(path, base);
+                cache.put(base, path, normalisedPath);
+            }
         }
+        /* The system default locale is used for casting to the lower case. The paths are cached
+         * with the letter case preserved so that a change of the default locale does not make
+         * the cached paths stale.
+         */
+        return normaliseCase ? normalisedPath.toLowerCase() : normalisedPath;
+    }
+    
+    /*
+     * Resolves a given non-empty path against a given base directory. This is the actual
+     * normalisation algorithm. The result is not cast to the lower case.
+     */
+    private static String resolvePath(final String path, final BaseDirectory base)
+    {
+        // Path elements in the order they go in the path.
+        final ArrayList<String> parts = pathElements(path);
         
         final ArrayList<String> resultParts;
         
@@ -306,21 +409,21 @@ public class ModuleUtil
          */
         int depth;
         /* Indicates how many of negative depth repeats baseDir. The following inequality holds:
-         * -(baseDirCommonCursor - 1) <= baseDirParts.size()
-         * When -(baseDirCommonCursor - 1) == baseDirParts.size() then only the root directory is
+         * -(baseDirCommonCursor - 1) <= baseDirParts.length
+         * When -(baseDirCommonCursor - 1) == baseDirParts.length then only the root directory is
          * the common part.
          */
         int baseDirCommonCursor;
-        ArrayList<String> baseDirParts;
+        String[] baseDirParts;
         
-        if (pathFile.isAbsolute()) {
-            baseDirParts = baseDirElements(baseDir);
+        if (isAbsolute(path)) {
+            baseDirParts = base.elements();
             
             /* Initialising the destination path with necessary .. elements to reach
              * the position 'above' root directory so that the root directory is the
              * first path element to start resolving with.
              */
-            final int levelsUp = baseDirParts.size();
+            final int levelsUp = baseDirParts.length;
             baseDirCommonCursor = depth = -levelsUp;
             resultParts = new ArrayList<String>(parts.size() + levelsUp);
             resultParts.addAll(Collections.nCopies(levelsUp, ".."));
@@ -334,17 +437,17 @@ public class ModuleUtil
         }
         
         // Going through path elements from parents to children resolving '.' and '..'.
-        for (int i = parts.size() - 1; i >= 0; --i) {
+        for (int i = 0, n = parts.size(); i < n; ++i) {
             final String part = parts.get(i);
             if (part.equals(".")) {
                 continue;
             } else if (part.equals("..")) {
                 if (baseDirParts == null) {
                     // Lazy init.
-                    baseDirParts = baseDirElements(baseDir);
+                    baseDirParts = base.elements();
                 }
                 
-                if (depth <= 0 && -(depth - 1) == baseDirParts.size()) {
+                if (depth <= 0 && -(depth - 1) == baseDirParts.length) {
                     /* There is nothing to do since the root directory is reached and
                      * the parent of the root directory is the root directory itself.
                      * 
@@ -373,7 +476,7 @@ public class ModuleUtil
                     /* If the current path element points to a parent of baseDir then
                      * just removing the previous '..'.
                      */
-                    if (part.equals(baseDirParts.get(-depth - 1))) {
+                    if (part.equals(baseDirParts[-depth - 1])) {
                         assert resultParts.get(resultParts.size() - 1).equals("..");
                         
                         resultParts.remove(resultParts.size() - 1);
@@ -391,9 +494,73 @@ public class ModuleUtil
             return ".";
         }
         
-        final String normalisedPath = join(resultParts, File.separatorChar);
-        // The system default locale is used for casting to the lower case.
-        return normaliseCase ? normalisedPath.toLowerCase() : normalisedPath;
+        return join(resultParts, File.separatorChar);
+    }
+    
+    /*
+     * Determines whether or not a given non-empty path is a relative path that is already
+     * in the normalised form, i.e. it has neither empty nor '.' nor '..' elements and
+     * the system path separator is the only separator used. Characters that could have
+     * a special meaning for the file system of another platform (the path separators and
+     * the drive separator ':') make the path not qualify, so that it is resolved by the
+     * generic algorithm.
+     */
+    private static boolean isNormalisedRelativePath(final String path)
+    {
+        final char separator = File.separatorChar;
+        int elementStart = 0;
+        for (int i = 0, n = path.length(); i <= n; ++i) {
+            final char c = i == n ? separator : path.charAt(i);
+            if (c == separator) {
+                final int elementLength = i - elementStart;
+                if (elementLength == 0 || (elementLength == 1 && path.charAt(elementStart) == '.') ||
+                        (elementLength == 2 && path.charAt(elementStart) == '.' && path.charAt(elementStart + 1) == '.')) {
+                    return false;
+                }
+                elementStart = i + 1;
+            } else if (c == '/' || c == '\\' || c == ':') {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private static boolean isAbsolute(final String path)
+    {
+        return File.separatorChar == '/' ? path.charAt(0) == '/' : new File(path).isAbsolute();
+    }
+    
+    /*
+     * Splits a given non-empty path into its elements as java.io.File does. The root directory
+     * is represented by an empty string.
+     * 
+     * @return the path elements in the order they go in the path.
+     */
+    private static ArrayList<String> pathElements(final String path)
+    {
+        final ArrayList<String> parts = new ArrayList<String>();
+        if (File.separatorChar == '/') {
+            // UNIX-like file systems have a trivial path syntax. Splitting with no File objects created.
+            if (path.charAt(0) == '/') {
+                parts.add("");
+            }
+            int elementStart = 0;
+            for (int i = 0, n = path.length(); i <= n; ++i) {
+                if (i == n || path.charAt(i) == '/') {
+                    if (i > elementStart) {
+                        parts.add(path.substring(elementStart, i));
+                    }
+                    elementStart = i + 1;
+                }
+            }
+        } else {
+            // The prefixes of the other file systems are parsed by java.io.File.
+            for (File f = new File(path); f != null; f = f.getParentFile()) {
+                parts.add(f.getName());
+            }
+            Collections.reverse(parts);
+        }
+        return parts;
     }
     
     /*
@@ -406,7 +573,7 @@ public class ModuleUtil
      * 
      * @return the path elements of the normalised path in the reverse order.
      */
-    private static ArrayList<String> baseDirElements(final File baseDir)
+    private static String[] baseDirElements(final File baseDir)
     {
         // Base directory path elements in the reverse order.
         final ArrayList<String> baseDirParts = new ArrayList<String>();
@@ -434,7 +601,7 @@ public class ModuleUtil
                 }
             }
         }
-        return baseDirParts;
+        return baseDirParts.toArray(new String[baseDirParts.size()]);
     }
     
     /*
@@ -471,4 +638,77 @@ public class ModuleUtil
         
         return buf.toString();
     }
+    
+    // A base directory whose elements are computed once they are needed. It is thread-safe.
+    private static final class BaseDirectory
+    {
+        final File dir;
+        // Lazily initialised. A concurrent initialisation just computes the same elements twice.
+        private volatile String[] elements;
+        
+        BaseDirectory(final File dir)
+        {
+            this.dir = dir;
+        }
+        
+        String[] elements()
+        {
+            String[] result = elements;
+            if (result == null) {
+                elements = result = baseDirElements(dir);
+            }
+            return result;
+        }
+    }
+    
+    /* A bounded cache of the results of normalisation of the paths that are not trivially
+     * normalised against a single base directory. The least recently used paths are evicted
+     * once the cache is full. If the paths are normalised against another base directory then
+     * the cache starts over.
+     * 
+     * A PathCache is owned by a module loader (e.g. ManifestModuleLoader) so that the paths are
+     * cached for as long as the module loader is used, rather than by the JVM. The paths are
+     * cached with the letter case preserved. PathCache is thread-safe.
+     */
+    static final class PathCache
+    {
+        private final LinkedHashMap<String, String> paths;
+        private BaseDirectory base;
+        
+        // Creates an empty cache that holds at most maxSize paths.
+        PathCache(final int maxSize)
+        {
+            assert maxSize > 0;
+            paths = new LinkedHashMap<String, String>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, String> eldest)
+                {
+                    return size() > maxSize;
+                }
+            };
+        }
+        
+        synchronized BaseDirectory baseDirectory(final File baseDir)
+        {
+            if (base == null || !base.dir.equals(baseDir)) {
+                base = new BaseDirectory(baseDir);
+                paths.clear();
+            }
+            return base;
+        }
+        
+        synchronized String get(final BaseDirectory base, final String path)
+        {
+            return base == this.base ? paths.get(path) : null;
+        }
+        
+        // The path is not cached if the base directory is changed in the meantime.
+        synchronized void put(final BaseDirectory base, final String path, final String normalisedPath)
+        {
+            if (base == this.base) {
+                paths.put(path, normalisedPath);
+            }
+        }
+    }
 }
@@ -25,9 +25,15 @@ package afc.ant.modular;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.IdentityHashMap;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
  * <p>Resolves dependencies between {@link Module modules}, that is it defines an order
@@ -51,7 +57,7 @@ import java.util.LinkedHashSet;
  * </ol>
  * <p>If there are cyclic dependencies between modules (so that the order of module processing
  * is undefined) then a {@link CyclicDependenciesDetectedException} is thrown at the
- * step <tt>1</tt>.</p>
+ * step <tt>1</tt>. It reports a dependency loop for each group of mutually dependent modules.</p>
  * 
  * <p>This dependency resolver supports multi-threaded {@link Module module} processing.
  * That is, at the moment multiple modules could be acquired for processing
@@ -60,6 +66,33 @@ import java.util.LinkedHashSet;
  * threads must mark at least a single module as processed for this) or this
  * {@code ParallelDependencyResolver} is {@link #abort() aborted}.</p>
  * 
+ * <p>Acquiring and releasing modules does not involve a resolver-wide lock. The number of
+ * unprocessed dependencies of each module is tracked by an atomic counter and the modules
+ * that are ready to be processed are kept in a non-blocking queue. A module that becomes
+ * ready wakes up at most a single thread waiting for a free module so that the threads
+ * do not compete with each other each time a module is processed.</p>
+ * 
+ * <p>By default, the order in which free modules are handed out is undefined. If the
+ * {@code ParallelDependencyResolver} is {@link #init(Collection, boolean) initialised} with
+ * the <em>critical path first</em> policy then the free module with the longest chain of
+ * modules that depend upon it is handed out first. Starting long dependency chains early
+ * helps to keep all threads busy till the end of processing. If the costs of processing
+ * the modules are known (e.g. the durations of their previous builds) then the chains are
+ * compared by the {@link #init(Collection, Map) total cost} of their modules.</p>
+ * 
+ * <p>The set of modules could also be built incrementally. If the {@code ParallelDependencyResolver}
+ * is {@link #initIncremental() initialised incrementally} then modules are {@link #addModule(Module)
+ * added} one by one, each after all modules it depends upon, and can be acquired for processing
+ * while the other modules are still being added. {@link #completeInit(Collection)} indicates that
+ * the set of modules is complete. This allows processing to be started before metadata of all
+ * modules is loaded.</p>
+ * 
+ * <p>A {@link ModuleReadyListener} could be {@link #setModuleReadyListener(ModuleReadyListener)
+ * set} to be notified of each module as soon as it becomes available for processing, before
+ * it is acquired by a thread. This allows the work needed to process a module (e.g. fetching
+ * data the module processing needs) to be started while all threads are still busy with
+ * other modules.</p>
+ * 
  * <p>As against {@link SerialDependencyResolver}, {@code ParallelDependencyResolver} is
  * much less efficient with respect to both processor and memory footprint which is
  * compensated by allowing for parallel processing or independent modules.</p>
@@ -74,9 +107,26 @@ import java.util.LinkedHashSet;
  */
 public class ParallelDependencyResolver
 {
-    private ArrayList<Node> shortlist;
-    private IdentityHashMap<Module, Node> modulesAcquired;
-    private int remainingModuleCount;
+    /* The state of the module processing routine this resolver is initialised with.
+     * A new state is created by each successful init() so that the threads that are still
+     * working with the old state do not affect the new one.
+     */
+    private volatile State state;
+    // It is passed to each state created by init().
+    private volatile ModuleReadyListener readyListener;
+    
+    /**
+     * <p>Sets a {@link ModuleReadyListener} that is to be notified of each module that becomes
+     * available for processing. The listener applies to the module sets this
+     * {@code ParallelDependencyResolver} is initialised with after this function is invoked.
+     * If {@code null} is passed then no listener is notified.</p>
+     * 
+     * @param listener the listener to be set. It can be {@code null}.
+     */
+    public void setModuleReadyListener(final ModuleReadyListener listener)
+    {
+        readyListener = listener;
+    }
     
     /**
      * <p>Initialises this {@code ParallelDependencyResolver} with a set of {@link Module modules}
@@ -97,6 +147,254 @@ public class ParallelDependencyResolver
      */
     public void init(final Collection<Module> rootModules) throws CyclicDependenciesDetectedException
     {
+        init(rootModules, false);
+    }
+    
+    /**
+     * <p>Initialises this {@code ParallelDependencyResolver} with a set of {@link Module modules}
+     * to process, as {@link #init(Collection)} does, and with the policy of choosing a free module
+     * to be handed out if there are multiple free modules.</p>
+     * 
+     * <p>If <em>criticalPathFirst</em> is {@code true} then the length of the longest chain of
+     * modules that depend upon a given module (including this module itself) is calculated for
+     * each module. {@link #getFreeModule()} returns the free module with the longest chain. That is,
+     * the modules which are on the critical path of processing all modules are processed as early
+     * as possible. If <em>criticalPathFirst</em> is {@code false} then the order in which free
+     * modules are handed out is undefined.</p>
+     * 
+     * @param rootModules the modules that constitute with their direct and indirect dependee
+     *      modules a set of modules. The order of processing of modules in this set is to be
+     *      resolved by this {@code ParallelDependencyResolver}. This collection and all of
+     *      its elements must be non-{@code null}.
+     * @param criticalPathFirst {@code true} if the free modules on the critical path are to be
+     *      handed out first; {@code false} if the order of free modules does not matter.
+     * 
+     * @throws CyclicDependenciesDetectedException if there are cyclic dependencies between
+     *      the modules.
+     * @throws NullPointerException if either <em>rootModules</em> or any of its elements
+     *      is {@code null}.
+     */
+    public void init(final Collection<Module> rootModules, final boolean criticalPathFirst)
+            throws CyclicDependenciesDetectedException
+    {
+        init(rootModules, criticalPathFirst, null);
+    }
+    
+    /**
+     * <p>Initialises this {@code ParallelDependencyResolver} with a set of {@link Module modules}
+     * to process, as {@link #init(Collection)} does, so that the free modules are handed out
+     * in the critical-path-first order which takes into account given costs of processing
+     * the modules.</p>
+     * 
+     * <p>The cost of a chain of modules is the sum of the costs of its modules. For each module,
+     * the cost of the most expensive chain of modules that depend upon this module (including
+     * this module itself) is calculated. {@link #getFreeModule()} returns the free module with
+     * the most expensive chain. The modules whose paths are not in <em>moduleCosts</em> are
+     * assigned with the average cost of the modules that are there (or <em>1</em> if there are
+     * no such modules). The costs are not required to be in any particular units but must be
+     * the same units for all modules.</p>
+     * 
+     * @param rootModules the modules that constitute with their direct and indirect dependee
+     *      modules a set of modules. The order of processing of modules in this set is to be
+     *      resolved by this {@code ParallelDependencyResolver}. This collection and all of
+     *      its elements must be non-{@code null}.
+     * @param moduleCosts the costs of processing the modules mapped to the module
+     *      {@link Module#getPath() paths}. It could contain paths of the modules that are
+     *      not in the module set. This map must be non-{@code null} and its values must be
+     *      non-{@code null} and non-negative. This map is not modified by this function.
+     * 
+     * @throws CyclicDependenciesDetectedException if there are cyclic dependencies between
+     *      the modules.
+     * @throws NullPointerException if either <em>rootModules</em> or any of its elements
+     *      or <em>moduleCosts</em> is {@code null}.
+     */
+    public void init(final Collection<Module> rootModules, final Map<String, Long> moduleCosts)
+            throws CyclicDependenciesDetectedException
+    {
+        if (moduleCosts == null) {
+            throw new NullPointerException("moduleCosts");
+        }
+        init(rootModules, true, moduleCosts);
+    }
+    
+    // If moduleCosts is null then each module costs 1.
+    private void init(final Collection<Module> rootModules, final boolean criticalPathFirst,
+            final Map<String, Long> moduleCosts) throws CyclicDependenciesDetectedException
+    {
+        /* If the DependencyGraph constructor throws an exception then the state is not changed
+           so that this ParallelDependencyResolver instance could be used as if
+           this init() were not invoked. */
+        initFromGraph(new DependencyGraph(rootModules), criticalPathFirst, moduleCosts);
+    }
+    
+    /**
+     * <p>Initialises this {@code ParallelDependencyResolver} with the {@link Module modules} of
+     * a given {@link DependencyGraph}, as {@link #init(Collection)} does. The modules are already
+     * ordered and checked for cyclic dependencies by the graph so this function takes linear time
+     * and does not traverse the modules. The graph is not modified so it could be used to
+     * initialise other dependency resolvers.</p>
+     * 
+     * @param graph the graph of the modules to be processed. It must be non-{@code null}.
+     * 
+     * @throws NullPointerException if <em>graph</em> is {@code null}.
+     */
+    public void initFromGraph(final DependencyGraph graph)
+    {
+        initFromGraph(graph, false);
+    }
+    
+    /**
+     * <p>Initialises this {@code ParallelDependencyResolver} with the {@link Module modules} of
+     * a given {@link DependencyGraph}, as {@link #init(Collection, boolean)} does. The graph
+     * is not modified so it could be used to initialise other dependency resolvers.</p>
+     * 
+     * @param graph the graph of the modules to be processed. It must be non-{@code null}.
+     * @param criticalPathFirst {@code true} if the free modules on the critical path are to be
+     *      handed out first; {@code false} if the order of free modules does not matter.
+     * 
+     * @throws NullPointerException if <em>graph</em> is {@code null}.
+     */
+    public void initFromGraph(final DependencyGraph graph, final boolean criticalPathFirst)
+    {
+        if (graph == null) {
+            throw new NullPointerException("graph");
+        }
+        initFromGraph(graph, criticalPathFirst, null);
+    }
+    
+    /**
+     * <p>Initialises this {@code ParallelDependencyResolver} with the {@link Module modules} of
+     * a given {@link DependencyGraph}, as {@link #init(Collection, Map)} does. The graph
+     * is not modified so it could be used to initialise other dependency resolvers.</p>
+     * 
+     * @param graph the graph of the modules to be processed. It must be non-{@code null}.
+     * @param moduleCosts the costs of processing the modules mapped to the module
+     *      {@link Module#getPath() paths}. It could contain paths of the modules that are
+     *      not in the graph. This map must be non-{@code null} and its values must be
+     *      non-{@code null} and non-negative. This map is not modified by this function.
+     * 
+     * @throws NullPointerException if either <em>graph</em> or <em>moduleCosts</em>
+     *      is {@code null}.
+     */
+    public void initFromGraph(final DependencyGraph graph, final Map<String, Long> moduleCosts)
+    {
+        if (graph == null) {
+            throw new NullPointerException("graph");
+        }
+        if (moduleCosts == null) {
+            throw new NullPointerException("moduleCosts");
+        }
+        initFromGraph(graph, true, moduleCosts);
+    }
+    
+    private void initFromGraph(final DependencyGraph graph, final boolean criticalPathFirst,
+            final Map<String, Long> moduleCosts)
+    {
+        final Node[] nodes = new Node[graph.size()];
+        final ArrayList<Node> shortlist = new ArrayList<Node>();
+        for (int id = 0; id < nodes.length; ++id) {
+            final int dependencyCount = graph.dependencyOffsets[id + 1] - graph.dependencyOffsets[id];
+            final Node node = new Node(graph.modules[id], id, dependencyCount);
+            nodes[id] = node;
+            if (dependencyCount == 0) {
+                shortlist.add(node);
+            }
+        }
+        final Queue<Node> readyQueue;
+        if (criticalPathFirst) {
+            assignCriticalPathCosts(graph, nodes, moduleCosts);
+            readyQueue = new PriorityBlockingQueue<Node>(Math.max(1, shortlist.size()), longestPathFirst);
+            readyQueue.addAll(shortlist);
+        } else {
+            readyQueue = new ConcurrentLinkedQueue<Node>(shortlist);
+        }
+        final State newState = new State(graph, nodes, readyQueue, readyListener);
+        if (newState.readyListener != null) {
+            for (int i = 0, n = shortlist.size(); i < n; ++i) {
+                newState.readyListener.moduleReady(shortlist.get(i).module);
+            }
+        }
+        state = newState;
+    }
+    
+    /**
+     * <p>Initialises this {@code ParallelDependencyResolver} with an empty set of {@link Module modules}
+     * which is then extended by {@link #addModule(Module)}. The modules added can be acquired for
+     * processing by {@link #getFreeModule()} before the set of modules is complete. Once all modules
+     * are added {@link #completeInit(Collection)} must be invoked. Until then {@code getFreeModule()}
+     * waits for a new module to be added instead of returning {@code null} if all modules added are
+     * acquired. If this {@code ParallelDependencyResolver} is already initialised with another set of
+     * modules then its state is reset so that the new set of modules is being used.</p>
+     * 
+     * <p>The free modules are handed out in an undefined order. {@code addModule(Module)} and
+     * {@code completeInit(Collection)} are expected to be invoked by a single thread.</p>
+     */
+    public void initIncremental()
+    {
+        state = new State(new ConcurrentHashMap<Module, Node>(), new ConcurrentLinkedQueue<Node>(), readyListener);
+    }
+    
+    /**
+     * <p>Adds a given {@link Module module} to the set of modules this
+     * {@code ParallelDependencyResolver} is {@link #initIncremental() initialised incrementally}
+     * with. All modules this module depends upon must be added before this module. The module
+     * becomes available for processing as soon as all its dependee modules are processed.
+     * If the given module is already added or this {@code ParallelDependencyResolver} is
+     * {@link #abort() aborted} then this function just returns.</p>
+     * 
+     * @param module the module to be added. It must be non-{@code null}.
+     * 
+     * @throws NullPointerException if <em>module</em> is {@code null}.
+     * @throws IllegalArgumentException if some module the given module depends upon is not added.
+     * @throws IllegalStateException if this {@code ParallelDependencyResolver} is not initialised
+     *      incrementally or if {@link #completeInit(Collection)} is already invoked.
+     */
+    public void addModule(final Module module)
+    {
+        final State state = ensureIncrementalInit();
+        if (module == null) {
+            throw new NullPointerException("module");
+        }
+        if (state.aborted || state.registry.containsKey(module)) {
+            return;
+        }
+        final Module[] deps = module.dependencies;
+        for (int i = 0, n = deps.length; i < n; ++i) {
+            if (!state.registry.containsKey(deps[i])) {
+                throw new IllegalArgumentException(MessageFormat.format(
+                        "The module ''{0}'' depends upon the module ''{1}'' that is not added.",
+                        module.getPath(), deps[i].getPath()));
+            }
+        }
+        addNode(state, module);
+    }
+    
+    /**
+     * <p>Completes the incremental initialisation of this {@code ParallelDependencyResolver}.
+     * The set of modules is extended with the given root modules and all their direct and indirect
+     * {@link Module#getDependencies() dependee modules} that are not {@link #addModule(Module) added}
+     * yet. No modules can be added after that. Once all modules are acquired for processing
+     * {@link #getFreeModule()} returns {@code null}.</p>
+     * 
+     * <p>If there are cyclic dependencies between the modules that are not added yet then
+     * this {@code ParallelDependencyResolver} is {@link #abort() aborted} and a
+     * {@link CyclicDependenciesDetectedException} is thrown. The modules that are already
+     * acquired for processing are not affected by this.</p>
+     * 
+     * @param rootModules the modules that constitute with their direct and indirect dependee
+     *      modules the complete set of modules to be processed. This collection and all of
+     *      its elements must be non-{@code null}.
+     * 
+     * @throws CyclicDependenciesDetectedException if there are cyclic dependencies between
+     *      the modules.
+     * @throws NullPointerException if either <em>rootModules</em> or any of its elements
+     *      is {@code null}.
+     * @throws IllegalStateException if this {@code ParallelDependencyResolver} is not initialised
+     *      incrementally or if {@code completeInit(Collection)} is already invoked.
+     */
+    public void completeInit(final Collection<Module> rootModules) throws CyclicDependenciesDetectedException
+    {
+        final State state = ensureIncrementalInit();
         if (rootModules == null) {
             throw new NullPointerException("rootModules");
         }
@@ -105,14 +403,57 @@ public class ParallelDependencyResolver
                 throw new NullPointerException("rootModules contains null element.");
             }
         }
-        synchronized (this) {
-            final ArrayList<Node> newShortlist = new ArrayList<Node>();
-            /* If buildNodeGraph() throws an exception then the state is not changed
-               so that this ParallelDependencyResolver instance could be used as if
-               this init() were not invoked. */
-            remainingModuleCount = buildNodeGraph(rootModules, newShortlist);
-            shortlist = newShortlist;
-            modulesAcquired = new IdentityHashMap<Module, Node>();
+        final ArrayList<Module> moduleOrder;
+        try {
+            moduleOrder = DependencySorter.sort(rootModules, state.registry);
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            abort();
+            throw ex;
+        }
+        for (int i = 0, n = moduleOrder.size(); i < n; ++i) {
+            addNode(state, moduleOrder.get(i));
+        }
+        state.complete = true;
+        // Removing the permit that kept getFreeModule() waiting for new modules.
+        if (state.remainingModuleCount.decrementAndGet() == 0) {
+            state.readyPermits.release();
+        }
+    }
+    
+    private State ensureIncrementalInit()
+    {
+        final State state = ensureInitialised();
+        if (!state.incremental || state.complete) {
+            throw new IllegalStateException("Resolver does not accept new modules.");
+        }
+        return state;
+    }
+    
+    // All dependee modules of the given module must be already added.
+    private static void addNode(final State state, final Module module)
+    {
+        final Node node = new Node(module, -1, module.dependencies.length);
+        /* An extra dependency prevents the node from being shortlisted by a thread that
+           releases a dependee module while the dependee modules are being linked. */
+        Node.dependencyCountUpdater.incrementAndGet(node);
+        state.registry.put(module, node);
+        state.remainingModuleCount.incrementAndGet();
+        
+        final Module[] deps = module.dependencies;
+        for (int i = 0, n = deps.length; i < n; ++i) {
+            final Node depNode = state.registry.get(deps[i]);
+            synchronized (depNode) {
+                if (depNode.processed == 0) {
+                    depNode.dependencyOf.add(node);
+                    continue;
+                }
+            }
+            // The dependee module is already processed.
+            Node.dependencyCountUpdater.decrementAndGet(node);
+        }
+        if (Node.dependencyCountUpdater.decrementAndGet(node) == 0) {
+            moduleReady(state, node);
         }
     }
     
@@ -138,37 +479,43 @@ public class ParallelDependencyResolver
      *      thread is interrupted. The <em>interrupted status</em> of this thread is not reset in
      *      this case.
      */
-    public synchronized Module getFreeModule()
+    public Module getFreeModule()
     {
-        ensureInitialised();
+        final State state = ensureInitialised();
         
-        try {
-            while (shortlist.isEmpty()) {
-                if (remainingModuleCount <= 0) {
-                    // Either all modules are processed or #abort() has been called.
-                    return null;
-                }
-                wait();
+        /* Each permit of state.readyPermits corresponds either to a node in state.shortlist or
+         * to the fact that there are no more modules to acquire. In the latter case the permit
+         * is returned back so that all threads waiting are woken up one after another.
+         */
+        if (!state.readyPermits.tryAcquire()) {
+            try {
+                state.readyPermits.acquire();
+            }
+            catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException();
             }
-            final Node node = shortlist.remove(shortlist.size()-1);
-            final Module module = node.module;
-            modulesAcquired.put(module, node);
-            --remainingModuleCount;
-            
-            return module;
         }
-        catch (InterruptedException ex) {
-            Thread.currentThread().interrupt();
-            throw new IllegalStateException();
+        final Node node = state.shortlist.poll();
+        if (node == null || state.aborted) {
+            // Either all modules are acquired or #abort() has been called.
+            state.readyPermits.release();
+            return null;
+        }
+        node.acquired = true;
+        if (state.remainingModuleCount.decrementAndGet() == 0) {
+            // The last module is acquired. The threads waiting for a free module are to finish.
+            state.readyPermits.release();
         }
+        return node.module;
     }
     
     /**
      * <p>Marks a given {@link Module module} as processed, so that the modules that depend upon
      * this module have one less unprocessed dependency. The modules for which this module is
      * the last unprocessed dependency become available for processing and can be acquired by
-     * invoking {@link #getFreeModule()}. All threads waiting for a free module are notified
-     * by this function.</p>
+     * invoking {@link #getFreeModule()}. A thread waiting for a free module is notified by this
+     * function for each module that becomes available.</p>
      * 
      * @param module the module to be marked as processed. It must belong to the set of modules
      *      this {@code ParallelDependencyResolver} is initialised with. It must be acquired for
@@ -182,31 +529,65 @@ public class ParallelDependencyResolver
      *      {@code ParallelDependencyResolver} is aborted.
      * @throws IllegalStateException if this {@code ParallelDependencyResolver} is not initialised.
      */
-    public synchronized void moduleProcessed(final Module module)
+    public void moduleProcessed(final Module module)
     {
-        ensureInitialised();
+        final State state = ensureInitialised();
         if (module == null) {
             throw new NullPointerException("module");
         }
-        if (remainingModuleCount < 0) {
-            // #abort() has been called.
+        if (state.aborted) {
             return;
         }
-        final Node node = modulesAcquired.remove(module);
-        if (node == null) {
+        final Node node = state.getNode(module);
+        // Only a single thread can release a given module that is acquired.
+        if (node == null || !node.acquired || !markProcessed(state, node)) {
             throw new IllegalArgumentException(MessageFormat.format(
                     "The module ''{0}'' is not being processed.", module.getPath()));
         }
-        for (int i = 0, n = node.dependencyOf.size(); i < n; ++i) {
-            final Node depOf = node.dependencyOf.get(i);
-            if (--depOf.dependencyCount == 0) {
-                // all modules with no dependencies go to the shortlist
-                shortlist.add(depOf);
+        if (state.incremental) {
+            for (int i = 0, n = node.dependencyOf.size(); i < n; ++i) {
+                releaseDependency(state, node.dependencyOf.get(i));
             }
+        } else {
+            final int[] dependers = state.graph.dependers;
+            final Node[] nodes = state.nodes;
+            for (int i = state.graph.dependerOffsets[node.id], end = state.graph.dependerOffsets[node.id + 1];
+                    i < end; ++i) {
+                releaseDependency(state, nodes[dependers[i]]);
+            }
+        }
+    }
+    
+    // Decrements the number of unprocessed dependencies of a given node.
+    private static void releaseDependency(final State state, final Node depOf)
+    {
+        if (Node.dependencyCountUpdater.decrementAndGet(depOf) == 0) {
+            // all modules with no dependencies go to the shortlist
+            moduleReady(state, depOf);
+        }
+    }
+    
+    private static void moduleReady(final State state, final Node node)
+    {
+        // The listener is notified before the module can be acquired by another thread.
+        if (state.readyListener != null) {
+            state.readyListener.moduleReady(node.module);
+        }
+        state.shortlist.add(node);
+        state.readyPermits.release();
+    }
+    
+    // Returns false if the node is already marked as processed.
+    private static boolean markProcessed(final State state, final Node node)
+    {
+        if (!state.incremental) {
+            return Node.processedUpdater.compareAndSet(node, 0, 1);
+        }
+        /* The list of depender nodes is extended by addNode() until the node is processed.
+           This lock ensures that the list is not modified after that. */
+        synchronized (node) {
+            return Node.processedUpdater.compareAndSet(node, 0, 1);
         }
-        /* Notifying all threads after the module is removed and its dependencies are processed
-           so that each thread waiting can either get a free module or finish execution. */
-        notifyAll();
     }
     
     /**
@@ -228,101 +609,196 @@ public class ParallelDependencyResolver
      * re-initialisation} of a {@code ParallelDependencyResolver} resets its
      * <em>aborted status</em>.
      */
-    public synchronized void abort()
+    public void abort()
     {
-        ensureInitialised();
-        shortlist.clear();
-        modulesAcquired.clear(); // Tracking the acquired modules does not make sense anymore.
-        remainingModuleCount = -1; // Indicates that #abort() has been called.
-        notifyAll();
+        final State state = ensureInitialised();
+        state.aborted = true;
+        state.shortlist.clear();
+        // Waking up a waiting thread. It wakes up the next one and so on.
+        state.readyPermits.release();
     }
     
-    private void ensureInitialised()
+    private State ensureInitialised()
     {
-        if (shortlist == null) {
+        final State state = this.state;
+        if (state == null) {
             throw new IllegalStateException("Resolver is not initialised.");
         }
+        return state;
+    }
+    
+    private static class State
+    {
+        State(final DependencyGraph graph, final Node[] nodes, final Queue<Node> shortlist,
+                final ModuleReadyListener readyListener)
+        {
+            this.graph = graph;
+            this.nodes = nodes;
+            registry = null;
+            this.shortlist = shortlist;
+            incremental = false;
+            remainingModuleCount = new AtomicInteger(nodes.length);
+            /* An extra permit is given if there are no modules so that getFreeModule()
+               returns null without blocking. */
+            readyPermits = new Semaphore(nodes.length == 0 ? 1 : shortlist.size());
+            this.readyListener = readyListener;
+        }
+        
+        State(final Map<Module, Node> registry, final Queue<Node> shortlist,
+                final ModuleReadyListener readyListener)
+        {
+            graph = null;
+            nodes = null;
+            this.registry = registry;
+            this.shortlist = shortlist;
+            incremental = true;
+            // An extra module keeps the threads waiting until completeInit() is invoked.
+            remainingModuleCount = new AtomicInteger(1);
+            readyPermits = new Semaphore(0);
+            this.readyListener = readyListener;
+        }
+        
+        Node getNode(final Module module)
+        {
+            if (incremental) {
+                return registry.get(module);
+            }
+            final int id = graph.indexOf(module);
+            return id < 0 ? null : nodes[id];
+        }
+        
+        /* The graph and the nodes (indexed by the module identifiers) are used if
+           the resolver is initialised with the complete set of modules. */
+        final DependencyGraph graph;
+        final Node[] nodes;
+        /* The registry is used for the incremental initialisation. It is a concurrent map
+           so it can be read concurrently. */
+        final Map<Module, Node> registry;
+        final Queue<Node> shortlist;
+        final Semaphore readyPermits;
+        // The number of modules that are not acquired yet.
+        final AtomicInteger remainingModuleCount;
+        volatile boolean aborted;
+        // True if modules are added by addModule().
+        final boolean incremental;
+        // Set to true by completeInit(). It is accessed by the thread that adds modules.
+        boolean complete;
+        // It is null if no listener is to be notified.
+        final ModuleReadyListener readyListener;
     }
     
     private static class Node
     {
-        Node(final Module module)
+        static final AtomicIntegerFieldUpdater<Node> dependencyCountUpdater =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "dependencyCount");
+        static final AtomicIntegerFieldUpdater<Node> processedUpdater =
+                AtomicIntegerFieldUpdater.newUpdater(Node.class, "processed");
+        
+        // The identifier is -1 if the node is created by the incremental initialisation.
+        Node(final Module module, final int id, final int dependencyCount)
         {
             this.module = module;
-            dependencyCount = module.getDependencies().size();
-            dependencyOf = new ArrayList<Node>();
+            this.id = id;
+            this.dependencyCount = dependencyCount;
+            dependencyOf = id < 0 ? new ArrayList<Node>() : null;
         }
         
         final Module module;
+        // The identifier of the module in the dependency graph.
+        final int id;
         /* Knowing just dependency count is enough to detect the moment
            when this node has no dependencies remaining. */
-        int dependencyCount;
+        volatile int dependencyCount;
+        /* The nodes that depend upon this node. It is used by the incremental initialisation only.
+           Otherwise the inverted dependencies are taken from the dependency graph. */
         final ArrayList<Node> dependencyOf;
+        // Set to true by the thread that acquires this node.
+        volatile boolean acquired;
+        // Set to 1 by the thread that releases this node.
+        volatile int processed;
+        /* The cost of the most expensive chain of nodes that starts with this node
+           in the graph of inverted dependencies. It is used to prioritise free nodes. */
+        long criticalPathCost;
     }
     
-    /*
-     * Builds a DAG which nodes hold modules and arcs that represent inverted module dependencies.
-     * The list of nodes returned via shortlist contains the starting vertices of the graph.
-     * The modules that are bound to these vertices do not have dependencies on other modules
-     * and are used as modules to start unwinding dependencies from.
-     * 
-     * @returns the total number of modules.
+    private static final Comparator<Node> longestPathFirst = new Comparator<Node>()
+    {
+        public int compare(final Node n1, final Node n2)
+        {
+            final long l1 = n1.criticalPathCost;
+            final long l2 = n2.criticalPathCost;
+            return l1 > l2 ? -1 : (l1 == l2 ? 0 : 1);
+        }
+    };
+    
+    /* Calculates the critical path cost for each node. The nodes are visited in the reverse
+     * topological order (a node is visited after all nodes that depend upon it are visited)
+     * which is the descending order of the module identifiers.
      */
-    private static int buildNodeGraph(final Collection<Module> rootModules, ArrayList<Node> shortlist)
-            throws CyclicDependenciesDetectedException
+    private static void assignCriticalPathCosts(final DependencyGraph graph, final Node[] nodes,
+            final Map<String, Long> moduleCosts)
     {
-        final IdentityHashMap<Module, Node> registry = new IdentityHashMap<Module, Node>();
-        final LinkedHashSet<Module> path = new LinkedHashSet<Module>();
-        for (final Module module : rootModules) {
-            addNodeDeep(module, shortlist, registry, path);
+        final long defaultCost = defaultModuleCost(graph, moduleCosts);
+        final int[] dependerOffsets = graph.dependerOffsets;
+        final int[] dependers = graph.dependers;
+        for (int id = nodes.length - 1; id >= 0; --id) {
+            long maxDependerPathCost = 0;
+            for (int i = dependerOffsets[id], end = dependerOffsets[id + 1]; i < end; ++i) {
+                maxDependerPathCost = Math.max(maxDependerPathCost, nodes[dependers[i]].criticalPathCost);
+            }
+            final Node node = nodes[id];
+            node.criticalPathCost = maxDependerPathCost + moduleCost(node.module, moduleCosts, defaultCost);
         }
-        // the number of nodes in the graph
-        return registry.size();
     }
     
-    // TODO reduce the number of parameters in this function (see SerialDependencyResolver#addModuleDeep).
-    private static Node addNodeDeep(final Module module, final ArrayList<Node> shortlist,
-            final IdentityHashMap<Module, Node> registry, final LinkedHashSet<Module> path)
-            throws CyclicDependenciesDetectedException
+    private static long moduleCost(final Module module, final Map<String, Long> moduleCosts, final long defaultCost)
     {
-        Node node = registry.get(module);
-        if (node != null) {
-            return node; // the module is already processed
+        if (moduleCosts == null) {
+            return 1;
         }
-        
-        if (path.add(module)) {
-            node = new Node(module);
-            
-            final Module[] deps = module.dependencies;
-            if (deps.length == 0) {
-                shortlist.add(node);
-            } else {
-                // inverted dependencies are assigned
-                for (int i = 0, n = deps.length; i < n; ++i) {
-                    final Module dep = deps[i];
-                    final Node depNode = addNodeDeep(dep, shortlist, registry, path);
-                    depNode.dependencyOf.add(node);
-                }
+        final Long cost = moduleCosts.get(module.getPath());
+        return cost == null ? defaultCost : cost.longValue();
+    }
+    
+    // The average cost of the modules whose costs are known.
+    private static long defaultModuleCost(final DependencyGraph graph, final Map<String, Long> moduleCosts)
+    {
+        if (moduleCosts == null) {
+            return 1;
+        }
+        long totalCost = 0;
+        int knownCostCount = 0;
+        final Module[] modules = graph.modules;
+        for (int i = 0, n = modules.length; i < n; ++i) {
+            final Long cost = moduleCosts.get(modules[i].getPath());
+            if (cost != null) {
+                totalCost += cost.longValue();
+                ++knownCostCount;
             }
-            
-            registry.put(module, node);
-            path.remove(module);
-            return node;
         }
-        
-        /* A loop is detected. It does not necessarily end with the starting node,
-         * some leading path elements could be truncated.
+        return knownCostCount == 0 ? 1 : totalCost / knownCostCount;
+    }
+    
+    /**
+     * <p>A listener that is notified by a {@link ParallelDependencyResolver} of the
+     * {@link Module modules} that become available for processing, that is, of the modules
+     * all dependee modules of which are processed. Each module is passed to the listener
+     * at most once, before it can be acquired by {@link ParallelDependencyResolver#getFreeModule()}.</p>
+     * 
+     * <p>The listener is invoked by the thread that makes the module available (e.g. the thread
+     * that reports its last dependee module as processed) so it is expected to return rapidly.
+     * It could be invoked by multiple threads simultaneously.</p>
+     * 
+     * @see ParallelDependencyResolver#setModuleReadyListener(ModuleReadyListener)
+     */
+    public static interface ModuleReadyListener
+    {
+        /**
+         * <p>Is invoked by a {@link ParallelDependencyResolver} for each module that becomes
+         * available for processing.</p>
          * 
-         * it.remove() has non-optional performance: just skipping to the module's
-         * position and then copy the remaining modules to a list works faster.
-         * However, this implementation is simpler and for an error case
-         * the minor difference in performance does not matter.
+         * @param module the module that is available for processing. It is never {@code null}.
          */
-        final Iterator<Module> it = path.iterator();
-        while (it.next() != module) {
-            // skipping all leading modules that are outside the loop
-            it.remove();
-        }
-        throw new CyclicDependenciesDetectedException(new ArrayList<Module>(path));
+        void moduleReady(Module module);
     }
 }
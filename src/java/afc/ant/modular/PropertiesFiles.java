@@ -0,0 +1,102 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Properties;
+
+/**
+ * <p>Utility functions to read and write the properties files that persist the state
+ * of module builds between builds (e.g. {@link BuildHistory} and {@link ModuleFingerprints}).</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class PropertiesFiles
+{
+    private PropertiesFiles()
+    {
+    }
+    
+    /**
+     * <p>Reads the properties from a given file. If this file does not exist then
+     * no properties are returned.</p>
+     * 
+     * @param file the properties file. It must be non-{@code null}.
+     * 
+     * @return the properties read. It is never {@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the file is read.
+     */
+    static Properties load(final File file) throws IOException
+    {
+        assert file != null;
+        
+        final Properties props = new Properties();
+        if (!file.isFile()) {
+            return props;
+        }
+        final BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            props.load(in);
+        }
+        finally {
+            in.close();
+        }
+        return props;
+    }
+    
+    /**
+     * <p>Writes given properties to a given file. If the file already exists then it is
+     * overwritten. The directory of the file is created if it does not exist.</p>
+     * 
+     * @param props the properties to be written. It must be non-{@code null}.
+     * @param file the properties file. It must be non-{@code null}.
+     * @param comments the comments written to the beginning of the file. It must be non-{@code null}.
+     * 
+     * @throws IOException if an I/O error occurs while the file is written.
+     */
+    static void save(final Properties props, final File file, final String comments) throws IOException
+    {
+        assert props != null;
+        assert file != null;
+        assert comments != null;
+        
+        final File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(MessageFormat.format("Unable to create the directory ''{0}''.", dir));
+        }
+        final BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            props.store(out, comments);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -25,9 +25,7 @@ package afc.ant.modular;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.IdentityHashMap;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.Collections;
 
 /**
  * <p>Resolves dependencies between {@link Module modules}, that is it defines an order
@@ -51,7 +49,7 @@ import java.util.LinkedHashSet;
  * </ol>
  * <p>If there are cyclic dependencies between modules (so that the order of module processing
  * is undefined) then a {@link CyclicDependenciesDetectedException} is thrown at the
- * step <tt>1</tt>.</p>
+ * step <tt>1</tt>. It reports a dependency loop for each group of mutually dependent modules.</p>
  * 
  * <p>This dependency resolver supports only single-threaded {@link Module module} processing.
  * That is, at the moment at most a single module could be acquired for processing.
@@ -71,7 +69,7 @@ import java.util.LinkedHashSet;
  */
 public class SerialDependencyResolver
 {
-    private ArrayList<Module> moduleOrder;
+    private Module[] moduleOrder;
     private Module moduleAcquired;
     private int pos;
     
@@ -102,7 +100,30 @@ public class SerialDependencyResolver
                 throw new NullPointerException("rootModules contains null element.");
             }
         }
-        moduleOrder = orderModules(rootModules);
+        final ArrayList<Module> order = orderModules(rootModules);
+        moduleOrder = order.toArray(new Module[order.size()]);
+        pos = 0;
+        moduleAcquired = null;
+    }
+    
+    /**
+     * <p>Initialises this {@code SerialDependencyResolver} with the {@link Module modules} of
+     * a given {@link DependencyGraph}, as {@link #init(Collection)} does. The modules are already
+     * ordered and checked for cyclic dependencies by the graph so this function takes constant
+     * time. The graph is not modified so it could be used to initialise other dependency
+     * resolvers.</p>
+     * 
+     * @param graph the graph of the modules to be processed. It must be non-{@code null}.
+     * 
+     * @throws NullPointerException if <em>graph</em> is {@code null}.
+     */
+    public void initFromGraph(final DependencyGraph graph)
+    {
+        if (graph == null) {
+            throw new NullPointerException("graph");
+        }
+        // The array is shared with the graph. It is never modified.
+        moduleOrder = graph.modules;
         pos = 0;
         moduleAcquired = null;
     }
@@ -128,10 +149,10 @@ public class SerialDependencyResolver
         if (moduleAcquired != null) {
             throw new IllegalStateException("#getFreeModule() is called when there is a module being processed.");
         }
-        if (pos == moduleOrder.size()) {
+        if (pos == moduleOrder.length) {
             return null;
         }
-        return moduleAcquired = moduleOrder.get(pos);
+        return moduleAcquired = moduleOrder[pos];
     }
     
     /**
@@ -176,65 +197,6 @@ public class SerialDependencyResolver
     private static ArrayList<Module> orderModules(final Collection<Module> rootModules)
             throws CyclicDependenciesDetectedException
     {
-        final Context ctx = new Context();
-        for (final Module module : rootModules) {
-            addModuleDeep(module, ctx);
-        }
-        return ctx.moduleOrder;
-    }
-    
-    /* Data that is used by addModuleDeep. These objects are the same at each step of the recursion
-     * so there is no need to pass them again and again thus wasting stack space. The instance of
-     * Context being used is likely to be in the processor cache so that its fields are accessed
-     * with little overhead.
-     */
-    private static class Context
-    {
-        final IdentityHashMap<Module, ?> registry = new IdentityHashMap<Module, Object>();
-        final LinkedHashSet<Module> path = new LinkedHashSet<Module>();
-        final ArrayList<Module> moduleOrder = new ArrayList<Module>();
-        
-        // Prevents uncontrollable synthetic code (including classes) to be generated by a java compiler.
-        Context()
-        {
-        }
-    }
-    
-    /* TODO think if path could be used as an array-based stack and the status of the modules
-       is set as registry module. However, the current implementation shows itself to be slightly faster.*/
-    private static void addModuleDeep(final Module module, final Context ctx)
-            throws CyclicDependenciesDetectedException
-    {
-        if (ctx.registry.containsKey(module)) {
-            return; // the module is already processed
-        }
-        
-        if (ctx.path.add(module)) {
-            // the dependee modules are added before this module
-            final Module[] deps = module.dependencies;
-            for (int i = 0, n = deps.length; i < n; ++i) {
-                final Module dep = deps[i];
-                addModuleDeep(dep, ctx);
-            }
-            ctx.path.remove(module);
-            ctx.registry.put(module, null);
-            ctx.moduleOrder.add(module);
-            return;
-        }
-        
-        /* A loop is detected. It does not necessarily end with the starting node,
-         * some leading path elements could be truncated.
-         * 
-         * it.remove() has non-optional performance: just skipping to the module's
-         * position and then copy the remaining modules to a list works faster.
-         * However, this implementation is simpler and for an error case
-         * the minor difference in performance does not matter.
-         */
-        final Iterator<Module> it = ctx.path.iterator();
-        while (it.next() != module) {
-            // skipping all leading modules that are outside the loop
-            it.remove();
-        }
-        throw new CyclicDependenciesDetectedException(new ArrayList<Module>(ctx.path));
+        return DependencySorter.sort(rootModules, Collections.<Module, Object>emptyMap());
     }
 }
@@ -0,0 +1,47 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+/**
+ * <p>A {@link ModuleLoader} that keeps state between the modules it loads (for instance,
+ * a cache of module metadata) that is to be persisted or released once loading is finished.
+ * Implementing this interface is optional. {@link CallTargetForModules} invokes
+ * {@link #loadingFinished()} once the modules it processes are loaded, regardless of whether
+ * or not they are loaded successfully.</p>
+ * 
+ * <p>A {@code StatefulModuleLoader} could be used again to load modules after
+ * {@code loadingFinished()} is invoked. {@link #loadingFinished()} is invoked by a single
+ * thread and is not invoked concurrently with {@link #loadModule(String)}.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public interface StatefulModuleLoader extends ModuleLoader
+{
+    /**
+     * <p>Notifies this {@code StatefulModuleLoader} that loading of a set of modules is
+     * finished. An implementation is expected to persist or release the state it keeps.
+     * Errors that occur are to be handled by the implementation itself (e.g. logged) so that
+     * the build is not affected by them.</p>
+     */
+    void loadingFinished();
+}
@@ -0,0 +1,47 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+/**
+ * <p>A set of micro-benchmarks. {@link BenchmarkRunner} instantiates each
+ * {@code Benchmark} found by its public no-argument constructor and invokes
+ * {@link #run(BenchmarkRunner)} which, in turn, is expected to register its operations
+ * to be measured via {@link BenchmarkRunner#measure(String, BenchmarkRunner.Operation)}.</p>
+ * 
+ * <p>Implementations are named {@code <ClassName>_<Scenario>Benchmark} after the class
+ * whose performance they measure.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public interface Benchmark
+{
+    /**
+     * <p>Measures the operations of this {@code Benchmark} by means of a given runner.</p>
+     * 
+     * @param runner the runner to measure the operations with. It is necessarily
+     *      non-{@code null}.
+     * 
+     * @throws Exception if a benchmark cannot be set up or an operation fails.
+     */
+    void run(BenchmarkRunner runner) throws Exception;
+}
@@ -0,0 +1,434 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * <p>A minimalistic harness that runs {@link Benchmark benchmarks} in the manner of JMH:
+ * each operation is calibrated, warmed up and then measured during a number of
+ * iterations of fixed duration. The average time per operation and its standard deviation
+ * are reported. The results of the operations are consumed by the harness so that
+ * the JIT compiler cannot eliminate them as dead code. The memory allocated per operation
+ * is reported as well if the JVM supports measuring it. In addition, the memory retained
+ * by the result of an operation could be {@link #measureRetained(String, Operation) measured}.</p>
+ * 
+ * <p>The harness is run by the Ant target {@code benchmark}. Its only argument is
+ * the directory with compiled benchmarks. All classes named {@code *Benchmark} that
+ * implement {@code Benchmark} are run in the alphabetical order. The harness is
+ * configured by the following system properties:</p>
+ * <ul>
+ *  <li>{@code benchmark.filter} &mdash; only the operations whose full names
+ *      ({@code <BenchmarkClass>.<operation>}) contain this string are measured.
+ *      All operations are measured by default</li>
+ *  <li>{@code benchmark.warmupIterations} &mdash; the number of warm-up iterations.
+ *      The default value is {@code 5}</li>
+ *  <li>{@code benchmark.iterations} &mdash; the number of measurement iterations.
+ *      The default value is {@code 5}</li>
+ *  <li>{@code benchmark.iterationTime} &mdash; the duration of a single iteration,
+ *      in milliseconds. The default value is {@code 1000}</li>
+ * </ul>
+ * <p>Benchmarks could define their own {@code benchmark.*} properties. The Ant target
+ * {@code benchmark} passes all such properties to the harness.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public final class BenchmarkRunner
+{
+    // The minimal duration of a batch of operations. nanoTime() is called once per batch.
+    private static final long MIN_BATCH_TIME = 1000000L;
+    private static final long MAX_BATCH_SIZE = 1L << 30;
+    
+    private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+    // null if the JVM does not support measuring memory allocated by a thread.
+    private static final Method allocatedBytesFunction = findAllocatedBytesFunction();
+    
+    private final int warmupIterations;
+    private final int measurementIterations;
+    private final long iterationTime;
+    private final String filter;
+    private final PrintStream out;
+    private String benchmarkName;
+    // Holds the result of the operation whose retained memory is being measured.
+    private Object retainedObject;
+    
+    /* The results of the operations are compared against this object so that they are used.
+     * Reading a volatile field on each operation prevents the JIT compiler from deducing
+     * that this comparison is always false.
+     */
+    private volatile Object fence = new Object();
+    
+    /**
+     * <p>Creates a {@code BenchmarkRunner} with a given configuration.</p>
+     * 
+     * @param warmupIterations the number of warm-up iterations.
+     * @param measurementIterations the number of measurement iterations. It must be positive.
+     * @param iterationTime the duration of a single iteration, in milliseconds.
+     * @param filter the substring the full names of the operations to be measured must contain.
+     *      It must be non-{@code null}.
+     * @param out the stream to report the results to. It must be non-{@code null}.
+     */
+    public BenchmarkRunner(final int warmupIterations, final int measurementIterations,
+            final long iterationTime, final String filter, final PrintStream out)
+    {
+        if (measurementIterations <= 0) {
+            throw new IllegalArgumentException("measurementIterations");
+        }
+        if (filter == null) {
+            throw new NullPointerException("filter");
+        }
+        if (out == null) {
+            throw new NullPointerException("out");
+        }
+        this.warmupIterations = warmupIterations;
+        this.measurementIterations = measurementIterations;
+        this.iterationTime = iterationTime * 1000000L;
+        this.filter = filter;
+        this.out = out;
+    }
+    
+    /**
+     * <p>An operation to be measured. It is expected to return its result
+     * (or any object that depends upon the computation performed) so that the computation
+     * is not eliminated by the JIT compiler.</p>
+     */
+    public interface Operation
+    {
+        Object run() throws Exception;
+    }
+    
+    /**
+     * <p>Measures the average time and the average size of memory allocated by a given
+     * operation and reports them. The allocation rate is reported as well if the JVM supports
+     * measuring memory allocated by a thread. The operation is not measured if its full name
+     * does not pass the filter.</p>
+     * 
+     * <p>If the operation fails due to stack overflow or lack of memory then the failure is
+     * reported and the benchmark continues. Such failures are the results to be seen for
+     * the algorithms that do not scale.</p>
+     * 
+     * @param name the operation name. It must be non-{@code null}.
+     * @param operation the operation to be measured. It must be non-{@code null}.
+     * 
+     * @return the average time of the operation in nanoseconds or {@link Double#NaN}
+     *      if the operation is not measured or fails.
+     * 
+     * @throws Exception if the operation fails.
+     */
+    public double measure(final String name, final Operation operation) throws Exception
+    {
+        if (!isEnabled(name)) {
+            return Double.NaN;
+        }
+        final String fullName = benchmarkName + '.' + name;
+        
+        final double[] times = new double[measurementIterations];
+        final double[] allocations = new double[measurementIterations];
+        try {
+            final long batchSize = calibrate(operation);
+            for (int i = 0; i < warmupIterations; ++i) {
+                runIteration(operation, batchSize, times, allocations, 0);
+            }
+            for (int i = 0; i < measurementIterations; ++i) {
+                runIteration(operation, batchSize, times, allocations, i);
+            }
+        }
+        catch (StackOverflowError ex) {
+            reportFailure(fullName, ex);
+            return Double.NaN;
+        }
+        catch (OutOfMemoryError ex) {
+            reportFailure(fullName, ex);
+            return Double.NaN;
+        }
+        
+        final double time = mean(times);
+        if (allocatedBytesFunction == null) {
+            out.printf("%-80s %14.3f +- %10.3f ns/op%n", fullName, time, deviation(times, time));
+        } else {
+            final double allocation = mean(allocations);
+            // bytes/ns == 1000 MB/s
+            out.printf("%-80s %14.3f +- %10.3f ns/op %14.1f B/op %10.1f MB/s%n", fullName, time,
+                    deviation(times, time), allocation, allocation / time * 1000);
+        }
+        return time;
+    }
+    
+    /**
+     * <p>Measures the size of memory that is retained by the result of a given operation
+     * and reports it. It is the difference between the size of the heap used after and before
+     * the operation. Garbage collection is requested before each measurement so the result
+     * is approximate. The minimal value out of the measurement iterations is reported.
+     * The operation is not measured if its full name does not pass the filter.</p>
+     * 
+     * @param name the operation name. It must be non-{@code null}.
+     * @param operation the operation whose result is to be measured. It must be non-{@code null}.
+     * 
+     * @throws Exception if the operation fails.
+     */
+    public void measureRetained(final String name, final Operation operation) throws Exception
+    {
+        if (!isEnabled(name)) {
+            return;
+        }
+        final String fullName = benchmarkName + '.' + name;
+        
+        long retained = Long.MAX_VALUE;
+        try {
+            for (int i = 0; i < measurementIterations; ++i) {
+                final long before = usedMemory();
+                retainedObject = operation.run();
+                final long after = usedMemory();
+                retainedObject = null;
+                retained = Math.min(retained, after - before);
+            }
+        }
+        catch (StackOverflowError ex) {
+            reportFailure(fullName, ex);
+            return;
+        }
+        catch (OutOfMemoryError ex) {
+            retainedObject = null;
+            reportFailure(fullName, ex);
+            return;
+        }
+        out.printf("%-80s %14d B retained%n", fullName, Long.valueOf(retained));
+    }
+    
+    /**
+     * <p>Reports a result of an operation that is measured by the benchmark itself.
+     * It is used by the benchmarks that measure metrics this harness does not support.
+     * The result is reported even if the operation does not pass the filter.</p>
+     * 
+     * @param name the operation name. It must be non-{@code null}.
+     * @param format the format of the result, as {@link String#format(String, Object...)} expects.
+     * @param args the format arguments.
+     */
+    public void report(final String name, final String format, final Object... args)
+    {
+        out.printf("%-80s %s%n", benchmarkName + '.' + name, String.format(format, args));
+    }
+    
+    private void reportFailure(final String fullName, final Throwable failure)
+    {
+        out.printf("%-80s FAILED: %s%n", fullName, failure.getClass().getName());
+    }
+    
+    public int getWarmupIterations()
+    {
+        return warmupIterations;
+    }
+    
+    public int getMeasurementIterations()
+    {
+        return measurementIterations;
+    }
+    
+    /**
+     * <p>Returns whether or not the operation with a given name passes the filter, i.e. it is
+     * to be measured. Benchmarks can use this function to skip setting up the operations
+     * that are not to be measured.</p>
+     * 
+     * @param name the operation name. It must be non-{@code null}.
+     * 
+     * @return {@code true} if the operation is to be measured; {@code false} otherwise.
+     */
+    public boolean isEnabled(final String name)
+    {
+        return (benchmarkName + '.' + name).indexOf(filter) >= 0;
+    }
+    
+    // Returns the number of operations per batch so that a batch takes at least MIN_BATCH_TIME.
+    private long calibrate(final Operation operation) throws Exception
+    {
+        long batchSize = 1;
+        for (;;) {
+            final long start = System.nanoTime();
+            runBatch(operation, batchSize);
+            if (System.nanoTime() - start >= MIN_BATCH_TIME || batchSize >= MAX_BATCH_SIZE) {
+                return batchSize;
+            }
+            batchSize *= 2;
+        }
+    }
+    
+    /* Stores the average time of the operation in nanoseconds and the average number
+     * of bytes allocated by the operation into the given arrays at the given index.
+     */
+    private void runIteration(final Operation operation, final long batchSize, final double[] times,
+            final double[] allocations, final int index) throws Exception
+    {
+        long operationCount = 0;
+        final long allocatedBefore = allocatedBytes();
+        final long start = System.nanoTime();
+        long elapsed;
+        do {
+            runBatch(operation, batchSize);
+            operationCount += batchSize;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < iterationTime);
+        final long allocated = allocatedBytes() - allocatedBefore;
+        times[index] = (double) elapsed / operationCount;
+        allocations[index] = (double) allocated / operationCount;
+    }
+    
+    private void runBatch(final Operation operation, final long batchSize) throws Exception
+    {
+        for (long i = 0; i < batchSize; ++i) {
+            if (operation.run() == fence) {
+                throw new IllegalStateException("The fence object is returned by the operation.");
+            }
+        }
+    }
+    
+    private void run(final Benchmark benchmark) throws Exception
+    {
+        benchmarkName = benchmark.getClass().getSimpleName();
+        benchmark.run(this);
+    }
+    
+    private static double mean(final double[] values)
+    {
+        double sum = 0;
+        for (int i = 0; i < values.length; ++i) {
+            sum += values[i];
+        }
+        return sum / values.length;
+    }
+    
+    private static double deviation(final double[] values, final double mean)
+    {
+        if (values.length == 1) {
+            return 0;
+        }
+        double sum = 0;
+        for (int i = 0; i < values.length; ++i) {
+            sum += (values[i] - mean) * (values[i] - mean);
+        }
+        return Math.sqrt(sum / (values.length - 1));
+    }
+    
+    // Returns the size of the heap used after garbage is collected (as far as it is possible to ensure).
+    private static long usedMemory()
+    {
+        final Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; ++i) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+    
+    // Returns the number of bytes allocated by the current thread or 0 if the JVM does not support this.
+    private static long allocatedBytes() throws Exception
+    {
+        if (allocatedBytesFunction == null) {
+            return 0;
+        }
+        return ((Long) allocatedBytesFunction.invoke(threadBean,
+                Long.valueOf(Thread.currentThread().getId()))).longValue();
+    }
+    
+    /* Looks up com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long) which is not
+     * a part of the standard API. It is used by reflection so that the harness could run on
+     * any JVM.
+     */
+    private static Method findAllocatedBytesFunction()
+    {
+        try {
+            final Class<?> beanClass = Class.forName("com.sun.management.ThreadMXBean");
+            if (!beanClass.isInstance(threadBean)) {
+                return null;
+            }
+            final Method function = beanClass.getMethod("getThreadAllocatedBytes", long.class);
+            function.invoke(threadBean, Long.valueOf(Thread.currentThread().getId()));
+            return function;
+        }
+        catch (Exception ex) {
+            return null;
+        }
+    }
+    
+    /**
+     * <p>Runs all benchmarks from a given directory.</p>
+     * 
+     * @param args the command-line arguments. The only argument is the directory with
+     *      the benchmark classes.
+     * 
+     * @throws Exception if a benchmark fails.
+     */
+    public static void main(final String[] args) throws Exception
+    {
+        if (args.length != 1) {
+            System.err.println("Usage: BenchmarkRunner <benchmark classes directory>");
+            System.exit(1);
+        }
+        final ArrayList<String> classNames = new ArrayList<String>();
+        findBenchmarks(new File(args[0]), "", classNames);
+        Collections.sort(classNames);
+        
+        final BenchmarkRunner runner = new BenchmarkRunner(
+                Integer.getInteger("benchmark.warmupIterations", 5).intValue(),
+                Integer.getInteger("benchmark.iterations", 5).intValue(),
+                Long.getLong("benchmark.iterationTime", 1000).longValue(),
+                System.getProperty("benchmark.filter", ""), System.out);
+        System.out.printf("# JVM: %s %s (%s), %d processors%n", System.getProperty("java.vm.name"),
+                System.getProperty("java.vm.version"), System.getProperty("java.version"),
+                Integer.valueOf(Runtime.getRuntime().availableProcessors()));
+        System.out.printf("# Warm-up: %d iterations, measurement: %d iterations, %d ms each%n",
+                Integer.valueOf(runner.warmupIterations), Integer.valueOf(runner.measurementIterations),
+                Long.valueOf(runner.iterationTime / 1000000L));
+        
+        for (int i = 0, n = classNames.size(); i < n; ++i) {
+            final Class<?> c = Class.forName(classNames.get(i));
+            if (!Benchmark.class.isAssignableFrom(c) || c.isInterface() || Modifier.isAbstract(c.getModifiers())) {
+                continue;
+            }
+            runner.run((Benchmark) c.newInstance());
+        }
+    }
+    
+    private static void findBenchmarks(final File dir, final String packagePrefix, final ArrayList<String> classNames)
+    {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            final String name = file.getName();
+            if (file.isDirectory()) {
+                findBenchmarks(file, packagePrefix + name + '.', classNames);
+            } else if (name.endsWith("Benchmark.class") && name.indexOf('$') < 0) {
+                classNames.add(packagePrefix + name.substring(0, name.length() - ".class".length()));
+            }
+        }
+    }
+}
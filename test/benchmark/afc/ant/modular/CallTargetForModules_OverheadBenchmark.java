@@ -0,0 +1,205 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+
+/**
+ * <p>Measures the fixed cost per module of running {@link CallTargetForModules} over
+ * modules whose target does nothing. The task is run over all modules of a module graph
+ * by a single thread. The cost is split into its components by comparing the following
+ * configurations:</p>
+ * <ul>
+ *  <li>{@code mockProject} &mdash; {@link MockProject} and {@link MockCallTargetTask} are used
+ *      instead of Ant projects. This is the cost of the framework itself: loading modules,
+ *      resolving dependencies and configuring the {@code <ant>} task</li>
+ *  <li>{@code cachedBuildFile} &mdash; a real project is used and the build file is parsed once
+ *      (the attribute {@code cacheBuildFile}). Neither properties nor references are inherited.
+ *      The cost of sub-project creation and of the module reference injection is added</li>
+ *  <li>{@code parsedBuildFile} &mdash; as above but the build file is parsed for each module</li>
+ *  <li>{@code inheritAll} &mdash; as {@code cachedBuildFile} but the properties are inherited</li>
+ *  <li>{@code inheritRefs} &mdash; as {@code cachedBuildFile} but the references are inherited</li>
+ * </ul>
+ * <p>The cost components are reported per module as the differences between the configurations
+ * and {@code cachedBuildFile}. A difference could be negative. For instance, a sub-project
+ * that does not inherit properties initialises them from the system properties, which could
+ * be more expensive than inheriting them.</p>
+ * <p>The project that invokes the task has {@value #PROPERTY_COUNT} properties and
+ * {@value #REFERENCE_COUNT} references. The number of modules is defined by the system
+ * property {@code benchmark.moduleCount} (500 by default).</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class CallTargetForModules_OverheadBenchmark implements Benchmark
+{
+    private static final int PROPERTY_COUNT = 200;
+    private static final int REFERENCE_COUNT = 50;
+    
+    public void run(final BenchmarkRunner runner) throws Exception
+    {
+        final int moduleCount = Integer.getInteger("benchmark.moduleCount", 500).intValue();
+        final SyntheticGraph graph = SyntheticGraph.layeredRandom(moduleCount);
+        final ModuleLoader moduleLoader = graph.createModuleLoader();
+        final List<String> paths = graph.paths();
+        final File buildFile = createBuildFile();
+        try {
+            final String suffix = "_modules" + moduleCount;
+            
+            final double mockProject = runner.measure("mockProject" + suffix, new BenchmarkRunner.Operation() {
+                public Object run()
+                {
+                    final MockProject project = new MockProject();
+                    project.setProperty(MagicNames.ANT_FILE, buildFile.getPath());
+                    for (int i = 0; i < moduleCount; ++i) {
+                        project.tasks.add(new MockCallTargetTask(project));
+                    }
+                    return runTask(project, moduleLoader, paths, false, true, false);
+                }
+            });
+            
+            final String[] names = {"cachedBuildFile" + suffix, "parsedBuildFile" + suffix,
+                    "inheritAll" + suffix, "inheritRefs" + suffix};
+            final Project project = createProject(buildFile);
+            final BenchmarkRunner.Operation[] operations = new BenchmarkRunner.Operation[names.length];
+            for (int i = 0; i < operations.length; ++i) {
+                final boolean cacheBuildFile = i != 1;
+                final boolean inheritAll = i == 2;
+                final boolean inheritRefs = i == 3;
+                operations[i] = new BenchmarkRunner.Operation() {
+                    public Object run()
+                    {
+                        return runTask(project, moduleLoader, paths, cacheBuildFile, inheritAll, inheritRefs);
+                    }
+                };
+            }
+            /* The costs are calculated as the differences between the configurations so that
+             * the code they share is warmed up before any of them is measured. Only the
+             * configurations that are to be measured are warmed up.
+             */
+            for (int i = 0; i < runner.getWarmupIterations(); ++i) {
+                for (int j = 0; j < operations.length; ++j) {
+                    if (runner.isEnabled(names[j])) {
+                        operations[j].run();
+                    }
+                }
+            }
+            final double cachedBuildFile = runner.measure(names[0], operations[0]);
+            final double parsedBuildFile = runner.measure(names[1], operations[1]);
+            final double inheritAll = runner.measure(names[2], operations[2]);
+            final double inheritRefs = runner.measure(names[3], operations[3]);
+            
+            // The components of the cost per module.
+            reportPerModule(runner, "perModule_framework" + suffix, mockProject, moduleCount);
+            reportPerModule(runner, "perModule_subProjectAndReferenceInjection" + suffix, cachedBuildFile,
+                    moduleCount);
+            reportPerModule(runner, "perModule_buildFileParsing" + suffix, parsedBuildFile - cachedBuildFile,
+                    moduleCount);
+            reportPerModule(runner, "perModule_propertyInheritance" + suffix, inheritAll - cachedBuildFile,
+                    moduleCount);
+            reportPerModule(runner, "perModule_referenceInheritance" + suffix, inheritRefs - cachedBuildFile,
+                    moduleCount);
+        }
+        finally {
+            buildFile.delete();
+        }
+    }
+    
+    /* Reports the cost per module. The cost is NaN if some configuration it is derived from
+     * is not measured (e.g. it is excluded by the filter), in which case it is not reported.
+     */
+    private static void reportPerModule(final BenchmarkRunner runner, final String name, final double time,
+            final int moduleCount)
+    {
+        if (Double.isNaN(time)) {
+            return;
+        }
+        runner.report(name, "%14.0f ns", Double.valueOf(time / moduleCount));
+    }
+    
+    private static CallTargetForModules runTask(final Project project, final ModuleLoader moduleLoader,
+            final List<String> paths, final boolean cacheBuildFile, final boolean inheritAll,
+            final boolean inheritRefs)
+    {
+        final CallTargetForModules task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setTarget("noop");
+        task.setModuleRefId("module");
+        task.setCacheBuildFile(cacheBuildFile);
+        task.setInheritAll(inheritAll);
+        task.setInheritRefs(inheritRefs);
+        task.addConfigured(moduleLoader);
+        for (int i = 0, n = paths.size(); i < n; ++i) {
+            task.createModule().setPath(paths.get(i));
+        }
+        task.execute();
+        return task;
+    }
+    
+    private static Project createProject(final File buildFile)
+    {
+        final Project project = new Project();
+        project.init();
+        project.setUserProperty(MagicNames.ANT_FILE, buildFile.getPath());
+        ProjectHelper.configureProject(project, buildFile);
+        for (int i = 0; i < PROPERTY_COUNT; ++i) {
+            project.setProperty("property" + i, "value" + i);
+        }
+        for (int i = 0; i < REFERENCE_COUNT; ++i) {
+            project.addReference("reference" + i, new Object());
+        }
+        return project;
+    }
+    
+    // A build file of a typical size with the no-op target 'noop'.
+    private static File createBuildFile() throws Exception
+    {
+        final File buildFile = File.createTempFile("overhead_benchmark", ".xml").getAbsoluteFile();
+        final Writer out = new OutputStreamWriter(new FileOutputStream(buildFile), "UTF-8");
+        try {
+            out.write("<project name=\"overhead_benchmark\" default=\"noop\">\n");
+            out.write("  <property name=\"src.dir\" value=\"src\"/>\n");
+            out.write("  <property name=\"build.dir\" value=\"build\"/>\n");
+            out.write("  <target name=\"noop\"/>\n");
+            for (int i = 0; i < 20; ++i) {
+                out.write("  <target name=\"target" + i + "\" depends=\"noop\">\n");
+                out.write("    <mkdir dir=\"${build.dir}/" + i + "\"/>\n");
+                out.write("    <echo message=\"${src.dir}\"/>\n");
+                out.write("  </target>\n");
+            }
+            out.write("</project>\n");
+        }
+        finally {
+            out.close();
+        }
+        return buildFile;
+    }
+}
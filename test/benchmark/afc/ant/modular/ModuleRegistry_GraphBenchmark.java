@@ -0,0 +1,95 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.List;
+
+/**
+ * <p>Measures how {@link ModuleRegistry} builds module graphs of various shapes and sizes
+ * (see {@link SyntheticGraph}): the time, the memory allocated and the memory retained by
+ * the registry. Module metadata is loaded from memory so that only the registry overhead
+ * is measured. All modules of a graph are resolved, as {@link CallTargetForModules} does.
+ * Loading by a single thread and by four threads is measured. In addition, resolving
+ * the module with the highest index first is measured. In most graphs, it depends upon
+ * a large part of the graph so that deep traversal is measured.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ModuleRegistry_GraphBenchmark implements Benchmark
+{
+    public void run(final BenchmarkRunner runner) throws Exception
+    {
+        final int[] sizes = SyntheticGraph.sizes();
+        for (int i = 0; i < sizes.length; ++i) {
+            final SyntheticGraph[] graphs = SyntheticGraph.allShapes(sizes[i]);
+            for (int j = 0; j < graphs.length; ++j) {
+                final ModuleLoader loader = graphs[j].createModuleLoader();
+                final List<String> paths = graphs[j].paths();
+                
+                final BenchmarkRunner.Operation resolve = new BenchmarkRunner.Operation() {
+                    public Object run() throws Exception
+                    {
+                        return resolveAll(new ModuleRegistry(loader), paths);
+                    }
+                };
+                final String name = "resolveAll_" + graphs[j].getName();
+                runner.measure(name, resolve);
+                runner.measureRetained(name, resolve);
+                
+                runner.measure("resolveAllParallel_" + graphs[j].getName(), new BenchmarkRunner.Operation() {
+                    public Object run() throws Exception
+                    {
+                        final ModuleRegistry registry = new ModuleRegistry(loader, 4);
+                        try {
+                            registry.resolveModules(paths);
+                        }
+                        finally {
+                            registry.close();
+                        }
+                        return registry;
+                    }
+                });
+                
+                // The module with the highest index is resolved first so that the whole graph is traversed at once.
+                final String lastPath = paths.get(paths.size() - 1);
+                runner.measure("resolveLastFirst_" + graphs[j].getName(), new BenchmarkRunner.Operation() {
+                    public Object run() throws Exception
+                    {
+                        final ModuleRegistry registry = new ModuleRegistry(loader);
+                        registry.resolveModule(lastPath);
+                        return resolveAll(registry, paths);
+                    }
+                });
+            }
+        }
+    }
+    
+    private static ModuleRegistry resolveAll(final ModuleRegistry registry, final List<String> paths)
+            throws ModuleNotLoadedException
+    {
+        for (int i = 0, n = paths.size(); i < n; ++i) {
+            registry.resolveModule(paths.get(i));
+        }
+        return registry;
+    }
+}
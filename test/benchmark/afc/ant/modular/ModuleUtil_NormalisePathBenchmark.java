@@ -0,0 +1,289 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * <p>Measures {@link ModuleUtil#normalisePath(String, File)} against the implementation
+ * it replaced, which created a {@code File} object per path element and re-built the base
+ * directory elements for each path. The paths used are typical for module dependencies.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ModuleUtil_NormalisePathBenchmark implements Benchmark
+{
+    private static final File baseDir = new File("/home/user/projects/product/modules");
+    
+    private static final String[][] paths = {
+        {"normalised", "platform/core/util"},
+        {"trailingSeparator", "platform/core/util/"},
+        {"dotElements", "./platform/./core/../core/util"},
+        {"parentDirectory", "../../shared/lib/common"},
+        {"absolute", "/home/user/projects/product/modules/platform/core/util"},
+    };
+    
+    public void run(final BenchmarkRunner runner) throws Exception
+    {
+        for (int i = 0; i < paths.length; ++i) {
+            final String name = paths[i][0];
+            final String path = paths[i][1];
+            
+            runner.measure("legacy_" + name, new BenchmarkRunner.Operation() {
+                public Object run()
+                {
+                    return LegacyModuleUtil.normalisePath(path, baseDir, false);
+                }
+            });
+            runner.measure("current_" + name, new BenchmarkRunner.Operation() {
+                public Object run()
+                {
+                    return ModuleUtil.normalisePath(path, baseDir);
+                }
+            });
+        }
+        
+        // More distinct paths than the cache of normalised paths holds so that they are mostly resolved.
+        final String[] distinctPaths = new String[10000];
+        for (int i = 0; i < distinctPaths.length; ++i) {
+            distinctPaths[i] = "../../shared/lib/common" + i;
+        }
+        runner.measure("legacy_distinctPaths", new BenchmarkRunner.Operation() {
+            private int i;
+            
+            public Object run()
+            {
+                i = (i + 1) % distinctPaths.length;
+                return LegacyModuleUtil.normalisePath(distinctPaths[i], baseDir, false);
+            }
+        });
+        runner.measure("current_distinctPaths", new BenchmarkRunner.Operation() {
+            private int i;
+            
+            public Object run()
+            {
+                i = (i + 1) % distinctPaths.length;
+                return ModuleUtil.normalisePath(distinctPaths[i], baseDir);
+            }
+        });
+    }
+    
+    // A verbatim copy of the previous implementation of ModuleUtil#normalisePath(String, File, boolean).
+    private static class LegacyModuleUtil
+    {
+        static String normalisePath(final String path, final File baseDir, final boolean normaliseCase)
+        {
+            if (baseDir == null) {
+                throw new NullPointerException("baseDir");
+            }
+            if (path == null) {
+                throw new NullPointerException("path");
+            }
+            if (path.length() == 0) {
+                // path refers to baseDir.
+                return ".";
+            }
+            
+            // Adding path elements in the reverse order.
+            final ArrayList<String> parts = new ArrayList<String>();
+            final File pathFile = new File(path);
+            for (File f = pathFile; f != null; f = f.getParentFile()) {
+                parts.add(f.getName());
+            }
+            
+            final ArrayList<String> resultParts;
+            
+            /* Indicates what is the depth of the current path element in the file system hierarchy
+             * given that the depth of the baseDir is zero.
+             */
+            int depth;
+            /* Indicates how many of negative depth repeats baseDir. The following inequality holds:
+             * -(baseDirCommonCursor - 1) <= baseDirParts.size()
+             * When -(baseDirCommonCursor - 1) == baseDirParts.size() then only the root directory is
+             * the common part.
+             */
+            int baseDirCommonCursor;
+            ArrayList<String> baseDirParts;
+            
+            if (pathFile.isAbsolute()) {
+                baseDirParts = baseDirElements(baseDir);
+                
+                /* Initialising the destination path with necessary .. elements to reach
+                 * the position 'above' root directory so that the root directory is the
+                 * first path element to start resolving with.
+                 */
+                final int levelsUp = baseDirParts.size();
+                baseDirCommonCursor = depth = -levelsUp;
+                resultParts = new ArrayList<String>(parts.size() + levelsUp);
+                resultParts.addAll(Collections.nCopies(levelsUp, ".."));
+            } else {
+                // It is unknown if baseDirParts will be used later so leaving it non-initialised.
+                baseDirParts = null;
+                
+                // The path is relative. baseDir is a starting point to resolve path elements against.
+                baseDirCommonCursor = depth = 0;
+                resultParts = new ArrayList<String>(parts.size());
+            }
+            
+            // Going through path elements from parents to children resolving '.' and '..'.
+            for (int i = parts.size() - 1; i >= 0; --i) {
+                final String part = parts.get(i);
+                if (part.equals(".")) {
+                    continue;
+                } else if (part.equals("..")) {
+                    if (baseDirParts == null) {
+                        // Lazy init.
+                        baseDirParts = baseDirElements(baseDir);
+                    }
+                    
+                    if (depth <= 0 && -(depth - 1) == baseDirParts.size()) {
+                        /* There is nothing to do since the root directory is reached and
+                         * the parent of the root directory is the root directory itself.
+                         * 
+                         * If depth is equal to zero here then baseDir is the root directory.
+                         */
+                        assert depth == baseDirCommonCursor;
+                        continue;
+                    }
+                    
+                    final int size = resultParts.size();
+                    if (size == 0 || resultParts.get(size - 1).equals("..")) {
+                        // The current path element points to the direct or an indirect parent directory of the baseDir.
+                        resultParts.add("..");
+                        
+                        // Moving the cursor one level up.
+                        --baseDirCommonCursor;
+                    } else {
+                        resultParts.remove(size - 1);
+                    }
+                    --depth;
+                } else {
+                    if (depth < 0 && baseDirCommonCursor == depth) {
+                        // The current sub-path points to a parent of baseDir.
+                        assert baseDirParts != null;
+                        
+                        /* If the current path element points to a parent of baseDir then
+                         * just removing the previous '..'.
+                         */
+                        if (part.equals(baseDirParts.get(-depth - 1))) {
+                            assert resultParts.get(resultParts.size() - 1).equals("..");
+                            
+                            resultParts.remove(resultParts.size() - 1);
+                            ++depth;
+                            ++baseDirCommonCursor;
+                            continue;
+                        }
+                    }
+                    resultParts.add(part);
+                    ++depth;
+                }
+            }
+            if (resultParts.isEmpty()) {
+                // path refers to baseDir.
+                return ".";
+            }
+            
+            final String normalisedPath = join(resultParts, File.separatorChar);
+            // The system default locale is used for casting to the lower case.
+            return normaliseCase ? normalisedPath.toLowerCase() : normalisedPath;
+        }
+        
+        /*
+         * Normalises a given file path by removing all '.' elements and resolving
+         * the '..' elements. Symbolic links are not resolved.
+         * 
+         * This function is used by #normalisePath(String) to normalise base directories.
+         * 
+         * @param baseDir the base directory to be normalised. It must be non-null.
+         * 
+         * @return the path elements of the normalised path in the reverse order.
+         */
+        private static ArrayList<String> baseDirElements(final File baseDir)
+        {
+            // Base directory path elements in the reverse order.
+            final ArrayList<String> baseDirParts = new ArrayList<String>();
+            // The number of '..' elements that still can discard some directory path elements.
+            int parentDirElementCount = 0;
+            File parent;
+            for (File f = baseDir.isAbsolute() ? baseDir : baseDir.getAbsoluteFile(); f != null; f = parent) {
+                parent = f.getParentFile();
+                
+                final String e = f.getName();
+                if (e.equals(".")) {
+                    continue;
+                } else if (e.equals("..")) {
+                    // Remembering this '..' element to discard parent paths that go before.
+                    ++parentDirElementCount;
+                } else {
+                    if (parentDirElementCount > 0 && parent != null) {
+                        /* The current element is not the root directory and there is
+                         * a '..' element that discards it. Throwing away both the current
+                         * element and the correspondent '..' element.
+                         */
+                        --parentDirElementCount;
+                    } else {
+                        baseDirParts.add(e);
+                    }
+                }
+            }
+            return baseDirParts;
+        }
+        
+        /*
+         * Composes a string out of given strings placing a given separator between them.
+         * For example: join(["foo", "bar", "baz"], '.') produces the string "foo.bar.baz".
+         * 
+         * @param parts the list of the strings to be joined. It must be non-null.
+         * @param separator the separator to be placed between the string elements.
+         * 
+         * @return the string composed. It is never null.
+         */
+        private static String join(final ArrayList<String> parts, final char separator)
+        {
+            final int size = parts.size();
+            
+            /* Calculating the size of the resulting string to avoid redundant buffer re-allocations.
+             * 
+             * destSize is initialised with the number of separators in the resulting string.
+             */
+            int destSize = size - 1;
+            for (int i = 0; i < size; ++i) {
+                destSize += parts.get(i).length();
+            }
+            
+            // The buffer is created with the necessary capacity.
+            final StringBuilder buf = new StringBuilder(destSize);
+            int i = 0;
+            for (final int n = size - 1; i < n; ++i) {
+                buf.append(parts.get(i)).append(separator);
+            }
+            buf.append(parts.get(i));
+            
+            assert buf.length() == destSize;
+            
+            return buf.toString();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * <p>Measures the throughput of {@link ParallelDependencyResolver#getFreeModule()} and
+ * {@link ParallelDependencyResolver#moduleProcessed(Module)} (in operations per second)
+ * and the latency percentiles of these operations when they are invoked by multiple
+ * threads. The modules are processed at no cost so that only the resolver overhead is
+ * measured. The latency of {@code getFreeModule()} includes waiting for a free module.</p>
+ * 
+ * <p>The thread counts are defined by the system property {@code benchmark.threadCounts}
+ * as a comma-separated list (by default, each power of two from 1 to 128). Graphs of
+ * 10,000 modules are used: a wide fan-out, where almost all modules are free at once,
+ * and a layered random graph.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ParallelDependencyResolver_DispatchBenchmark implements Benchmark
+{
+    private static final int GRAPH_SIZE = 10000;
+    
+    public void run(final BenchmarkRunner runner) throws Exception
+    {
+        final int[] threadCounts = threadCounts();
+        final SyntheticGraph[] graphs = {SyntheticGraph.fanOut(GRAPH_SIZE),
+                SyntheticGraph.layeredRandom(GRAPH_SIZE)};
+        for (int i = 0; i < graphs.length; ++i) {
+            final List<Module> modules = graphs[i].createModules();
+            for (int j = 0; j < threadCounts.length; ++j) {
+                final String name = "dispatch_" + graphs[i].getName() + "_threads" + threadCounts[j];
+                if (runner.isEnabled(name)) {
+                    measure(runner, name, modules, threadCounts[j]);
+                }
+            }
+        }
+    }
+    
+    private static void measure(final BenchmarkRunner runner, final String name,
+            final List<Module> modules, final int threadCount) throws Exception
+    {
+        final int iterations = runner.getMeasurementIterations();
+        // Each operation is recorded once so that the latencies fit the arrays.
+        final long[][] latencies = new long[threadCount][2 * modules.size()];
+        final int[] latencyCounts = new int[threadCount];
+        final long[] allLatencies = new long[iterations * 2 * modules.size()];
+        int allLatencyCount = 0;
+        double throughput = 0;
+        
+        for (int i = -runner.getWarmupIterations(); i < iterations; ++i) {
+            final long time = runIteration(modules, latencies, latencyCounts);
+            if (i < 0) {
+                continue;
+            }
+            throughput += 2.0 * modules.size() / time * 1000000000L;
+            for (int j = 0; j < threadCount; ++j) {
+                System.arraycopy(latencies[j], 0, allLatencies, allLatencyCount, latencyCounts[j]);
+                allLatencyCount += latencyCounts[j];
+            }
+        }
+        Arrays.sort(allLatencies, 0, allLatencyCount);
+        runner.report(name, "%14.0f ops/s  p50 %8d  p90 %8d  p99 %8d  p99.9 %9d  max %10d ns",
+                Double.valueOf(throughput / iterations),
+                Long.valueOf(percentile(allLatencies, allLatencyCount, 0.5)),
+                Long.valueOf(percentile(allLatencies, allLatencyCount, 0.9)),
+                Long.valueOf(percentile(allLatencies, allLatencyCount, 0.99)),
+                Long.valueOf(percentile(allLatencies, allLatencyCount, 0.999)),
+                Long.valueOf(allLatencies[allLatencyCount - 1]));
+    }
+    
+    // Returns the time in nanoseconds in which all modules are processed.
+    private static long runIteration(final List<Module> modules, final long[][] latencies,
+            final int[] latencyCounts) throws Exception
+    {
+        final ParallelDependencyResolver resolver = new ParallelDependencyResolver();
+        resolver.init(modules);
+        
+        final int threadCount = latencies.length;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Thread[] threads = new Thread[threadCount];
+        final Throwable[] failures = new Throwable[threadCount];
+        for (int i = 0; i < threadCount; ++i) {
+            final int threadIndex = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        latencyCounts[threadIndex] = processModules(resolver, latencies[threadIndex]);
+                    }
+                    catch (Throwable ex) {
+                        failures[threadIndex] = ex;
+                        resolver.abort();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        
+        final long startTime = System.nanoTime();
+        start.countDown();
+        for (int i = 0; i < threadCount; ++i) {
+            threads[i].join();
+        }
+        final long time = System.nanoTime() - startTime;
+        
+        for (int i = 0; i < threadCount; ++i) {
+            if (failures[i] != null) {
+                throw new RuntimeException("A module processing thread failed.", failures[i]);
+            }
+        }
+        return time;
+    }
+    
+    // Returns the number of latencies recorded.
+    private static int processModules(final ParallelDependencyResolver resolver, final long[] latencies)
+    {
+        int count = 0;
+        for (;;) {
+            final long t0 = System.nanoTime();
+            final Module module = resolver.getFreeModule();
+            final long t1 = System.nanoTime();
+            if (module == null) {
+                return count;
+            }
+            resolver.moduleProcessed(module);
+            final long t2 = System.nanoTime();
+            latencies[count++] = t1 - t0;
+            latencies[count++] = t2 - t1;
+        }
+    }
+    
+    private static long percentile(final long[] sortedValues, final int count, final double percentile)
+    {
+        return sortedValues[Math.min(count - 1, (int) (count * percentile))];
+    }
+    
+    private static int[] threadCounts()
+    {
+        final String[] values = System.getProperty("benchmark.threadCounts", "1,2,4,8,16,32,64,128").split(",");
+        final int[] threadCounts = new int[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            threadCounts[i] = Integer.parseInt(values[i].trim());
+        }
+        return threadCounts;
+    }
+}
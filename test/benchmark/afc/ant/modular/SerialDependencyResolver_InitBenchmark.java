@@ -0,0 +1,74 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.List;
+
+/**
+ * <p>Measures {@link SerialDependencyResolver#init(java.util.Collection)} on
+ * {@link SyntheticGraph synthetic graphs} of various shapes and sizes: the time,
+ * the memory allocated and the memory retained by the resolver initialised. All modules
+ * of a graph are passed as the root modules, as {@link CallTargetForModules} does.
+ * The initialisation with a {@link DependencyGraph} that is built beforehand is measured
+ * as well.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class SerialDependencyResolver_InitBenchmark implements Benchmark
+{
+    public void run(final BenchmarkRunner runner) throws Exception
+    {
+        final int[] sizes = SyntheticGraph.sizes();
+        for (int i = 0; i < sizes.length; ++i) {
+            final SyntheticGraph[] graphs = SyntheticGraph.allShapes(sizes[i]);
+            for (int j = 0; j < graphs.length; ++j) {
+                final String name = "init_" + graphs[j].getName();
+                final String graphName = "initFromGraph_" + graphs[j].getName();
+                if (!runner.isEnabled(name) && !runner.isEnabled(graphName)) {
+                    continue;
+                }
+                final List<Module> modules = graphs[j].createModules();
+                final BenchmarkRunner.Operation init = new BenchmarkRunner.Operation() {
+                    public Object run() throws Exception
+                    {
+                        final SerialDependencyResolver resolver = new SerialDependencyResolver();
+                        resolver.init(modules);
+                        return resolver;
+                    }
+                };
+                runner.measure(name, init);
+                runner.measureRetained(name, init);
+                
+                final DependencyGraph graph = new DependencyGraph(modules);
+                runner.measure(graphName, new BenchmarkRunner.Operation() {
+                    public Object run() throws Exception
+                    {
+                        final SerialDependencyResolver resolver = new SerialDependencyResolver();
+                        resolver.initFromGraph(graph);
+                        return resolver;
+                    }
+                });
+            }
+        }
+    }
+}
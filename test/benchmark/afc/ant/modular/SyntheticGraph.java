@@ -0,0 +1,296 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * <p>An acyclic module graph of a given shape and size that is generated for benchmarking.
+ * Modules are identified by their indices and have the paths {@code m<index>}. Each module
+ * depends only upon modules with lower indices so that there are no cycles.</p>
+ * 
+ * <p>Random graphs are generated with a fixed seed so that the same graph is generated
+ * in each run.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+final class SyntheticGraph
+{
+    private static final long SEED = 20130401L;
+    
+    private final String name;
+    // The indices of the dependee modules of each module.
+    private final int[][] dependencies;
+    
+    private SyntheticGraph(final String name, final int[][] dependencies)
+    {
+        this.name = name;
+        this.dependencies = dependencies;
+    }
+    
+    /**
+     * <p>Returns the graph name that consists of its shape and size.</p>
+     * 
+     * @return the graph name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+    
+    public int size()
+    {
+        return dependencies.length;
+    }
+    
+    /**
+     * <p>Returns the graph sizes to benchmark with. They are defined by the system property
+     * {@code benchmark.graphSizes} as a comma-separated list. By default, graphs of 100,
+     * 10,000 and 200,000 modules are used.</p>
+     * 
+     * @return the graph sizes.
+     */
+    public static int[] sizes()
+    {
+        final String[] values = System.getProperty("benchmark.graphSizes", "100,10000,200000").split(",");
+        final int[] sizes = new int[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            sizes[i] = Integer.parseInt(values[i].trim());
+        }
+        return sizes;
+    }
+    
+    /**
+     * <p>Generates a graph of each shape supported with a given number of modules.</p>
+     * 
+     * @param size the number of modules in each graph. It must be not less than 4.
+     * 
+     * @return the graphs generated.
+     */
+    public static SyntheticGraph[] allShapes(final int size)
+    {
+        return new SyntheticGraph[]{chain(size), fanOut(size), diamonds(size), layeredRandom(size),
+                realWorld(size)};
+    }
+    
+    /**
+     * <p>Generates a chain of modules: each module depends upon the previous one.</p>
+     */
+    public static SyntheticGraph chain(final int size)
+    {
+        final int[][] deps = new int[size][];
+        deps[0] = new int[0];
+        for (int i = 1; i < size; ++i) {
+            deps[i] = new int[]{i - 1};
+        }
+        return new SyntheticGraph("chain" + size, deps);
+    }
+    
+    /**
+     * <p>Generates a wide fan-out: a single module that all modules but one depend upon
+     * and a single module that depends upon all these modules.</p>
+     */
+    public static SyntheticGraph fanOut(final int size)
+    {
+        final int[][] deps = new int[size][];
+        deps[0] = new int[0];
+        for (int i = 1; i < size - 1; ++i) {
+            deps[i] = new int[]{0};
+        }
+        final int[] top = new int[size - 2];
+        for (int i = 0; i < top.length; ++i) {
+            top[i] = i + 1;
+        }
+        deps[size - 1] = top;
+        return new SyntheticGraph("fanOut" + size, deps);
+    }
+    
+    /**
+     * <p>Generates a chain of diamonds: each diamond consists of a top module, two modules
+     * that depend upon the top module and the top module of the next diamond that depends
+     * upon both of them.</p>
+     */
+    public static SyntheticGraph diamonds(final int size)
+    {
+        final int[][] deps = new int[size][];
+        deps[0] = new int[0];
+        for (int i = 1; i < size; ++i) {
+            switch (i % 3) {
+            case 0:
+                // The top of the next diamond.
+                deps[i] = new int[]{i - 2, i - 1};
+                break;
+            case 1:
+                deps[i] = new int[]{i - 1};
+                break;
+            default:
+                deps[i] = new int[]{i - 2};
+                break;
+            }
+        }
+        return new SyntheticGraph("diamonds" + size, deps);
+    }
+    
+    /**
+     * <p>Generates layers of modules so that the number of layers is the square root
+     * of the number of modules and each module depends upon one to four random modules of
+     * the previous layer.</p>
+     */
+    public static SyntheticGraph layeredRandom(final int size)
+    {
+        final Random random = new Random(SEED);
+        final int layerSize = Math.max(1, (int) Math.sqrt(size));
+        final int[][] deps = new int[size][];
+        final LinkedHashSet<Integer> moduleDeps = new LinkedHashSet<Integer>();
+        for (int i = 0; i < size; ++i) {
+            final int layerStart = i - i % layerSize;
+            if (layerStart == 0) {
+                deps[i] = new int[0];
+                continue;
+            }
+            moduleDeps.clear();
+            for (int j = 0, n = 1 + random.nextInt(4); j < n; ++j) {
+                moduleDeps.add(Integer.valueOf(layerStart - layerSize + random.nextInt(layerSize)));
+            }
+            deps[i] = toArray(moduleDeps);
+        }
+        return new SyntheticGraph("layeredRandom" + size, deps);
+    }
+    
+    /**
+     * <p>Generates a graph that resembles a real-world product: a few core modules form
+     * a chain and the other modules depend upon two to eight modules, preferably upon
+     * the core modules and the modules that are close to them.</p>
+     */
+    public static SyntheticGraph realWorld(final int size)
+    {
+        final Random random = new Random(SEED);
+        final int coreSize = Math.max(2, size / 100);
+        final int[][] deps = new int[size][];
+        final LinkedHashSet<Integer> moduleDeps = new LinkedHashSet<Integer>();
+        deps[0] = new int[0];
+        for (int i = 1; i < size; ++i) {
+            if (i < coreSize) {
+                deps[i] = new int[]{i - 1};
+                continue;
+            }
+            moduleDeps.clear();
+            for (int j = 0, n = 2 + random.nextInt(7); j < n; ++j) {
+                // The cube of a uniformly distributed number prefers the modules with low indices.
+                final double r = random.nextDouble();
+                moduleDeps.add(Integer.valueOf((int) (i * r * r * r)));
+            }
+            deps[i] = toArray(moduleDeps);
+        }
+        return new SyntheticGraph("realWorld" + size, deps);
+    }
+    
+    /**
+     * <p>Creates the {@link Module} objects of this graph. They are linked to each other
+     * directly with no {@link ModuleRegistry} involved.</p>
+     * 
+     * @return the modules created, in the order of their indices.
+     */
+    public List<Module> createModules()
+    {
+        final Module[] modules = new Module[dependencies.length];
+        for (int i = 0; i < modules.length; ++i) {
+            modules[i] = new Module(path(i));
+        }
+        for (int i = 0; i < modules.length; ++i) {
+            final int[] moduleDeps = dependencies[i];
+            final Module[] depModules = new Module[moduleDeps.length];
+            for (int j = 0; j < moduleDeps.length; ++j) {
+                depModules[j] = modules[moduleDeps[j]];
+            }
+            modules[i].setDependencies(depModules);
+        }
+        return Arrays.asList(modules);
+    }
+    
+    /**
+     * <p>Returns the paths of all modules of this graph.</p>
+     * 
+     * @return the module paths, in the order of the module indices.
+     */
+    public List<String> paths()
+    {
+        final ArrayList<String> paths = new ArrayList<String>(dependencies.length);
+        for (int i = 0; i < dependencies.length; ++i) {
+            paths.add(path(i));
+        }
+        return paths;
+    }
+    
+    /**
+     * <p>Creates a {@link ModuleLoader} that loads the modules of this graph from memory.
+     * The module paths are normalised trivially, i.e. they are not modified.</p>
+     * 
+     * @return the module loader created.
+     */
+    public ModuleLoader createModuleLoader()
+    {
+        return new ModuleLoader() {
+            public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+            {
+                final int index;
+                try {
+                    index = Integer.parseInt(path.substring(1));
+                }
+                catch (NumberFormatException ex) {
+                    throw new ModuleNotLoadedException(path);
+                }
+                final ModuleInfo moduleInfo = new ModuleInfo(path, this);
+                final int[] moduleDeps = dependencies[index];
+                for (int i = 0; i < moduleDeps.length; ++i) {
+                    moduleInfo.addDependency(path(moduleDeps[i]));
+                }
+                return moduleInfo;
+            }
+            
+            public String normalisePath(final String path)
+            {
+                return path;
+            }
+        };
+    }
+    
+    private static String path(final int index)
+    {
+        return "m" + index;
+    }
+    
+    private static int[] toArray(final LinkedHashSet<Integer> values)
+    {
+        final int[] result = new int[values.size()];
+        int i = 0;
+        for (final Integer value : values) {
+            result[i++] = value.intValue();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,131 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class BuildHistoryTest extends TestCase
+{
+    private File historyFile;
+    
+    @Override
+    protected void setUp() throws IOException
+    {
+        historyFile = File.createTempFile("build_history", ".properties");
+        assertTrue(historyFile.delete());
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        historyFile.delete();
+        historyFile = null;
+    }
+    
+    public void testLoad_FileDoesNotExist() throws Exception
+    {
+        final BuildHistory history = BuildHistory.load(historyFile);
+        
+        assertEquals(TestUtil.<String, Long>map(), history.getDurations());
+    }
+    
+    public void testSaveAndLoad() throws Exception
+    {
+        final BuildHistory history = BuildHistory.empty();
+        history.moduleBuilt("foo/", 10);
+        history.moduleBuilt("bar/baz/", 0);
+        history.moduleBuilt("a=b:c/", 1234567890123L);
+        
+        history.save(historyFile);
+        
+        assertEquals(TestUtil.<String, Long>map("foo/", 10L, "bar/baz/", 0L, "a=b:c/", 1234567890123L),
+                BuildHistory.load(historyFile).getDurations());
+    }
+    
+    public void testSave_DirectoryDoesNotExist() throws Exception
+    {
+        final File dir = historyFile;
+        final File file = new File(dir, "history.properties");
+        try {
+            final BuildHistory history = BuildHistory.empty();
+            history.moduleBuilt("foo/", 10);
+            
+            history.save(file);
+            
+            assertEquals(TestUtil.<String, Long>map("foo/", 10L), BuildHistory.load(file).getDurations());
+        }
+        finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+    
+    public void testModuleBuiltTwice_DurationsAreAveraged() throws Exception
+    {
+        final BuildHistory history = BuildHistory.empty();
+        history.moduleBuilt("foo/", 10);
+        history.moduleBuilt("bar/", 5);
+        history.moduleBuilt("foo/", 20);
+        
+        assertEquals(TestUtil.<String, Long>map("foo/", 15L, "bar/", 5L), history.getDurations());
+    }
+    
+    public void testLoad_InvalidDurationsAreIgnored() throws Exception
+    {
+        final Writer out = new OutputStreamWriter(new FileOutputStream(historyFile), "ISO-8859-1");
+        try {
+            out.write("foo/=10\nbar/=abc\nbaz/=-1\nquux/=\nxyzzy/=7\n");
+        }
+        finally {
+            out.close();
+        }
+        
+        assertEquals(TestUtil.<String, Long>map("foo/", 10L, "xyzzy/", 7L),
+                BuildHistory.load(historyFile).getDurations());
+    }
+    
+    public void testGetDurations_SnapshotIsReturned() throws Exception
+    {
+        final BuildHistory history = BuildHistory.empty();
+        history.moduleBuilt("foo/", 10);
+        
+        final Map<String, Long> durations = history.getDurations();
+        history.moduleBuilt("bar/", 5);
+        
+        assertEquals(TestUtil.<String, Long>map("foo/", 10L), durations);
+        try {
+            durations.put("baz/", 1L);
+            fail();
+        }
+        catch (UnsupportedOperationException ex) {
+            // expected
+        }
+    }
+}
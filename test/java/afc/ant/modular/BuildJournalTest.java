@@ -0,0 +1,246 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+public class BuildJournalTest extends TestCase
+{
+    private File journalFile;
+    
+    @Override
+    protected void setUp() throws IOException
+    {
+        journalFile = File.createTempFile("build_journal", ".txt");
+        assertTrue(journalFile.delete());
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        journalFile.delete();
+        journalFile = null;
+    }
+    
+    public void testResume_FileDoesNotExist() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        
+        final BuildJournal journal = BuildJournal.open(journalFile, "config", true);
+        try {
+            assertFalse(journal.resumeModule(module1, "target"));
+        }
+        finally {
+            journal.close(false);
+        }
+        assertTrue(journalFile.isFile());
+    }
+    
+    public void testResume_ModulesBuiltAreSkipped() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        final Module module2 = TestUtil.module("bar/");
+        final Module module3 = TestUtil.module("baz/");
+        module1.setDependencies(new Module[]{module2});
+        
+        writeJournal("config", "target", module2, module1);
+        
+        final BuildJournal journal = BuildJournal.open(journalFile, "config", true);
+        try {
+            assertTrue(journal.resumeModule(module2, "target"));
+            assertTrue(journal.resumeModule(module1, "target"));
+            assertFalse(journal.resumeModule(module3, "target"));
+        }
+        finally {
+            journal.close(false);
+        }
+    }
+    
+    public void testNotResumed_JournalIsCleared() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        
+        writeJournal("config", "target", module1);
+        
+        BuildJournal journal = BuildJournal.open(journalFile, "config", false);
+        journal.close(false);
+        
+        journal = BuildJournal.open(journalFile, "config", true);
+        try {
+            assertFalse(journal.resumeModule(module1, "target"));
+        }
+        finally {
+            journal.close(false);
+        }
+    }
+    
+    public void testResume_TargetIsChanged() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        final Module module2 = TestUtil.module("bar/");
+        
+        writeJournal("config", "target", module1, module2);
+        
+        final BuildJournal journal = BuildJournal.open(journalFile, "config", true);
+        try {
+            assertFalse(journal.resumeModule(module1, "otherTarget"));
+            assertTrue(journal.resumeModule(module2, "target"));
+        }
+        finally {
+            journal.close(false);
+        }
+    }
+    
+    public void testResume_ConfigurationIsChanged() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        
+        writeJournal("config", "target", module1);
+        
+        final BuildJournal journal = BuildJournal.open(journalFile, "otherConfig", true);
+        try {
+            assertFalse(journal.resumeModule(module1, "target"));
+        }
+        finally {
+            journal.close(false);
+        }
+    }
+    
+    /**
+     * <p>Tests that a module is re-built if some module it depends upon is re-built and
+     * that its record is invalidated so that it is re-built by the next resumed build
+     * if its build fails.</p>
+     */
+    public void testResume_DependencyIsRebuilt() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        final Module module2 = TestUtil.module("bar/");
+        module1.setDependencies(new Module[]{module2});
+        
+        writeJournal("config", "target", module1);
+        
+        BuildJournal journal = BuildJournal.open(journalFile, "config", true);
+        try {
+            assertFalse(journal.resumeModule(module2, "target"));
+            journal.moduleBuilt(module2, "target");
+            assertFalse(journal.resumeModule(module1, "target"));
+            // The build of foo/ fails.
+        }
+        finally {
+            journal.close(false);
+        }
+        
+        journal = BuildJournal.open(journalFile, "config", true);
+        try {
+            assertTrue(journal.resumeModule(module2, "target"));
+            assertFalse(journal.resumeModule(module1, "target"));
+        }
+        finally {
+            journal.close(false);
+        }
+    }
+    
+    public void testResume_InvalidLinesAreIgnored() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        final Module module2 = TestUtil.module("bar/");
+        
+        writeJournal("config", "target", module1);
+        final Writer out = new OutputStreamWriter(new FileOutputStream(journalFile, true), "UTF-8");
+        try {
+            // The last line is written partially.
+            out.write("abc\n-\n\nbar/\n0123456789");
+        }
+        finally {
+            out.close();
+        }
+        
+        BuildJournal journal = BuildJournal.open(journalFile, "config", true);
+        try {
+            assertTrue(journal.resumeModule(module1, "target"));
+            assertFalse(journal.resumeModule(module2, "target"));
+            journal.moduleBuilt(module2, "target");
+        }
+        finally {
+            journal.close(false);
+        }
+        
+        journal = BuildJournal.open(journalFile, "config", true);
+        try {
+            assertTrue(journal.resumeModule(module1, "target"));
+            assertTrue(journal.resumeModule(module2, "target"));
+        }
+        finally {
+            journal.close(false);
+        }
+    }
+    
+    public void testClose_BuildSucceeded_JournalIsDeleted() throws Exception
+    {
+        final BuildJournal journal = BuildJournal.open(journalFile, "config", false);
+        journal.moduleBuilt(TestUtil.module("foo/"), "target");
+        journal.close(true);
+        
+        assertFalse(journalFile.exists());
+        
+        // Closing twice is safe.
+        journal.close(true);
+    }
+    
+    public void testOpen_DirectoryDoesNotExist() throws Exception
+    {
+        final File dir = journalFile;
+        final File file = new File(dir, "journal.txt");
+        try {
+            final BuildJournal journal = BuildJournal.open(file, "config", false);
+            journal.moduleBuilt(TestUtil.module("foo/"), "target");
+            journal.close(false);
+            
+            assertTrue(file.isFile());
+        }
+        finally {
+            file.delete();
+            dir.delete();
+        }
+    }
+    
+    private void writeJournal(final String configuration, final String target, final Module... modules)
+            throws IOException
+    {
+        final BuildJournal journal = BuildJournal.open(journalFile, configuration, false);
+        try {
+            for (final Module module : modules) {
+                journal.moduleBuilt(module, target);
+            }
+        }
+        finally {
+            journal.close(false);
+        }
+    }
+}
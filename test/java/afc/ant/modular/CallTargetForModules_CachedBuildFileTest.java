@@ -0,0 +1,225 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.ProjectHelper;
+
+import afc.ant.modular.CallTargetForModules.ParamElement;
+
+public class CallTargetForModules_CachedBuildFileTest extends TestCase
+{
+    private Project project;
+    private MockModuleLoader moduleLoader;
+    private EchoListener listener;
+    
+    @Override
+    protected void setUp()
+    {
+        moduleLoader = new MockModuleLoader();
+        listener = new EchoListener();
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        listener = null;
+        moduleLoader = null;
+        project = null;
+    }
+    
+    public void testSerialRun_BuildFileCached()
+    {
+        initProject("cached_build.xml");
+        defineModules();
+        
+        final CallTargetForModules task = createTask(true);
+        task.execute();
+        
+        assertEquals(Arrays.asList("foo/|val|top|yes|cachedBuild", "bar/|val|top|yes|cachedBuild",
+                "baz/|val|top|yes|cachedBuild"), listener.messages);
+    }
+    
+    public void testSerialRun_BuildFileCached_SameResultAsNotCached()
+    {
+        initProject("cached_build.xml");
+        defineModules();
+        
+        createTask(false).execute();
+        final ArrayList<String> notCachedMessages = new ArrayList<String>(listener.messages);
+        listener.messages.clear();
+        
+        createTask(true).execute();
+        
+        assertEquals(notCachedMessages, listener.messages);
+    }
+    
+    public void testParallelRun_BuildFileCached()
+    {
+        initProject("cached_build.xml");
+        
+        final ModuleInfo root = new ModuleInfo("root", moduleLoader);
+        moduleLoader.modules.put("root/", root);
+        final ArrayList<String> expectedMessages = new ArrayList<String>();
+        expectedMessages.add("root/|val|top|yes|cachedBuild");
+        for (int i = 0; i < 50; ++i) {
+            final ModuleInfo module = new ModuleInfo("m" + i, moduleLoader);
+            moduleLoader.modules.put("m" + i + '/', module);
+            root.addDependency("m" + i);
+            expectedMessages.add("m" + i + "/|val|top|yes|cachedBuild");
+        }
+        
+        final CallTargetForModules task = createTask(true);
+        task.setThreadCount(4);
+        task.createModule().setPath("root");
+        task.execute();
+        
+        // Root is the last module processed.
+        assertEquals(expectedMessages.size(), listener.messages.size());
+        assertEquals("root/|val|top|yes|cachedBuild", listener.messages.get(listener.messages.size() - 1));
+        Collections.sort(expectedMessages);
+        final ArrayList<String> actualMessages = new ArrayList<String>(listener.messages);
+        Collections.sort(actualMessages);
+        assertEquals(expectedMessages, actualMessages);
+    }
+    
+    public void testSerialRun_BuildFileCached_BuildFailure()
+    {
+        initProject("cached_build.xml");
+        defineModules();
+        
+        final CallTargetForModules task = createTask(true);
+        task.setTarget("fail");
+        
+        try {
+            task.execute();
+            fail();
+        }
+        catch (BuildException ex) {
+            // The location of the failed task is added to the message, as <ant> does.
+            assertTrue(ex.getMessage(), ex.getMessage().startsWith("Module 'foo/': "));
+            assertTrue(ex.getMessage(), ex.getMessage().endsWith("cached_build.xml:16: failure"));
+            assertNotNull(ex.getCause());
+        }
+    }
+    
+    public void testSerialRun_BuildFileWithImport_ParsedForEachModule()
+    {
+        initProject("cached_build_import.xml");
+        defineModules();
+        
+        final CallTargetForModules task = createTask(true);
+        task.execute();
+        
+        assertEquals(Arrays.asList("foo/|val|top|imported", "bar/|val|top|imported",
+                "baz/|val|top|imported"), listener.messages);
+    }
+    
+    private void initProject(final String buildFileName)
+    {
+        final File buildFile = new File("test/data/CallTargetForModules/" + buildFileName).getAbsoluteFile();
+        project = new Project();
+        project.init();
+        project.setUserProperty("ant.file", buildFile.getPath());
+        ProjectHelper.configureProject(project, buildFile);
+        project.addBuildListener(listener);
+    }
+    
+    // baz depends upon bar which depends upon foo.
+    private void defineModules()
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("foo");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        baz.addDependency("bar");
+        moduleLoader.modules.put("foo/", foo);
+        moduleLoader.modules.put("bar/", bar);
+        moduleLoader.modules.put("baz/", baz);
+    }
+    
+    private CallTargetForModules createTask(final boolean cacheBuildFile)
+    {
+        final CallTargetForModules task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setTarget("build");
+        task.setModuleRefId("module");
+        task.setCacheBuildFile(cacheBuildFile);
+        task.addConfigured(moduleLoader);
+        if (!moduleLoader.modules.containsKey("root/")) {
+            task.createModule().setPath("baz");
+        }
+        final ParamElement param = task.createParam();
+        param.setName("param");
+        param.setValue("val");
+        return task;
+    }
+    
+    private static class EchoListener implements BuildListener
+    {
+        public final List<String> messages = Collections.synchronizedList(new ArrayList<String>());
+        
+        public void buildStarted(final BuildEvent event)
+        {
+        }
+        
+        public void buildFinished(final BuildEvent event)
+        {
+        }
+        
+        public void targetStarted(final BuildEvent event)
+        {
+        }
+        
+        public void targetFinished(final BuildEvent event)
+        {
+        }
+        
+        public void taskStarted(final BuildEvent event)
+        {
+        }
+        
+        public void taskFinished(final BuildEvent event)
+        {
+        }
+        
+        public void messageLogged(final BuildEvent event)
+        {
+            if (event.getTask() != null && "echo".equals(event.getTask().getTaskName())) {
+                messages.add(event.getMessage());
+            }
+        }
+    }
+}
@@ -22,6 +22,8 @@
    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
 package afc.ant.modular;
 
+import java.io.File;
+
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Location;
 
@@ -335,6 +337,454 @@ public class CallTargetForModules_InvalidUseCasesTest extends TestCase
         }
     }
     
+    public void testLoaderThreadCountIsInvalid()
+    {
+        task.init();
+        task.setTarget("testTarget");
+        
+        try {
+            task.setLoaderThreadCount(0);
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid loader thread count: '0'. It must be a positive value.", ex.getMessage());
+        }
+    }
+    
+    public void testSchedulingPolicyIsInvalid()
+    {
+        task.init();
+        task.setTarget("testTarget");
+        
+        try {
+            task.setSchedulingPolicy("longestFirst");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid scheduling policy: 'longestFirst'.", ex.getMessage());
+        }
+    }
+    
+    public void testOrderIsInvalid()
+    {
+        task.init();
+        task.setTarget("testTarget");
+        
+        try {
+            task.setOrder("backward");
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Invalid order: 'backward'.", ex.getMessage());
+        }
+    }
+    
+    public void testReverseOrder_Streaming() throws Exception
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setOrder("reverse");
+        task.setThreadCount(2);
+        task.setStreaming(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The order 'reverse' is not supported in the streaming mode.", ex.getMessage());
+        }
+        
+        assertTrue(project.tasks.isEmpty());
+    }
+    
+    public void testReverseOrder_Incremental() throws Exception
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setOrder("reverse");
+        task.setIncremental(true);
+        task.setFingerprintFile(new File("fingerprints"));
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The order 'reverse' is not supported in the incremental mode.", ex.getMessage());
+        }
+        
+        assertTrue(project.tasks.isEmpty());
+    }
+    
+    public void testReverseOrder_Resume() throws Exception
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setOrder("reverse");
+        task.setJournalFile(new File("journal"));
+        task.setResume(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The order 'reverse' is not supported if the attribute 'resume' is set to true.", ex.getMessage());
+        }
+        
+        assertTrue(project.tasks.isEmpty());
+    }
+    
+    public void testReverseOrder_ModuleBuildCache() throws Exception
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setOrder("reverse");
+        final ModuleBuildCache cache = new ModuleBuildCache();
+        cache.setDir(new File("cache"));
+        task.addConfiguredModuleBuildCache(cache);
+        task.setOutputsAttribute("Outputs");
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The order 'reverse' is not supported if the element <moduleBuildCache> is defined.", ex.getMessage());
+        }
+        
+        assertTrue(project.tasks.isEmpty());
+    }
+    
+    public void testResume_JournalFileIsUndefined()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setResume(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'journalFile' must be defined if the attribute 'resume' is set to true.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testIncremental_FingerprintFileIsUndefined()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setIncremental(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'fingerprintFile' must be defined if the attribute 'incremental' is set to true.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testMultipleInputsElements()
+    {
+        task.init();
+        task.createInputs();
+        
+        try {
+            task.createInputs();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Only one <inputs> element is allowed.", ex.getMessage());
+        }
+    }
+    
+    public void testMultipleChangedFilesElements()
+    {
+        task.init();
+        task.createChangedFiles();
+        
+        try {
+            task.createChangedFiles();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Only one <changedFiles> element is allowed.", ex.getMessage());
+        }
+    }
+    
+    public void testModuleBuildCache_DirIsUndefined()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setOutputsAttribute("outputs");
+        task.addConfiguredModuleBuildCache(new ModuleBuildCache());
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'dir' of the element <moduleBuildCache> must be defined.", ex.getMessage());
+        }
+    }
+    
+    public void testModuleBuildCache_HttpBackendUrlIsUndefined()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setOutputsAttribute("outputs");
+        final ModuleBuildCache cache = new ModuleBuildCache();
+        cache.setDir(new File("cache"));
+        cache.addConfigured(new HttpBuildCacheBackend());
+        task.addConfiguredModuleBuildCache(cache);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'url' of the element <httpBuildCacheBackend> must be defined.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testModuleBuildCache_OutputsAttributeIsUndefined()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        final ModuleBuildCache cache = new ModuleBuildCache();
+        cache.setDir(new File("cache"));
+        task.addConfiguredModuleBuildCache(cache);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'outputsAttribute' must be defined if the element <moduleBuildCache> is defined.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testMultipleModuleBuildCacheElements()
+    {
+        task.init();
+        task.addConfiguredModuleBuildCache(new ModuleBuildCache());
+        
+        try {
+            task.addConfiguredModuleBuildCache(new ModuleBuildCache());
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Only a single <moduleBuildCache> element is allowed.", ex.getMessage());
+        }
+    }
+    
+    public void testNullModuleBuildCache()
+    {
+        task.init();
+        
+        try {
+            task.addConfiguredModuleBuildCache(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("moduleBuildCache", ex.getMessage());
+        }
+    }
+    
+    public void testKeepGoingAndFailFast()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setKeepGoing(true);
+        task.setFailFast(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attributes 'keepGoing' and 'failFast' cannot be both set to true.", ex.getMessage());
+        }
+    }
+    
+    public void testSchedulingPolicyBuildTime_HistoryFileIsUndefined()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setSchedulingPolicy("buildTime");
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'historyFile' must be defined for the scheduling policy 'buildTime'.",
+                    ex.getMessage());
+        }
+        
+        assertTrue(project.tasks.isEmpty());
+    }
+    
+    public void testStreaming_CriticalPathSchedulingPolicy()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setStreaming(true);
+        task.setSchedulingPolicy("criticalPath");
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The scheduling policy 'criticalPath' is not supported in the streaming mode.",
+                    ex.getMessage());
+        }
+        
+        assertTrue(project.tasks.isEmpty());
+    }
+    
+    public void testStreaming_ChangedFiles()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setStreaming(true);
+        task.createChangedFiles();
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The element <changedFiles> is not supported in the streaming mode.", ex.getMessage());
+        }
+        
+        assertTrue(project.tasks.isEmpty());
+    }
+    
+    public void testStreaming_CyclicDependency()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        moduleInfo1.addDependency("baz/");
+        moduleInfo2.addDependency("foo/");
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        
+        // The module 'baz/' could be built before the loop is detected.
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        
+        task.init();
+        task.setTarget("testTarget");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setStreaming(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertTrue(ex.getCause() instanceof CyclicDependenciesDetectedException);
+            assertEquals(ex.getMessage(), ex.getCause().getMessage());
+        }
+    }
+    
+    public void testSchedulingPolicyIsNull()
+    {
+        task.init();
+        task.setTarget("testTarget");
+        
+        try {
+            task.setSchedulingPolicy(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("schedulingPolicy", ex.getMessage());
+        }
+    }
+    
     /**
      * <p>Tests that {@code NullPointerException} is thrown if {@code null} module loader is passed
      * to {@code CallTargetForModules}.</p>
@@ -22,16 +22,23 @@
    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
 package afc.ant.modular;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicReference;
 
+import org.apache.tools.ant.BuildEvent;
 import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.BuildListener;
 import org.apache.tools.ant.Location;
 import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
 
 import afc.ant.modular.CallTargetForModules.ModuleElement;
 import afc.ant.modular.CallTargetForModules.ParamElement;
@@ -41,6 +48,8 @@ import junit.framework.TestCase;
 // TODO add high load tests
 public class CallTargetForModules_ParallelUseTest extends TestCase
 {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    
     private CallTargetForModules task;
     private MockProject project;
     private MockModuleLoader moduleLoader;
@@ -119,6 +128,259 @@ public class CallTargetForModules_ParallelUseTest extends TestCase
                 TestUtil.<String, Object>map("qwerty", "board", "p", "o"));
     }
     
+    public void testParallelRun_ModulesAreLoadedByTaskThreadByDefault()
+    {
+        final Set<Thread> loaderThreads = testParallelRun_LoaderThreads(1);
+        
+        assertEquals(Collections.singleton(Thread.currentThread()), loaderThreads);
+    }
+    
+    public void testParallelRun_ModulesAreLoadedInParallel()
+    {
+        final Set<Thread> loaderThreads = testParallelRun_LoaderThreads(2);
+        
+        assertFalse(loaderThreads.isEmpty());
+        assertFalse(loaderThreads.contains(Thread.currentThread()));
+    }
+    
+    private Set<Thread> testParallelRun_LoaderThreads(final int loaderThreadCount)
+    {
+        final Set<Thread> loaderThreads = Collections.synchronizedSet(new HashSet<Thread>());
+        final MockModuleLoader moduleLoader = new MockModuleLoader()
+        {
+            @Override
+            public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+            {
+                loaderThreads.add(Thread.currentThread());
+                return super.loadModule(path);
+            }
+        };
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        
+        for (int i = 0; i < 3; ++i) {
+            project.tasks.add(new MockCallTargetTask(project));
+        }
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.createModule().setPath("foo");
+        task.createModule().setPath("baz");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(4);
+        task.setLoaderThreadCount(loaderThreadCount);
+        
+        task.perform();
+        
+        assertEquals(3, project.tasksReturned);
+        return loaderThreads;
+    }
+    
+    public void testParallelRun_TwoThreads_MultipleModulesWithDeps_CriticalPathSchedulingPolicy()
+    {
+        // Unambiguous order of module processing is selected for the sake of simplicity.
+        final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo.addDependency("bar/");
+        moduleInfo.addDependency("baz/");
+        final ModuleInfo dep1 = new ModuleInfo("bar/", moduleLoader);
+        dep1.addDependency("baz/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("baz/", moduleLoader);
+        moduleInfo2.addDependency("quux/");
+        final ModuleInfo dep2 = new ModuleInfo("quux/", moduleLoader);
+        
+        moduleLoader.modules.put("foo/", moduleInfo);
+        moduleLoader.modules.put("bar/", dep1);
+        moduleLoader.modules.put("baz/", moduleInfo2);
+        moduleLoader.modules.put("quux/", dep2);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        final MockCallTargetTask task4 = new MockCallTargetTask(project);
+        project.tasks.add(task4);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("mProp");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setSchedulingPolicy("criticalPath");
+        
+        task.perform();
+        
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "mProp", dep2,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "mProp", moduleInfo2,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "mProp", dep1,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task4, true, "someTarget", true, false, "mProp", moduleInfo,
+                Collections.<String, Object>emptyMap());
+    }
+    
+    public void testParallelRun_TwoThreads_MultipleModulesWithDeps_ReverseOrder()
+    {
+        // Unambiguous order of module processing is selected for the sake of simplicity.
+        final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo.addDependency("bar/");
+        moduleInfo.addDependency("baz/");
+        final ModuleInfo dep1 = new ModuleInfo("bar/", moduleLoader);
+        dep1.addDependency("baz/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("baz/", moduleLoader);
+        moduleInfo2.addDependency("quux/");
+        final ModuleInfo dep2 = new ModuleInfo("quux/", moduleLoader);
+        
+        moduleLoader.modules.put("foo/", moduleInfo);
+        moduleLoader.modules.put("bar/", dep1);
+        moduleLoader.modules.put("baz/", moduleInfo2);
+        moduleLoader.modules.put("quux/", dep2);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        final MockCallTargetTask task4 = new MockCallTargetTask(project);
+        project.tasks.add(task4);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("mProp");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setSchedulingPolicy("criticalPath");
+        task.setOrder("reverse");
+        
+        task.perform();
+        
+        // Each module is built after all modules that depend upon it.
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "mProp", moduleInfo,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "mProp", dep1,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "mProp", moduleInfo2,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task4, true, "someTarget", true, false, "mProp", dep2,
+                Collections.<String, Object>emptyMap());
+    }
+    
+    public void testParallelRun_TwoThreads_MultipleModulesWithDeps_BuildTimeSchedulingPolicy() throws Exception
+    {
+        final File historyFile = File.createTempFile("build_history", ".properties");
+        try {
+            // The module 'removed/' is not in the build. It is kept in the history.
+            final BuildHistory oldHistory = BuildHistory.empty();
+            oldHistory.moduleBuilt("foo/", 1000);
+            oldHistory.moduleBuilt("removed/", 20);
+            oldHistory.save(historyFile);
+            
+            // Unambiguous order of module processing is selected for the sake of simplicity.
+            final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+            moduleInfo.addDependency("bar/");
+            final ModuleInfo dep1 = new ModuleInfo("bar/", moduleLoader);
+            dep1.addDependency("baz/");
+            final ModuleInfo moduleInfo2 = new ModuleInfo("baz/", moduleLoader);
+            
+            moduleLoader.modules.put("foo/", moduleInfo);
+            moduleLoader.modules.put("bar/", dep1);
+            moduleLoader.modules.put("baz/", moduleInfo2);
+            
+            final MockCallTargetTask task1 = new MockCallTargetTask(project);
+            project.tasks.add(task1);
+            final MockCallTargetTask task2 = new MockCallTargetTask(project);
+            project.tasks.add(task2);
+            final MockCallTargetTask task3 = new MockCallTargetTask(project);
+            project.tasks.add(task3);
+            
+            task.init();
+            task.setTarget("someTarget");
+            task.setModuleRefId("mProp");
+            task.createModule().setPath("foo");
+            task.addConfigured(moduleLoader);
+            task.setThreadCount(2);
+            task.setSchedulingPolicy("buildTime");
+            task.setHistoryFile(historyFile);
+            
+            task.perform();
+            
+            TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "mProp", moduleInfo2,
+                    Collections.<String, Object>emptyMap());
+            TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "mProp", dep1,
+                    Collections.<String, Object>emptyMap());
+            TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "mProp", moduleInfo,
+                    Collections.<String, Object>emptyMap());
+            
+            final Map<String, Long> durations = BuildHistory.load(historyFile).getDurations();
+            assertEquals(TestUtil.set("foo/", "bar/", "baz/", "removed/"), durations.keySet());
+            assertEquals(Long.valueOf(20), durations.get("removed/"));
+        }
+        finally {
+            historyFile.delete();
+        }
+    }
+    
+    public void testParallelRun_TwoThreads_MultipleModulesWithDeps_Streaming()
+    {
+        // Unambiguous order of module processing is selected for the sake of simplicity.
+        final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo.addAttribute("1", "2");
+        moduleInfo.addDependency("bar/");
+        moduleInfo.addDependency("baz/");
+        final ModuleInfo dep1 = new ModuleInfo("bar/", moduleLoader);
+        dep1.addDependency("baz/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("baz/", moduleLoader);
+        moduleInfo2.addDependency("quux/");
+        final ModuleInfo dep2 = new ModuleInfo("quux/", moduleLoader);
+        dep2.addAttribute("z", "x");
+        
+        moduleLoader.modules.put("foo/", moduleInfo);
+        moduleLoader.modules.put("bar/", dep1);
+        moduleLoader.modules.put("baz/", moduleInfo2);
+        moduleLoader.modules.put("quux/", dep2);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        final MockCallTargetTask task4 = new MockCallTargetTask(project);
+        project.tasks.add(task4);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("mProp");
+        task.createModule().setPath("foo");
+        final ModuleElement moduleElem = task.createModule();
+        moduleElem.setPath("baz");
+        moduleElem.setTarget("customTarget");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setStreaming(true);
+        
+        task.perform();
+        
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "mProp", dep2,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task2, true, "customTarget", true, false, "mProp", moduleInfo2,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "mProp", dep1,
+                Collections.<String, Object>emptyMap());
+        TestUtil.assertCallTargetState(task4, true, "someTarget", true, false, "mProp", moduleInfo,
+                Collections.<String, Object>emptyMap());
+    }
+    
     public void testParallelRun_TwoThreads_MultipleModulesWithDeps_RelatedHierarchies_ModulePropertyUndefined()
     {
         // Unambiguous order of module processing is selected for the sake of simplicity.
@@ -1252,4 +1514,559 @@ public class CallTargetForModules_ParallelUseTest extends TestCase
         assertFalse(task2.executed);
         assertFalse(task3.executed);
     }
+    
+    /**
+     * <p>Tests that in the fail-fast mode:</p>
+     * <ul>
+     *  <li>the threads that build other modules are interrupted if the build of a module fails</li>
+     *  <li>the failure of the module that has failed first is reported</li>
+     *  <li>the interrupted status set by cancellation does not leak to the build thread</li>
+     * </ul>
+     */
+    public void testParallelRun_FailFast_ModulesInProgressAreInterrupted() throws Throwable
+    {
+        final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        final ModuleInfo moduleInfo4 = new ModuleInfo("quux/", moduleLoader);
+        moduleInfo4.addDependency("foo/");
+        moduleInfo4.addDependency("bar/");
+        moduleInfo4.addDependency("baz/");
+        
+        moduleLoader.modules.put("foo/", moduleInfo);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        moduleLoader.modules.put("quux/", moduleInfo4);
+        
+        final CyclicBarrier hangBarrier = new CyclicBarrier(4);
+        
+        final AtomicReference<Throwable> failureCause = new AtomicReference<Throwable>();
+        final BuildException exception = new BuildException("test_failure_msg");
+        
+        final Thread buildThread = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    try {
+                        task.perform();
+                        fail();
+                    }
+                    catch (BuildException ex) {
+                        // expected
+                        assertSame(exception, ex.getCause());
+                    }
+                    
+                    assertFalse(Thread.currentThread().isInterrupted());
+                }
+                catch (Throwable ex) {
+                    failureCause.set(ex);
+                }
+            }
+        };
+        
+        final HangingMockCallTargetTask task1 = new HangingMockCallTargetTask(project, hangBarrier, failureCause);
+        project.tasks.add(task1);
+        final HangingMockCallTargetTask task2 = new HangingMockCallTargetTask(project, hangBarrier, failureCause);
+        project.tasks.add(task2);
+        final HangingMockCallTargetTask task3 = new HangingMockCallTargetTask(project, hangBarrier, failureCause);
+        project.tasks.add(task3);
+        final MockCallTargetTask task4 = new MockCallTargetTask(project);
+        project.tasks.add(task4);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("mProp");
+        task.createModule().setPath("quux");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(3);
+        task.setFailFast(true);
+        
+        buildThread.start();
+        
+        hangBarrier.await();
+        
+        // The task that fails is not interrupted. The other tasks are not released.
+        task2.releaseException = exception;
+        task2.hang = false;
+        synchronized (task2) {
+            task2.notify();
+        }
+        
+        buildThread.join();
+        
+        if (failureCause.get() != null) {
+            throw failureCause.get();
+        }
+        
+        assertTrue(task1.interrupted);
+        assertFalse(task2.interrupted);
+        assertTrue(task3.interrupted);
+        assertFalse(task4.executed);
+    }
+    
+    /**
+     * <p>Tests that only the target invocation is interrupted in the fail-fast mode. The output
+     * files of the modules whose target invocation has returned normally despite being interrupted
+     * are hashed by the thread whose interrupted status is restored, so that reading them with
+     * interruptible channels does not fail.</p>
+     */
+    public void testParallelRun_FailFast_OutputsAreHashedAfterInterruption() throws Throwable
+    {
+        final File baseDir = TestUtil.createTempDir("fail_fast");
+        try {
+            project.setBaseDir(baseDir);
+            final String[] paths = new String[]{"foo/", "bar/", "baz/"};
+            for (final String path : paths) {
+                TestUtil.writeFile(new File(baseDir, path + "src.txt"), path);
+                TestUtil.writeFile(new File(baseDir, path + "out/a.class"), path + "a.class");
+            }
+            
+            final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+            final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+            final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+            final ModuleInfo moduleInfo4 = new ModuleInfo("quux/", moduleLoader);
+            moduleInfo4.addDependency("foo/");
+            moduleInfo4.addDependency("bar/");
+            moduleInfo4.addDependency("baz/");
+            
+            moduleLoader.modules.put("foo/", moduleInfo);
+            moduleLoader.modules.put("bar/", moduleInfo2);
+            moduleLoader.modules.put("baz/", moduleInfo3);
+            moduleLoader.modules.put("quux/", moduleInfo4);
+            for (final String path : paths) {
+                ((ModuleInfo) moduleLoader.modules.get(path)).addAttribute("outputs", "out");
+            }
+            
+            final CyclicBarrier hangBarrier = new CyclicBarrier(4);
+            final AtomicReference<Throwable> failureCause = new AtomicReference<Throwable>();
+            final BuildException exception = new BuildException("test_failure_msg");
+            
+            final HangingMockCallTargetTask task1 = new HangingMockCallTargetTask(project, hangBarrier, failureCause);
+            project.tasks.add(task1);
+            final HangingMockCallTargetTask task2 = new HangingMockCallTargetTask(project, hangBarrier, failureCause);
+            project.tasks.add(task2);
+            final HangingMockCallTargetTask task3 = new HangingMockCallTargetTask(project, hangBarrier, failureCause);
+            project.tasks.add(task3);
+            
+            final WarningListener listener = new WarningListener();
+            project.addBuildListener(listener);
+            
+            task.init();
+            task.setTarget("someTarget");
+            task.setModuleRefId("mProp");
+            task.createModule().setPath("quux");
+            task.addConfigured(moduleLoader);
+            task.setThreadCount(3);
+            task.setFailFast(true);
+            task.setIncremental(true);
+            task.setFingerprintFile(new File(baseDir, "fingerprints"));
+            task.setOutputsAttribute("outputs");
+            task.createInputs().setIncludes("*.txt");
+            
+            final Thread buildThread = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        try {
+                            task.perform();
+                            fail();
+                        }
+                        catch (BuildException ex) {
+                            // expected
+                            assertSame(exception, ex.getCause());
+                        }
+                    }
+                    catch (Throwable ex) {
+                        failureCause.set(ex);
+                    }
+                }
+            };
+            buildThread.start();
+            
+            hangBarrier.await();
+            
+            task2.releaseException = exception;
+            task2.hang = false;
+            synchronized (task2) {
+                task2.notify();
+            }
+            
+            buildThread.join();
+            
+            if (failureCause.get() != null) {
+                throw failureCause.get();
+            }
+            
+            assertTrue(task1.interrupted);
+            assertTrue(task3.interrupted);
+            assertEquals(Collections.emptyList(), listener.warnings);
+        }
+        finally {
+            TestUtil.delete(baseDir);
+        }
+    }
+    
+    public void testParallelRun_FailFast_NoFailures()
+    {
+        final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        
+        moduleLoader.modules.put("foo/", moduleInfo);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setFailFast(true);
+        
+        task.perform();
+        
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo,
+                TestUtil.<String, Object>map());
+        assertTrue(task1.ownProject.getBuildListeners().size() > 0);
+    }
+    
+    public void testParallelRun_KeepGoing_DependersOfFailedModuleAreSkipped()
+    {
+        testParallelRun_KeepGoing_DependersOfFailedModuleAreSkipped(false);
+    }
+    
+    public void testParallelRun_KeepGoing_DependersOfFailedModuleAreSkipped_Streaming()
+    {
+        testParallelRun_KeepGoing_DependersOfFailedModuleAreSkipped(true);
+    }
+    
+    private void testParallelRun_KeepGoing_DependersOfFailedModuleAreSkipped(final boolean streaming)
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        moduleInfo2.addDependency("baz/");
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        final ModuleInfo moduleInfo4 = new ModuleInfo("quux/", moduleLoader);
+        final ModuleInfo moduleInfo5 = new ModuleInfo("zzz/", moduleLoader);
+        moduleInfo5.addDependency("quux/");
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        moduleLoader.modules.put("quux/", moduleInfo4);
+        moduleLoader.modules.put("zzz/", moduleInfo5);
+        
+        // The order in which the independent modules are built is undefined.
+        final Location location = new Location("some_file", 10, 20);
+        final BuildException exception = new BuildException("test_failure_msg", location);
+        final FailingModuleTask[] tasks = new FailingModuleTask[5];
+        for (int i = 0; i < tasks.length; ++i) {
+            tasks[i] = new FailingModuleTask(project, "baz/", exception);
+            project.tasks.add(tasks[i]);
+        }
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.createModule().setPath("zzz");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setStreaming(streaming);
+        task.setKeepGoing(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The build failed for 1 module(s). 2 module(s) were skipped." + LINE_SEPARATOR +
+                    "Module 'baz/': test_failure_msg", ex.getMessage());
+            assertEquals("Module 'baz/': test_failure_msg", ex.getCause().getMessage());
+            assertSame(exception, ex.getCause().getCause());
+            assertSame(location, ((BuildException) ex.getCause()).getLocation());
+        }
+        
+        assertEquals(new HashSet<String>(Arrays.asList("baz/", "quux/", "zzz/")), builtModules(tasks));
+        assertFalse(tasks[3].executed);
+        assertFalse(tasks[4].executed);
+    }
+    
+    public void testParallelRun_KeepGoing_ReverseOrder_DependeesOfFailedModuleAreSkipped()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        moduleInfo2.addDependency("baz/");
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        final ModuleInfo moduleInfo4 = new ModuleInfo("quux/", moduleLoader);
+        final ModuleInfo moduleInfo5 = new ModuleInfo("zzz/", moduleLoader);
+        moduleInfo5.addDependency("quux/");
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        moduleLoader.modules.put("quux/", moduleInfo4);
+        moduleLoader.modules.put("zzz/", moduleInfo5);
+        
+        // The order in which the independent modules are built is undefined.
+        final BuildException exception = new BuildException("test_failure_msg");
+        final FailingModuleTask[] tasks = new FailingModuleTask[5];
+        for (int i = 0; i < tasks.length; ++i) {
+            tasks[i] = new FailingModuleTask(project, "bar/", exception);
+            project.tasks.add(tasks[i]);
+        }
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.createModule().setPath("zzz");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setOrder("reverse");
+        task.setKeepGoing(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The build failed for 1 module(s). 1 module(s) were skipped." + LINE_SEPARATOR +
+                    "Module 'bar/': test_failure_msg", ex.getMessage());
+            assertSame(exception, ex.getCause().getCause());
+        }
+        
+        // The module 'baz' is skipped because the module 'bar' that depends upon it is not built.
+        assertEquals(new HashSet<String>(Arrays.asList("foo/", "bar/", "quux/", "zzz/")), builtModules(tasks));
+        assertFalse(tasks[4].executed);
+    }
+    
+    public void testParallelRun_KeepGoing_MultipleFailures()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        moduleInfo3.addDependency("foo/");
+        moduleInfo3.addDependency("bar/");
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        
+        task1.exception = new BuildException("test_failure_msg");
+        task2.exception = new BuildException("test_failure_msg");
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("baz");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setKeepGoing(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            // The failures are reported in the order of module paths.
+            assertEquals("The build failed for 2 module(s). 1 module(s) were skipped." + LINE_SEPARATOR +
+                    "Module 'bar/': test_failure_msg" + LINE_SEPARATOR +
+                    "Module 'foo/': test_failure_msg", ex.getMessage());
+            assertEquals("Module 'bar/': test_failure_msg", ex.getCause().getMessage());
+        }
+        
+        assertTrue(task1.executed);
+        assertTrue(task2.executed);
+        assertFalse(task3.executed);
+    }
+    
+    public void testParallelRun_RemoteBuildCache() throws Exception
+    {
+        testParallelRun_RemoteBuildCache(false);
+    }
+    
+    public void testParallelRun_RemoteBuildCache_Streaming() throws Exception
+    {
+        testParallelRun_RemoteBuildCache(true);
+    }
+    
+    /* Tests that the modules built on one machine are restored from the remote build cache
+     * on another machine.
+     */
+    private void testParallelRun_RemoteBuildCache(final boolean streaming) throws Exception
+    {
+        final File baseDir = TestUtil.createTempDir("remote_build_cache");
+        final MockHttpCacheServer server = new MockHttpCacheServer();
+        try {
+            project.setBaseDir(baseDir);
+            final String[] paths = new String[]{"foo/", "bar/", "baz/"};
+            for (final String path : paths) {
+                TestUtil.writeFile(new File(baseDir, path + "src.txt"), path);
+                TestUtil.writeFile(new File(baseDir, path + "out/a.class"), path + "a.class");
+            }
+            
+            final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+            moduleInfo1.addDependency("bar/");
+            final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+            final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+            moduleLoader.modules.put("foo/", moduleInfo1);
+            moduleLoader.modules.put("bar/", moduleInfo2);
+            moduleLoader.modules.put("baz/", moduleInfo3);
+            for (final String path : paths) {
+                ((ModuleInfo) moduleLoader.modules.get(path)).addAttribute("outputs", "out");
+            }
+            
+            final MockCallTargetTask[] tasks = new MockCallTargetTask[6];
+            for (int i = 0; i < tasks.length; ++i) {
+                tasks[i] = new MockCallTargetTask(project);
+                project.tasks.add(tasks[i]);
+            }
+            
+            // The first machine builds all modules and uploads their output files.
+            runRemotelyCachedBuild(new File(baseDir, "cache1"), server.getUrl(), streaming);
+            
+            assertEquals(new HashSet<String>(Arrays.asList(paths)), builtModules(tasks));
+            assertEquals(3, server.entries.size());
+            
+            // The second machine downloads the output files instead of building the modules.
+            for (final String path : paths) {
+                TestUtil.delete(new File(baseDir, path + "out"));
+            }
+            server.requests.clear();
+            
+            runRemotelyCachedBuild(new File(baseDir, "cache2"), server.getUrl(), streaming);
+            
+            for (int i = 3; i < tasks.length; ++i) {
+                assertFalse(tasks[i].executed);
+            }
+            for (final String path : paths) {
+                assertEquals(path + "a.class", TestUtil.readFile(new File(baseDir, path + "out/a.class")));
+            }
+            // Each entry is downloaded once.
+            assertEquals(3, server.requests.size());
+        }
+        finally {
+            server.stop();
+            TestUtil.delete(baseDir);
+        }
+    }
+    
+    private void runRemotelyCachedBuild(final File cacheDir, final String url, final boolean streaming)
+    {
+        final CallTargetForModules task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.createModule().setPath("baz");
+        task.addConfigured(moduleLoader);
+        task.setThreadCount(2);
+        task.setStreaming(streaming);
+        final ModuleBuildCache cache = new ModuleBuildCache();
+        cache.setProject(project);
+        cache.setDir(cacheDir);
+        final HttpBuildCacheBackend backend = new HttpBuildCacheBackend();
+        backend.setUrl(url);
+        cache.addConfigured(backend);
+        task.addConfiguredModuleBuildCache(cache);
+        task.setOutputsAttribute("outputs");
+        task.createInputs().setIncludes("*.txt");
+        
+        task.perform();
+    }
+    
+    // Collects the warnings logged.
+    private static class WarningListener implements BuildListener
+    {
+        public final List<String> warnings = Collections.synchronizedList(new ArrayList<String>());
+        
+        public void buildStarted(final BuildEvent event)
+        {
+        }
+        
+        public void buildFinished(final BuildEvent event)
+        {
+        }
+        
+        public void targetStarted(final BuildEvent event)
+        {
+        }
+        
+        public void targetFinished(final BuildEvent event)
+        {
+        }
+        
+        public void taskStarted(final BuildEvent event)
+        {
+        }
+        
+        public void taskFinished(final BuildEvent event)
+        {
+        }
+        
+        public void messageLogged(final BuildEvent event)
+        {
+            if (event.getPriority() == Project.MSG_WARN) {
+                warnings.add(event.getMessage());
+            }
+        }
+    }
+    
+    private static HashSet<String> builtModules(final MockCallTargetTask[] tasks)
+    {
+        final HashSet<String> paths = new HashSet<String>();
+        for (final MockCallTargetTask task : tasks) {
+            if (task.executed) {
+                assertTrue(paths.add(((Module) task.ownProject.getReference("moduleRef")).getPath()));
+            }
+        }
+        return paths;
+    }
+    
+    // Fails if it is executed for the module with the given path.
+    public static class FailingModuleTask extends MockCallTargetTask
+    {
+        private final String failingModulePath;
+        private final BuildException failure;
+        
+        public FailingModuleTask(final Project project, final String failingModulePath,
+                final BuildException failure)
+        {
+            super(project);
+            this.failingModulePath = failingModulePath;
+            this.failure = failure;
+        }
+        
+        @Override
+        public void execute()
+        {
+            final Module module = (Module) ownProject.getReference("moduleRef");
+            if (module.getPath().equals(failingModulePath)) {
+                exception = failure;
+            }
+            super.execute();
+        }
+    }
 }
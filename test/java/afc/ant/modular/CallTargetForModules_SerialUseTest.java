@@ -23,6 +23,7 @@
 package afc.ant.modular;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,15 +35,20 @@ import junit.framework.TestCase;
 import org.apache.tools.ant.BuildException;
 import org.apache.tools.ant.Location;
 import org.apache.tools.ant.MagicNames;
+import org.apache.tools.ant.Project;
 import org.apache.tools.ant.taskdefs.Ant.Reference;
 import org.apache.tools.ant.types.Path;
 import org.apache.tools.ant.types.PropertySet;
+import org.apache.tools.ant.types.Resource;
+import org.apache.tools.ant.types.resources.Union;
 
 import afc.ant.modular.CallTargetForModules.ModuleElement;
 import afc.ant.modular.CallTargetForModules.ParamElement;
 
 public class CallTargetForModules_SerialUseTest extends TestCase
 {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+    
     private CallTargetForModules task;
     private MockProject project;
     private MockModuleLoader moduleLoader;
@@ -2377,4 +2383,723 @@ public class CallTargetForModules_SerialUseTest extends TestCase
         TestUtil.assertCallTargetState(task1, true, "testTarget", true, false, "", moduleInfo,
                 Collections.<String, Object>singletonMap("123", "456"));
     }
+    
+    public void testSerialRun_KeepGoing_DependersOfFailedModuleAreSkipped()
+    {
+        // Unambiguous order of module processing is selected for the sake of simplicity.
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        final ModuleInfo moduleInfo4 = new ModuleInfo("quux/", moduleLoader);
+        moduleInfo4.addDependency("baz/");
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        moduleLoader.modules.put("quux/", moduleInfo4);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        final MockCallTargetTask task4 = new MockCallTargetTask(project);
+        project.tasks.add(task4);
+        
+        final Location location = new Location("some_file", 10, 20);
+        final BuildException exception = new BuildException("test_failure_msg", location);
+        task1.exception = exception;
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.createModule().setPath("quux");
+        task.addConfigured(moduleLoader);
+        task.setKeepGoing(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The build failed for 1 module(s). 1 module(s) were skipped." + LINE_SEPARATOR +
+                    "Module 'bar/': test_failure_msg", ex.getMessage());
+            assertTrue(ex.getCause() instanceof BuildException);
+            assertEquals("Module 'bar/': test_failure_msg", ex.getCause().getMessage());
+            assertSame(exception, ex.getCause().getCause());
+        }
+        
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo3,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "moduleRef", moduleInfo4,
+                TestUtil.<String, Object>map());
+        assertFalse(task4.executed);
+    }
+    
+    public void testSerialRun_KeepGoing_MultipleFailures()
+    {
+        // Unambiguous order of module processing is selected for the sake of simplicity.
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        final ModuleInfo moduleInfo4 = new ModuleInfo("quux/", moduleLoader);
+        moduleInfo4.addDependency("baz/");
+        final ModuleInfo moduleInfo5 = new ModuleInfo("zzz/", moduleLoader);
+        moduleInfo5.addDependency("quux/");
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        moduleLoader.modules.put("quux/", moduleInfo4);
+        moduleLoader.modules.put("zzz/", moduleInfo5);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        
+        // The failures are reported in the order of module paths.
+        task1.exception = new BuildException("failure1");
+        task2.exception = new BuildException("failure2");
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("zzz");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setKeepGoing(true);
+        
+        try {
+            task.perform();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The build failed for 2 module(s). 3 module(s) were skipped." + LINE_SEPARATOR +
+                    "Module 'bar/': failure2" + LINE_SEPARATOR +
+                    "Module 'baz/': failure1", ex.getMessage());
+            assertEquals("Module 'bar/': failure2", ex.getCause().getMessage());
+        }
+        
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo3,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                TestUtil.<String, Object>map());
+        assertFalse(task3.executed);
+    }
+    
+    public void testSerialRun_KeepGoing_NoFailures()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setKeepGoing(true);
+        
+        task.perform();
+        
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                TestUtil.<String, Object>map());
+    }
+    
+    public void testSerialRun_ReverseOrder()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        moduleInfo2.addDependency("baz/");
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        final ModuleElement moduleElement = task.createModule();
+        moduleElement.setPath("bar");
+        moduleElement.setTarget("otherTarget");
+        task.addConfigured(moduleLoader);
+        task.setOrder("reverse");
+        
+        task.perform();
+        
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task2, true, "otherTarget", true, false, "moduleRef", moduleInfo2,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "moduleRef", moduleInfo3,
+                TestUtil.<String, Object>map());
+    }
+    
+    public void testSerialRun_ChangedFiles()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        moduleInfo3.addDependency("quux/");
+        final ModuleInfo moduleInfo4 = new ModuleInfo("quux/", moduleLoader);
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        moduleLoader.modules.put("quux/", moduleInfo4);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.createModule().setPath("baz");
+        task.addConfigured(moduleLoader);
+        final Union changedFiles = task.createChangedFiles();
+        changedFiles.add(new Resource("bar/src/Bar.java"));
+        // Neither of these files belongs to a module.
+        changedFiles.add(new Resource("quuux/Quux.java"));
+        changedFiles.add(new Resource("build.xml"));
+        
+        task.perform();
+        
+        // The module 'bar' is changed so that it and the module 'foo' are built.
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                TestUtil.<String, Object>map());
+        assertFalse(task3.executed);
+    }
+    
+    public void testSerialRun_ChangedFiles_DependeeModuleChanged()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        moduleInfo2.addDependency("baz/");
+        final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+        final ModuleInfo moduleInfo4 = new ModuleInfo("quux/", moduleLoader);
+        moduleInfo4.addDependency("baz/");
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        moduleLoader.modules.put("baz/", moduleInfo3);
+        moduleLoader.modules.put("quux/", moduleInfo4);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        final MockCallTargetTask task2 = new MockCallTargetTask(project);
+        project.tasks.add(task2);
+        final MockCallTargetTask task3 = new MockCallTargetTask(project);
+        project.tasks.add(task3);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.createChangedFiles().add(new Resource("baz/Baz.java"));
+        
+        task.perform();
+        
+        /* All modules the module 'foo' depends upon are built. The module 'quux' depends upon
+         * the module 'baz' but is not built because it is not reachable from the module 'foo'.
+         */
+        TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo3,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                TestUtil.<String, Object>map());
+        TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                TestUtil.<String, Object>map());
+    }
+    
+    public void testSerialRun_ChangedFiles_NoModuleAffected()
+    {
+        final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+        moduleInfo1.addDependency("bar/");
+        final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+        
+        moduleLoader.modules.put("foo/", moduleInfo1);
+        moduleLoader.modules.put("bar/", moduleInfo2);
+        
+        final MockCallTargetTask task1 = new MockCallTargetTask(project);
+        project.tasks.add(task1);
+        
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.createChangedFiles().add(new Resource("barbaz/Bar.java"));
+        
+        task.perform();
+        
+        assertFalse(task1.executed);
+    }
+    
+    public void testSerialRun_ResumeFailedBuild() throws Exception
+    {
+        final File journalFile = File.createTempFile("build_journal", ".txt");
+        try {
+            // Unambiguous order of module processing is selected for the sake of simplicity.
+            final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+            moduleInfo1.addDependency("bar/");
+            final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+            moduleInfo2.addDependency("baz/");
+            final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+            
+            moduleLoader.modules.put("foo/", moduleInfo1);
+            moduleLoader.modules.put("bar/", moduleInfo2);
+            moduleLoader.modules.put("baz/", moduleInfo3);
+            
+            final MockCallTargetTask task1 = new MockCallTargetTask(project);
+            project.tasks.add(task1);
+            final MockCallTargetTask task2 = new MockCallTargetTask(project);
+            project.tasks.add(task2);
+            final MockCallTargetTask task3 = new MockCallTargetTask(project);
+            project.tasks.add(task3);
+            final MockCallTargetTask task4 = new MockCallTargetTask(project);
+            project.tasks.add(task4);
+            
+            final BuildException exception = new BuildException("test_failure_msg");
+            task2.exception = exception;
+            
+            task.init();
+            task.setTarget("someTarget");
+            task.setModuleRefId("moduleRef");
+            task.createModule().setPath("foo");
+            task.addConfigured(moduleLoader);
+            task.setJournalFile(journalFile);
+            
+            try {
+                task.perform();
+                fail();
+            }
+            catch (BuildException ex) {
+                assertSame(exception, ex.getCause());
+            }
+            
+            TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo3,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                    TestUtil.<String, Object>map());
+            assertTrue(journalFile.isFile());
+            
+            // The module baz/ is not built again.
+            final CallTargetForModules resumedTask = new CallTargetForModules();
+            resumedTask.setProject(project);
+            resumedTask.init();
+            resumedTask.setTarget("someTarget");
+            resumedTask.setModuleRefId("moduleRef");
+            resumedTask.createModule().setPath("foo");
+            resumedTask.addConfigured(moduleLoader);
+            resumedTask.setJournalFile(journalFile);
+            resumedTask.setResume(true);
+            
+            resumedTask.perform();
+            
+            TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task4, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                    TestUtil.<String, Object>map());
+            // There is nothing to resume after the build succeeds.
+            assertFalse(journalFile.exists());
+        }
+        finally {
+            journalFile.delete();
+        }
+    }
+    
+    public void testSerialRun_Incremental() throws Exception
+    {
+        final File baseDir = TestUtil.createTempDir("incremental_build");
+        final File fingerprintFile = new File(baseDir, "fingerprints.properties");
+        final File fooFile = new File(baseDir, "foo/a.txt");
+        final File barFile = new File(baseDir, "bar/b.txt");
+        final File bazFile = new File(baseDir, "baz/c.txt");
+        try {
+            project.setBaseDir(baseDir);
+            TestUtil.writeFile(fooFile, "foo");
+            TestUtil.writeFile(barFile, "bar");
+            TestUtil.writeFile(bazFile, "baz");
+            
+            // Unambiguous order of module processing is selected for the sake of simplicity.
+            final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+            moduleInfo1.addDependency("bar/");
+            final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+            final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+            
+            moduleLoader.modules.put("foo/", moduleInfo1);
+            moduleLoader.modules.put("bar/", moduleInfo2);
+            moduleLoader.modules.put("baz/", moduleInfo3);
+            
+            final MockCallTargetTask task1 = new MockCallTargetTask(project);
+            project.tasks.add(task1);
+            final MockCallTargetTask task2 = new MockCallTargetTask(project);
+            project.tasks.add(task2);
+            final MockCallTargetTask task3 = new MockCallTargetTask(project);
+            project.tasks.add(task3);
+            
+            runIncrementalBuild(fingerprintFile);
+            
+            TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "moduleRef", moduleInfo3,
+                    TestUtil.<String, Object>map());
+            
+            // Nothing is changed. No module is built.
+            runIncrementalBuild(fingerprintFile);
+            
+            // The dependee module is changed. It and the module that depends upon it are built.
+            TestUtil.writeFile(barFile, "bar2");
+            final MockCallTargetTask task4 = new MockCallTargetTask(project);
+            project.tasks.add(task4);
+            final MockCallTargetTask task5 = new MockCallTargetTask(project);
+            project.tasks.add(task5);
+            final MockCallTargetTask task6 = new MockCallTargetTask(project);
+            project.tasks.add(task6);
+            
+            runIncrementalBuild(fingerprintFile);
+            
+            TestUtil.assertCallTargetState(task4, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task5, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                    TestUtil.<String, Object>map());
+            assertFalse(task6.executed);
+        }
+        finally {
+            fooFile.delete();
+            fooFile.getParentFile().delete();
+            barFile.delete();
+            barFile.getParentFile().delete();
+            bazFile.delete();
+            bazFile.getParentFile().delete();
+            fingerprintFile.delete();
+            baseDir.delete();
+        }
+    }
+    
+    /**
+     * <p>Tests that the files a build produces in the module directory do not make the module
+     * changed if the element {@code <inputs>} is not defined. Neither the output files of the
+     * module nor the files in its directory {@code build} are input files.</p>
+     */
+    public void testSerialRun_Incremental_NoInputs_OutputsAreNotInputs() throws Exception
+    {
+        final File baseDir = TestUtil.createTempDir("incremental_build");
+        final File fingerprintFile = new File(baseDir, "fingerprints.properties");
+        final File fooFile = new File(baseDir, "foo/a.txt");
+        final File fooOutput = new File(baseDir, "foo/out/a.class");
+        final File fooTempFile = new File(baseDir, "foo/build/tmp.txt");
+        try {
+            project.setBaseDir(baseDir);
+            TestUtil.writeFile(fooFile, "foo");
+            
+            final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+            moduleInfo.addAttribute("outputs", "out");
+            moduleLoader.modules.put("foo/", moduleInfo);
+            
+            // Each build produces the files with different content.
+            final OutputWritingMockCallTargetTask task1 =
+                    new OutputWritingMockCallTargetTask(project, fooOutput, fooTempFile, "1");
+            project.tasks.add(task1);
+            final OutputWritingMockCallTargetTask task2 =
+                    new OutputWritingMockCallTargetTask(project, fooOutput, fooTempFile, "2");
+            project.tasks.add(task2);
+            
+            runIncrementalBuildWithoutInputs(fingerprintFile);
+            
+            TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo,
+                    TestUtil.<String, Object>map());
+            assertEquals("1", TestUtil.readFile(fooOutput));
+            
+            // Nothing is changed. The module is not built.
+            runIncrementalBuildWithoutInputs(fingerprintFile);
+            
+            assertFalse(task2.executed);
+            
+            // The input file is changed. The module is built.
+            TestUtil.writeFile(fooFile, "foo2");
+            
+            runIncrementalBuildWithoutInputs(fingerprintFile);
+            
+            TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo,
+                    TestUtil.<String, Object>map());
+            assertEquals("2", TestUtil.readFile(fooOutput));
+        }
+        finally {
+            TestUtil.delete(baseDir);
+        }
+    }
+    
+    /**
+     * <p>Tests that the module that depends upon a module rebuilt is skipped if the output files
+     * of the module rebuilt are not changed.</p>
+     */
+    public void testSerialRun_Incremental_EarlyCutoff() throws Exception
+    {
+        final File baseDir = TestUtil.createTempDir("incremental_build");
+        final File fingerprintFile = new File(baseDir, "fingerprints.properties");
+        final File fooFile = new File(baseDir, "foo/a.txt");
+        final File barFile = new File(baseDir, "bar/b.txt");
+        final File barOutput = new File(baseDir, "bar/out/b.jar");
+        final File bazFile = new File(baseDir, "baz/c.txt");
+        try {
+            project.setBaseDir(baseDir);
+            TestUtil.writeFile(fooFile, "foo");
+            TestUtil.writeFile(barFile, "bar");
+            TestUtil.writeFile(barOutput, "bar.jar");
+            TestUtil.writeFile(bazFile, "baz");
+            
+            // Unambiguous order of module processing is selected for the sake of simplicity.
+            final ModuleInfo moduleInfo1 = new ModuleInfo("foo/", moduleLoader);
+            moduleInfo1.addDependency("bar/");
+            final ModuleInfo moduleInfo2 = new ModuleInfo("bar/", moduleLoader);
+            moduleInfo2.addAttribute("outputs", "out");
+            final ModuleInfo moduleInfo3 = new ModuleInfo("baz/", moduleLoader);
+            
+            moduleLoader.modules.put("foo/", moduleInfo1);
+            moduleLoader.modules.put("bar/", moduleInfo2);
+            moduleLoader.modules.put("baz/", moduleInfo3);
+            
+            final MockCallTargetTask task1 = new MockCallTargetTask(project);
+            project.tasks.add(task1);
+            final MockCallTargetTask task2 = new MockCallTargetTask(project);
+            project.tasks.add(task2);
+            final MockCallTargetTask task3 = new MockCallTargetTask(project);
+            project.tasks.add(task3);
+            
+            runIncrementalBuild(fingerprintFile, "outputs");
+            
+            TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task3, true, "someTarget", true, false, "moduleRef", moduleInfo3,
+                    TestUtil.<String, Object>map());
+            
+            // The dependee module is changed but its output files are not. Only it is built.
+            TestUtil.writeFile(barFile, "bar2");
+            final MockCallTargetTask task4 = new MockCallTargetTask(project);
+            project.tasks.add(task4);
+            final MockCallTargetTask task5 = new MockCallTargetTask(project);
+            project.tasks.add(task5);
+            
+            runIncrementalBuild(fingerprintFile, "outputs");
+            
+            TestUtil.assertCallTargetState(task4, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                    TestUtil.<String, Object>map());
+            assertFalse(task5.executed);
+            
+            // Nothing is changed. No module is built.
+            runIncrementalBuild(fingerprintFile, "outputs");
+            assertFalse(task5.executed);
+            
+            // The output files of the dependee module are changed by its build.
+            TestUtil.writeFile(barFile, "bar3");
+            TestUtil.writeFile(barOutput, "bar3.jar");
+            final MockCallTargetTask task6 = new MockCallTargetTask(project);
+            project.tasks.add(task6);
+            
+            runIncrementalBuild(fingerprintFile, "outputs");
+            
+            TestUtil.assertCallTargetState(task5, true, "someTarget", true, false, "moduleRef", moduleInfo2,
+                    TestUtil.<String, Object>map());
+            TestUtil.assertCallTargetState(task6, true, "someTarget", true, false, "moduleRef", moduleInfo1,
+                    TestUtil.<String, Object>map());
+        }
+        finally {
+            fooFile.delete();
+            fooFile.getParentFile().delete();
+            barFile.delete();
+            barOutput.delete();
+            barOutput.getParentFile().delete();
+            barFile.getParentFile().delete();
+            bazFile.delete();
+            bazFile.getParentFile().delete();
+            fingerprintFile.delete();
+            baseDir.delete();
+        }
+    }
+    
+    /**
+     * <p>Tests that the output files of a module are restored from the build cache if the module
+     * is reverted to the state it is already built in.</p>
+     */
+    public void testSerialRun_ModuleBuildCache() throws Exception
+    {
+        final File baseDir = TestUtil.createTempDir("cached_build");
+        final File cacheDir = new File(baseDir, "cache");
+        final File fooFile = new File(baseDir, "foo/a.txt");
+        final File fooOutput = new File(baseDir, "foo/out/a.jar");
+        try {
+            project.setBaseDir(baseDir);
+            TestUtil.writeFile(fooFile, "foo");
+            
+            final ModuleInfo moduleInfo = new ModuleInfo("foo/", moduleLoader);
+            moduleInfo.addAttribute("outputs", "out");
+            moduleLoader.modules.put("foo/", moduleInfo);
+            
+            final MockCallTargetTask task1 = new MockCallTargetTask(project);
+            project.tasks.add(task1);
+            final MockCallTargetTask task2 = new MockCallTargetTask(project);
+            project.tasks.add(task2);
+            final MockCallTargetTask task3 = new MockCallTargetTask(project);
+            project.tasks.add(task3);
+            
+            // The output files are produced by the module build.
+            TestUtil.writeFile(fooOutput, "foo.jar");
+            runCachedBuild(cacheDir);
+            TestUtil.assertCallTargetState(task1, true, "someTarget", true, false, "moduleRef", moduleInfo,
+                    TestUtil.<String, Object>map());
+            
+            // Another branch is checked out.
+            TestUtil.writeFile(fooFile, "foo2");
+            TestUtil.writeFile(fooOutput, "foo2.jar");
+            runCachedBuild(cacheDir);
+            TestUtil.assertCallTargetState(task2, true, "someTarget", true, false, "moduleRef", moduleInfo,
+                    TestUtil.<String, Object>map());
+            
+            // The original branch is checked out. The output files are restored from the cache.
+            TestUtil.writeFile(fooFile, "foo");
+            runCachedBuild(cacheDir);
+            assertFalse(task3.executed);
+            assertEquals("foo.jar", TestUtil.readFile(fooOutput));
+            
+            // The other branch is checked out again.
+            TestUtil.writeFile(fooFile, "foo2");
+            runCachedBuild(cacheDir);
+            assertFalse(task3.executed);
+            assertEquals("foo2.jar", TestUtil.readFile(fooOutput));
+        }
+        finally {
+            TestUtil.delete(baseDir);
+        }
+    }
+    
+    private void runCachedBuild(final File cacheDir)
+    {
+        final CallTargetForModules task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        final ModuleBuildCache cache = new ModuleBuildCache();
+        cache.setDir(cacheDir);
+        task.addConfiguredModuleBuildCache(cache);
+        task.setOutputsAttribute("outputs");
+        task.createInputs().setIncludes("**/*.txt");
+        
+        task.perform();
+    }
+    
+    private void runIncrementalBuild(final File fingerprintFile)
+    {
+        runIncrementalBuild(fingerprintFile, null);
+    }
+    
+    private void runIncrementalBuild(final File fingerprintFile, final String outputsAttribute)
+    {
+        final CallTargetForModules task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.createModule().setPath("baz");
+        task.addConfigured(moduleLoader);
+        task.setIncremental(true);
+        task.setFingerprintFile(fingerprintFile);
+        task.createInputs().setIncludes("**/*.txt");
+        task.setOutputsAttribute(outputsAttribute);
+        
+        task.perform();
+    }
+    
+    private void runIncrementalBuildWithoutInputs(final File fingerprintFile)
+    {
+        final CallTargetForModules task = new CallTargetForModules();
+        task.setProject(project);
+        task.init();
+        task.setTarget("someTarget");
+        task.setModuleRefId("moduleRef");
+        task.createModule().setPath("foo");
+        task.addConfigured(moduleLoader);
+        task.setIncremental(true);
+        task.setFingerprintFile(fingerprintFile);
+        task.setOutputsAttribute("outputs");
+        
+        task.perform();
+    }
+    
+    /* Writes the given content to the output file and the temporary file of the module it builds.
+       It is public because Ant invokes execute() by reflection. */
+    public static class OutputWritingMockCallTargetTask extends MockCallTargetTask
+    {
+        private final File outputFile;
+        private final File tempFile;
+        private final String content;
+        
+        public OutputWritingMockCallTargetTask(final Project project, final File outputFile,
+                final File tempFile, final String content)
+        {
+            super(project);
+            this.outputFile = outputFile;
+            this.tempFile = tempFile;
+            this.content = content;
+        }
+        
+        @Override
+        public void execute()
+        {
+            super.execute();
+            try {
+                TestUtil.writeFile(outputFile, content);
+                TestUtil.writeFile(tempFile, content);
+            }
+            catch (IOException ex) {
+                throw new BuildException(ex);
+            }
+        }
+    }
 }
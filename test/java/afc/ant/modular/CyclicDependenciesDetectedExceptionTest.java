@@ -25,6 +25,7 @@ package afc.ant.modular;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 import junit.framework.TestCase;
 
@@ -33,7 +34,7 @@ public class CyclicDependenciesDetectedExceptionTest extends TestCase
     public void testNullLoop()
     {
         try {
-            new CyclicDependenciesDetectedException(null);
+            new CyclicDependenciesDetectedException((List<Module>) null);
             fail();
         }
         catch (NullPointerException ex) {
@@ -106,4 +107,95 @@ public class CyclicDependenciesDetectedExceptionTest extends TestCase
             // expected
         }
     }
+    
+    public void testNullLoops()
+    {
+        try {
+            new CyclicDependenciesDetectedException((List<List<Module>>) null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("loops", ex.getMessage());
+        }
+    }
+    
+    public void testNoLoops()
+    {
+        try {
+            new CyclicDependenciesDetectedException(new ArrayList<List<Module>>());
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("No loops are passed.", ex.getMessage());
+        }
+    }
+    
+    public void testSingleLoop_LoopPassed()
+    {
+        final Module m1 = new Module("foo");
+        final Module m2 = new Module("bar");
+        final List<Module> loop = Arrays.asList(m1, m2);
+        final CyclicDependenciesDetectedException ex = new CyclicDependenciesDetectedException(loop);
+        assertSame(loop, ex.getLoop());
+        assertEquals(1, ex.getLoops().size());
+        assertSame(loop, ex.getLoops().get(0));
+    }
+    
+    public void testSingleLoop_LoopsPassed()
+    {
+        final Module m1 = new Module("foo");
+        final Module m2 = new Module("bar");
+        final List<Module> loop = Arrays.asList(m1, m2);
+        final ArrayList<List<Module>> loops = new ArrayList<List<Module>>();
+        loops.add(loop);
+        final CyclicDependenciesDetectedException ex = new CyclicDependenciesDetectedException(loops);
+        assertSame(loop, ex.getLoop());
+        assertEquals(loops, ex.getLoops());
+        assertEquals("Cyclic dependencies detected: [->foo->bar->].", ex.getMessage());
+    }
+    
+    public void testMultipleLoops()
+    {
+        final Module m1 = new Module("foo");
+        final Module m2 = new Module("bar");
+        final Module m3 = new Module("baz");
+        final Module m4 = new Module("quux");
+        final Module m5 = new Module("flux");
+        final List<Module> loop1 = Arrays.asList(m1, m2);
+        final List<Module> loop2 = Arrays.asList(m3, m4, m5);
+        final ArrayList<List<Module>> loops = new ArrayList<List<Module>>();
+        loops.add(loop1);
+        loops.add(loop2);
+        final CyclicDependenciesDetectedException ex = new CyclicDependenciesDetectedException(loops);
+        
+        // The collection passed is not owned by the exception.
+        loops.clear();
+        
+        assertSame(loop1, ex.getLoop());
+        assertEquals(2, ex.getLoops().size());
+        assertSame(loop1, ex.getLoops().get(0));
+        assertSame(loop2, ex.getLoops().get(1));
+        assertEquals("Cyclic dependencies detected: [->foo->bar->], [->baz->quux->flux->].", ex.getMessage());
+        try {
+            ex.getLoops().clear();
+            fail();
+        }
+        catch (UnsupportedOperationException e) {
+            // expected
+        }
+    }
+    
+    public void testMultipleLoops_NullLoop()
+    {
+        final ArrayList<List<Module>> loops = new ArrayList<List<Module>>();
+        loops.add(Collections.singletonList(new Module("foo")));
+        loops.add(null);
+        try {
+            new CyclicDependenciesDetectedException(loops);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            // expected
+        }
+    }
 }
@@ -0,0 +1,318 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>Unit tests for {@link DependencyGraph}.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class DependencyGraphTest extends TestCase
+{
+    public void testNullRootModules() throws Exception
+    {
+        try {
+            new DependencyGraph(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("rootModules", ex.getMessage());
+        }
+    }
+    
+    public void testNullModuleInTheRootModuleList() throws Exception
+    {
+        try {
+            new DependencyGraph(Arrays.asList(TestUtil.module("foo"), null));
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("rootModules contains null element.", ex.getMessage());
+        }
+    }
+    
+    public void testModulesAreUnmodifiable() throws Exception
+    {
+        final Module module = TestUtil.module("foo");
+        final DependencyGraph graph = new DependencyGraph(Collections.singletonList(module));
+        
+        assertEquals(Collections.singletonList(module), graph.getModules());
+        try {
+            graph.getModules().set(0, TestUtil.module("bar"));
+            fail();
+        }
+        catch (UnsupportedOperationException ex) {
+            // expected
+        }
+        assertSame(module, graph.modules[0]);
+    }
+    
+    public void testNoModules() throws Exception
+    {
+        final DependencyGraph graph = new DependencyGraph(Collections.<Module>emptyList());
+        
+        assertEquals(0, graph.size());
+        assertEquals(0, graph.modules.length);
+        assertTrue(Arrays.equals(new int[]{0}, graph.dependencyOffsets));
+        assertTrue(Arrays.equals(new int[0], graph.dependencies));
+        assertTrue(Arrays.equals(new int[]{0}, graph.dependerOffsets));
+        assertTrue(Arrays.equals(new int[0], graph.dependers));
+        assertEquals(-1, graph.indexOf(TestUtil.module("foo")));
+    }
+    
+    public void testSingleModule() throws Exception
+    {
+        final Module module = TestUtil.module("foo");
+        final DependencyGraph graph = new DependencyGraph(Collections.singletonList(module));
+        
+        assertEquals(1, graph.size());
+        assertSame(module, graph.modules[0]);
+        assertEquals(0, graph.indexOf(module));
+        assertTrue(Arrays.equals(new int[]{0, 0}, graph.dependencyOffsets));
+        assertTrue(Arrays.equals(new int[]{0, 0}, graph.dependerOffsets));
+    }
+    
+    public void testDiamond() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo");
+        final Module module2 = TestUtil.module("bar");
+        final Module module3 = TestUtil.module("baz");
+        final Module module4 = TestUtil.module("quux");
+        module1.setDependencies(new Module[]{module2, module3});
+        module2.setDependencies(new Module[]{module4});
+        module3.setDependencies(new Module[]{module4});
+        
+        final DependencyGraph graph = new DependencyGraph(Collections.singletonList(module1));
+        
+        assertEquals(4, graph.size());
+        assertEquals(Arrays.asList(module4, module2, module3, module1), graph.getModules());
+        assertEquals(0, graph.indexOf(module4));
+        assertEquals(1, graph.indexOf(module2));
+        assertEquals(2, graph.indexOf(module3));
+        assertEquals(3, graph.indexOf(module1));
+        
+        assertTrue(Arrays.equals(new int[]{0, 0, 1, 2, 4}, graph.dependencyOffsets));
+        assertTrue(Arrays.equals(new int[]{0, 0, 1, 2}, graph.dependencies));
+        assertTrue(Arrays.equals(new int[]{0, 2, 3, 4, 4}, graph.dependerOffsets));
+        assertTrue(Arrays.equals(new int[]{1, 2, 3, 3}, graph.dependers));
+    }
+    
+    /**
+     * <p>Test description: different instances of Module with the same path are different modules.</p>
+     */
+    public void testDifferentModulesWithTheSamePath() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo");
+        final Module module2 = TestUtil.module("foo");
+        module1.setDependencies(new Module[]{module2});
+        
+        final DependencyGraph graph = new DependencyGraph(Collections.singletonList(module1));
+        
+        assertEquals(2, graph.size());
+        assertEquals(0, graph.indexOf(module2));
+        assertEquals(1, graph.indexOf(module1));
+        assertEquals(-1, graph.indexOf(TestUtil.module("foo")));
+    }
+    
+    public void testManyModules() throws Exception
+    {
+        final ArrayList<Module> modules = new ArrayList<Module>();
+        for (int i = 0; i < 10000; ++i) {
+            final Module module = TestUtil.module("m" + i);
+            if (i > 0) {
+                module.setDependencies(new Module[]{modules.get(i / 2)});
+            }
+            modules.add(module);
+        }
+        
+        final DependencyGraph graph = new DependencyGraph(modules);
+        
+        assertEquals(10000, graph.size());
+        for (int i = 0; i < 10000; ++i) {
+            final Module module = modules.get(i);
+            final int id = graph.indexOf(module);
+            assertSame(module, graph.modules[id]);
+            for (int j = graph.dependencyOffsets[id]; j < graph.dependencyOffsets[id + 1]; ++j) {
+                final int depId = graph.dependencies[j];
+                assertTrue(depId < id);
+                assertSame(modules.get(i / 2), graph.modules[depId]);
+            }
+            // Modules 2i and 2i+1 depend upon the module i.
+            int dependerCount = 0;
+            for (int j = graph.dependerOffsets[id]; j < graph.dependerOffsets[id + 1]; ++j) {
+                final int dependerId = graph.dependers[j];
+                assertTrue(dependerId > id);
+                assertSame(module, modules.get(Integer.parseInt(graph.modules[dependerId].getPath().substring(1)) / 2));
+                ++dependerCount;
+            }
+            assertEquals(i == 0 ? 1 : (2 * i + 1 < 10000 ? 2 : (2 * i < 10000 ? 1 : 0)), dependerCount);
+        }
+    }
+    
+    public void testReverse_NoModules() throws Exception
+    {
+        final DependencyGraph graph = new DependencyGraph(Collections.<Module>emptyList()).reverse();
+        
+        assertEquals(0, graph.size());
+        assertEquals(Collections.emptyList(), graph.getModules());
+        assertTrue(Arrays.equals(new int[]{0}, graph.dependencyOffsets));
+        assertTrue(Arrays.equals(new int[0], graph.dependencies));
+        assertTrue(Arrays.equals(new int[]{0}, graph.dependerOffsets));
+        assertTrue(Arrays.equals(new int[0], graph.dependers));
+        assertEquals(-1, graph.indexOf(TestUtil.module("foo")));
+    }
+    
+    public void testReverse_Diamond() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo");
+        final Module module2 = TestUtil.module("bar");
+        final Module module3 = TestUtil.module("baz");
+        final Module module4 = TestUtil.module("quux");
+        module1.setDependencies(new Module[]{module2, module3});
+        module2.setDependencies(new Module[]{module4});
+        module3.setDependencies(new Module[]{module4});
+        final DependencyGraph original = new DependencyGraph(Collections.singletonList(module1));
+        
+        final DependencyGraph graph = original.reverse();
+        
+        assertEquals(4, graph.size());
+        assertEquals(Arrays.asList(module1, module3, module2, module4), graph.getModules());
+        assertEquals(0, graph.indexOf(module1));
+        assertEquals(1, graph.indexOf(module3));
+        assertEquals(2, graph.indexOf(module2));
+        assertEquals(3, graph.indexOf(module4));
+        assertEquals(-1, graph.indexOf(TestUtil.module("foo")));
+        
+        // The module 'quux' depends upon the modules 'bar' and 'baz' in the reverse graph.
+        assertTrue(Arrays.equals(new int[]{0, 0, 1, 2, 4}, graph.dependencyOffsets));
+        assertTrue(Arrays.equals(new int[]{0, 0, 2, 1}, graph.dependencies));
+        assertTrue(Arrays.equals(new int[]{0, 2, 3, 4, 4}, graph.dependerOffsets));
+        assertTrue(Arrays.equals(new int[]{2, 1, 3, 3}, graph.dependers));
+        
+        // The modules themselves are not changed.
+        assertEquals(TestUtil.set(module2, module3), module1.getDependencies());
+        assertEquals(Collections.emptySet(), module4.getDependencies());
+        // The original graph is not changed.
+        assertEquals(Arrays.asList(module4, module2, module3, module1), original.getModules());
+        assertEquals(0, original.indexOf(module4));
+        assertTrue(Arrays.equals(new int[]{0, 0, 1, 2}, original.dependencies));
+    }
+    
+    public void testReverse_Twice() throws Exception
+    {
+        final ArrayList<Module> modules = new ArrayList<Module>();
+        for (int i = 0; i < 1000; ++i) {
+            final Module module = TestUtil.module("m" + i);
+            if (i > 2) {
+                module.setDependencies(new Module[]{modules.get(i / 2), modules.get(i - 1)});
+            } else if (i > 0) {
+                module.setDependencies(new Module[]{modules.get(i - 1)});
+            }
+            modules.add(module);
+        }
+        final DependencyGraph original = new DependencyGraph(modules);
+        
+        final DependencyGraph graph = original.reverse().reverse();
+        
+        assertEquals(original.getModules(), graph.getModules());
+        assertTrue(Arrays.equals(original.dependencyOffsets, graph.dependencyOffsets));
+        assertTrue(Arrays.equals(original.dependencies, graph.dependencies));
+        assertTrue(Arrays.equals(original.dependerOffsets, graph.dependerOffsets));
+        assertTrue(Arrays.equals(original.dependers, graph.dependers));
+        for (int i = 0; i < 1000; ++i) {
+            final Module module = modules.get(i);
+            assertEquals(original.indexOf(module), graph.indexOf(module));
+        }
+    }
+    
+    public void testSubgraph() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo");
+        final Module module2 = TestUtil.module("bar");
+        final Module module3 = TestUtil.module("baz");
+        final Module module4 = TestUtil.module("quux");
+        final Module module5 = TestUtil.module("xyzzy");
+        module1.setDependencies(new Module[]{module2, module3});
+        module2.setDependencies(new Module[]{module4});
+        module3.setDependencies(new Module[]{module4});
+        module5.setDependencies(new Module[]{module3});
+        final DependencyGraph original = new DependencyGraph(Arrays.asList(module1, module5));
+        assertEquals(Arrays.asList(module4, module2, module3, module1, module5), original.getModules());
+        
+        // The root modules are 'baz' and 'xyzzy'.
+        final boolean[] roots = new boolean[]{false, false, true, false, true};
+        final DependencyGraph graph = original.subgraph(roots);
+        
+        assertEquals(3, graph.size());
+        assertEquals(Arrays.asList(module4, module3, module5), graph.getModules());
+        assertEquals(0, graph.indexOf(module4));
+        assertEquals(1, graph.indexOf(module3));
+        assertEquals(2, graph.indexOf(module5));
+        assertEquals(-1, graph.indexOf(module1));
+        assertEquals(-1, graph.indexOf(module2));
+        
+        assertTrue(Arrays.equals(new int[]{0, 0, 1, 2}, graph.dependencyOffsets));
+        assertTrue(Arrays.equals(new int[]{0, 1}, graph.dependencies));
+        assertTrue(Arrays.equals(new int[]{0, 1, 2, 2}, graph.dependerOffsets));
+        assertTrue(Arrays.equals(new int[]{1, 2}, graph.dependers));
+        
+        // The dependee modules of the root modules are marked.
+        assertTrue(Arrays.equals(new boolean[]{true, false, true, false, true}, roots));
+    }
+    
+    public void testSubgraph_NoRootModules() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo");
+        final Module module2 = TestUtil.module("bar");
+        module1.setDependencies(new Module[]{module2});
+        final DependencyGraph original = new DependencyGraph(Collections.singletonList(module1));
+        
+        final DependencyGraph graph = original.subgraph(new boolean[2]);
+        
+        assertEquals(0, graph.size());
+        assertEquals(Collections.emptyList(), graph.getModules());
+        assertEquals(-1, graph.indexOf(module1));
+    }
+    
+    public void testLoop()
+    {
+        final Module module1 = TestUtil.module("foo");
+        final Module module2 = TestUtil.module("bar");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module1});
+        
+        try {
+            new DependencyGraph(Collections.singletonList(module1));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            assertEquals(Arrays.asList(module1, module2), ex.getLoop());
+        }
+    }
+}
@@ -36,6 +36,8 @@ public class HangingMockCallTargetTask extends MockCallTargetTask
     private final CyclicBarrier hangBarrier;
     private final AtomicReference<Throwable> failureCause;
     public volatile boolean interrupted;
+    // If it is not null then it is thrown once this task stops hanging.
+    public volatile RuntimeException releaseException;
     
     public HangingMockCallTargetTask(final Project project, final CyclicBarrier hangBarrier,
             final AtomicReference<Throwable> failureCause)
@@ -57,6 +59,9 @@ public class HangingMockCallTargetTask extends MockCallTargetTask
             while(hang) {
                 wait();
             }
+            if (releaseException != null) {
+                throw releaseException;
+            }
             if (selfInterrupt) {
                 // The only way to interrupt a thread with guaranteed not throwing an InterruptedException.
                 Thread.currentThread().interrupt();
@@ -0,0 +1,184 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.apache.tools.ant.BuildException;
+
+import junit.framework.TestCase;
+
+public class HttpBuildCacheBackendTest extends TestCase
+{
+    private MockHttpCacheServer server;
+    private HttpBuildCacheBackend backend;
+    private File file;
+    
+    @Override
+    protected void setUp() throws IOException
+    {
+        server = new MockHttpCacheServer();
+        backend = new HttpBuildCacheBackend();
+        backend.setUrl(server.getUrl());
+        file = File.createTempFile("http_build_cache", ".zip");
+    }
+    
+    @Override
+    protected void tearDown() throws Exception
+    {
+        server.stop();
+        server = null;
+        backend = null;
+        file.delete();
+        file = null;
+    }
+    
+    public void testPutAndGet() throws Exception
+    {
+        final byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; ++i) {
+            content[i] = (byte) i;
+        }
+        write(file, content);
+        
+        backend.put("0123abcd", file);
+        
+        assertTrue(Arrays.equals(content, server.entries.get("/cache/0123abcd")));
+        
+        write(file, new byte[0]);
+        assertTrue(backend.get("0123abcd", file));
+        assertTrue(Arrays.equals(content, read(file)));
+        assertEquals(Arrays.asList("PUT /cache/0123abcd", "GET /cache/0123abcd"), server.requests);
+    }
+    
+    public void testGet_EntryIsNotFound() throws Exception
+    {
+        assertFalse(backend.get("0123abcd", file));
+    }
+    
+    public void testUrlWithoutTrailingSlash() throws Exception
+    {
+        final String url = server.getUrl();
+        backend.setUrl(url.substring(0, url.length() - 1));
+        server.entries.put("/cache/0123abcd", new byte[]{1, 2, 3});
+        
+        assertTrue(backend.get("0123abcd", file));
+        assertTrue(Arrays.equals(new byte[]{1, 2, 3}, read(file)));
+    }
+    
+    public void testGet_ServerError() throws Exception
+    {
+        server.failureStatus = 500;
+        
+        try {
+            backend.get("0123abcd", file);
+            fail();
+        }
+        catch (IOException ex) {
+            assertEquals("The HTTP server responded to GET '" + server.getUrl() + "0123abcd' with 500 Failure.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testPut_ServerError() throws Exception
+    {
+        server.failureStatus = 403;
+        write(file, new byte[]{1, 2, 3});
+        
+        try {
+            backend.put("0123abcd", file);
+            fail();
+        }
+        catch (IOException ex) {
+            assertEquals("The HTTP server responded to PUT '" + server.getUrl() + "0123abcd' with 403 Failure.",
+                    ex.getMessage());
+        }
+        assertTrue(server.entries.isEmpty());
+    }
+    
+    public void testValidate_UrlIsUndefined()
+    {
+        backend.validate();
+        
+        backend.setUrl(null);
+        
+        try {
+            backend.validate();
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("The attribute 'url' of the element <httpBuildCacheBackend> must be defined.",
+                    ex.getMessage());
+        }
+    }
+    
+    public void testUrlIsUndefined() throws Exception
+    {
+        backend.setUrl(null);
+        
+        try {
+            backend.get("0123abcd", file);
+            fail();
+        }
+        catch (IOException ex) {
+            assertEquals("The attribute 'url' of the element <httpBuildCacheBackend> is undefined.", ex.getMessage());
+        }
+    }
+    
+    private static void write(final File file, final byte[] content) throws IOException
+    {
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    private static byte[] read(final File file) throws IOException
+    {
+        final byte[] content = new byte[(int) file.length()];
+        final InputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < content.length) {
+                final int n = in.read(content, offset, content.length - offset);
+                if (n == -1) {
+                    throw new IOException("Unexpected end of file.");
+                }
+                offset += n;
+            }
+        }
+        finally {
+            in.close();
+        }
+        return content;
+    }
+}
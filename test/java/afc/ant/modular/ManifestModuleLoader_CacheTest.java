@@ -0,0 +1,296 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.types.Path;
+
+import junit.framework.TestCase;
+
+public class ManifestModuleLoader_CacheTest extends TestCase
+{
+    // The modification time that is old enough for manifest files to be cached.
+    private static final long OLD_TIME = (System.currentTimeMillis() - 3600000) / 1000 * 1000;
+    
+    private File baseDir;
+    private File cacheFile;
+    private Project project;
+    
+    @Override
+    protected void setUp() throws Exception
+    {
+        baseDir = TestUtil.createTempDir("manifest_module_cache");
+        cacheFile = new File(baseDir, "cache/modules.cache");
+        project = new Project();
+        project.setBaseDir(baseDir);
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestUtil.delete(baseDir);
+        project = null;
+        cacheFile = null;
+        baseDir = null;
+    }
+    
+    public void testCacheHit_ManifestIsNotRead() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        assertTrue(cacheFile.isFile());
+        
+        // The manifest content is changed but neither its size nor modification time are changed.
+        writeManifest("foo", "Depends: bar baz\nAttrib1: HELLO\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        loader = createLoader();
+        assertModule(loader.loadModule("foo/"), "hello");
+    }
+    
+    public void testCacheMiss_ModificationTimeIsChanged() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        writeManifest("foo", "Depends: bar baz\nAttrib1: HELLO\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME + 1000);
+        
+        loader = createLoader();
+        assertModule(loader.loadModule("foo"), "HELLO");
+    }
+    
+    public void testCacheMiss_SizeIsChanged() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello!\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello!");
+    }
+    
+    public void testCacheMiss_LoaderConfigurationIsChanged() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        writeManifest("foo", "Depends: bar baz\nAttrib1: HELLO\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        loader = new ManifestModuleLoader();
+        loader.setProject(project);
+        loader.setCacheFile(cacheFile);
+        final ModuleInfo moduleInfo = loader.loadModule("foo");
+        
+        assertEquals(TestUtil.map("Attrib1", "HELLO", "Classpath", "lib/a.jar lib/b.jar"), moduleInfo.getAttributes());
+    }
+    
+    public void testRecentlyModifiedManifestIsNotCached() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", 0);
+        final long modificationTime = new File(baseDir, "foo/META-INF/MANIFEST.MF").lastModified();
+        
+        ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        writeManifest("foo", "Depends: bar baz\nAttrib1: HELLO\nClasspath: lib/a.jar lib/b.jar\n", modificationTime);
+        
+        loader = createLoader();
+        assertModule(loader.loadModule("foo"), "HELLO");
+    }
+    
+    public void testCacheFileIsCorrupted() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        assertTrue(cacheFile.getParentFile().mkdirs());
+        final FileOutputStream out = new FileOutputStream(cacheFile);
+        try {
+            out.write(new byte[]{0, 0, 0, 1, 127, 127});
+        }
+        finally {
+            out.close();
+        }
+        
+        final ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        writeManifest("foo", "Depends: bar baz\nAttrib1: HELLO\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        // The corrupted cache file is replaced with a valid one.
+        assertModule(createLoader().loadModule("foo"), "hello");
+    }
+    
+    /**
+     * <p>Tests that a corrupted string length that exceeds the size of the cache file
+     * is reported as corruption instead of allocating a huge array.</p>
+     */
+    public void testCacheFileIsCorrupted_StringLengthIsTooLarge() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        assertTrue(cacheFile.getParentFile().mkdirs());
+        final FileOutputStream out = new FileOutputStream(cacheFile);
+        try {
+            out.write(new byte[]{0, 0, 0, 1, 127, -1, -1, -1, 0});
+        }
+        finally {
+            out.close();
+        }
+        
+        final ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        // The corrupted cache file is replaced with a valid one.
+        assertModule(createLoader().loadModule("foo"), "hello");
+    }
+    
+    public void testCacheFileIsReplaced() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        writeManifest("foo", "Depends: bar baz\nAttrib1: HELLO!\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        loader = createLoader();
+        assertModule(loader.loadModule("foo"), "HELLO!");
+        loader.loadingFinished();
+        
+        // No temporary file is left next to the cache file.
+        assertEquals(Arrays.asList(cacheFile.getName()), Arrays.asList(cacheFile.getParentFile().list()));
+        assertModule(createLoader().loadModule("foo"), "HELLO!");
+    }
+    
+    public void testModuleIsNotLoaded_NothingIsCached() throws Exception
+    {
+        final ManifestModuleLoader loader = createLoader();
+        try {
+            loader.loadModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            // expected
+        }
+        loader.loadingFinished();
+        
+        assertFalse(cacheFile.exists());
+    }
+    
+    public void testEntryOfDeletedModuleIsRemoved() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        writeManifest("qux", "Attrib1: one\n", OLD_TIME);
+        
+        ManifestModuleLoader loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        assertEquals("one", loader.loadModule("qux").getAttributes().get("Attrib1"));
+        loader.loadingFinished();
+        
+        TestUtil.delete(new File(baseDir, "qux"));
+        
+        // Only the module foo is loaded. The entry of the deleted module qux is removed.
+        loader = createLoader();
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        // The module qux is re-created with a manifest of the same size and modification time.
+        writeManifest("qux", "Attrib1: two\n", OLD_TIME);
+        
+        loader = createLoader();
+        assertEquals("two", loader.loadModule("qux").getAttributes().get("Attrib1"));
+    }
+    
+    public void testCacheIsDisabled() throws Exception
+    {
+        writeManifest("foo", "Depends: bar baz\nAttrib1: hello\nClasspath: lib/a.jar lib/b.jar\n", OLD_TIME);
+        
+        final ManifestModuleLoader loader = createLoader();
+        loader.setCacheFile(null);
+        assertModule(loader.loadModule("foo"), "hello");
+        loader.loadingFinished();
+        
+        assertFalse(cacheFile.exists());
+    }
+    
+    private ManifestModuleLoader createLoader()
+    {
+        final ManifestModuleLoader loader = new ManifestModuleLoader();
+        loader.setProject(project);
+        loader.createClasspathAttribute().setName("Classpath");
+        loader.setCacheFile(cacheFile);
+        return loader;
+    }
+    
+    private void assertModule(final ModuleInfo moduleInfo, final String attrib1)
+    {
+        assertEquals("foo", moduleInfo.getPath());
+        assertEquals(TestUtil.set("bar", "baz"), moduleInfo.getDependencies());
+        assertEquals(TestUtil.set("Attrib1", "Classpath"), moduleInfo.getAttributes().keySet());
+        assertEquals(attrib1, moduleInfo.getAttributes().get("Attrib1"));
+        
+        final Path classpath = (Path) moduleInfo.getAttributes().get("Classpath");
+        assertSame(project, classpath.getProject());
+        assertEquals(Arrays.asList(
+                new File(baseDir, "foo/lib/a.jar").getAbsolutePath(),
+                new File(baseDir, "foo/lib/b.jar").getAbsolutePath()),
+                Arrays.asList(classpath.list()));
+    }
+    
+    // If modificationTime is zero then it is not set explicitly.
+    private void writeManifest(final String modulePath, final String content, final long modificationTime)
+            throws IOException
+    {
+        final File manifestFile = new File(baseDir, modulePath + "/META-INF/MANIFEST.MF");
+        manifestFile.getParentFile().mkdirs();
+        final FileOutputStream out = new FileOutputStream(manifestFile);
+        try {
+            out.write(content.getBytes("utf-8"));
+        }
+        finally {
+            out.close();
+        }
+        if (modificationTime != 0) {
+            assertTrue(manifestFile.setLastModified(modificationTime));
+        }
+    }
+}
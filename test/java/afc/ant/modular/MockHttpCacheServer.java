@@ -0,0 +1,167 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * <p>An in-process HTTP server that stores the entries of a remote build cache in memory.
+ * It supports the requests {@code GET} and {@code PUT} that {@link HttpBuildCacheBackend}
+ * sends. Each connection serves a single request.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class MockHttpCacheServer
+{
+    public final Map<String, byte[]> entries = new ConcurrentHashMap<String, byte[]>();
+    // The requests served in the form "<method> <path>".
+    public final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    // If it is non-zero then each request is responded with this status.
+    public volatile int failureStatus;
+    
+    private final ServerSocket serverSocket;
+    private final Thread thread;
+    
+    public MockHttpCacheServer() throws IOException
+    {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        thread = new Thread(new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    for (;;) {
+                        final Socket socket = serverSocket.accept();
+                        final Thread handler = new Thread(new Runnable()
+                        {
+                            public void run()
+                            {
+                                serve(socket);
+                            }
+                        });
+                        handler.setDaemon(true);
+                        handler.start();
+                    }
+                }
+                catch (IOException ex) {
+                    // The server socket is closed.
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    public String getUrl()
+    {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/cache/";
+    }
+    
+    public void stop() throws Exception
+    {
+        serverSocket.close();
+        thread.join();
+    }
+    
+    private void serve(final Socket socket)
+    {
+        try {
+            try {
+                final InputStream in = socket.getInputStream();
+                final String requestLine = readLine(in);
+                int contentLength = 0;
+                for (String header; (header = readLine(in)).length() != 0;) {
+                    final int colon = header.indexOf(':');
+                    if (header.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                        contentLength = Integer.parseInt(header.substring(colon + 1).trim());
+                    }
+                }
+                final String[] parts = requestLine.split(" ");
+                final String method = parts[0];
+                final String path = parts[1];
+                final byte[] body = new byte[contentLength];
+                new DataInputStream(in).readFully(body);
+                
+                final OutputStream out = socket.getOutputStream();
+                requests.add(method + ' ' + path);
+                if (failureStatus != 0) {
+                    respond(out, failureStatus, "Failure", new byte[0]);
+                } else if (method.equals("GET")) {
+                    final byte[] entry = entries.get(path);
+                    if (entry == null) {
+                        respond(out, 404, "Not Found", new byte[0]);
+                    } else {
+                        respond(out, 200, "OK", entry);
+                    }
+                } else if (method.equals("PUT")) {
+                    entries.put(path, body);
+                    respond(out, 201, "Created", new byte[0]);
+                } else {
+                    respond(out, 405, "Method Not Allowed", new byte[0]);
+                }
+            }
+            finally {
+                socket.close();
+            }
+        }
+        catch (IOException ex) {
+            // The client has closed the connection.
+        }
+    }
+    
+    private static String readLine(final InputStream in) throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        for (int b; (b = in.read()) != '\n';) {
+            if (b == -1) {
+                throw new IOException("Unexpected end of stream.");
+            }
+            if (b != '\r') {
+                buf.write(b);
+            }
+        }
+        return buf.toString("ISO-8859-1");
+    }
+    
+    private static void respond(final OutputStream out, final int status, final String message, final byte[] body)
+            throws IOException
+    {
+        final String head = "HTTP/1.1 " + status + ' ' + message + "\r\nContent-Length: " + body.length +
+                "\r\nConnection: close\r\n\r\n";
+        out.write(head.getBytes("ISO-8859-1"));
+        out.write(body);
+        out.flush();
+    }
+}
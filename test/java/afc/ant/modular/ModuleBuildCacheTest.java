@@ -0,0 +1,395 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.apache.tools.ant.BuildException;
+
+import junit.framework.TestCase;
+
+public class ModuleBuildCacheTest extends TestCase
+{
+    private static final String FINGERPRINT_1 = "0123456789012345678901234567890123456789";
+    private static final String FINGERPRINT_2 = "9876543210987654321098765432109876543210";
+    
+    private File dir;
+    private ModuleBuildCache cache;
+    
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = TestUtil.createTempDir("module_build_cache");
+        cache = new ModuleBuildCache();
+        cache.setDir(new File(dir, "cache"));
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestUtil.delete(dir);
+        dir = null;
+        cache = null;
+    }
+    
+    public void testStoreAndRestore() throws Exception
+    {
+        final Module module = new Module("foo/");
+        write("foo/out/a.class", "aaa");
+        write("foo/out/sub/b.class", "bbb");
+        write("foo/c.jar", "ccc");
+        final File[] outputs = new File[]{new File(dir, "foo/out"), new File(dir, "foo/c.jar")};
+        final String outputsHash = ModuleFingerprints.hashOutputs(outputs);
+        
+        cache.store(module, FINGERPRINT_1, outputs, outputsHash);
+        
+        write("foo/out/a.class", "aab");
+        write("foo/out/d.class", "ddd");
+        assertTrue(new File(dir, "foo/c.jar").delete());
+        
+        assertEquals(outputsHash, cache.restore(module, FINGERPRINT_1, outputs));
+        
+        assertEquals("aaa", read("foo/out/a.class"));
+        assertEquals("bbb", read("foo/out/sub/b.class"));
+        assertEquals("ccc", read("foo/c.jar"));
+        assertFalse(new File(dir, "foo/out/d.class").exists());
+        assertEquals(outputsHash, ModuleFingerprints.hashOutputs(outputs));
+    }
+    
+    public void testRestore_EntryIsNotFound() throws Exception
+    {
+        final Module module = new Module("foo/");
+        write("foo/c.jar", "ccc");
+        final File[] outputs = new File[]{new File(dir, "foo/c.jar")};
+        cache.store(module, FINGERPRINT_1, outputs, ModuleFingerprints.hashOutputs(outputs));
+        write("foo/c.jar", "ccd");
+        
+        assertNull(cache.restore(module, FINGERPRINT_2, outputs));
+        // The modules with different paths do not share entries.
+        assertNull(cache.restore(new Module("bar/"), FINGERPRINT_1, outputs));
+        
+        assertEquals("ccd", read("foo/c.jar"));
+    }
+    
+    public void testRestore_OutputCountIsChanged() throws Exception
+    {
+        final Module module = new Module("foo/");
+        write("foo/c.jar", "ccc");
+        final File[] outputs = new File[]{new File(dir, "foo/c.jar")};
+        cache.store(module, FINGERPRINT_1, outputs, ModuleFingerprints.hashOutputs(outputs));
+        
+        assertNull(cache.restore(module, FINGERPRINT_1, new File[]{new File(dir, "foo/c.jar"), new File(dir, "foo/out")}));
+    }
+    
+    public void testRestore_MissingOutputIsDeleted() throws Exception
+    {
+        final Module module = new Module("foo/");
+        final File[] outputs = new File[]{new File(dir, "foo/out")};
+        final String outputsHash = ModuleFingerprints.hashOutputs(outputs);
+        cache.store(module, FINGERPRINT_1, outputs, outputsHash);
+        write("foo/out/a.class", "aaa");
+        
+        assertEquals(outputsHash, cache.restore(module, FINGERPRINT_1, outputs));
+        
+        assertFalse(new File(dir, "foo/out").exists());
+    }
+    
+    /**
+     * <p>Tests that an entry that is already stored is not replaced.</p>
+     */
+    public void testStore_EntryExists() throws Exception
+    {
+        final Module module = new Module("foo/");
+        write("foo/c.jar", "ccc");
+        final File[] outputs = new File[]{new File(dir, "foo/c.jar")};
+        final String outputsHash = ModuleFingerprints.hashOutputs(outputs);
+        cache.store(module, FINGERPRINT_1, outputs, outputsHash);
+        
+        write("foo/c.jar", "ccd");
+        cache.store(module, FINGERPRINT_1, outputs, ModuleFingerprints.hashOutputs(outputs));
+        
+        assertEquals(outputsHash, cache.restore(module, FINGERPRINT_1, outputs));
+        assertEquals("ccc", read("foo/c.jar"));
+    }
+    
+    /**
+     * <p>Tests that an entry stored by one machine is restored by another one.</p>
+     */
+    public void testRemoteBackend() throws Exception
+    {
+        final MockHttpCacheServer server = new MockHttpCacheServer();
+        try {
+            final Module module = new Module("foo/");
+            write("foo/out/a.class", "aaa");
+            write("foo/out/empty/", "");
+            final File[] outputs = new File[]{new File(dir, "foo/out")};
+            final String outputsHash = ModuleFingerprints.hashOutputs(outputs);
+            
+            cache.addConfigured(httpBackend(server));
+            cache.open();
+            cache.store(module, FINGERPRINT_1, outputs, outputsHash);
+            cache.close();
+            assertEquals(1, server.entries.size());
+            
+            TestUtil.delete(new File(dir, "foo"));
+            final ModuleBuildCache cache2 = new ModuleBuildCache();
+            cache2.setDir(new File(dir, "cache2"));
+            cache2.addConfigured(httpBackend(server));
+            cache2.open();
+            try {
+                assertNull(cache2.restore(module, FINGERPRINT_2, outputs));
+                assertEquals(outputsHash, cache2.restore(module, FINGERPRINT_1, outputs));
+            }
+            finally {
+                cache2.close();
+            }
+            
+            assertEquals("aaa", read("foo/out/a.class"));
+            assertTrue(new File(dir, "foo/out/empty").isDirectory());
+            assertEquals(outputsHash, ModuleFingerprints.hashOutputs(outputs));
+        }
+        finally {
+            server.stop();
+        }
+    }
+    
+    public void testRemoteBackend_Prefetch() throws Exception
+    {
+        final MockHttpCacheServer server = new MockHttpCacheServer();
+        try {
+            final Module module = new Module("foo/");
+            write("foo/c.jar", "ccc");
+            final File[] outputs = new File[]{new File(dir, "foo/c.jar")};
+            final String outputsHash = ModuleFingerprints.hashOutputs(outputs);
+            
+            cache.addConfigured(httpBackend(server));
+            cache.open();
+            cache.store(module, FINGERPRINT_1, outputs, outputsHash);
+            cache.close();
+            
+            write("foo/c.jar", "ccd");
+            final ModuleBuildCache cache2 = new ModuleBuildCache();
+            cache2.setDir(new File(dir, "cache2"));
+            cache2.addConfigured(httpBackend(server));
+            cache2.open();
+            try {
+                cache2.prefetch(module, FINGERPRINT_1);
+                cache2.prefetch(module, FINGERPRINT_1);
+                assertEquals(outputsHash, cache2.restore(module, FINGERPRINT_1, outputs));
+            }
+            finally {
+                cache2.close();
+            }
+            
+            assertEquals("ccc", read("foo/c.jar"));
+            // The entry is downloaded once.
+            assertEquals(2, server.requests.size());
+        }
+        finally {
+            server.stop();
+        }
+    }
+    
+    /**
+     * <p>Tests that a downloaded entry whose output files do not match the hash stored in it
+     * is deleted and the module is to be built.</p>
+     */
+    public void testRemoteBackend_EntryDoesNotMatchOutputs() throws Exception
+    {
+        final MockHttpCacheServer server = new MockHttpCacheServer();
+        try {
+            final Module module = new Module("foo/");
+            write("foo/c.jar", "ccc");
+            final File[] outputs = new File[]{new File(dir, "foo/c.jar")};
+            final String outputsHash = ModuleFingerprints.hashOutputs(outputs);
+            
+            // The entry is stored with the hash of different output files.
+            write("foo/c.jar", "ccd");
+            cache.addConfigured(httpBackend(server));
+            cache.open();
+            cache.store(module, FINGERPRINT_1, outputs, outputsHash);
+            cache.close();
+            
+            final ModuleBuildCache cache2 = new ModuleBuildCache();
+            cache2.setDir(new File(dir, "cache2"));
+            cache2.addConfigured(httpBackend(server));
+            cache2.open();
+            try {
+                assertNull(cache2.restore(module, FINGERPRINT_1, outputs));
+                assertNull(cache2.restore(module, FINGERPRINT_1, outputs));
+            }
+            finally {
+                cache2.close();
+            }
+            // The entry is uploaded once and is downloaded once.
+            assertEquals(2, server.requests.size());
+            
+            // The entry is deleted from the local directory.
+            final ModuleBuildCache cache3 = new ModuleBuildCache();
+            cache3.setDir(new File(dir, "cache2"));
+            cache3.open();
+            try {
+                assertNull(cache3.restore(module, FINGERPRINT_1, outputs));
+            }
+            finally {
+                cache3.close();
+            }
+        }
+        finally {
+            server.stop();
+        }
+    }
+    
+    /**
+     * <p>Tests that the entries are restored locally if the backend fails.</p>
+     */
+    public void testRemoteBackend_ServerError() throws Exception
+    {
+        final MockHttpCacheServer server = new MockHttpCacheServer();
+        try {
+            server.failureStatus = 500;
+            final Module module = new Module("foo/");
+            write("foo/c.jar", "ccc");
+            final File[] outputs = new File[]{new File(dir, "foo/c.jar")};
+            final String outputsHash = ModuleFingerprints.hashOutputs(outputs);
+            
+            cache.addConfigured(httpBackend(server));
+            cache.open();
+            try {
+                assertNull(cache.restore(module, FINGERPRINT_1, outputs));
+                cache.store(module, FINGERPRINT_1, outputs, outputsHash);
+                write("foo/c.jar", "ccd");
+                assertEquals(outputsHash, cache.restore(module, FINGERPRINT_1, outputs));
+            }
+            finally {
+                cache.close();
+            }
+            
+            assertEquals("ccc", read("foo/c.jar"));
+            assertTrue(server.entries.isEmpty());
+        }
+        finally {
+            server.stop();
+        }
+    }
+    
+    /**
+     * <p>Tests that a backend failure which is not reported as an {@code IOException} does not
+     * fail the build.</p>
+     */
+    public void testRemoteBackend_UncheckedFailure() throws Exception
+    {
+        final Module module = new Module("foo/");
+        write("foo/c.jar", "ccc");
+        final File[] outputs = new File[]{new File(dir, "foo/c.jar")};
+        final String outputsHash = ModuleFingerprints.hashOutputs(outputs);
+        
+        cache.addConfigured(new BuildCacheBackend()
+        {
+            public void validate()
+            {
+            }
+            
+            public boolean get(final String key, final File file)
+            {
+                throw new IllegalStateException("test_get_failure");
+            }
+            
+            public void put(final String key, final File file)
+            {
+                throw new IllegalStateException("test_put_failure");
+            }
+        });
+        cache.open();
+        try {
+            assertNull(cache.restore(module, FINGERPRINT_1, outputs));
+            cache.store(module, FINGERPRINT_1, outputs, outputsHash);
+        }
+        finally {
+            cache.close();
+        }
+        
+        assertEquals("ccc", read("foo/c.jar"));
+    }
+    
+    public void testMultipleBackends()
+    {
+        cache.addConfigured(new HttpBuildCacheBackend());
+        
+        try {
+            cache.addConfigured(new HttpBuildCacheBackend());
+            fail();
+        }
+        catch (BuildException ex) {
+            assertEquals("Only a single build cache backend element is allowed.", ex.getMessage());
+        }
+    }
+    
+    private static HttpBuildCacheBackend httpBackend(final MockHttpCacheServer server)
+    {
+        final HttpBuildCacheBackend backend = new HttpBuildCacheBackend();
+        backend.setUrl(server.getUrl());
+        return backend;
+    }
+    
+    private void write(final String path, final String content) throws IOException
+    {
+        final File file = new File(dir, path);
+        if (path.endsWith("/")) {
+            assertTrue(file.mkdirs());
+            return;
+        }
+        file.getParentFile().mkdirs();
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    private String read(final String path) throws IOException
+    {
+        final Reader in = new InputStreamReader(new FileInputStream(new File(dir, path)), "UTF-8");
+        try {
+            final StringBuilder buf = new StringBuilder();
+            final char[] chars = new char[1024];
+            int n;
+            while ((n = in.read(chars)) != -1) {
+                buf.append(chars, 0, n);
+            }
+            return buf.toString();
+        }
+        finally {
+            in.close();
+        }
+    }
+}
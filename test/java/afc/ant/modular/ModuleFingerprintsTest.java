@@ -0,0 +1,316 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import junit.framework.TestCase;
+
+public class ModuleFingerprintsTest extends TestCase
+{
+    private static final String OUTPUTS_HASH_1 = "0123456789012345678901234567890123456789";
+    private static final String OUTPUTS_HASH_2 = "9876543210987654321098765432109876543210";
+    
+    private File dir;
+    private File fingerprintFile;
+    
+    @Override
+    protected void setUp() throws IOException
+    {
+        dir = TestUtil.createTempDir("module_fingerprints");
+        fingerprintFile = new File(dir, "fingerprints.properties");
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        TestUtil.delete(dir);
+        dir = null;
+        fingerprintFile = null;
+    }
+    
+    public void testHashInputs_ContentIsChanged() throws Exception
+    {
+        write("foo/a.txt", "aaa");
+        write("foo/sub/b.txt", "bbb");
+        final File moduleDir = new File(dir, "foo");
+        
+        final String hash1 = ModuleFingerprints.hashInputs(moduleDir, null, null);
+        assertEquals(hash1, ModuleFingerprints.hashInputs(moduleDir, null, null));
+        
+        write("foo/sub/b.txt", "bbc");
+        final String hash2 = ModuleFingerprints.hashInputs(moduleDir, null, null);
+        assertFalse(hash1.equals(hash2));
+        
+        write("foo/c.txt", "");
+        final String hash3 = ModuleFingerprints.hashInputs(moduleDir, null, null);
+        assertFalse(hash2.equals(hash3));
+    }
+    
+    public void testHashInputs_FileIsRenamed() throws Exception
+    {
+        write("foo/a.txt", "aaa");
+        final File moduleDir = new File(dir, "foo");
+        final String hash1 = ModuleFingerprints.hashInputs(moduleDir, null, null);
+        
+        assertTrue(new File(moduleDir, "a.txt").renameTo(new File(moduleDir, "b.txt")));
+        
+        assertFalse(hash1.equals(ModuleFingerprints.hashInputs(moduleDir, null, null)));
+    }
+    
+    public void testHashInputs_ContentIsMovedBetweenFiles() throws Exception
+    {
+        write("foo/a.txt", "aa");
+        write("foo/b.txt", "a");
+        final File moduleDir = new File(dir, "foo");
+        final String hash1 = ModuleFingerprints.hashInputs(moduleDir, null, null);
+        
+        write("foo/a.txt", "a");
+        write("foo/b.txt", "aa");
+        
+        assertFalse(hash1.equals(ModuleFingerprints.hashInputs(moduleDir, null, null)));
+    }
+    
+    public void testHashInputs_IncludesAndExcludes() throws Exception
+    {
+        write("foo/src/a.java", "aaa");
+        write("foo/src/b.txt", "bbb");
+        write("foo/build/a.class", "ccc");
+        final File moduleDir = new File(dir, "foo");
+        final String[] includes = new String[]{"src/**"};
+        final String[] excludes = new String[]{"**/*.txt"};
+        
+        final String hash1 = ModuleFingerprints.hashInputs(moduleDir, includes, excludes);
+        
+        write("foo/src/b.txt", "bbc");
+        write("foo/build/a.class", "ccd");
+        assertEquals(hash1, ModuleFingerprints.hashInputs(moduleDir, includes, excludes));
+        
+        write("foo/src/a.java", "aab");
+        assertFalse(hash1.equals(ModuleFingerprints.hashInputs(moduleDir, includes, excludes)));
+    }
+    
+    public void testHashInputs_DirectoryDoesNotExist() throws Exception
+    {
+        final File moduleDir = new File(dir, "foo");
+        final String hash1 = ModuleFingerprints.hashInputs(moduleDir, null, null);
+        assertEquals(Digests.FINGERPRINT_LENGTH, hash1.length());
+        
+        assertTrue(moduleDir.mkdir());
+        assertEquals(hash1, ModuleFingerprints.hashInputs(moduleDir, null, null));
+    }
+    
+    public void testHashOutputs() throws Exception
+    {
+        write("foo/out/a.class", "aaa");
+        write("foo/b.jar", "bbb");
+        final File[] outputs = new File[]{new File(dir, "foo/out"), new File(dir, "foo/b.jar")};
+        
+        final String hash1 = ModuleFingerprints.hashOutputs(outputs);
+        assertEquals(Digests.FINGERPRINT_LENGTH, hash1.length());
+        assertEquals(hash1, ModuleFingerprints.hashOutputs(outputs));
+        
+        write("foo/b.jar", "bbc");
+        final String hash2 = ModuleFingerprints.hashOutputs(outputs);
+        assertFalse(hash1.equals(hash2));
+        
+        write("foo/out/c.class", "ccc");
+        final String hash3 = ModuleFingerprints.hashOutputs(outputs);
+        assertFalse(hash2.equals(hash3));
+        
+        assertTrue(new File(dir, "foo/b.jar").delete());
+        assertFalse(hash3.equals(ModuleFingerprints.hashOutputs(outputs)));
+    }
+    
+    /**
+     * <p>Tests that the hash of the output files does not depend upon their location.</p>
+     */
+    public void testHashOutputs_OutputsAreMoved() throws Exception
+    {
+        write("foo/out/a.class", "aaa");
+        write("bar/out/a.class", "aaa");
+        
+        assertEquals(ModuleFingerprints.hashOutputs(new File[]{new File(dir, "foo/out")}),
+                ModuleFingerprints.hashOutputs(new File[]{new File(dir, "bar/out")}));
+    }
+    
+    public void testIsUpToDate() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        final Module module2 = TestUtil.module("bar/");
+        module1.setDependencies(new Module[]{module2});
+        
+        ModuleFingerprints fingerprints = ModuleFingerprints.empty();
+        assertNotNull(fingerprints.computeFingerprint(module2, "hash2", "config"));
+        assertFalse(fingerprints.isUpToDate(module2));
+        fingerprints.moduleStarted(module2);
+        fingerprints.moduleBuilt(module2, null);
+        assertNotNull(fingerprints.computeFingerprint(module1, "hash1", "config"));
+        assertFalse(fingerprints.isUpToDate(module1));
+        fingerprints.moduleStarted(module1);
+        fingerprints.moduleBuilt(module1, null);
+        fingerprints.save(fingerprintFile);
+        
+        // Nothing is changed.
+        fingerprints = ModuleFingerprints.load(fingerprintFile);
+        fingerprints.computeFingerprint(module2, "hash2", "config");
+        assertTrue(fingerprints.isUpToDate(module2));
+        fingerprints.moduleSkipped(module2);
+        fingerprints.computeFingerprint(module1, "hash1", "config");
+        assertTrue(fingerprints.isUpToDate(module1));
+        
+        // The dependee module is changed.
+        fingerprints = ModuleFingerprints.load(fingerprintFile);
+        fingerprints.computeFingerprint(module2, "hash3", "config");
+        assertFalse(fingerprints.isUpToDate(module2));
+        fingerprints.moduleBuilt(module2, null);
+        fingerprints.computeFingerprint(module1, "hash1", "config");
+        assertFalse(fingerprints.isUpToDate(module1));
+        
+        // The configuration is changed.
+        fingerprints = ModuleFingerprints.load(fingerprintFile);
+        fingerprints.computeFingerprint(module2, "hash2", "config");
+        fingerprints.moduleSkipped(module2);
+        fingerprints.computeFingerprint(module1, "hash1", "config2");
+        assertTrue(fingerprints.isUpToDate(module2));
+        assertFalse(fingerprints.isUpToDate(module1));
+    }
+    
+    /**
+     * <p>Tests that a module is not changed if the module it depends upon is rebuilt
+     * but its output files are not changed.</p>
+     */
+    public void testIsUpToDate_EarlyCutoff() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        final Module module2 = TestUtil.module("bar/");
+        module1.setDependencies(new Module[]{module2});
+        
+        ModuleFingerprints fingerprints = ModuleFingerprints.empty();
+        fingerprints.computeFingerprint(module2, "hash2", "config");
+        fingerprints.moduleBuilt(module2, OUTPUTS_HASH_1);
+        fingerprints.computeFingerprint(module1, "hash1", "config");
+        fingerprints.moduleBuilt(module1, null);
+        fingerprints.save(fingerprintFile);
+        
+        // The dependee module is changed but its output files are not.
+        fingerprints = ModuleFingerprints.load(fingerprintFile);
+        fingerprints.computeFingerprint(module2, "hash3", "config");
+        assertFalse(fingerprints.isUpToDate(module2));
+        fingerprints.moduleStarted(module2);
+        fingerprints.moduleBuilt(module2, OUTPUTS_HASH_1);
+        fingerprints.computeFingerprint(module1, "hash1", "config");
+        assertTrue(fingerprints.isUpToDate(module1));
+        fingerprints.moduleSkipped(module1);
+        fingerprints.save(fingerprintFile);
+        
+        // Nothing is changed. The dependee module publishes the hash of its output files again.
+        fingerprints = ModuleFingerprints.load(fingerprintFile);
+        fingerprints.computeFingerprint(module2, "hash3", "config");
+        assertTrue(fingerprints.isUpToDate(module2));
+        fingerprints.moduleSkipped(module2);
+        fingerprints.computeFingerprint(module1, "hash1", "config");
+        assertTrue(fingerprints.isUpToDate(module1));
+        
+        // The output files of the dependee module are changed.
+        fingerprints = ModuleFingerprints.load(fingerprintFile);
+        fingerprints.computeFingerprint(module2, "hash4", "config");
+        fingerprints.moduleStarted(module2);
+        fingerprints.moduleBuilt(module2, OUTPUTS_HASH_2);
+        fingerprints.computeFingerprint(module1, "hash1", "config");
+        assertFalse(fingerprints.isUpToDate(module1));
+    }
+    
+    public void testIsUpToDate_UnknownFingerprints() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        final Module module2 = TestUtil.module("bar/");
+        module1.setDependencies(new Module[]{module2});
+        
+        final ModuleFingerprints fingerprints = ModuleFingerprints.empty();
+        assertNull(fingerprints.computeFingerprint(module2, null, "config"));
+        assertNull(fingerprints.computeFingerprint(module1, "hash1", "config"));
+        assertFalse(fingerprints.isUpToDate(module2));
+        assertFalse(fingerprints.isUpToDate(module1));
+        
+        fingerprints.moduleBuilt(module1, null);
+        assertEquals(TestUtil.<String, String>map(), fingerprints.getFingerprints());
+    }
+    
+    /**
+     * <p>Tests that a module whose build is started but is not finished is considered changed.</p>
+     */
+    public void testModuleStarted_FingerprintIsForgotten() throws Exception
+    {
+        final Module module1 = TestUtil.module("foo/");
+        
+        ModuleFingerprints fingerprints = ModuleFingerprints.empty();
+        final String fingerprint = fingerprints.computeFingerprint(module1, "hash1", "config");
+        fingerprints.moduleBuilt(module1, null);
+        assertEquals(TestUtil.<String, String>map("foo/", fingerprint), fingerprints.getFingerprints());
+        fingerprints.save(fingerprintFile);
+        
+        fingerprints = ModuleFingerprints.load(fingerprintFile);
+        fingerprints.computeFingerprint(module1, "hash2", "config");
+        fingerprints.moduleStarted(module1);
+        // The build fails.
+        fingerprints.save(fingerprintFile);
+        
+        fingerprints = ModuleFingerprints.load(fingerprintFile);
+        fingerprints.computeFingerprint(module1, "hash1", "config");
+        assertFalse(fingerprints.isUpToDate(module1));
+    }
+    
+    public void testLoad_InvalidFingerprintsAreIgnored() throws Exception
+    {
+        write("fingerprints.properties", "foo/=abc\nbar/=0123456789012345678901234567890123456789\n" +
+                "baz/=0123456789012345678901234567890123456789 0123456789012345678901234567890123456789\n" +
+                "quux/=0123456789012345678901234567890123456789 abc\n");
+        
+        assertEquals(TestUtil.<String, String>map("bar/", "0123456789012345678901234567890123456789",
+                "baz/", "0123456789012345678901234567890123456789"),
+                ModuleFingerprints.load(fingerprintFile).getFingerprints());
+    }
+    
+    public void testLoad_FileDoesNotExist() throws Exception
+    {
+        assertEquals(TestUtil.<String, String>map(), ModuleFingerprints.load(fingerprintFile).getFingerprints());
+    }
+    
+    private void write(final String path, final String content) throws IOException
+    {
+        final File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,117 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>Unit tests for {@link ModulePathTrie}.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ModulePathTrieTest extends TestCase
+{
+    public void testEmptyTrie()
+    {
+        final ModulePathTrie trie = new ModulePathTrie();
+        
+        assertNull(trie.findOwner("foo/bar"));
+        assertNull(trie.findOwner(""));
+    }
+    
+    public void testSingleModule()
+    {
+        final ModulePathTrie trie = new ModulePathTrie();
+        final Module foo = new Module("foo/bar");
+        trie.add(foo);
+        
+        assertSame(foo, trie.findOwner("foo/bar"));
+        assertSame(foo, trie.findOwner("foo/bar/"));
+        assertSame(foo, trie.findOwner("foo/bar/Baz.java"));
+        assertSame(foo, trie.findOwner("foo/bar/baz/Quux.java"));
+        assertNull(trie.findOwner("foo"));
+        assertNull(trie.findOwner("foo/Bar.java"));
+        assertNull(trie.findOwner("foo/bar2/Baz.java"));
+        assertNull(trie.findOwner("foo/ba"));
+        assertNull(trie.findOwner("bar/Baz.java"));
+        assertNull(trie.findOwner(""));
+    }
+    
+    public void testNestedModules()
+    {
+        final ModulePathTrie trie = new ModulePathTrie();
+        final Module foo = new Module("foo");
+        final Module fooBarBaz = new Module("foo/bar/baz");
+        final Module quux = new Module("quux");
+        trie.add(fooBarBaz);
+        trie.add(foo);
+        trie.add(quux);
+        
+        assertSame(foo, trie.findOwner("foo/Foo.java"));
+        assertSame(foo, trie.findOwner("foo/bar/Bar.java"));
+        assertSame(foo, trie.findOwner("foo/bar/baz2/Baz.java"));
+        assertSame(fooBarBaz, trie.findOwner("foo/bar/baz/Baz.java"));
+        assertSame(fooBarBaz, trie.findOwner("foo/bar/baz/x/y/Baz.java"));
+        assertSame(quux, trie.findOwner("quux/Quux.java"));
+        assertNull(trie.findOwner("bar/baz/Baz.java"));
+    }
+    
+    public void testRootModule()
+    {
+        final ModulePathTrie trie = new ModulePathTrie();
+        final Module root = new Module(".");
+        final Module foo = new Module("foo");
+        trie.add(root);
+        trie.add(foo);
+        
+        assertSame(root, trie.findOwner("build.xml"));
+        assertSame(root, trie.findOwner("bar/Bar.java"));
+        assertSame(root, trie.findOwner("."));
+        assertSame(root, trie.findOwner(""));
+        assertSame(foo, trie.findOwner("foo/Foo.java"));
+        assertSame(foo, trie.findOwner("./foo/Foo.java"));
+    }
+    
+    public void testSeparators()
+    {
+        final ModulePathTrie trie = new ModulePathTrie();
+        final Module foo = new Module("foo\\bar/");
+        trie.add(foo);
+        
+        assertSame(foo, trie.findOwner("foo/bar/Baz.java"));
+        assertSame(foo, trie.findOwner("foo\\bar\\Baz.java"));
+        assertSame(foo, trie.findOwner("/foo//bar/./Baz.java"));
+        assertNull(trie.findOwner("foobar/Baz.java"));
+    }
+    
+    public void testModuleReplaced()
+    {
+        final ModulePathTrie trie = new ModulePathTrie();
+        final Module foo1 = new Module("foo");
+        final Module foo2 = new Module("foo/");
+        trie.add(foo1);
+        trie.add(foo2);
+        
+        assertSame(foo2, trie.findOwner("foo/Foo.java"));
+    }
+}
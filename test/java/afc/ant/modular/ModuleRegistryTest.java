@@ -23,6 +23,7 @@
 package afc.ant.modular;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -465,6 +466,136 @@ public class ModuleRegistryTest extends TestCase
         assertEquals(TestUtil.set("foo_norm", "bar_norm", "baz_norm"), new HashSet<String>(moduleLoader.paths));
     }
     
+    public void testDeepChainOfDependencies_SmallStack() throws Throwable
+    {
+        final int depth = 100000;
+        for (int i = 0; i < depth; ++i) {
+            final ModuleInfo module = new ModuleInfo("m" + i, moduleLoader);
+            if (i > 0) {
+                module.addDependency("m" + (i - 1));
+            }
+            moduleLoader.results.put("m" + i + "_norm", module);
+        }
+        
+        final Module[] result = new Module[1];
+        final Throwable[] failure = new Throwable[1];
+        // The recursive resolution overflows the stack of this size.
+        final Thread thread = new Thread(null, new Runnable() {
+            public void run()
+            {
+                try {
+                    result[0] = registry.resolveModule("m" + (depth - 1));
+                }
+                catch (Throwable ex) {
+                    failure[0] = ex;
+                }
+            }
+        }, "resolver", 256 * 1024);
+        thread.start();
+        thread.join();
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+        
+        Module module = result[0];
+        for (int i = depth - 1; i > 0; --i) {
+            assertEquals("m" + i + "_norm", module.getPath());
+            assertEquals(1, module.getDependencies().size());
+            module = module.getDependencies().iterator().next();
+        }
+        assertModule(module, "m0_norm");
+        assertSame(module, registry.resolveModule("m0"));
+        assertEquals(depth, moduleLoader.paths.size());
+    }
+    
+    public void testDeepChainOfDependencies_LastModuleIsNotLoaded() throws Exception
+    {
+        final int depth = 1000;
+        for (int i = 1; i < depth; ++i) {
+            final ModuleInfo module = new ModuleInfo("m" + i, moduleLoader);
+            module.addDependency("m" + (i - 1));
+            moduleLoader.results.put("m" + i + "_norm", module);
+        }
+        final ModuleNotLoadedException exception = new ModuleNotLoadedException();
+        moduleLoader.results.put("m0_norm", exception);
+        
+        try {
+            registry.resolveModule("m" + (depth - 1));
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertSame(exception, ex);
+        }
+        // All modules that depend upon the module not loaded are not loaded as well.
+        for (int i = 0; i < depth; ++i) {
+            try {
+                registry.resolveModule("m" + i);
+                fail();
+            }
+            catch (ModuleNotLoadedException ex) {
+                assertEquals("m" + i + "_norm", ex.getMessage());
+            }
+        }
+        assertEquals(depth, moduleLoader.paths.size());
+    }
+    
+    public void testListener_DependeeModulesAreNotifiedFirst() throws Exception
+    {
+        final ArrayList<Module> resolvedModules = new ArrayList<Module>();
+        registry = new ModuleRegistry(moduleLoader, 1, new ModuleRegistry.ModuleListener()
+        {
+            public void moduleResolved(final Module module)
+            {
+                resolvedModules.add(module);
+            }
+        });
+        final ModuleInfo module = new ModuleInfo("foo", moduleLoader);
+        module.addDependency("bar");
+        module.addDependency("baz");
+        final ModuleInfo module2 = new ModuleInfo("bar", moduleLoader);
+        module2.addDependency("baz");
+        final ModuleInfo module3 = new ModuleInfo("baz", moduleLoader);
+        moduleLoader.results.put("foo_norm", module);
+        moduleLoader.results.put("bar_norm", module2);
+        moduleLoader.results.put("baz_norm", module3);
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m2 = registry.resolveModule("bar");
+        final Module m3 = registry.resolveModule("baz");
+        
+        assertEquals(Arrays.asList(m3, m2, m1), resolvedModules);
+    }
+    
+    public void testListener_CyclicDependency() throws Exception
+    {
+        final ArrayList<Module> resolvedModules = new ArrayList<Module>();
+        registry = new ModuleRegistry(moduleLoader, 1, new ModuleRegistry.ModuleListener()
+        {
+            public void moduleResolved(final Module module)
+            {
+                resolvedModules.add(module);
+            }
+        });
+        final ModuleInfo module = new ModuleInfo("foo", moduleLoader);
+        module.addDependency("bar");
+        final ModuleInfo module2 = new ModuleInfo("bar", moduleLoader);
+        module2.addDependency("baz");
+        module2.addDependency("quux");
+        final ModuleInfo module3 = new ModuleInfo("baz", moduleLoader);
+        module3.addDependency("bar");
+        final ModuleInfo module4 = new ModuleInfo("quux", moduleLoader);
+        moduleLoader.results.put("foo_norm", module);
+        moduleLoader.results.put("bar_norm", module2);
+        moduleLoader.results.put("baz_norm", module3);
+        moduleLoader.results.put("quux_norm", module4);
+        
+        registry.resolveModule("foo");
+        final Module m4 = registry.resolveModule("quux");
+        
+        // Only the module that is not involved into the loop is passed to the listener.
+        assertEquals(Collections.singletonList(m4), resolvedModules);
+    }
+    
     private static void assertModule(final Module module, final String path, final Module... dependencies)
     {
         assertModule(module, path, Collections.<String, Object>emptyMap(), dependencies);
@@ -0,0 +1,524 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>Tests {@link ModuleRegistry} which loads module metadata by multiple threads.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ModuleRegistry_ParallelLoadingTest extends TestCase
+{
+    private ConcurrentModuleLoader moduleLoader;
+    private ModuleRegistry registry;
+    
+    @Override
+    protected void setUp()
+    {
+        moduleLoader = new ConcurrentModuleLoader();
+        registry = new ModuleRegistry(moduleLoader, 4);
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        registry.close();
+        registry = null;
+        moduleLoader = null;
+    }
+    
+    public void testDiamond() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        foo.addDependency("baz");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("quux");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        baz.addDependency("quux");
+        baz.addAttribute("1", "2");
+        final ModuleInfo quux = new ModuleInfo("quux", moduleLoader);
+        moduleLoader.results.put("foo/", foo);
+        moduleLoader.results.put("bar/", bar);
+        moduleLoader.results.put("baz/", baz);
+        moduleLoader.results.put("quux/", quux);
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m2 = registry.resolveModule("bar");
+        final Module m3 = registry.resolveModule("baz/");
+        final Module m4 = registry.resolveModule("quux");
+        
+        assertModule(m1, "foo/", m2, m3);
+        assertModule(m2, "bar/", m4);
+        assertModule(m3, "baz/", m4);
+        assertEquals(TestUtil.map("1", "2"), m3.getAttributes());
+        assertModule(m4, "quux/");
+        
+        assertEquals(4, moduleLoader.paths.size());
+        assertEquals(TestUtil.set("foo/", "bar/", "baz/", "quux/"), new HashSet<String>(moduleLoader.paths));
+    }
+    
+    public void testCyclicDependency() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("baz");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        baz.addDependency("foo");
+        moduleLoader.results.put("foo/", foo);
+        moduleLoader.results.put("bar/", bar);
+        moduleLoader.results.put("baz/", baz);
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m2 = registry.resolveModule("bar");
+        final Module m3 = registry.resolveModule("baz");
+        
+        assertModule(m1, "foo/", m2);
+        assertModule(m2, "bar/", m3);
+        assertModule(m3, "baz/", m1);
+        
+        assertEquals(3, moduleLoader.paths.size());
+    }
+    
+    public void testWideGraph_ModulesAreLoadedInParallel() throws Exception
+    {
+        final int n = 4;
+        final ModuleInfo root = new ModuleInfo("root", moduleLoader);
+        moduleLoader.results.put("root/", root);
+        for (int i = 0; i < n; ++i) {
+            root.addDependency("m" + i);
+            moduleLoader.results.put("m" + i + '/', new ModuleInfo("m" + i, moduleLoader));
+        }
+        // Each dependee module is loaded only when all dependee modules are being loaded.
+        moduleLoader.latch = new CountDownLatch(n);
+        
+        final Module m = registry.resolveModule("root");
+        
+        assertEquals(n, m.getDependencies().size());
+        assertEquals(n, moduleLoader.maxConcurrentLoads.get());
+        assertEquals(n + 1, moduleLoader.paths.size());
+    }
+    
+    public void testResolveModules_RootModulesAreLoadedInParallel() throws Exception
+    {
+        final int n = 4;
+        final ArrayList<String> paths = new ArrayList<String>();
+        for (int i = 0; i < n; ++i) {
+            paths.add("m" + i);
+            moduleLoader.results.put("m" + i + '/', new ModuleInfo("m" + i, moduleLoader));
+        }
+        // Each root module is loaded only when all root modules are being loaded.
+        moduleLoader.latch = new CountDownLatch(n);
+        
+        final List<Module> modules = registry.resolveModules(paths);
+        
+        assertEquals(n, modules.size());
+        for (int i = 0; i < n; ++i) {
+            assertModule(modules.get(i), "m" + i + '/');
+        }
+        assertEquals(n, moduleLoader.maxConcurrentLoads.get());
+        assertEquals(n, moduleLoader.paths.size());
+    }
+    
+    public void testResolveModules_SharedDependencies() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("baz");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("baz");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        moduleLoader.results.put("foo/", foo);
+        moduleLoader.results.put("bar/", bar);
+        moduleLoader.results.put("baz/", baz);
+        
+        final List<Module> modules = registry.resolveModules(Arrays.asList("foo", "bar/", "foo/"));
+        
+        assertEquals(3, modules.size());
+        final Module m3 = registry.resolveModule("baz");
+        assertModule(modules.get(0), "foo/", m3);
+        assertModule(modules.get(1), "bar/", m3);
+        assertSame(modules.get(0), modules.get(2));
+        assertEquals(3, moduleLoader.paths.size());
+    }
+    
+    public void testResolveModules_ModuleNotLoaded() throws Exception
+    {
+        final ModuleNotLoadedException exception = new ModuleNotLoadedException();
+        moduleLoader.results.put("foo/", new ModuleInfo("foo", moduleLoader));
+        moduleLoader.results.put("bar/", exception);
+        moduleLoader.results.put("baz/", new ModuleInfo("baz", moduleLoader));
+        
+        try {
+            registry.resolveModules(Arrays.asList("foo", "bar", "baz"));
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertSame(exception, ex);
+        }
+        
+        assertModule(registry.resolveModule("baz"), "baz/");
+        assertEquals(3, moduleLoader.paths.size());
+    }
+    
+    public void testResolveModules_NullPaths() throws Exception
+    {
+        try {
+            registry.resolveModules(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("paths", ex.getMessage());
+        }
+        try {
+            registry.resolveModules(Arrays.asList("foo", null));
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("paths contains null element.", ex.getMessage());
+        }
+        assertTrue(moduleLoader.paths.isEmpty());
+    }
+    
+    /**
+     * <p>Test description: the loader threads are shared by the invocations of
+     * {@code resolveModule()} and are started again after the registry is closed.</p>
+     */
+    public void testLoaderThreadsAreReused() throws Exception
+    {
+        final int n = 10;
+        for (int i = 0; i < n; ++i) {
+            moduleLoader.results.put("m" + i + '/', new ModuleInfo("m" + i, moduleLoader));
+        }
+        
+        for (int i = 0; i < n - 1; ++i) {
+            assertModule(registry.resolveModule("m" + i), "m" + i + '/');
+        }
+        
+        // The pool has four threads.
+        assertTrue(moduleLoader.threads.size() <= 4);
+        assertFalse(moduleLoader.threads.contains(Thread.currentThread()));
+        
+        registry.close();
+        registry.close();
+        
+        assertModule(registry.resolveModule("m" + (n - 1)), "m" + (n - 1) + '/');
+        assertEquals(n, moduleLoader.paths.size());
+    }
+    
+    public void testModuleNotLoaded_NegativeResultIsCached() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        foo.addDependency("baz");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        final ModuleNotLoadedException exception = new ModuleNotLoadedException();
+        moduleLoader.results.put("foo/", foo);
+        moduleLoader.results.put("bar/", exception);
+        moduleLoader.results.put("baz/", baz);
+        
+        try {
+            registry.resolveModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertSame(exception, ex);
+        }
+        
+        // another attempt to load the modules
+        try {
+            registry.resolveModule("bar");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            // the normalised path is expected in the exception message
+            assertEquals("bar/", ex.getMessage());
+        }
+        try {
+            registry.resolveModule("foo");
+            fail();
+        }
+        catch (ModuleNotLoadedException ex) {
+            assertEquals("foo/", ex.getMessage());
+        }
+        assertModule(registry.resolveModule("baz"), "baz/");
+        
+        // Each module is loaded once.
+        assertEquals(3, moduleLoader.paths.size());
+        assertEquals(TestUtil.set("foo/", "bar/", "baz/"), new HashSet<String>(moduleLoader.paths));
+    }
+    
+    public void testRuntimeException_ModuleIsLoadedAgain() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("quux");
+        final ModuleInfo quux = new ModuleInfo("quux", moduleLoader);
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("quux");
+        final RuntimeException exception = new RuntimeException();
+        moduleLoader.results.put("foo/", foo);
+        moduleLoader.results.put("quux/", quux);
+        moduleLoader.results.put("bar/", exception);
+        
+        final Module m1 = registry.resolveModule("foo");
+        
+        try {
+            registry.resolveModule("bar");
+            fail();
+        }
+        catch (RuntimeException ex) {
+            assertSame(exception, ex);
+        }
+        
+        moduleLoader.results.put("bar/", bar);
+        
+        // another attempt to load the module
+        final Module m2 = registry.resolveModule("bar");
+        final Module m3 = registry.resolveModule("quux");
+        
+        assertModule(m1, "foo/", m3);
+        assertModule(m2, "bar/", m3);
+        assertModule(m3, "quux/");
+        assertEquals(4, moduleLoader.paths.size());
+        assertEquals(TestUtil.set("foo/", "bar/", "quux/"), new HashSet<String>(moduleLoader.paths));
+    }
+    
+    public void testNullIsReturned() throws Exception
+    {
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        moduleLoader.results.put("foo/", foo);
+        moduleLoader.results.put("bar/", ConcurrentModuleLoader.NULL);
+        
+        try {
+            registry.resolveModule("foo");
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("Module loader returned null for the path 'bar/'.", ex.getMessage());
+        }
+    }
+    
+    public void testListener_DependeeModulesAreNotifiedFirst() throws Exception
+    {
+        final List<Module> resolvedModules = Collections.synchronizedList(new ArrayList<Module>());
+        registry = new ModuleRegistry(moduleLoader, 4, new ModuleRegistry.ModuleListener()
+        {
+            public void moduleResolved(final Module module)
+            {
+                resolvedModules.add(module);
+            }
+        });
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        foo.addDependency("baz");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("quux");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        baz.addDependency("quux");
+        final ModuleInfo quux = new ModuleInfo("quux", moduleLoader);
+        moduleLoader.results.put("foo/", foo);
+        moduleLoader.results.put("bar/", bar);
+        moduleLoader.results.put("baz/", baz);
+        moduleLoader.results.put("quux/", quux);
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m2 = registry.resolveModule("bar");
+        final Module m3 = registry.resolveModule("baz");
+        final Module m4 = registry.resolveModule("quux");
+        
+        assertModule(m1, "foo/", m2, m3);
+        assertModule(m2, "bar/", m4);
+        assertModule(m3, "baz/", m4);
+        assertModule(m4, "quux/");
+        
+        assertEquals(4, resolvedModules.size());
+        assertSame(m4, resolvedModules.get(0));
+        assertEquals(TestUtil.set(m2, m3), new HashSet<Module>(resolvedModules.subList(1, 3)));
+        assertSame(m1, resolvedModules.get(3));
+    }
+    
+    public void testListener_ModuleIsNotifiedWhileOtherModulesAreLoaded() throws Exception
+    {
+        final CountDownLatch leafResolved = new CountDownLatch(1);
+        registry = new ModuleRegistry(moduleLoader, 4, new ModuleRegistry.ModuleListener()
+        {
+            public void moduleResolved(final Module module)
+            {
+                if (module.getPath().equals("leaf/")) {
+                    leafResolved.countDown();
+                }
+            }
+        });
+        final ModuleInfo root = new ModuleInfo("root", moduleLoader);
+        root.addDependency("leaf");
+        root.addDependency("slow");
+        final ModuleInfo slow = new ModuleInfo("slow", moduleLoader);
+        slow.addDependency("slowDep");
+        moduleLoader.results.put("root/", root);
+        moduleLoader.results.put("leaf/", new ModuleInfo("leaf", moduleLoader));
+        moduleLoader.results.put("slow/", slow);
+        moduleLoader.results.put("slowDep/", new ModuleInfo("slowDep", moduleLoader));
+        // The module 'slowDep/' is loaded only after the module 'leaf/' is passed to the listener.
+        moduleLoader.blockedPath = "slowDep/";
+        moduleLoader.latch = leafResolved;
+        
+        final Module m = registry.resolveModule("root");
+        
+        assertEquals(2, m.getDependencies().size());
+        assertEquals(4, moduleLoader.paths.size());
+    }
+    
+    public void testListener_CyclicDependency() throws Exception
+    {
+        final List<Module> resolvedModules = Collections.synchronizedList(new ArrayList<Module>());
+        registry = new ModuleRegistry(moduleLoader, 4, new ModuleRegistry.ModuleListener()
+        {
+            public void moduleResolved(final Module module)
+            {
+                resolvedModules.add(module);
+            }
+        });
+        final ModuleInfo foo = new ModuleInfo("foo", moduleLoader);
+        foo.addDependency("bar");
+        final ModuleInfo bar = new ModuleInfo("bar", moduleLoader);
+        bar.addDependency("baz");
+        bar.addDependency("quux");
+        final ModuleInfo baz = new ModuleInfo("baz", moduleLoader);
+        baz.addDependency("bar");
+        final ModuleInfo quux = new ModuleInfo("quux", moduleLoader);
+        moduleLoader.results.put("foo/", foo);
+        moduleLoader.results.put("bar/", bar);
+        moduleLoader.results.put("baz/", baz);
+        moduleLoader.results.put("quux/", quux);
+        
+        final Module m1 = registry.resolveModule("foo");
+        final Module m2 = registry.resolveModule("bar");
+        final Module m3 = registry.resolveModule("baz");
+        final Module m4 = registry.resolveModule("quux");
+        
+        assertModule(m1, "foo/", m2);
+        assertModule(m2, "bar/", m3, m4);
+        assertModule(m3, "baz/", m2);
+        assertModule(m4, "quux/");
+        
+        // Only the module that is not involved into the loop is passed to the listener.
+        assertEquals(Collections.singletonList(m4), resolvedModules);
+    }
+    
+    public void testInvalidLoaderThreadCount()
+    {
+        try {
+            new ModuleRegistry(moduleLoader, 0);
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("Invalid loader thread count: '0'. It must be a positive value.", ex.getMessage());
+        }
+    }
+    
+    private static void assertModule(final Module module, final String path, final Module... dependencies)
+    {
+        assertNotNull(module);
+        assertEquals(path, module.getPath());
+        assertEquals(TestUtil.set(dependencies), module.getDependencies());
+    }
+    
+    private static class ConcurrentModuleLoader implements ModuleLoader
+    {
+        public static final Object NULL = new Object();
+        
+        public final List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+        public final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        public final ConcurrentHashMap<String, Object> results = new ConcurrentHashMap<String, Object>();
+        public final AtomicInteger maxConcurrentLoads = new AtomicInteger();
+        private final AtomicInteger concurrentLoads = new AtomicInteger();
+        public volatile CountDownLatch latch;
+        // If it is defined then only the module with this path waits for the latch to be released.
+        public volatile String blockedPath;
+        
+        public ModuleInfo loadModule(final String path) throws ModuleNotLoadedException
+        {
+            assertNotNull(path);
+            paths.add(path);
+            threads.add(Thread.currentThread());
+            final int loads = concurrentLoads.incrementAndGet();
+            try {
+                int max;
+                while ((max = maxConcurrentLoads.get()) < loads && !maxConcurrentLoads.compareAndSet(max, loads)) {
+                    // retrying
+                }
+                final Object result = results.remove(path);
+                assertNotNull(result);
+                final CountDownLatch latch = this.latch;
+                final String blockedPath = this.blockedPath;
+                if (latch != null && blockedPath != null) {
+                    if (path.equals(blockedPath)) {
+                        assertTrue(latch.await(10, TimeUnit.SECONDS));
+                    }
+                } else if (latch != null && !path.equals("root/")) {
+                    latch.countDown();
+                    assertTrue(latch.await(10, TimeUnit.SECONDS));
+                }
+                if (result instanceof ModuleNotLoadedException) {
+                    throw (ModuleNotLoadedException) result;
+                }
+                if (result instanceof RuntimeException) {
+                    throw (RuntimeException) result;
+                }
+                if (result == NULL) {
+                    return null;
+                }
+                return (ModuleInfo) result;
+            }
+            catch (InterruptedException ex) {
+                throw new AssertionError(ex);
+            }
+            finally {
+                concurrentLoads.decrementAndGet();
+            }
+        }
+        
+        public String normalisePath(final String path)
+        {
+            assertNotNull(path);
+            if (path.charAt(path.length()-1) != '/') {
+                return path + '/';
+            }
+            return path;
+        }
+    }
+}
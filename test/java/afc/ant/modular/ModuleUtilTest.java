@@ -107,6 +107,22 @@ public class ModuleUtilTest extends TestCase
         assertSame("foo/", ModuleUtil.getPath(createModuleWithDifferentClassLoader("foo/", new ModuleClassLoader())));
     }
     
+    public void testGetPath_Module_MultipleClassLoaders() throws Exception
+    {
+        final ModuleClassLoader classLoader1 = new ModuleClassLoader();
+        final ModuleClassLoader classLoader2 = new ModuleClassLoader();
+        final Object module1 = createModuleWithDifferentClassLoader("foo/", classLoader1);
+        final Object module2 = createModuleWithDifferentClassLoader("bar/", classLoader1);
+        final Object module3 = createModuleWithDifferentClassLoader("baz/", classLoader2);
+        
+        // The functions are looked up once per class and are invoked for the module passed.
+        assertSame("foo/", ModuleUtil.getPath(module1));
+        assertSame("bar/", ModuleUtil.getPath(module2));
+        assertSame("baz/", ModuleUtil.getPath(module3));
+        assertSame("quux/", ModuleUtil.getPath(new Module("quux/")));
+        assertSame("foo/", ModuleUtil.getPath(module1));
+    }
+    
     public void testGetDependencies_NullModule()
     {
         try {
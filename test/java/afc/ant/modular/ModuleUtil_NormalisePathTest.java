@@ -1,6 +1,7 @@
 package afc.ant.modular;
 
 import java.io.File;
+import java.util.Locale;
 
 import junit.framework.TestCase;
 
@@ -322,4 +323,107 @@ public class ModuleUtil_NormalisePathTest extends TestCase
         
         assertEquals("foo/bar", ModuleUtil.normalisePath("/hello/world/fOO/Bar", baseDir, true));
     }
+    
+    public void testNormalisePath_NormalisedRelativePath_ReturnedAsIs()
+    {
+        final String path = new String("foo/bar/baz");
+        
+        assertSame(path, ModuleUtil.normalisePath(path, new File("/hello/world")));
+    }
+    
+    public void testNormalisePath_NormalisedRelativePathWithCharsWithDifferentCase_CaseNormalisationEnabled()
+    {
+        assertEquals("foo/bar", ModuleUtil.normalisePath("fOO/Bar", new File("/hello/world"), true));
+    }
+    
+    public void testNormalisePath_SamePathTwice_CaseNormalisationEnabledAndDisabled()
+    {
+        final File baseDir = new File("/hello/world/");
+        final ModuleUtil.PathCache cache = new ModuleUtil.PathCache(16);
+        
+        assertEquals("../fOO/Bar", ModuleUtil.normalisePath("../fOO/./Bar", baseDir, false, cache));
+        assertEquals("../foo/bar", ModuleUtil.normalisePath("../fOO/./Bar", baseDir, true, cache));
+        assertEquals("../fOO/Bar", ModuleUtil.normalisePath("../fOO/./Bar", baseDir, false, cache));
+        assertEquals("../foo/bar", ModuleUtil.normalisePath("../fOO/./Bar", baseDir, true, cache));
+    }
+    
+    public void testNormalisePath_SamePathAgainstDifferentBaseDirs()
+    {
+        final File baseDir1 = new File("/hello/world/");
+        final File baseDir2 = new File("/hello/there/");
+        final ModuleUtil.PathCache cache = new ModuleUtil.PathCache(16);
+        
+        assertEquals("foo", ModuleUtil.normalisePath("../world/foo", baseDir1, false, cache));
+        assertEquals("../world/foo", ModuleUtil.normalisePath("../world/foo", baseDir2, false, cache));
+        assertEquals("foo", ModuleUtil.normalisePath("../world/foo", baseDir1, false, cache));
+        assertEquals("../world/foo", ModuleUtil.normalisePath("../world/foo", baseDir2, false, cache));
+        assertEquals("foo", ModuleUtil.normalisePath("../world/foo", baseDir1));
+        assertEquals("../world/foo", ModuleUtil.normalisePath("../world/foo", baseDir2));
+    }
+    
+    public void testNormalisePath_ManyDifferentPaths()
+    {
+        final File baseDir = new File("/hello/world/");
+        final ModuleUtil.PathCache cache = new ModuleUtil.PathCache(100);
+        
+        // More paths than the cache holds.
+        for (int i = 0; i < 10000; ++i) {
+            assertEquals("foo" + i, ModuleUtil.normalisePath("./foo" + i, baseDir, false, cache));
+            assertEquals("../bar" + i, ModuleUtil.normalisePath("../bar" + i + "/", baseDir, false, cache));
+        }
+        assertEquals("foo", ModuleUtil.normalisePath("./foo", baseDir, false, cache));
+    }
+    
+    public void testNormalisePath_Cache_LeastRecentlyUsedPathIsEvicted()
+    {
+        final File baseDir = new File("/hello/world/");
+        final ModuleUtil.PathCache cache = new ModuleUtil.PathCache(2);
+        
+        assertEquals("foo", ModuleUtil.normalisePath("./foo", baseDir, false, cache));
+        assertEquals("bar", ModuleUtil.normalisePath("./bar", baseDir, false, cache));
+        assertEquals("foo", ModuleUtil.normalisePath("./foo", baseDir, false, cache));
+        assertEquals("baz", ModuleUtil.normalisePath("./baz", baseDir, false, cache));
+        
+        final Object base = cache.baseDirectory(baseDir);
+        assertEquals("foo", cache.get(cache.baseDirectory(baseDir), "./foo"));
+        assertNull(cache.get(cache.baseDirectory(baseDir), "./bar"));
+        assertEquals("baz", cache.get(cache.baseDirectory(baseDir), "./baz"));
+        assertSame(base, cache.baseDirectory(baseDir));
+    }
+    
+    /**
+     * <p>Tests that the paths normalised to the lower case do not depend upon the default
+     * locale the paths were cached with.</p>
+     */
+    public void testNormalisePath_Cache_DefaultLocaleIsChanged()
+    {
+        final File baseDir = new File("/hello/world/");
+        final ModuleUtil.PathCache cache = new ModuleUtil.PathCache(16);
+        final Locale defaultLocale = Locale.getDefault();
+        try {
+            Locale.setDefault(new Locale("tr"));
+            assertEquals("../\u0131", ModuleUtil.normalisePath("../I", baseDir, true, cache));
+            
+            Locale.setDefault(Locale.ENGLISH);
+            assertEquals("../i", ModuleUtil.normalisePath("../I", baseDir, true, cache));
+        }
+        finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+    
+    public void testNormalisePath_ManyDifferentBaseDirs()
+    {
+        final ModuleUtil.PathCache cache = new ModuleUtil.PathCache(16);
+        
+        // The base directories are used alternately.
+        for (int j = 0; j < 2; ++j) {
+            for (int i = 0; i < 50; ++i) {
+                final File baseDir = new File("/hello/world" + i + "/");
+                
+                assertEquals("foo", ModuleUtil.normalisePath("../world" + i + "/foo", baseDir, false, cache));
+                assertEquals("../world/foo", ModuleUtil.normalisePath("../world/foo", baseDir, false, cache));
+            }
+        }
+    }
 }
@@ -0,0 +1,295 @@
+/* Copyright (c) 2013-2016, Dźmitry Laŭčuk
+   All rights reserved.
+
+   Redistribution and use in source and binary forms, with or without
+   modification, are permitted provided that the following conditions are met: 
+
+   1. Redistributions of source code must retain the above copyright notice, this
+      list of conditions and the following disclaimer.
+   2. Redistributions in binary form must reproduce the above copyright notice,
+      this list of conditions and the following disclaimer in the documentation
+      and/or other materials provided with the distribution.
+
+   THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS" AND
+   ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+   WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+   DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE LIABLE FOR
+   ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+   (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+   LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+   ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+   (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+   SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
+package afc.ant.modular;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.TestCase;
+
+/**
+ * <p>Tests {@link ParallelDependencyResolver} that is {@link ParallelDependencyResolver#initIncremental()
+ * initialised incrementally}.</p>
+ * 
+ * @author D&#378;mitry La&#365;&#269;uk
+ */
+public class ParallelDependencyResolver_IncrementalInitTest extends TestCase
+{
+    private ParallelDependencyResolver resolver;
+    
+    @Override
+    protected void setUp()
+    {
+        resolver = new ParallelDependencyResolver();
+    }
+    
+    @Override
+    protected void tearDown()
+    {
+        resolver = null;
+    }
+    
+    public void testModuleIsAcquiredBeforeInitIsComplete() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar", module1);
+        
+        resolver.initIncremental();
+        resolver.addModule(module1);
+        
+        assertSame(module1, resolver.getFreeModule());
+        resolver.moduleProcessed(module1);
+        
+        // The dependee module is already processed so the module is free at once.
+        resolver.addModule(module2);
+        assertSame(module2, resolver.getFreeModule());
+        resolver.moduleProcessed(module2);
+        
+        resolver.completeInit(Collections.singletonList(module2));
+        assertNull(resolver.getFreeModule());
+    }
+    
+    public void testModuleReadyListener() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar", module1);
+        final ArrayList<Module> readyModules = new ArrayList<Module>();
+        
+        resolver.setModuleReadyListener(new ParallelDependencyResolver.ModuleReadyListener()
+        {
+            public void moduleReady(final Module module)
+            {
+                readyModules.add(module);
+            }
+        });
+        resolver.initIncremental();
+        resolver.addModule(module1);
+        resolver.addModule(module2);
+        assertEquals(Arrays.asList(module1), readyModules);
+        
+        assertSame(module1, resolver.getFreeModule());
+        resolver.moduleProcessed(module1);
+        assertEquals(Arrays.asList(module1, module2), readyModules);
+        
+        assertSame(module2, resolver.getFreeModule());
+        resolver.moduleProcessed(module2);
+        resolver.completeInit(Collections.singletonList(module2));
+        assertNull(resolver.getFreeModule());
+        assertEquals(Arrays.asList(module1, module2), readyModules);
+    }
+    
+    public void testModuleIsFreedByDependeeModule() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz", module1, module2);
+        
+        resolver.initIncremental();
+        resolver.addModule(module1);
+        resolver.addModule(module2);
+        
+        final Module m1 = resolver.getFreeModule();
+        resolver.moduleProcessed(m1);
+        resolver.addModule(module3);
+        final Module m2 = resolver.getFreeModule();
+        assertEquals(TestUtil.set(module1, module2), TestUtil.set(m1, m2));
+        resolver.completeInit(Arrays.asList(module3));
+        
+        resolver.moduleProcessed(m2);
+        assertSame(module3, resolver.getFreeModule());
+        resolver.moduleProcessed(module3);
+        assertNull(resolver.getFreeModule());
+    }
+    
+    public void testGetFreeModuleWaitsForCompleteInit() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar", module1);
+        
+        resolver.initIncremental();
+        resolver.addModule(module1);
+        assertSame(module1, resolver.getFreeModule());
+        resolver.moduleProcessed(module1);
+        
+        final AtomicReference<Module> result = new AtomicReference<Module>();
+        final Thread t = new Thread()
+        {
+            @Override
+            public void run()
+            {
+                result.set(resolver.getFreeModule());
+            }
+        };
+        t.start();
+        waitUntilBlocked(t);
+        
+        // The module 'bar' is added by completeInit().
+        resolver.completeInit(Collections.singletonList(module2));
+        t.join();
+        
+        assertSame(module2, result.get());
+        resolver.moduleProcessed(module2);
+        assertNull(resolver.getFreeModule());
+    }
+    
+    public void testCompleteInit_NoModules() throws Exception
+    {
+        resolver.initIncremental();
+        resolver.completeInit(Collections.<Module>emptyList());
+        
+        assertNull(resolver.getFreeModule());
+    }
+    
+    public void testCompleteInit_CyclicDependency() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz", module1, module2);
+        module2.setDependencies(new Module[]{module3});
+        
+        resolver.initIncremental();
+        resolver.addModule(module1);
+        
+        try {
+            resolver.completeInit(Collections.singletonList(module3));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            assertEquals(Arrays.asList(module3, module2), ex.getLoop());
+        }
+        
+        // The resolver is aborted.
+        assertNull(resolver.getFreeModule());
+    }
+    
+    public void testAddModule_DependeeModuleIsNotAdded()
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar", module1);
+        
+        resolver.initIncremental();
+        try {
+            resolver.addModule(module2);
+            fail();
+        }
+        catch (IllegalArgumentException ex) {
+            assertEquals("The module 'bar' depends upon the module 'foo' that is not added.", ex.getMessage());
+        }
+    }
+    
+    public void testAddModule_ModuleIsAlreadyAdded() throws Exception
+    {
+        final Module module1 = module("foo");
+        
+        resolver.initIncremental();
+        resolver.addModule(module1);
+        resolver.addModule(module1);
+        resolver.completeInit(Collections.singletonList(module1));
+        
+        assertSame(module1, resolver.getFreeModule());
+        resolver.moduleProcessed(module1);
+        assertNull(resolver.getFreeModule());
+    }
+    
+    public void testAddModule_NullModule()
+    {
+        resolver.initIncremental();
+        try {
+            resolver.addModule(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("module", ex.getMessage());
+        }
+    }
+    
+    public void testAddModule_ResolverIsNotInitialisedIncrementally() throws Exception
+    {
+        final Module module1 = module("foo");
+        resolver.init(Collections.singletonList(module1));
+        
+        try {
+            resolver.addModule(module1);
+            fail();
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("Resolver does not accept new modules.", ex.getMessage());
+        }
+    }
+    
+    public void testAddModule_InitIsComplete() throws Exception
+    {
+        final Module module1 = module("foo");
+        resolver.initIncremental();
+        resolver.completeInit(Collections.<Module>emptyList());
+        
+        try {
+            resolver.addModule(module1);
+            fail();
+        }
+        catch (IllegalStateException ex) {
+            assertEquals("Resolver does not accept new modules.", ex.getMessage());
+        }
+    }
+    
+    public void testAddModule_ResolverIsAborted() throws Exception
+    {
+        final Module module1 = module("foo");
+        resolver.initIncremental();
+        resolver.abort();
+        resolver.addModule(module1);
+        
+        assertNull(resolver.getFreeModule());
+    }
+    
+    public void testCompleteInit_NullRootModules()
+    {
+        resolver.initIncremental();
+        try {
+            resolver.completeInit(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("rootModules", ex.getMessage());
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            fail();
+        }
+    }
+    
+    private static Module module(final String path, final Module... dependencies)
+    {
+        final Module result = new Module(path);
+        result.setDependencies(dependencies);
+        return result;
+    }
+    
+    private static void waitUntilBlocked(final Thread t) throws InterruptedException
+    {
+        while (t.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
+}
@@ -23,11 +23,14 @@
 package afc.ant.modular;
 
 import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Queue;
 import java.util.Random;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.CyclicBarrier;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.AssertionFailedError;
@@ -117,6 +120,98 @@ public class ParallelDependencyResolver_ParalleUseTest extends TestCase
         }
     }
     
+    /**
+     * <p>Many threads process many small modules. Most of the time many modules are free
+     * so that the threads compete with each other for acquiring and releasing them.</p>
+     */
+    public void testManyModulesAndThreads_StressTest() throws Exception
+    {
+        final int layerCount = 20;
+        final int layerSize = 500;
+        final ArrayList<Module> modules = new ArrayList<Module>(layerCount * layerSize);
+        
+        // Each module depends upon a few modules of the previous layer.
+        final Random rand = new Random(25);
+        for (int i = 0; i < layerCount; ++i) {
+            for (int j = 0; j < layerSize; ++j) {
+                final Module m = new Module("does_not_matter");
+                final ArrayList<Module> deps = new ArrayList<Module>();
+                if (i > 0) {
+                    for (int k = 0, n = rand.nextInt(4); k < n; ++k) {
+                        final Module dep = modules.get((i - 1) * layerSize + rand.nextInt(layerSize));
+                        if (!deps.contains(dep)) {
+                            deps.add(dep);
+                        }
+                    }
+                }
+                m.setDependencies(deps.toArray(new Module[deps.size()]));
+                modules.add(m);
+            }
+        }
+        
+        resolver.init(modules);
+        
+        final Queue<Module> order = executeConcurrently(resolver, 64);
+        
+        assertNotNull(order);
+        final ArrayList<Module> list = new ArrayList<Module>(order);
+        assertEquals(modules.size(), list.size());
+        assertEquals(modules.size(), new HashSet<Module>(list).size());
+        
+        final IdentityHashMap<Module, Integer> positions = new IdentityHashMap<Module, Integer>();
+        for (int i = 0, n = list.size(); i < n; ++i) {
+            positions.put(list.get(i), i);
+        }
+        for (int i = 0, n = list.size(); i < n; ++i) {
+            for (final Module dep : list.get(i).dependencies) {
+                assertTrue(positions.get(dep) < i);
+            }
+        }
+    }
+    
+    /**
+     * <p>The resolver is aborted while many threads are waiting for a free module.
+     * All of them must finish.</p>
+     */
+    public void testManyThreads_AbortWhileWaiting() throws Exception
+    {
+        final Module dep = new Module("dep");
+        dep.setDependencies(new Module[0]);
+        final ArrayList<Module> modules = new ArrayList<Module>();
+        for (int i = 0; i < 10; ++i) {
+            final Module m = new Module("does_not_matter");
+            m.setDependencies(new Module[]{dep});
+            modules.add(m);
+        }
+        
+        resolver.init(modules);
+        assertSame(dep, resolver.getFreeModule());
+        
+        final int threadCount = 32;
+        final Thread[] threads = new Thread[threadCount];
+        final AtomicInteger nullCount = new AtomicInteger();
+        for (int i = 0; i < threadCount; ++i) {
+            final Thread t = new Thread() {
+                @Override
+                public void run()
+                {
+                    if (resolver.getFreeModule() == null) {
+                        nullCount.incrementAndGet();
+                    }
+                }
+            };
+            threads[i] = t;
+            t.start();
+        }
+        
+        resolver.abort();
+        
+        for (int i = 0; i < threadCount; ++i) {
+            threads[i].join();
+        }
+        assertEquals(threadCount, nullCount.get());
+    }
+    
     private static Queue<Module> executeConcurrently(final ParallelDependencyResolver resolver, final int threadCount)
             throws Exception
     {
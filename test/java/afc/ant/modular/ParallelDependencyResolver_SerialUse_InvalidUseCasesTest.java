@@ -54,6 +54,17 @@ public class ParallelDependencyResolver_SerialUse_InvalidUseCasesTest extends Te
         }
     }
     
+    public void testNullGraph()
+    {
+        try {
+            resolver.initFromGraph(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("graph", ex.getMessage());
+        }
+    }
+    
     public void testNullModuleInTheRootModuleList() throws Exception
     {
         try {
@@ -239,14 +239,8 @@ public class ParallelDependencyResolver_SerialUse_PseudoParallelUseCasesTest ext
                     resolver.getFreeModule();
                     resolver.getFreeModule();
                     
-                    /* Ensures that the code below the barrier is executed before the code in the test thread.
-                     * This works because ParallelDependencyResolver#getFreeModule waits against the resolver
-                     * itself so that while it waits the resolver's monitor gets released.
-                     */
-                    synchronized (resolver) {
-                        b.await();
-                        resolver.getFreeModule(); // hangs up here
-                    }
+                    b.await();
+                    resolver.getFreeModule(); // hangs up here
                     fail();
                 }
                 catch (IllegalStateException ex) {
@@ -261,10 +255,9 @@ public class ParallelDependencyResolver_SerialUse_PseudoParallelUseCasesTest ext
         t.start();
         
         b.await();
-        // Ensures that the code within is executed after the code in the resolver thread.
-        synchronized (resolver) {
-            t.interrupt();
-        }
+        // Ensures that the code below is executed after the resolver thread starts waiting for a free module.
+        waitUntilBlocked(t);
+        t.interrupt();
         t.join();
         
         if (testFailureCause.get() != null) {
@@ -299,14 +292,8 @@ public class ParallelDependencyResolver_SerialUse_PseudoParallelUseCasesTest ext
                     
                     final Module m;
                     
-                    /* Ensures that the code below the barrier is executed before the code in the test thread.
-                     * This works because ParallelDependencyResolver#getFreeModule waits against the resolver
-                     * itself so that while it waits the resolver's monitor gets released.
-                     */
-                    synchronized (resolver) {
-                        b.await();
-                        m = resolver.getFreeModule(); // hangs up here
-                    }
+                    b.await();
+                    m = resolver.getFreeModule(); // hangs up here
                     
                     assertNull(m);
                     assertNull(resolver.getFreeModule());
@@ -320,10 +307,9 @@ public class ParallelDependencyResolver_SerialUse_PseudoParallelUseCasesTest ext
         t.start();
         
         b.await();
-        // Ensures that the code within is executed after the code in the resolver thread.
-        synchronized (resolver) {
-            resolver.abort();
-        }
+        // Ensures that the code below is executed after the resolver thread starts waiting for a free module.
+        waitUntilBlocked(t);
+        resolver.abort();
         t.join();
         
         if (testFailureCause.get() != null) {
@@ -337,4 +323,11 @@ public class ParallelDependencyResolver_SerialUse_PseudoParallelUseCasesTest ext
         result.setDependencies(new Module[0]);
         return result;
     }
+    
+    private static void waitUntilBlocked(final Thread t) throws InterruptedException
+    {
+        while (t.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+    }
 }
@@ -26,6 +26,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 import junit.framework.TestCase;
@@ -234,6 +235,86 @@ public class ParallelDependencyResolver_SerialUse_ValidUseCasesTest extends Test
         assertTrue(order.indexOf(module2) < order.indexOf(module3));
     }
     
+    public void testInitWithGraph() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        module1.setDependencies(new Module[]{module2, module3});
+        module2.setDependencies(new Module[]{module4});
+        module3.setDependencies(new Module[]{module4});
+        
+        final DependencyGraph graph = new DependencyGraph(Arrays.asList(module1));
+        resolver.initFromGraph(graph);
+        
+        final ArrayList<Module> order = flushModules(resolver, 4);
+        assertSame(module4, order.get(0));
+        assertSame(module1, order.get(3));
+    }
+    
+    public void testInitWithReverseGraph() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        module1.setDependencies(new Module[]{module2, module3});
+        module2.setDependencies(new Module[]{module4});
+        module3.setDependencies(new Module[]{module4});
+        
+        final DependencyGraph graph = new DependencyGraph(Arrays.asList(module1)).reverse();
+        resolver.initFromGraph(graph);
+        
+        // Each module is released after all modules that depend upon it are processed.
+        assertSame(module1, resolver.getFreeModule());
+        resolver.moduleProcessed(module1);
+        final Module free1 = resolver.getFreeModule();
+        final Module free2 = resolver.getFreeModule();
+        assertEquals(TestUtil.set(module2, module3), TestUtil.set(free1, free2));
+        resolver.moduleProcessed(free1);
+        resolver.moduleProcessed(free2);
+        assertSame(module4, resolver.getFreeModule());
+        resolver.moduleProcessed(module4);
+        assertSame(null, resolver.getFreeModule());
+    }
+    
+    /**
+     * <p>Test description: the same graph is used to initialise the resolver multiple times,
+     * including re-initialisation in the middle of module processing.</p>
+     */
+    public void testInitWithGraph_GraphReused() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module3});
+        
+        final DependencyGraph graph = new DependencyGraph(Arrays.asList(module1));
+        resolver.initFromGraph(graph);
+        
+        assertSame(module3, resolver.getFreeModule());
+        resolver.moduleProcessed(module3);
+        assertSame(module2, resolver.getFreeModule());
+        
+        resolver.initFromGraph(graph);
+        
+        assertEquals(Arrays.asList(module3, module2, module1), flushModules(resolver, 3));
+        assertEquals(Arrays.asList(module3, module2, module1), graph.getModules());
+        
+        resolver.initFromGraph(graph);
+        
+        assertEquals(Arrays.asList(module3, module2, module1), flushModules(resolver, 3));
+    }
+    
+    public void testInitWithGraph_EmptyGraph() throws Exception
+    {
+        resolver.initFromGraph(new DependencyGraph(Collections.<Module>emptyList()));
+        
+        assertSame(null, resolver.getFreeModule());
+    }
+    
     public void testLoop_TwoModules()
     {
         final Module module1 = module("foo");
@@ -353,12 +434,147 @@ public class ParallelDependencyResolver_SerialUse_ValidUseCasesTest extends Test
             fail();
         }
         catch (CyclicDependenciesDetectedException ex) {
-            assertTrue(ex.getMessage(), Pattern.matches("Cyclic dependencies detected: (?:" +
-                    Pattern.quote("[->foo->baz->]") + '|' +
-                    Pattern.quote("[->baz->foo->]") + '|' +
-                    Pattern.quote("[->bar->quux->]") + '|' +
-                    Pattern.quote("[->quux->bar->]") + ")\\.", ex.getMessage()));
+            assertEquals("Cyclic dependencies detected: [->foo->baz->], [->bar->quux->].", ex.getMessage());
+            assertEquals(2, ex.getLoops().size());
+            assertEquals(Arrays.asList(module1, module3), ex.getLoops().get(0));
+            assertEquals(Arrays.asList(module2, module4), ex.getLoops().get(1));
+            assertSame(ex.getLoops().get(0), ex.getLoop());
+        }
+    }
+    
+    public void testLoop_TwoLoopsWithCommonModule()
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module1, module3});
+        module3.setDependencies(new Module[]{module2});
+        
+        try {
+            resolver.init(Arrays.asList(module1));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            // The modules are mutually dependent so a single loop is reported.
+            assertEquals("Cyclic dependencies detected: [->foo->bar->].", ex.getMessage());
+            assertEquals(Collections.singletonList(Arrays.asList(module1, module2)), ex.getLoops());
+        }
+    }
+    
+    public void testLoop_ThreeLoops_WithDependentModulesAndIndependentModules()
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        final Module module5 = module("flux");
+        final Module module6 = module("fred");
+        final Module module7 = module("thud");
+        final Module module8 = module("waldo");
+        final Module module9 = module("plugh");
+        final Module module10 = module("xyzzy");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module3});
+        module3.setDependencies(new Module[]{module2, module4});
+        module4.setDependencies(new Module[]{module5});
+        module5.setDependencies(new Module[]{module6});
+        module6.setDependencies(new Module[]{module7});
+        module7.setDependencies(new Module[]{module5});
+        module9.setDependencies(new Module[]{module10, module8});
+        module10.setDependencies(new Module[]{module9});
+        
+        try {
+            resolver.init(Arrays.asList(module1, module8, module9));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            assertEquals("Cyclic dependencies detected: [->flux->fred->thud->], [->bar->baz->], " +
+                    "[->plugh->xyzzy->].", ex.getMessage());
+            assertEquals(Arrays.asList(Arrays.asList(module5, module6, module7),
+                    Arrays.asList(module2, module3), Arrays.asList(module9, module10)), ex.getLoops());
+        }
+    }
+    
+    public void testLoop_ShortestLoopIsReported()
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module3, module1});
+        module3.setDependencies(new Module[]{module4});
+        module4.setDependencies(new Module[]{module1});
+        
+        try {
+            resolver.init(Arrays.asList(module1));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            assertEquals("Cyclic dependencies detected: [->foo->bar->].", ex.getMessage());
+        }
+    }
+    
+    public void testLongLoop() throws Exception
+    {
+        final Module[] modules = chain(100000);
+        modules[modules.length - 1].setDependencies(new Module[]{modules[0]});
+        
+        final Throwable[] failure = new Throwable[1];
+        final CyclicDependenciesDetectedException[] result = new CyclicDependenciesDetectedException[1];
+        // A small stack makes sure that the dependencies are not resolved recursively.
+        final Thread t = new Thread(null, new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    resolver.init(Collections.singletonList(modules[0]));
+                }
+                catch (CyclicDependenciesDetectedException ex) {
+                    result[0] = ex;
+                }
+                catch (Throwable ex) {
+                    failure[0] = ex;
+                }
+            }
+        }, "resolver", 256 * 1024);
+        t.start();
+        t.join();
+        
+        assertNull(failure[0]);
+        assertNotNull(result[0]);
+        assertEquals(Collections.singletonList(Arrays.asList(modules)), result[0].getLoops());
+    }
+    
+    public void testDeepChainOfDependencies() throws Exception
+    {
+        final Module[] modules = chain(100000);
+        
+        final Throwable[] failure = new Throwable[1];
+        // A small stack makes sure that the dependencies are not resolved recursively.
+        final Thread t = new Thread(null, new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    resolver.init(Collections.singletonList(modules[0]));
+                }
+                catch (Throwable ex) {
+                    failure[0] = ex;
+                }
+            }
+        }, "resolver", 256 * 1024);
+        t.start();
+        t.join();
+        
+        assertNull(failure[0]);
+        for (int i = modules.length - 1; i >= 0; --i) {
+            final Module module = resolver.getFreeModule();
+            assertSame(modules[i], module);
+            resolver.moduleProcessed(module);
         }
+        assertSame(null, resolver.getFreeModule());
     }
     
     public void testNonRootModulesInDependencies_NoLoops() throws Exception
@@ -771,6 +987,223 @@ public class ParallelDependencyResolver_SerialUse_ValidUseCasesTest extends Test
         return result;
     }
     
+    public void testCriticalPathFirst_ChainAndIndependentModules() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        final Module module5 = module("xyzzy");
+        module2.setDependencies(new Module[]{module1});
+        module3.setDependencies(new Module[]{module2});
+        
+        resolver.init(Arrays.asList(module4, module5, module3), true);
+        
+        // The chain foo<-bar<-baz is the critical path.
+        assertSame(module1, resolver.getFreeModule());
+        resolver.moduleProcessed(module1);
+        assertSame(module2, resolver.getFreeModule());
+        final Module m3 = resolver.getFreeModule();
+        final Module m4 = resolver.getFreeModule();
+        assertEquals(TestUtil.set(module4, module5), TestUtil.set(m3, m4));
+        resolver.moduleProcessed(module2);
+        assertSame(module3, resolver.getFreeModule());
+        resolver.moduleProcessed(m3);
+        resolver.moduleProcessed(m4);
+        resolver.moduleProcessed(module3);
+        assertSame(null, resolver.getFreeModule());
+    }
+    
+    public void testCriticalPathFirst_LongestChainOfDependerModulesWins() throws Exception
+    {
+        /* foo and bar have no dependencies. foo has more direct dependers
+           but bar has a longer chain of dependers. */
+        final Module foo = module("foo");
+        final Module bar = module("bar");
+        final Module a1 = module("a1");
+        final Module a2 = module("a2");
+        final Module a3 = module("a3");
+        final Module b1 = module("b1");
+        final Module b2 = module("b2");
+        final Module b3 = module("b3");
+        final Module b4 = module("b4");
+        a1.setDependencies(new Module[]{foo});
+        a2.setDependencies(new Module[]{foo});
+        a3.setDependencies(new Module[]{foo});
+        b1.setDependencies(new Module[]{bar});
+        b2.setDependencies(new Module[]{b1});
+        b3.setDependencies(new Module[]{b2});
+        b4.setDependencies(new Module[]{b3, a1});
+        
+        resolver.init(Arrays.asList(a2, a3, b4), true);
+        
+        assertSame(bar, resolver.getFreeModule());
+        assertSame(foo, resolver.getFreeModule());
+        resolver.moduleProcessed(foo);
+        // a1 is on the path foo<-a1<-b4 which is longer than the paths via a2 and a3.
+        assertSame(a1, resolver.getFreeModule());
+        resolver.moduleProcessed(bar);
+        assertSame(b1, resolver.getFreeModule());
+    }
+    
+    public void testCriticalPathFirst_ModuleCosts() throws Exception
+    {
+        /* The chain a1<-a2<-a3 is longer than the chain b1<-b2 but
+           the latter is more expensive. */
+        final Module a1 = module("a1");
+        final Module a2 = module("a2");
+        final Module a3 = module("a3");
+        final Module b1 = module("b1");
+        final Module b2 = module("b2");
+        a2.setDependencies(new Module[]{a1});
+        a3.setDependencies(new Module[]{a2});
+        b2.setDependencies(new Module[]{b1});
+        
+        resolver.init(Arrays.asList(a3, b2), TestUtil.<String, Long>map(
+                "a1", 10L, "a2", 10L, "a3", 10L, "b1", 5L, "b2", 100L, "unknown", 1000L));
+        
+        assertSame(b1, resolver.getFreeModule());
+        assertSame(a1, resolver.getFreeModule());
+        resolver.moduleProcessed(a1);
+        resolver.moduleProcessed(b1);
+        assertSame(b2, resolver.getFreeModule());
+        assertSame(a2, resolver.getFreeModule());
+    }
+    
+    public void testCriticalPathFirst_ModuleCosts_UnknownModulesHaveAverageCost() throws Exception
+    {
+        /* c1 and c2 are unknown so they cost 20 each (the average of 10 and 30).
+           The chain c1<-c2 costs 40 which is more than 30 of b1. */
+        final Module a1 = module("a1");
+        final Module b1 = module("b1");
+        final Module c1 = module("c1");
+        final Module c2 = module("c2");
+        c2.setDependencies(new Module[]{c1});
+        
+        resolver.init(Arrays.asList(a1, b1, c2), TestUtil.<String, Long>map("a1", 10L, "b1", 30L));
+        
+        assertSame(c1, resolver.getFreeModule());
+        assertSame(b1, resolver.getFreeModule());
+        assertSame(a1, resolver.getFreeModule());
+    }
+    
+    public void testCriticalPathFirst_NullModuleCosts() throws Exception
+    {
+        try {
+            resolver.init(Arrays.asList(module("foo")), (Map<String, Long>) null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("moduleCosts", ex.getMessage());
+        }
+    }
+    
+    public void testCriticalPathFirst_NoModules() throws Exception
+    {
+        resolver.init(Collections.<Module>emptyList(), true);
+        
+        assertSame(null, resolver.getFreeModule());
+    }
+    
+    public void testCriticalPathFirst_Graph() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        module2.setDependencies(new Module[]{module1});
+        module3.setDependencies(new Module[]{module2});
+        
+        final DependencyGraph graph = new DependencyGraph(Arrays.asList(module4, module3));
+        resolver.initFromGraph(graph, true);
+        
+        // The chain foo<-bar<-baz is the critical path.
+        assertSame(module1, resolver.getFreeModule());
+        assertSame(module4, resolver.getFreeModule());
+        
+        // The same graph with module costs: quux is more expensive than the chain.
+        resolver.initFromGraph(graph, TestUtil.<String, Long>map("foo", 1L, "bar", 1L, "baz", 1L, "quux", 10L));
+        
+        assertSame(module4, resolver.getFreeModule());
+        assertSame(module1, resolver.getFreeModule());
+    }
+    
+    public void testCriticalPathFirst_ReverseGraph() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        module2.setDependencies(new Module[]{module1});
+        module3.setDependencies(new Module[]{module2});
+        
+        final DependencyGraph graph = new DependencyGraph(Arrays.asList(module4, module3)).reverse();
+        resolver.initFromGraph(graph, true);
+        
+        // The chain baz<-bar<-foo is the critical path in the reverse graph.
+        assertSame(module3, resolver.getFreeModule());
+        assertSame(module4, resolver.getFreeModule());
+    }
+    
+    public void testCriticalPathFirst_Graph_NullModuleCosts() throws Exception
+    {
+        try {
+            resolver.initFromGraph(new DependencyGraph(Arrays.asList(module("foo"))), null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("moduleCosts", ex.getMessage());
+        }
+    }
+    
+    public void testModuleReadyListener() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        module3.setDependencies(new Module[]{module1, module2});
+        final ArrayList<Module> readyModules = new ArrayList<Module>();
+        
+        resolver.setModuleReadyListener(new ParallelDependencyResolver.ModuleReadyListener()
+        {
+            public void moduleReady(final Module module)
+            {
+                readyModules.add(module);
+            }
+        });
+        resolver.init(Arrays.asList(module3));
+        
+        assertEquals(TestUtil.set(module1, module2), new HashSet<Module>(readyModules));
+        assertEquals(2, readyModules.size());
+        readyModules.clear();
+        
+        final Module m1 = resolver.getFreeModule();
+        final Module m2 = resolver.getFreeModule();
+        resolver.moduleProcessed(m1);
+        assertEquals(Collections.emptyList(), readyModules);
+        resolver.moduleProcessed(m2);
+        // The module is reported before it is acquired.
+        assertEquals(Arrays.asList(module3), readyModules);
+        
+        assertSame(module3, resolver.getFreeModule());
+        resolver.moduleProcessed(module3);
+        assertNull(resolver.getFreeModule());
+        assertEquals(1, readyModules.size());
+    }
+    
+    // Each module depends upon the next one.
+    private Module[] chain(final int length)
+    {
+        final Module[] modules = new Module[length];
+        for (int i = 0; i < length; ++i) {
+            modules[i] = module("m" + i);
+        }
+        for (int i = 0; i < length - 1; ++i) {
+            modules[i].setDependencies(new Module[]{modules[i + 1]});
+        }
+        return modules;
+    }
+    
     private Module module(final String path)
     {
         final Module result = new Module(path);
@@ -54,6 +54,17 @@ public class SerialDependencyResolver_InvalidUseCasesTest extends TestCase
         }
     }
     
+    public void testNullGraph()
+    {
+        try {
+            resolver.initFromGraph(null);
+            fail();
+        }
+        catch (NullPointerException ex) {
+            assertEquals("graph", ex.getMessage());
+        }
+    }
+    
     public void testNullModuleInTheRootModuleList() throws Exception
     {
         try {
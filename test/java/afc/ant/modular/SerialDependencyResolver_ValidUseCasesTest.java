@@ -234,6 +234,79 @@ public class SerialDependencyResolver_ValidUseCasesTest extends TestCase
         assertTrue(order.indexOf(module2) < order.indexOf(module3));
     }
     
+    public void testInitWithGraph() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        module1.setDependencies(new Module[]{module2, module3});
+        module2.setDependencies(new Module[]{module4});
+        module3.setDependencies(new Module[]{module4});
+        
+        final DependencyGraph graph = new DependencyGraph(Arrays.asList(module1));
+        resolver.initFromGraph(graph);
+        
+        final ArrayList<Module> order = flushModules(resolver, 4);
+        assertSame(module4, order.get(0));
+        assertSame(module1, order.get(3));
+    }
+    
+    public void testInitWithReverseGraph() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        module1.setDependencies(new Module[]{module2, module3});
+        module2.setDependencies(new Module[]{module4});
+        module3.setDependencies(new Module[]{module4});
+        
+        final DependencyGraph graph = new DependencyGraph(Arrays.asList(module1)).reverse();
+        resolver.initFromGraph(graph);
+        
+        // Each module is released after all modules that depend upon it are processed.
+        final ArrayList<Module> order = flushModules(resolver, 4);
+        assertSame(module1, order.get(0));
+        assertSame(module4, order.get(3));
+    }
+    
+    /**
+     * <p>Test description: the same graph is used to initialise the resolver multiple times,
+     * including re-initialisation in the middle of module processing.</p>
+     */
+    public void testInitWithGraph_GraphReused() throws Exception
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module3});
+        
+        final DependencyGraph graph = new DependencyGraph(Arrays.asList(module1));
+        resolver.initFromGraph(graph);
+        
+        assertSame(module3, resolver.getFreeModule());
+        resolver.moduleProcessed(module3);
+        assertSame(module2, resolver.getFreeModule());
+        
+        resolver.initFromGraph(graph);
+        
+        assertEquals(Arrays.asList(module3, module2, module1), flushModules(resolver, 3));
+        assertEquals(Arrays.asList(module3, module2, module1), graph.getModules());
+        
+        resolver.initFromGraph(graph);
+        
+        assertEquals(Arrays.asList(module3, module2, module1), flushModules(resolver, 3));
+    }
+    
+    public void testInitWithGraph_EmptyGraph() throws Exception
+    {
+        resolver.initFromGraph(new DependencyGraph(Collections.<Module>emptyList()));
+        
+        assertSame(null, resolver.getFreeModule());
+    }
+    
     public void testLoop_TwoModules()
     {
         final Module module1 = module("foo");
@@ -353,14 +426,149 @@ public class SerialDependencyResolver_ValidUseCasesTest extends TestCase
             fail();
         }
         catch (CyclicDependenciesDetectedException ex) {
-            assertTrue(ex.getMessage(), Pattern.matches("Cyclic dependencies detected: (?:" +
-                    Pattern.quote("[->foo->baz->]") + '|' +
-                    Pattern.quote("[->baz->foo->]") + '|' +
-                    Pattern.quote("[->bar->quux->]") + '|' +
-                    Pattern.quote("[->quux->bar->]") + ")\\.", ex.getMessage()));
+            assertEquals("Cyclic dependencies detected: [->foo->baz->], [->bar->quux->].", ex.getMessage());
+            assertEquals(2, ex.getLoops().size());
+            assertEquals(Arrays.asList(module1, module3), ex.getLoops().get(0));
+            assertEquals(Arrays.asList(module2, module4), ex.getLoops().get(1));
+            assertSame(ex.getLoops().get(0), ex.getLoop());
+        }
+    }
+    
+    public void testLoop_TwoLoopsWithCommonModule()
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module1, module3});
+        module3.setDependencies(new Module[]{module2});
+        
+        try {
+            resolver.init(Arrays.asList(module1));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            // The modules are mutually dependent so a single loop is reported.
+            assertEquals("Cyclic dependencies detected: [->foo->bar->].", ex.getMessage());
+            assertEquals(Collections.singletonList(Arrays.asList(module1, module2)), ex.getLoops());
+        }
+    }
+    
+    public void testLoop_ThreeLoops_WithDependentModulesAndIndependentModules()
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        final Module module5 = module("flux");
+        final Module module6 = module("fred");
+        final Module module7 = module("thud");
+        final Module module8 = module("waldo");
+        final Module module9 = module("plugh");
+        final Module module10 = module("xyzzy");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module3});
+        module3.setDependencies(new Module[]{module2, module4});
+        module4.setDependencies(new Module[]{module5});
+        module5.setDependencies(new Module[]{module6});
+        module6.setDependencies(new Module[]{module7});
+        module7.setDependencies(new Module[]{module5});
+        module9.setDependencies(new Module[]{module10, module8});
+        module10.setDependencies(new Module[]{module9});
+        
+        try {
+            resolver.init(Arrays.asList(module1, module8, module9));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            assertEquals("Cyclic dependencies detected: [->flux->fred->thud->], [->bar->baz->], " +
+                    "[->plugh->xyzzy->].", ex.getMessage());
+            assertEquals(Arrays.asList(Arrays.asList(module5, module6, module7),
+                    Arrays.asList(module2, module3), Arrays.asList(module9, module10)), ex.getLoops());
         }
     }
     
+    public void testLoop_ShortestLoopIsReported()
+    {
+        final Module module1 = module("foo");
+        final Module module2 = module("bar");
+        final Module module3 = module("baz");
+        final Module module4 = module("quux");
+        module1.setDependencies(new Module[]{module2});
+        module2.setDependencies(new Module[]{module3, module1});
+        module3.setDependencies(new Module[]{module4});
+        module4.setDependencies(new Module[]{module1});
+        
+        try {
+            resolver.init(Arrays.asList(module1));
+            fail();
+        }
+        catch (CyclicDependenciesDetectedException ex) {
+            assertEquals("Cyclic dependencies detected: [->foo->bar->].", ex.getMessage());
+        }
+    }
+    
+    public void testLongLoop() throws Exception
+    {
+        final Module[] modules = chain(100000);
+        modules[modules.length - 1].setDependencies(new Module[]{modules[0]});
+        
+        final Throwable[] failure = new Throwable[1];
+        final CyclicDependenciesDetectedException[] result = new CyclicDependenciesDetectedException[1];
+        // A small stack makes sure that the dependencies are not resolved recursively.
+        final Thread t = new Thread(null, new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    resolver.init(Collections.singletonList(modules[0]));
+                }
+                catch (CyclicDependenciesDetectedException ex) {
+                    result[0] = ex;
+                }
+                catch (Throwable ex) {
+                    failure[0] = ex;
+                }
+            }
+        }, "resolver", 256 * 1024);
+        t.start();
+        t.join();
+        
+        assertNull(failure[0]);
+        assertNotNull(result[0]);
+        assertEquals(Collections.singletonList(Arrays.asList(modules)), result[0].getLoops());
+    }
+    
+    public void testDeepChainOfDependencies() throws Exception
+    {
+        final Module[] modules = chain(100000);
+        
+        final Throwable[] failure = new Throwable[1];
+        // A small stack makes sure that the dependencies are not resolved recursively.
+        final Thread t = new Thread(null, new Runnable()
+        {
+            public void run()
+            {
+                try {
+                    resolver.init(Collections.singletonList(modules[0]));
+                }
+                catch (Throwable ex) {
+                    failure[0] = ex;
+                }
+            }
+        }, "resolver", 256 * 1024);
+        t.start();
+        t.join();
+        
+        assertNull(failure[0]);
+        for (int i = modules.length - 1; i >= 0; --i) {
+            final Module module = resolver.getFreeModule();
+            assertSame(modules[i], module);
+            resolver.moduleProcessed(module);
+        }
+        assertSame(null, resolver.getFreeModule());
+    }
+    
     public void testNonRootModulesInDependencies_NoLoops() throws Exception
     {
         final Module module1 = module("foo");
@@ -771,6 +979,19 @@ public class SerialDependencyResolver_ValidUseCasesTest extends TestCase
         return result;
     }
     
+    // Each module depends upon the next one.
+    private Module[] chain(final int length)
+    {
+        final Module[] modules = new Module[length];
+        for (int i = 0; i < length; ++i) {
+            modules[i] = module("m" + i);
+        }
+        for (int i = 0; i < length - 1; ++i) {
+            modules[i].setDependencies(new Module[]{modules[i + 1]});
+        }
+        return modules;
+    }
+    
     private Module module(final String path)
     {
         final Module result = new Module(path);
@@ -22,6 +22,14 @@
    SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE. */
 package afc.ant.modular;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
@@ -150,4 +158,64 @@ public class TestUtil
         Assert.assertTrue(module instanceof Module);
         return ((Module) module).getPath();
     }
+    
+    // Creates a module with a given path and no dependencies.
+    public static Module module(final String path)
+    {
+        final Module result = new Module(path);
+        result.setDependencies(new Module[0]);
+        return result;
+    }
+    
+    // Creates an empty temporary directory. It is to be deleted by the caller.
+    public static File createTempDir(final String prefix) throws IOException
+    {
+        final File dir = File.createTempFile(prefix, "");
+        Assert.assertTrue(dir.delete());
+        Assert.assertTrue(dir.mkdir());
+        return dir;
+    }
+    
+    // Writes a given string to a given file in UTF-8. The parent directories are created if needed.
+    public static void writeFile(final File file, final String content) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        final Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            out.write(content);
+        }
+        finally {
+            out.close();
+        }
+    }
+    
+    // Reads the content of a given file in UTF-8.
+    public static String readFile(final File file) throws IOException
+    {
+        final Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            final StringBuilder buf = new StringBuilder();
+            final char[] chars = new char[1024];
+            int n;
+            while ((n = in.read(chars)) != -1) {
+                buf.append(chars, 0, n);
+            }
+            return buf.toString();
+        }
+        finally {
+            in.close();
+        }
+    }
+    
+    // Deletes a given file or directory recursively. Errors are ignored.
+    public static void delete(final File file)
+    {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
 }